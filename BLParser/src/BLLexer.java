@@ -0,0 +1,750 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import components.queue.Queue;
+import components.simplereader.SimpleReader;
+import components.statement.StatementKernel.Condition;
+import components.utilities.Reporter;
+import components.utilities.Tokenizer;
+
+/**
+ * Pull lexer for BL: produces the tokens {@code Tokenizer.tokens} would, one
+ * at a time as the parser asks for them, instead of reading the whole source
+ * into a {@code Queue<String>} first. The source is read through a fixed-size
+ * {@code CharBuffer} window, filled from a {@code ReadableByteChannel} or a
+ * line at a time from a {@code SimpleReader}, so the memory used does not
+ * grow with the length of the source.
+ * <p>
+ * Every distinct token text is a single {@code String}, interned in a table
+ * of the lexer, and keywords are also reported as {@code Keyword} constants,
+ * so the parser compares tokens without comparing strings and no string is
+ * allocated for a token seen before.
+ * <p>
+ * A lexer can also read an existing token queue, dequeuing from it only as
+ * tokens are consumed, so the same parser serves {@code parse(Queue)}, or a
+ * range of an array of tokens, so parts of a program can be parsed apart.
+ */
+public final class BLLexer {
+
+    /**
+     * BL keywords.
+     */
+    public enum Keyword {
+        PROGRAM, IS, BEGIN, END, INSTRUCTION, IF, THEN, ELSE, WHILE, DO
+    }
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Kinds of tokens.
+     */
+    private enum Kind {
+        KEYWORD, CONDITION, IDENTIFIER, ERROR, END_OF_INPUT
+    }
+
+    /**
+     * Size of the source window, in chars.
+     */
+    private static final int WINDOW_SIZE = 1 << 13;
+
+    /**
+     * Initial capacity of the intern table; a power of 2.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Initial capacity of the token text buffer.
+     */
+    private static final int INITIAL_TOKEN_LENGTH = 32;
+
+    /**
+     * The end of a line read from a {@code SimpleReader}.
+     */
+    private static final String LINE_END = "\n";
+
+    /**
+     * The token queue read, or null if reading a source.
+     */
+    private final Queue<String> queue;
+
+    /**
+     * The token array read, or null.
+     */
+    private final String[] array;
+
+    /**
+     * Index in {@code array} of the front token.
+     */
+    private int next;
+
+    /**
+     * End of the tokens read in {@code array}.
+     */
+    private int end;
+
+    /**
+     * The channel read, or null.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The reader read, or null.
+     */
+    private final SimpleReader reader;
+
+    /**
+     * Decoder of the bytes read from {@code channel}.
+     */
+    private CharsetDecoder decoder;
+
+    /**
+     * Bytes read from {@code channel} not yet decoded.
+     */
+    private ByteBuffer bytes;
+
+    /**
+     * Whether {@code channel} is at its end.
+     */
+    private boolean endOfBytes;
+
+    /**
+     * Whether the last chars have been decoded from {@code channel}.
+     */
+    private boolean endOfChars;
+
+    /**
+     * Whether the chars in the window are the end of a line from
+     * {@code reader}.
+     */
+    private boolean atLineEnd;
+
+    /**
+     * The source window: the chars read and not yet scanned.
+     */
+    private CharBuffer window;
+
+    /**
+     * Text of the token being scanned.
+     */
+    private char[] token;
+
+    /**
+     * Intern table: the text of every distinct token, by hash, or null.
+     */
+    private String[] texts;
+
+    /**
+     * Intern table: the kind of each text.
+     */
+    private Kind[] kinds;
+
+    /**
+     * Intern table: the keyword of each text, or null.
+     */
+    private Keyword[] keywords;
+
+    /**
+     * Number of texts in the intern table.
+     */
+    private int size;
+
+    /**
+     * Whether the front token has been scanned.
+     */
+    private boolean scanned;
+
+    /**
+     * Text of the front token.
+     */
+    private String frontText;
+
+    /**
+     * Kind of the front token.
+     */
+    private Kind frontKind;
+
+    /**
+     * Keyword of the front token, or null.
+     */
+    private Keyword frontKeyword;
+
+    /**
+     * Whether the end of input token has been dequeued.
+     */
+    private boolean exhausted;
+
+    /**
+     * Offset of the front token in the source, if it is a CharSequence.
+     */
+    private int frontStart;
+
+    /**
+     * Offset of the end of the front token in the source, if it is a
+     * CharSequence.
+     */
+    private int frontEnd;
+
+    /**
+     * Offset of the end of the last token dequeued in the source, if it is a
+     * CharSequence.
+     */
+    private int lastEnd;
+
+    /**
+     * Reports whether {@code c} is part of a word: an identifier, keyword, or
+     * condition, or an error made of the same characters.
+     *
+     * @param c
+     *            the character
+     * @return true iff c is a letter, a digit, or '-'
+     */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-';
+    }
+
+    /**
+     * Returns the hash of {@code n} chars of {@code text}, equal to the
+     * {@code hashCode} of the {@code String} of them.
+     *
+     * @param text
+     *            the chars
+     * @param n
+     *            the number of chars
+     * @return the hash
+     */
+    private static int hash(char[] text, int n) {
+        int h = 0;
+        for (int i = 0; i < n; i++) {
+            h = 31 * h + text[i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns the slot of the intern table for {@code h}.
+     *
+     * @param h
+     *            the hash of a text
+     * @return the first slot to probe
+     */
+    private int slot(int h) {
+        return (h ^ (h >>> 16)) & (this.texts.length - 1);
+    }
+
+    /**
+     * Adds {@code text} to the intern table.
+     *
+     * @param text
+     *            the text
+     * @param kind
+     *            its kind
+     * @param keyword
+     *            its keyword, or null
+     * @return the slot of text
+     * @requires [text is not in the intern table]
+     */
+    private int add(String text, Kind kind, Keyword keyword) {
+        if (2 * (this.size + 1) > this.texts.length) {
+            String[] oldTexts = this.texts;
+            Kind[] oldKinds = this.kinds;
+            Keyword[] oldKeywords = this.keywords;
+            this.texts = new String[2 * oldTexts.length];
+            this.kinds = new Kind[this.texts.length];
+            this.keywords = new Keyword[this.texts.length];
+            this.size = 0;
+            for (int i = 0; i < oldTexts.length; i++) {
+                if (oldTexts[i] != null) {
+                    this.add(oldTexts[i], oldKinds[i], oldKeywords[i]);
+                }
+            }
+        }
+        int i = this.slot(text.hashCode());
+        while (this.texts[i] != null) {
+            i = (i + 1) & (this.texts.length - 1);
+        }
+        this.texts[i] = text;
+        this.kinds[i] = kind;
+        this.keywords[i] = keyword;
+        this.size++;
+        return i;
+    }
+
+    /**
+     * Returns the slot of the intern table holding the {@code n} chars of
+     * {@code token}, adding them if they are new.
+     *
+     * @param n
+     *            the length of the token
+     * @return the slot of the token
+     */
+    private int intern(int n) {
+        int i = this.slot(hash(this.token, n));
+        boolean found = false;
+        while (!found && this.texts[i] != null) {
+            String t = this.texts[i];
+            found = t.length() == n;
+            int k = 0;
+            while (found && k < n) {
+                found = t.charAt(k) == this.token[k];
+                k++;
+            }
+            if (!found) {
+                i = (i + 1) & (this.texts.length - 1);
+            }
+        }
+        if (!found) {
+            Kind kind = Kind.ERROR;
+            if (Character.isLetter(this.token[0])
+                    && isWordChar(this.token[n - 1])) {
+                kind = Kind.IDENTIFIER;
+                int k = 1;
+                while (kind == Kind.IDENTIFIER && k < n) {
+                    if (!isWordChar(this.token[k])) {
+                        kind = Kind.ERROR;
+                    }
+                    k++;
+                }
+            }
+            i = this.add(new String(this.token, 0, n), kind, null);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the slot of the intern table holding {@code text}.
+     *
+     * @param text
+     *            the text
+     * @return the slot of text, or -1 if it is not in the table
+     */
+    private int lookUp(String text) {
+        int i = this.slot(text.hashCode());
+        while (this.texts[i] != null && !this.texts[i].equals(text)) {
+            i = (i + 1) & (this.texts.length - 1);
+        }
+        int result = -1;
+        if (this.texts[i] != null) {
+            result = i;
+        }
+        return result;
+    }
+
+    /**
+     * Refills the window from {@code channel}.
+     *
+     * @return true iff the window has chars
+     */
+    private boolean refillFromChannel() {
+        this.window.clear();
+        while (this.window.position() == 0 && !this.endOfChars) {
+            this.decoder.decode(this.bytes, this.window, this.endOfBytes);
+            if (this.window.position() == 0 && this.endOfBytes) {
+                this.decoder.flush(this.window);
+                this.endOfChars = true;
+            } else if (this.window.position() == 0) {
+                this.bytes.compact();
+                try {
+                    this.endOfBytes = this.channel.read(this.bytes) < 0;
+                } catch (IOException e) {
+                    Reporter.fatalErrorToConsole(
+                            "ERROR: Cannot read BL source: " + e.getMessage());
+                }
+                this.bytes.flip();
+            }
+        }
+        this.window.flip();
+        return this.window.hasRemaining();
+    }
+
+    /**
+     * Refills the window from {@code reader}: with the next line, or with the
+     * end of the line just scanned.
+     *
+     * @return true iff the window has chars
+     */
+    private boolean refillFromReader() {
+        if (!this.atLineEnd) {
+            this.window = CharBuffer.wrap(LINE_END);
+            this.atLineEnd = true;
+        } else if (!this.reader.atEOS()) {
+            this.window = CharBuffer.wrap(this.reader.nextLine());
+            this.atLineEnd = false;
+        }
+        return this.window.hasRemaining();
+    }
+
+    /**
+     * Reports whether there is a char to scan, refilling the window if it is
+     * empty.
+     *
+     * @return true iff the source has a char not yet scanned
+     */
+    private boolean hasChar() {
+        boolean result = this.window.hasRemaining();
+        while (!result && (this.channel != null && !this.endOfChars
+                || this.reader != null
+                        && (!this.atLineEnd || !this.reader.atEOS()))) {
+            if (this.channel != null) {
+                result = this.refillFromChannel();
+            } else {
+                result = this.refillFromReader();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the next char to scan, without scanning it.
+     *
+     * @return the next char
+     * @requires hasChar()
+     */
+    private char peek() {
+        return this.window.get(this.window.position());
+    }
+
+    /**
+     * Scans the front token, if not scanned yet.
+     */
+    private void scan() {
+        if (!this.scanned) {
+            int i;
+            if (this.queue != null || this.array != null) {
+                if (this.queue != null) {
+                    this.frontText = this.queue.front();
+                } else {
+                    this.frontText = this.array[this.next];
+                }
+                i = this.lookUp(this.frontText);
+                this.frontKind = Kind.ERROR;
+                if (this.frontText.equals(Tokenizer.END_OF_INPUT)) {
+                    this.frontKind = Kind.END_OF_INPUT;
+                } else if (i >= 0) {
+                    this.frontKind = this.kinds[i];
+                } else if (Tokenizer.isIdentifier(this.frontText)) {
+                    this.frontKind = Kind.IDENTIFIER;
+                }
+                this.frontKeyword = null;
+                if (i >= 0) {
+                    this.frontKeyword = this.keywords[i];
+                }
+            } else {
+                boolean more = this.hasChar();
+                while (more && Character.isWhitespace(this.peek())) {
+                    this.window.get();
+                    more = this.hasChar();
+                }
+                this.frontStart = this.window.position();
+                if (more) {
+                    boolean word = isWordChar(this.peek());
+                    int n = 0;
+                    do {
+                        if (n == this.token.length) {
+                            this.token = Arrays.copyOf(this.token, 2 * n);
+                        }
+                        this.token[n] = this.window.get();
+                        n++;
+                        more = this.hasChar();
+                    } while (more && isWordChar(this.peek()) == word
+                            && !Character.isWhitespace(this.peek()));
+                    i = this.intern(n);
+                    this.frontEnd = this.window.position();
+                    this.frontText = this.texts[i];
+                    this.frontKind = this.kinds[i];
+                    this.frontKeyword = this.keywords[i];
+                } else {
+                    this.frontEnd = this.frontStart;
+                    this.frontText = Tokenizer.END_OF_INPUT;
+                    this.frontKind = Kind.END_OF_INPUT;
+                    this.frontKeyword = null;
+                }
+            }
+            this.scanned = true;
+        }
+    }
+
+    /**
+     * Sets up the intern table with the keywords and conditions.
+     */
+    private void createTable() {
+        this.texts = new String[INITIAL_CAPACITY];
+        this.kinds = new Kind[INITIAL_CAPACITY];
+        this.keywords = new Keyword[INITIAL_CAPACITY];
+        for (Keyword k : Keyword.values()) {
+            this.add(k.name(), Kind.KEYWORD, k);
+        }
+        for (Condition c : Condition.values()) {
+            this.add(c.name().replace('_', '-').toLowerCase(), Kind.CONDITION,
+                    null);
+        }
+        this.token = new char[INITIAL_TOKEN_LENGTH];
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor of a lexer of the UTF-8 source read from {@code in}.
+     *
+     * @param in
+     *            the source
+     * @ensures [this produces the tokens of the source in, then
+     *          Tokenizer.END_OF_INPUT]
+     */
+    public BLLexer(ReadableByteChannel in) {
+        assert in != null : "Violation of: in is not null";
+
+        this.queue = null;
+        this.array = null;
+        this.reader = null;
+        this.channel = in;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(WINDOW_SIZE);
+        this.bytes.flip();
+        this.window = CharBuffer.allocate(WINDOW_SIZE);
+        this.window.flip();
+        this.createTable();
+    }
+
+    /**
+     * Constructor of a lexer of the source read from {@code in}.
+     *
+     * @param in
+     *            the source
+     * @requires in.is_open
+     * @ensures [this produces the tokens of the rest of in.content, then
+     *          Tokenizer.END_OF_INPUT]
+     */
+    public BLLexer(SimpleReader in) {
+        assert in != null : "Violation of: in is not null";
+        assert in.isOpen() : "Violation of: in.is_open";
+
+        this.queue = null;
+        this.array = null;
+        this.channel = null;
+        this.reader = in;
+        this.atLineEnd = true;
+        this.window = CharBuffer.wrap("");
+        this.createTable();
+    }
+
+    /**
+     * Constructor of a lexer of the tokens in {@code tokens}, dequeued from
+     * it only as they are consumed.
+     *
+     * @param tokens
+     *            the tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures [this produces the tokens of tokens]
+     */
+    public BLLexer(Queue<String> tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+
+        this.queue = tokens;
+        this.array = null;
+        this.channel = null;
+        this.reader = null;
+        this.createTable();
+    }
+
+    /**
+     * Constructor of a lexer of the source {@code source[from, to)}, read in
+     * place. The source must not change while the lexer is used.
+     *
+     * @param source
+     *            the source
+     * @param from
+     *            the offset of the first char
+     * @param to
+     *            the offset after the last char
+     * @requires 0 <= from <= to <= |source|
+     * @ensures [this produces the tokens of source[from, to), then
+     *          Tokenizer.END_OF_INPUT]
+     */
+    BLLexer(CharSequence source, int from, int to) {
+        assert source != null : "Violation of: source is not null";
+        assert 0 <= from : "Violation of: 0 <= from";
+        assert from <= to : "Violation of: from <= to";
+        assert to <= source.length() : "Violation of: to <= |source|";
+
+        this.queue = null;
+        this.array = null;
+        this.channel = null;
+        this.reader = null;
+        this.window = CharBuffer.wrap(source, from, to);
+        this.createTable();
+    }
+
+    /**
+     * Constructor of a lexer of the tokens in {@code tokens[from, to)}.
+     *
+     * @param tokens
+     *            the tokens
+     * @param from
+     *            the index of the first token
+     * @param to
+     *            the index after the last token
+     * @requires 0 <= from <= to <= |tokens|
+     * @ensures [this produces the tokens of tokens[from, to)]
+     */
+    BLLexer(String[] tokens, int from, int to) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert 0 <= from : "Violation of: 0 <= from";
+        assert from <= to : "Violation of: from <= to";
+        assert to <= tokens.length : "Violation of: to <= |tokens|";
+
+        this.queue = null;
+        this.array = tokens;
+        this.next = from;
+        this.end = to;
+        this.channel = null;
+        this.reader = null;
+        this.createTable();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports whether there are tokens left, i.e., whether the end of input
+     * token has not been dequeued yet.
+     *
+     * @return true iff there is a front token
+     */
+    public boolean hasToken() {
+        boolean result;
+        if (this.queue != null) {
+            result = this.queue.length() > 0;
+        } else if (this.array != null) {
+            result = this.next < this.end;
+        } else {
+            result = !this.exhausted;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the front token.
+     *
+     * @return the text of the front token
+     * @requires hasToken
+     */
+    public String front() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        return this.frontText;
+    }
+
+    /**
+     * Returns the keyword the front token is.
+     *
+     * @return the keyword, or null if the front token is not a keyword
+     * @requires hasToken
+     */
+    public Keyword keyword() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        return this.frontKeyword;
+    }
+
+    /**
+     * Reports whether the front token is an identifier.
+     *
+     * @return true iff the front token is an identifier
+     * @requires hasToken
+     */
+    public boolean isIdentifier() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        return this.frontKind == Kind.IDENTIFIER;
+    }
+
+    /**
+     * Reports whether the front token is a condition.
+     *
+     * @return true iff the front token is a condition
+     * @requires hasToken
+     */
+    public boolean isCondition() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        return this.frontKind == Kind.CONDITION;
+    }
+
+    /**
+     * Removes the front token and returns it.
+     *
+     * @return the text of the token removed
+     * @requires hasToken
+     */
+    public String dequeue() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        String result = this.frontText;
+        if (this.queue != null) {
+            this.queue.dequeue();
+        } else if (this.array != null) {
+            this.next++;
+        } else if (this.frontKind == Kind.END_OF_INPUT) {
+            this.exhausted = true;
+        }
+        this.lastEnd = this.frontEnd;
+        this.scanned = false;
+        return result;
+    }
+
+    /**
+     * Reports the offset of the front token in the source of a lexer of a
+     * {@code CharSequence}.
+     *
+     * @return the offset of the first char of the front token, or of the end
+     *         of the source if it is Tokenizer.END_OF_INPUT
+     * @requires hasToken
+     */
+    int start() {
+        assert this.hasToken() : "Violation of: hasToken";
+
+        this.scan();
+        return this.frontStart;
+    }
+
+    /**
+     * Reports the offset of the end of the last token dequeued in the source
+     * of a lexer of a {@code CharSequence}.
+     *
+     * @return the offset after the last char of the last token dequeued
+     */
+    int end() {
+        return this.lastEnd;
+    }
+
+    /**
+     * Removes the front token and returns the keyword it is.
+     *
+     * @return the keyword removed, or null if the token was not a keyword
+     * @requires hasToken
+     */
+    public Keyword dequeueKeyword() {
+        Keyword result = this.keyword();
+        this.dequeue();
+        return result;
+    }
+
+}
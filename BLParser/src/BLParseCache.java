@@ -0,0 +1,849 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import components.map.Map;
+import components.program.Program;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.statement.StatementKernel.Condition;
+import components.statement.StatementKernel.Kind;
+import components.utilities.Reporter;
+
+/**
+ * On-disk cache of parsed BL programs, keyed by the content of their source.
+ * <p>
+ * The key of a source is the SHA-256 of the cache format version, the parser
+ * version {@code Program1Parse1.PARSER_VERSION}, and the bytes of the source,
+ * so a source edited, or parsed by another version of the parser, is never
+ * given a stale program. A hit reads the program from its {@code .blp} file
+ * without tokenizing or parsing the source; a miss parses it with
+ * {@code Program1Parse1} and stores the result. Sources that do not parse are
+ * not cached, so their errors are always reported by the parser.
+ * <p>
+ * A {@code .blp} file is a 16-byte header followed by the program, all
+ * big-endian:
+ *
+ * <pre>
+ * int magic     0x424C5000 ("BLP\0")
+ * int version   FORMAT_VERSION
+ * int parser    Program1Parse1.PARSER_VERSION
+ * int checksum  CRC-32 of the program bytes
+ * UTF           the program name
+ * number        the number of instructions, then for each its name (UTF)
+ *               and its body (statement)
+ * statement     the program body
+ * </pre>
+ *
+ * A statement is written in preorder, each as a tag byte, {@code KINDS} times
+ * its kind plus its condition, if any, followed by its number of children if
+ * it is a BLOCK, or the number of the instruction it calls if it is a CALL,
+ * the name following the first time it is called. Numbers are unsigned
+ * variable-length, 7 bits per byte. Statements are written and read with
+ * explicit stacks, so nesting of any depth is fine.
+ * <p>
+ * The total size of the cache is kept under a capacity by removing the
+ * entries least recently used first. The total is kept in memory, and the
+ * directory is scanned only when it exceeds the capacity. The cache only
+ * saves parses, so failing to write or remove an entry is not an error.
+ */
+public final class BLParseCache {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Magic number at the start of every {@code .blp} file.
+     */
+    private static final int MAGIC = 0x424C5000;
+
+    /**
+     * Version of the format written by this class.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * File name extension of cached programs.
+     */
+    static final String EXTENSION = ".blp";
+
+    /**
+     * Number of bytes in the header.
+     */
+    private static final int HEADER_BYTES = 16;
+
+    /**
+     * Multiplier of the kind in a tag; more than the number of conditions.
+     */
+    private static final int KINDS = 16;
+
+    /**
+     * Bits of a number in each byte.
+     */
+    private static final int NUMBER_BITS = 7;
+
+    /**
+     * Marks a byte of a number followed by another.
+     */
+    private static final int MORE = 0x80;
+
+    /**
+     * The directory of the cache.
+     */
+    private final Path directory;
+
+    /**
+     * The largest total size of the cache, in bytes.
+     */
+    private final long capacity;
+
+    /**
+     * Version of the parser the programs cached were parsed by.
+     */
+    private final int parserVersion;
+
+    /**
+     * Total size of the entries, in bytes: found when the cache is opened,
+     * kept up to date as entries are written, and found again whenever it
+     * exceeds capacity, as other caches may share the directory.
+     */
+    private long size;
+
+    /**
+     * Number of parses found in the cache.
+     */
+    private int hits;
+
+    /**
+     * Number of parses not found in the cache.
+     */
+    private int misses;
+
+    /**
+     * A statement being written or read: taken apart, or read without its
+     * children yet, with its children held here until it is put together.
+     */
+    private static final class Frame {
+
+        /**
+         * Its kind.
+         */
+        private final Kind kind;
+
+        /**
+         * Its condition, if it is an IF, IF_ELSE, or WHILE.
+         */
+        private Condition c;
+
+        /**
+         * Its name, if it is a CALL.
+         */
+        private String name;
+
+        /**
+         * Its number of children.
+         */
+        private int count;
+
+        /**
+         * Its children, in order.
+         */
+        private final List<Statement> children = new ArrayList<>();
+
+        /**
+         * Number of children walked so far, when writing.
+         */
+        private int next;
+
+        /**
+         * Constructor of a frame for a statement read.
+         *
+         * @param kind
+         *            its kind
+         */
+        Frame(Kind kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Constructor of a frame for a statement written; takes {@code s}
+         * apart.
+         *
+         * @param s
+         *            the statement
+         */
+        Frame(Statement s) {
+            this.kind = s.kind();
+            switch (this.kind) {
+                case BLOCK: {
+                    while (s.lengthOfBlock() > 0) {
+                        this.children.add(s.removeFromBlock(0));
+                    }
+                    break;
+                }
+                case IF: {
+                    Statement block = s.newInstance();
+                    this.c = s.disassembleIf(block);
+                    this.children.add(block);
+                    break;
+                }
+                case IF_ELSE: {
+                    Statement block1 = s.newInstance();
+                    Statement block2 = s.newInstance();
+                    this.c = s.disassembleIfElse(block1, block2);
+                    this.children.add(block1);
+                    this.children.add(block2);
+                    break;
+                }
+                case WHILE: {
+                    Statement block = s.newInstance();
+                    this.c = s.disassembleWhile(block);
+                    this.children.add(block);
+                    break;
+                }
+                default: {
+                    this.name = s.disassembleCall();
+                    break;
+                }
+            }
+            this.count = this.children.size();
+        }
+
+        /**
+         * Assembles the statement into {@code t}, with its children.
+         *
+         * @param t
+         *            the statement assembled
+         * @replaces t
+         */
+        void assemble(Statement t) {
+            switch (this.kind) {
+                case BLOCK: {
+                    for (Statement child : this.children) {
+                        t.addToBlock(t.lengthOfBlock(), child);
+                    }
+                    break;
+                }
+                case IF: {
+                    t.assembleIf(this.c, this.children.get(0));
+                    break;
+                }
+                case IF_ELSE: {
+                    t.assembleIfElse(this.c, this.children.get(0),
+                            this.children.get(1));
+                    break;
+                }
+                case WHILE: {
+                    t.assembleWhile(this.c, this.children.get(0));
+                    break;
+                }
+                default: {
+                    t.assembleCall(this.name);
+                    break;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Writes {@code n} to {@code out}.
+     *
+     * @param out
+     *            the output stream
+     * @param n
+     *            the number
+     * @throws IOException
+     *             if out cannot be written
+     * @requires n >= 0
+     */
+    private static void writeNumber(DataOutputStream out, int n)
+            throws IOException {
+        int rest = n;
+        while (rest >= MORE) {
+            out.writeByte(rest & (MORE - 1) | MORE);
+            rest >>>= NUMBER_BITS;
+        }
+        out.writeByte(rest);
+    }
+
+    /**
+     * Reads a number from {@code in}.
+     *
+     * @param in
+     *            the input stream
+     * @return the number
+     * @throws IOException
+     *             if in has no valid number
+     */
+    private static int readNumber(DataInputStream in) throws IOException {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > Integer.SIZE) {
+                throw new IOException("number too long");
+            }
+            b = in.readUnsignedByte();
+            result |= (b & (MORE - 1)) << shift;
+            shift += NUMBER_BITS;
+        } while ((b & MORE) != 0);
+        if (result < 0) {
+            throw new IOException("number too large");
+        }
+        return result;
+    }
+
+    /**
+     * Writes the tag and data of the statement of {@code f} to {@code out}.
+     *
+     * @param out
+     *            the output stream
+     * @param f
+     *            the statement
+     * @param names
+     *            the number of each instruction called so far
+     * @throws IOException
+     *             if out cannot be written
+     * @updates names
+     */
+    private static void writeStatement(DataOutputStream out, Frame f,
+            java.util.Map<String, Integer> names) throws IOException {
+        int tag = f.kind.ordinal() * KINDS;
+        if (f.c != null) {
+            tag += f.c.ordinal();
+        }
+        out.writeByte(tag);
+        if (f.kind == Kind.BLOCK) {
+            writeNumber(out, f.count);
+        } else if (f.kind == Kind.CALL) {
+            Integer number = names.get(f.name);
+            if (number == null) {
+                writeNumber(out, names.size());
+                out.writeUTF(f.name);
+                names.put(f.name, names.size());
+            } else {
+                writeNumber(out, number);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code s} to {@code out}.
+     *
+     * @param out
+     *            the output stream
+     * @param s
+     *            the statement
+     * @param names
+     *            the number of each instruction called so far
+     * @throws IOException
+     *             if out cannot be written
+     * @updates names
+     */
+    private static void write(DataOutputStream out, Statement s,
+            java.util.Map<String, Integer> names) throws IOException {
+        Deque<Statement> statements = new ArrayDeque<>();
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame root = new Frame(s);
+        writeStatement(out, root, names);
+        statements.push(s);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            if (f.next < f.count) {
+                Statement child = f.children.get(f.next);
+                f.next++;
+                Frame g = new Frame(child);
+                writeStatement(out, g, names);
+                statements.push(child);
+                stack.push(g);
+            } else {
+                stack.pop();
+                f.assemble(statements.pop());
+            }
+        }
+    }
+
+    /**
+     * Reads the tag and data of a statement from {@code in}.
+     *
+     * @param in
+     *            the input stream
+     * @param names
+     *            the instructions called so far, by number
+     * @return the statement, without its children
+     * @throws IOException
+     *             if in has no valid statement
+     * @updates names
+     */
+    private static Frame readStatement(DataInputStream in, List<String> names)
+            throws IOException {
+        int tag = in.readUnsignedByte();
+        Kind[] kinds = Kind.values();
+        Condition[] conditions = Condition.values();
+        if (tag / KINDS >= kinds.length) {
+            throw new IOException("bad statement tag " + tag);
+        }
+        Frame result = new Frame(kinds[tag / KINDS]);
+        switch (result.kind) {
+            case BLOCK: {
+                result.count = readNumber(in);
+                break;
+            }
+            case CALL: {
+                int number = readNumber(in);
+                if (number == names.size()) {
+                    names.add(in.readUTF());
+                } else if (number > names.size()) {
+                    throw new IOException("bad instruction number " + number);
+                }
+                result.name = names.get(number);
+                break;
+            }
+            default: {
+                if (tag % KINDS >= conditions.length) {
+                    throw new IOException("bad statement tag " + tag);
+                }
+                result.c = conditions[tag % KINDS];
+                if (result.kind == Kind.IF_ELSE) {
+                    result.count = 2;
+                } else {
+                    result.count = 1;
+                }
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a statement from {@code in} into {@code s}.
+     *
+     * @param in
+     *            the input stream
+     * @param s
+     *            the statement read
+     * @param names
+     *            the instructions called so far, by number
+     * @throws IOException
+     *             if in has no valid statement
+     * @replaces s
+     * @updates names
+     */
+    private static void read(DataInputStream in, Statement s,
+            List<String> names) throws IOException {
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(readStatement(in, names));
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            if (f.children.size() < f.count) {
+                stack.push(readStatement(in, names));
+            } else {
+                stack.pop();
+                if (stack.isEmpty()) {
+                    f.assemble(s);
+                } else {
+                    Statement t = s.newInstance();
+                    f.assemble(t);
+                    stack.peek().children.add(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code p} in the {@code .blp} format.
+     *
+     * @param p
+     *            the program
+     * @return the bytes of the {@code .blp} file
+     */
+    private byte[] serialize(Program p) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int i = 0; i < HEADER_BYTES; i++) {
+                out.writeByte(0);
+            }
+            java.util.Map<String, Integer> names = new HashMap<>();
+            Map<String, Statement> context = p.newContext();
+            p.swapContext(context);
+            out.writeUTF(p.name());
+            writeNumber(out, context.size());
+            for (Map.Pair<String, Statement> pair : context) {
+                out.writeUTF(pair.key());
+                write(out, pair.value(), names);
+            }
+            p.swapContext(context);
+            Statement body = p.newBody();
+            p.swapBody(body);
+            write(out, body, names);
+            p.swapBody(body);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot write program: " + e.getMessage());
+        }
+        ByteBuffer result = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(result.array(), HEADER_BYTES,
+                result.capacity() - HEADER_BYTES);
+        result.putInt(MAGIC).putInt(FORMAT_VERSION)
+                .putInt(this.parserVersion).putInt((int) crc.getValue());
+        return result.array();
+    }
+
+    /**
+     * Reads the program in {@code bytes}, in the {@code .blp} format, into
+     * {@code p}.
+     *
+     * @param bytes
+     *            the bytes of the {@code .blp} file
+     * @param p
+     *            the program read
+     * @return true iff bytes is a valid {@code .blp} file for this version
+     * @updates p
+     * @ensures if deserialize then p = [the program in bytes]
+     */
+    private boolean deserialize(byte[] bytes, Program p) {
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        boolean result = bytes.length > HEADER_BYTES
+                && header.getInt() == MAGIC
+                && header.getInt() == FORMAT_VERSION
+                && header.getInt() == this.parserVersion;
+        if (result) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+            result = header.getInt() == (int) crc.getValue();
+        }
+        if (result) {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, HEADER_BYTES,
+                            bytes.length - HEADER_BYTES))) {
+                List<String> names = new ArrayList<>();
+                String name = in.readUTF();
+                Map<String, Statement> context = p.newContext();
+                int n = readNumber(in);
+                for (int i = 0; i < n; i++) {
+                    String instruction = in.readUTF();
+                    Statement body = p.newBody();
+                    read(in, body, names);
+                    context.add(instruction, body);
+                }
+                Statement body = p.newBody();
+                read(in, body, names);
+                result = in.available() == 0;
+                if (result) {
+                    p.setName(name);
+                    p.swapContext(context);
+                    p.swapBody(body);
+                }
+            } catch (IOException e) {
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key of the source {@code source}: the SHA-256 of the format
+     * and parser versions and of the source, in hexadecimal.
+     *
+     * @param source
+     *            the bytes of the source
+     * @return the key
+     */
+    private String key(byte[] source) {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Reporter.fatalErrorToConsole("ERROR: SHA-256 is not available");
+        }
+        digest.update(ByteBuffer.allocate(2 * Integer.BYTES)
+                .putInt(FORMAT_VERSION).putInt(this.parserVersion).array());
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest(source)) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Lists the entries of the cache in {@code entries}, least recently used
+     * first, with their sizes in {@code sizes}, and returns their total size.
+     * Entries removed while they are listed, by another cache sharing the
+     * directory, are left out.
+     *
+     * @param entries
+     *            the entries
+     * @param sizes
+     *            the size of each entry
+     * @return the total size of the entries
+     * @replaces entries, sizes
+     * @throws IOException
+     *             if the directory of the cache cannot be read
+     */
+    private long scan(List<Path> entries, java.util.Map<Path, Long> sizes)
+            throws IOException {
+        entries.clear();
+        sizes.clear();
+        java.util.Map<Path, FileTime> times = new HashMap<>();
+        long result = 0;
+        try (DirectoryStream<Path> dir = Files
+                .newDirectoryStream(this.directory, "*" + EXTENSION)) {
+            for (Path entry : dir) {
+                try {
+                    FileTime time = Files.getLastModifiedTime(entry);
+                    long bytes = Files.size(entry);
+                    entries.add(entry);
+                    times.put(entry, time);
+                    sizes.put(entry, bytes);
+                    result += bytes;
+                } catch (NoSuchFileException e) {
+                    // removed meanwhile
+                }
+            }
+        }
+        entries.sort((x, y) -> times.get(x).compareTo(times.get(y)));
+        return result;
+    }
+
+    /**
+     * Removes the entries of the cache least recently used until its total
+     * size is at most {@code capacity}.
+     *
+     * @throws IOException
+     *             if the directory of the cache cannot be read
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        java.util.Map<Path, Long> sizes = new HashMap<>();
+        long total = this.scan(entries, sizes);
+        int i = 0;
+        while (total > this.capacity) {
+            Files.deleteIfExists(entries.get(i));
+            total -= sizes.get(entries.get(i));
+            i++;
+        }
+        this.size = total;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor of a cache in directory {@code directory}, created if
+     * missing, holding at most {@code capacity} bytes.
+     *
+     * @param directory
+     *            the name of the directory
+     * @param capacity
+     *            the largest total size of the cache, in bytes
+     * @requires capacity > 0
+     */
+    public BLParseCache(String directory, long capacity) {
+        this(directory, capacity, Program1Parse1.PARSER_VERSION);
+    }
+
+    /**
+     * Constructor of a cache in directory {@code directory}, created if
+     * missing, holding at most {@code capacity} bytes of programs parsed by
+     * version {@code parserVersion} of the parser.
+     *
+     * @param directory
+     *            the name of the directory
+     * @param capacity
+     *            the largest total size of the cache, in bytes
+     * @param parserVersion
+     *            the version of the parser
+     * @requires capacity > 0
+     */
+    BLParseCache(String directory, long capacity, int parserVersion) {
+        assert directory != null : "Violation of: directory is not null";
+        assert capacity > 0 : "Violation of: capacity > 0";
+
+        this.directory = Paths.get(directory);
+        this.capacity = capacity;
+        this.parserVersion = parserVersion;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole("ERROR: Cannot create " + directory
+                    + ": " + e.getMessage());
+        }
+        try {
+            this.size = this.scan(new ArrayList<>(), new HashMap<>());
+        } catch (IOException e) {
+            /*
+             * Counted as empty; the cache is scanned again when it is full
+             */
+            this.size = 0;
+        }
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Parses the BL program in file {@code fileName} into {@code p}, reading
+     * it from the cache if the file has been parsed before.
+     *
+     * @param p
+     *            the program parsed
+     * @param fileName
+     *            the name of the file
+     * @replaces p
+     * @ensures <pre>
+     * if [the file holds a program string] then
+     *  p = [Program corresponding to the program string]
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    public void parse(Program p, String fileName) {
+        assert p != null : "Violation of: p is not null";
+        assert fileName != null : "Violation of: fileName is not null";
+
+        byte[] source = null;
+        try {
+            source = Files.readAllBytes(Paths.get(fileName));
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot read " + fileName + ": " + e.getMessage());
+        }
+        Path entry = this.directory.resolve(this.key(source) + EXTENSION);
+        byte[] cached = null;
+        try {
+            cached = Files.readAllBytes(entry);
+        } catch (IOException e) {
+            // not cached
+        }
+        if (cached != null && this.deserialize(cached, p)) {
+            this.hits++;
+            try {
+                Files.setLastModifiedTime(entry,
+                        FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // evicted meanwhile; p is already read
+            }
+        } else {
+            this.misses++;
+            Program1Parse1 q = new Program1Parse1();
+            q.parse(new BLLexer(
+                    Channels.newChannel(new ByteArrayInputStream(source))));
+            Map<String, Statement> context = q.newContext();
+            Statement body = q.newBody();
+            q.swapContext(context);
+            q.swapBody(body);
+            p.setName(q.name());
+            p.swapContext(context);
+            p.swapBody(body);
+
+            /*
+             * p is parsed, so failing to store it only costs a parse later
+             */
+            Path temporary = null;
+            try {
+                byte[] bytes = this.serialize(p);
+                temporary = Files.createTempFile(this.directory, "entry",
+                        ".tmp");
+                Files.write(temporary, bytes);
+                long replaced = 0;
+                if (cached != null) {
+                    replaced = cached.length;
+                }
+                Files.move(temporary, entry,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                temporary = null;
+                this.size += bytes.length - replaced;
+                if (this.size > this.capacity) {
+                    this.evict();
+                }
+            } catch (IOException e) {
+                if (temporary != null) {
+                    try {
+                        Files.deleteIfExists(temporary);
+                    } catch (IOException f) {
+                        // left for the file system to clean up
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the number of parses found in the cache.
+     *
+     * @return the number of hits
+     */
+    public int hits() {
+        return this.hits;
+    }
+
+    /**
+     * Reports the number of parses not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public int misses() {
+        return this.misses;
+    }
+
+    /**
+     * Main method: parses a BL program through a cache twice and reports the
+     * time each parse took.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter cache directory name: ");
+        String directory = in.nextLine();
+        out.print("Enter BL program file name: ");
+        String fileName = in.nextLine();
+        final long capacity = 64L << 20;
+        BLParseCache cache = new BLParseCache(directory, capacity);
+        for (int i = 0; i < 2; i++) {
+            Program1Parse1 p = new Program1Parse1();
+            long start = System.nanoTime();
+            cache.parse(p, fileName);
+            long micros = (System.nanoTime() - start) / 1000;
+            out.println("Parsed " + p.name() + " in " + micros + " us ("
+                    + cache.hits() + " hits, " + cache.misses()
+                    + " misses)");
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,337 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import components.map.Map;
+import components.program.Program;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.utilities.Reporter;
+import components.utilities.Tokenizer;
+
+/**
+ * Incremental parser of the source of a BL program being edited: keeps the
+ * source and where each INSTRUCTION definition and the main block are in it,
+ * and after an edit parses again only the definition or main block the edit
+ * falls in, if it falls in one.
+ * <p>
+ * The definition parsed again is swapped into the context of the program, or
+ * the main block into its body; the rest of the program is left as is. An
+ * edit anywhere else, across more than one definition, or that leaves a
+ * definition that is not followed by only white space, has the whole source
+ * parsed again. An edit of the white space between two definitions, or
+ * between the last and the main block, to other white space changes no
+ * token, so nothing is parsed again. The program is always the one
+ * {@code Program1Parse1} parses from the source, and an invalid source gets
+ * the error it reports: a definition parsed on its own stops at the same
+ * tokens it would in the whole source, since the token after it there,
+ * INSTRUCTION or BEGIN, is accepted nowhere Tokenizer.END_OF_INPUT is not.
+ * <p>
+ * The source is lexed in place with a {@code BLLexer}, so an edit costs the
+ * length of the definition edited, plus a copy of the source and an update
+ * of the offsets of the definitions after it.
+ */
+public final class IncrementalProgramParser {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * The source of the program.
+     */
+    private final StringBuilder source;
+
+    /**
+     * The names of the instructions defined, in order.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * The offset of each definition in the source, then of the main block.
+     */
+    private int[] starts;
+
+    /**
+     * The offset of the end of each definition in the source, then of the
+     * end of the source.
+     */
+    private int[] ends;
+
+    /**
+     * Reports whether {@code text} is all white space.
+     *
+     * @param text
+     *            the text
+     * @return true iff every char of text is white space
+     */
+    private static boolean isWhiteSpace(CharSequence text) {
+        boolean result = true;
+        for (int i = 0; result && i < text.length(); i++) {
+            result = Character.isWhitespace(text.charAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Adds {@code delta} to the offsets of the definitions after definition
+     * {@code k}, and of the main block.
+     *
+     * @param k
+     *            the last definition not moved, or -1
+     * @param delta
+     *            the change in offset
+     */
+    private void shiftAfter(int k, int delta) {
+        for (int j = k + 1; j < this.starts.length; j++) {
+            this.starts[j] += delta;
+            this.ends[j] += delta;
+        }
+    }
+
+    /**
+     * Parses the whole source into {@code p}, noting where each definition
+     * and the main block are.
+     *
+     * @param p
+     *            the program parsed
+     * @replaces p
+     */
+    private void parseAll(Program p) {
+        BLLexer tokens = new BLLexer(this.source, 0, this.source.length());
+        String name = Program1Parse1.parseHeader(tokens);
+
+        Map<String, Statement> m = p.newContext();
+        List<String> found = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        while (tokens.keyword() == BLLexer.Keyword.INSTRUCTION) {
+            offsets.add(tokens.start());
+            Statement body = p.newBody();
+            String id = Program1Parse1.parseInstruction(tokens, body);
+            offsets.add(tokens.end());
+            Reporter.assertElseFatalError(!m.hasKey(id),
+                    "ERROR: Every Instruction defined must be unique");
+            m.add(id, body);
+            found.add(id);
+            Reporter.assertElseFatalError(tokens.hasToken(),
+                    "ERROR: Unexpected End of Program");
+        }
+        int mainStart = tokens.start();
+        Statement body = p.newBody();
+        Program1Parse1.parseMainBlock(tokens, name, body);
+
+        p.setName(name);
+        p.swapContext(m);
+        p.swapBody(body);
+        this.names.clear();
+        this.names.addAll(found);
+        int n = found.size();
+        this.starts = new int[n + 1];
+        this.ends = new int[n + 1];
+        for (int k = 0; k < n; k++) {
+            this.starts[k] = offsets.get(2 * k);
+            this.ends[k] = offsets.get(2 * k + 1);
+        }
+        this.starts[n] = mainStart;
+        this.ends[n] = this.source.length();
+    }
+
+    /**
+     * Parses again definition {@code k}, or the main block if {@code k} is
+     * the number of definitions, into {@code p}.
+     *
+     * @param p
+     *            the program
+     * @param k
+     *            the definition
+     * @return false iff the text of the definition is not one definition,
+     *         or of the main block is not the main block, and p is unchanged
+     * @updates p
+     */
+    private boolean parseAgain(Program p, int k) {
+        BLLexer tokens = new BLLexer(this.source, this.starts[k],
+                this.ends[k]);
+        boolean result;
+        if (k < this.names.size()) {
+            result = tokens.keyword() == BLLexer.Keyword.INSTRUCTION;
+            if (result) {
+                Statement body = p.newBody();
+                String id = Program1Parse1.parseInstruction(tokens, body);
+                result = tokens.dequeue().equals(Tokenizer.END_OF_INPUT);
+                if (result) {
+                    Map<String, Statement> context = p.newContext();
+                    p.swapContext(context);
+                    String old = this.names.get(k);
+                    boolean unique = id.equals(old) || !context.hasKey(id);
+                    if (unique) {
+                        context.remove(old);
+                        context.add(id, body);
+                        this.names.set(k, id);
+                    }
+                    p.swapContext(context);
+                    Reporter.assertElseFatalError(unique,
+                            "ERROR: Every Instruction defined must be unique");
+                }
+            }
+        } else {
+            result = tokens.keyword() == BLLexer.Keyword.BEGIN;
+            if (result) {
+                Statement body = p.newBody();
+                Program1Parse1.parseMainBlock(tokens, p.name(), body);
+                p.swapBody(body);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; parses {@code source} into {@code p}.
+     *
+     * @param p
+     *            the program parsed
+     * @param source
+     *            the source of the program
+     * @replaces p
+     * @ensures <pre>
+     * if [source is a program string] then
+     *  p = [Program corresponding to source]
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    public IncrementalProgramParser(Program p, CharSequence source) {
+        assert p != null : "Violation of: p is not null";
+        assert source != null : "Violation of: source is not null";
+
+        this.source = new StringBuilder(source);
+        this.parseAll(p);
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Replaces {@code source[start, end)} with {@code text}, and updates
+     * {@code p}, the program parsed from the source before, to the program
+     * parsed from the source after.
+     *
+     * @param p
+     *            the program
+     * @param start
+     *            the offset of the first char replaced
+     * @param end
+     *            the offset after the last char replaced
+     * @param text
+     *            the text replacing them
+     * @updates p
+     * @requires <pre>
+     * 0 <= start <= end <= |source()|  and
+     *  p = [Program parsed from source()]
+     * </pre>
+     * @ensures <pre>
+     * source() = #source()[0, start) * text * #source()[end, |#source()|)  and
+     * if [source() is a program string] then
+     *  p = [Program corresponding to source()]
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    public void edit(Program p, int start, int end, CharSequence text) {
+        assert p != null : "Violation of: p is not null";
+        assert text != null : "Violation of: text is not null";
+        assert 0 <= start : "Violation of: 0 <= start";
+        assert start <= end : "Violation of: start <= end";
+        assert end <= this.source.length() : ""
+                + "Violation of: end <= |source()|";
+
+        this.source.replace(start, end, text.toString());
+        int delta = text.length() - (end - start);
+        /*
+         * The gap between definition g and what follows holds only white
+         * space; an edit within it to white space that leaves it nonempty
+         * changes no token
+         */
+        int g = Arrays.binarySearch(this.ends, start);
+        if (g < 0) {
+            g = -g - 2;
+        }
+        boolean done = g >= 0 && g + 1 < this.starts.length
+                && end <= this.starts[g + 1]
+                && this.starts[g + 1] - this.ends[g] + delta > 0
+                && isWhiteSpace(text);
+        if (done) {
+            this.shiftAfter(g, delta);
+        } else {
+            int k = Arrays.binarySearch(this.starts, start);
+            if (k < 0) {
+                k = -k - 2;
+            }
+            done = k >= 0 && end <= this.ends[k];
+            if (done) {
+                this.ends[k] += delta;
+                this.shiftAfter(k, delta);
+                done = this.parseAgain(p, k);
+            }
+        }
+        if (!done) {
+            this.parseAll(p);
+        }
+    }
+
+    /**
+     * Returns the source of the program.
+     *
+     * @return the source
+     */
+    public String source() {
+        return this.source.toString();
+    }
+
+    /**
+     * Main method: times edits of the body of an instruction in a large
+     * generated BL program.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+
+        final int instructions = 500;
+        final int edits = 10000;
+        StringBuilder source = new StringBuilder("PROGRAM Big IS\n");
+        for (int i = 0; i < instructions; i++) {
+            source.append("  INSTRUCTION i").append(i).append(" IS\n");
+            for (int j = 0; j < 4; j++) {
+                source.append("    IF next-is-wall THEN\n")
+                        .append("      turnleft\n    ELSE\n")
+                        .append("      move\n    END IF\n");
+            }
+            source.append("  END i").append(i).append('\n');
+        }
+        source.append("BEGIN\n  i0\nEND Big\n");
+        Program p = new Program1Parse1();
+        IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                source);
+        out.println("Parsed " + source.toString().split("\n").length
+                + " lines");
+
+        String[] calls = { "move", "skip" };
+        int at = source.indexOf(calls[0], source.length() / 2);
+        long start = System.nanoTime();
+        for (int e = 0; e < edits; e++) {
+            parser.edit(p, at, at + calls[0].length(), calls[(e + 1) % 2]);
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        out.println("Average edit: " + (double) micros / edits + " us");
+
+        out.close();
+    }
+
+}
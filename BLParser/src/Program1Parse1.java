@@ -0,0 +1,720 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import components.map.Map;
+import components.program.Program1;
+import components.queue.Queue;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.utilities.Reporter;
+import components.utilities.Tokenizer;
+
+/**
+ * Layered implementation of secondary method {@code parse} for {@code Program}.
+ * <p>
+ * The program is parsed as its tokens are pulled from a {@code BLLexer}, so a
+ * source read from a {@code SimpleReader} is never held in memory as a whole
+ * queue of tokens.
+ *
+ * @author Jono Strunck
+ *
+ */
+public final class Program1Parse1 extends Program1 {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Version of the programs this parser builds; it must change whenever the
+     * {@code Program} parsed from some source changes, so parses cached by
+     * {@code BLParseCache} are not reused.
+     */
+    static final int PARSER_VERSION = 1;
+
+    /**
+     * Number of tokens of INSTRUCTION definitions after which
+     * {@code parse(Queue, ForkJoinPool)} hands a batch of them to the pool.
+     */
+    private static final int BATCH_TOKENS = 1024;
+
+    /**
+     * Number of tokens in the header of an instruction: INSTRUCTION, its
+     * name, IS.
+     */
+    private static final int INSTRUCTION_HEADER_LENGTH = 3;
+
+    /**
+     * Keywords the scan for INSTRUCTION definitions looks for.
+     */
+    private static final String INSTRUCTION = "INSTRUCTION", END = "END",
+            IF = "IF", WHILE = "WHILE";
+
+    /**
+     * Parses a single BL instruction from {@code tokens} returning the
+     * instruction name as the value of the function and the body of the
+     * instruction in {@code body}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param body
+     *            the instruction body
+     * @return the instruction name
+     * @replaces body
+     * @updates tokens
+     * @requires <pre>
+     * [<"INSTRUCTION"> is a prefix of tokens]  and
+     *  [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * </pre>
+     * @ensures <pre>
+     * if [an instruction string is a proper prefix of #tokens]  and
+     *    [the beginning name of this instruction equals its ending name]  and
+     *    [the name of this instruction does not equal the name of a primitive
+     *     instruction in the BL language] then
+     *  parseInstruction = [name of instruction at start of #tokens]  and
+     *  body = [Statement corresponding to the block string that is the body of
+     *          the instruction string at start of #tokens]  and
+     *  #tokens = [instruction string at start of #tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    static String parseInstruction(BLLexer tokens, Statement body) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert body != null : "Violation of: body is not null";
+        assert tokens.hasToken()
+                && tokens.keyword() == BLLexer.Keyword.INSTRUCTION : ""
+                        + "Violation of: <\"INSTRUCTION\"> is proper prefix"
+                        + " of tokens";
+
+        BLLexer.Keyword instr = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(instr == BLLexer.Keyword.INSTRUCTION,
+                "ERROR: expected INSTRUCTION");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        boolean isIdentifier = tokens.isIdentifier();
+        String id = tokens.dequeue();
+        Reporter.assertElseFatalError(isIdentifier,
+                "ERROR: Expected Identifier");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        BLLexer.Keyword is = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(is == BLLexer.Keyword.IS,
+                "ERROR: Expected IS");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        Statement1Parse1.parseBlock(tokens, body);
+
+        BLLexer.Keyword end = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(end == BLLexer.Keyword.END,
+                "ERROR: expected END");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        String id2 = tokens.dequeue();
+        Reporter.assertElseFatalError(id.equals(id2),
+                "ERROR: Instruction names do not match");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        return id;
+    }
+
+    /**
+     * Parses an INSTRUCTION definition from {@code tokens} into {@code body}
+     * as {@code parseInstruction} does, but reports no error to the console,
+     * so this may run on a worker thread. It need not be followed by another
+     * token.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param body
+     *            the instruction body
+     * @return the instruction name, or null if no instruction string whose
+     *         beginning and ending names are equal is a prefix of #tokens
+     * @replaces body
+     * @updates tokens
+     * @ensures <pre>
+     * if tryParseInstruction /= null then
+     *  tryParseInstruction = [name of instruction at start of #tokens]  and
+     *  body = [Statement corresponding to the block string that is the body of
+     *          the instruction string at start of #tokens]  and
+     *  #tokens = [instruction string at start of #tokens] * tokens
+     * </pre>
+     */
+    static String tryParseInstruction(BLLexer tokens, Statement body) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert body != null : "Violation of: body is not null";
+
+        String result = null;
+        if (tokens.hasToken()
+                && tokens.dequeueKeyword() == BLLexer.Keyword.INSTRUCTION
+                && tokens.hasToken() && tokens.isIdentifier()) {
+            String id = tokens.dequeue();
+            if (tokens.hasToken()
+                    && tokens.dequeueKeyword() == BLLexer.Keyword.IS
+                    && Statement1Parse1.tryParseBlock(tokens, body)
+                    && tokens.dequeueKeyword() == BLLexer.Keyword.END
+                    && tokens.hasToken() && tokens.dequeue().equals(id)) {
+                result = id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the header of a BL program from {@code tokens}, returning the
+     * program name.
+     *
+     * @param tokens
+     *            the input tokens
+     * @return the program name
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if ["PROGRAM", an identifier, and "IS" are a proper prefix of
+     *     #tokens] then
+     *  parseHeader = [that identifier]  and
+     *  #tokens = [those tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    static String parseHeader(BLLexer tokens) {
+        BLLexer.Keyword program = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(program == BLLexer.Keyword.PROGRAM,
+                "ERROR: Expected PROGRAM");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        boolean isIdentifier = tokens.isIdentifier();
+        String name = tokens.dequeue();
+        Reporter.assertElseFatalError(isIdentifier,
+                "ERROR: Expected Identifier");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        BLLexer.Keyword is = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(is == BLLexer.Keyword.IS,
+                "ERROR: Expected IS");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+        return name;
+    }
+
+    /**
+     * Parses the INSTRUCTION definitions at the start of {@code tokens} into
+     * {@code m}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param m
+     *            the instructions defined
+     * @updates tokens, m
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [the instruction strings at the start of #tokens are valid and
+     *     define instructions not in #m, nor twice] then
+     *  m = #m union [the instructions they define]  and
+     *  #tokens = [those instruction strings] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    private void parseInstructions(BLLexer tokens, Map<String, Statement> m) {
+        while (tokens.keyword() == BLLexer.Keyword.INSTRUCTION) {
+            Statement body = this.newBody();
+            String id = parseInstruction(tokens, body);
+            Reporter.assertElseFatalError(!m.hasKey(id),
+                    "ERROR: Every Instruction defined must be unique");
+            m.add(id, body);
+            Reporter.assertElseFatalError(tokens.hasToken(),
+                    "ERROR: Unexpected End of Program");
+
+        }
+    }
+
+    /**
+     * Parses the main block of a BL program and the end of the program from
+     * {@code tokens} into {@code body}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param name
+     *            the program name
+     * @param body
+     *            the program body
+     * @replaces body
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if ["BEGIN", a block string, "END", name, and Tokenizer.END_OF_INPUT
+     *     are a prefix of #tokens] then
+     *  body = [Statement corresponding to that block string]  and
+     *  #tokens = [those tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    static void parseMainBlock(BLLexer tokens, String name, Statement body) {
+        BLLexer.Keyword begin = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(begin == BLLexer.Keyword.BEGIN,
+                "ERROR: Expected BEGIN");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        Statement1Parse1.parseBlock(tokens, body);
+
+        BLLexer.Keyword end = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(end == BLLexer.Keyword.END,
+                "ERROR: Expected END");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Program");
+
+        String name2 = tokens.dequeue();
+        Reporter.assertElseFatalError(name2.equals(name),
+                "ERROR: Names do not match");
+        Reporter.assertElseFatalError(
+                tokens.dequeue().equals(Tokenizer.END_OF_INPUT),
+                "ERROR: Expected End of Program");
+    }
+
+    /**
+     * Parses the main block of a BL program and the end of the program from
+     * {@code tokens}, and sets this to the program named {@code name} with
+     * context {@code m}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param name
+     *            the program name
+     * @param m
+     *            the instructions defined
+     * @replaces this
+     * @updates tokens
+     * @clears m
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if ["BEGIN", a block string, "END", name, and Tokenizer.END_OF_INPUT
+     *     are a prefix of #tokens] then
+     *  this = (name, #m, [Statement corresponding to that block string])  and
+     *  #tokens = [those tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    private void parseMain(BLLexer tokens, String name,
+            Map<String, Statement> m) {
+        Statement s = this.newBody();
+        parseMainBlock(tokens, name, s);
+
+        this.swapContext(m);
+        this.swapBody(s);
+        this.setName(name);
+    }
+
+    /**
+     * A batch of INSTRUCTION definitions, moved from the input tokens in
+     * order and then parsed by a task of their own, with one lexer.
+     */
+    private static final class InstructionBatch extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The tokens moved, in {@code tokens[0, length)}.
+         */
+        private String[] tokens = new String[BATCH_TOKENS];
+
+        /**
+         * Number of tokens moved.
+         */
+        private int length;
+
+        /**
+         * Number of tokens of the whole definitions moved; any tokens after
+         * them are the start of a definition whose end was not found.
+         */
+        private int complete;
+
+        /**
+         * Start of each whole definition moved.
+         */
+        private final List<Integer> starts = new ArrayList<>();
+
+        /**
+         * The body each whole definition is parsed into.
+         */
+        private final List<Statement> bodies = new ArrayList<>();
+
+        /**
+         * The name of each definition parsed, or null from the first that
+         * did not parse on; set by {@code compute}.
+         */
+        private String[] names;
+
+        /**
+         * Appends {@code t} to the tokens moved.
+         *
+         * @param t
+         *            the token
+         */
+        private void put(String t) {
+            if (this.length == this.tokens.length) {
+                this.tokens = Arrays.copyOf(this.tokens, 2 * this.length);
+            }
+            this.tokens[this.length] = t;
+            this.length++;
+        }
+
+        /**
+         * Moves the INSTRUCTION definition at the front of {@code source} to
+         * this, to be parsed into {@code body}. The end of the definition is
+         * found by counting only the IF and WHILE statements opened and
+         * closed, so where the tokens are not valid it may be found in the
+         * wrong place, or not at all; the parse tells.
+         *
+         * @param source
+         *            the input tokens
+         * @param body
+         *            the body to parse the definition into
+         * @return true iff the end of the definition was found and another
+         *         token follows it
+         * @updates source, this
+         * @requires [<"INSTRUCTION"> is a prefix of source]
+         */
+        boolean add(Queue<String> source, Statement body) {
+            int start = this.length;
+            int header = INSTRUCTION_HEADER_LENGTH;
+            int depth = 0;
+            boolean ended = false;
+            while (!ended && source.length() > 0) {
+                String t = source.dequeue();
+                this.put(t);
+                if (header > 0) {
+                    header--;
+                } else if (t.equals(IF) || t.equals(WHILE)) {
+                    depth++;
+                } else if (t.equals(END) && depth == 0) {
+                    ended = true;
+                } else if (t.equals(END) && source.length() > 0) {
+                    depth--;
+                    this.put(source.dequeue());
+                }
+            }
+            boolean result = ended && source.length() > 1;
+            if (result) {
+                this.put(source.dequeue());
+                this.starts.add(start);
+                this.bodies.add(body);
+                this.complete = this.length;
+            }
+            return result;
+        }
+
+        /**
+         * Reports the number of tokens moved to this.
+         *
+         * @return the number of tokens moved
+         */
+        int length() {
+            return this.length;
+        }
+
+        @Override
+        protected void compute() {
+            this.names = new String[this.starts.size()];
+            BLLexer lexer = new BLLexer(this.tokens, 0, this.complete);
+            int k = 0;
+            boolean parsed = true;
+            while (parsed && k < this.names.length) {
+                this.names[k] = tryParseInstruction(lexer, this.bodies.get(k));
+                parsed = this.names[k] != null;
+                k++;
+            }
+        }
+
+        /**
+         * Adds the definitions parsed, up to the first that did not parse, to
+         * {@code m}, with the checks {@code parseInstructions} makes, and
+         * returns where the tokens left to parse in order start.
+         *
+         * @param m
+         *            the instructions defined
+         * @return the index of the first token not parsed
+         * @updates m
+         * @requires [this has been parsed]
+         */
+        int merge(Map<String, Statement> m) {
+            int k = 0;
+            while (k < this.names.length && this.names[k] != null) {
+                Reporter.assertElseFatalError(!m.hasKey(this.names[k]),
+                        "ERROR: Every Instruction defined must be unique");
+                m.add(this.names[k], this.bodies.get(k));
+                k++;
+            }
+            int result = this.complete;
+            if (k < this.names.length) {
+                result = this.starts.get(k);
+            }
+            return result;
+        }
+
+        /**
+         * Enqueues the tokens moved to this, from the one at {@code from} on,
+         * to {@code q}.
+         *
+         * @param q
+         *            the queue
+         * @param from
+         *            the index of the first token to enqueue
+         * @updates q
+         */
+        void enqueueTokens(Queue<String> q, int from) {
+            for (int i = from; i < this.length; i++) {
+                q.enqueue(this.tokens[i]);
+            }
+        }
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Program1Parse1() {
+        super();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    @Override
+    public void parse(SimpleReader in) {
+        assert in != null : "Violation of: in is not null";
+        assert in.isOpen() : "Violation of: in.is_open";
+        this.parse(new BLLexer(in));
+    }
+
+    @Override
+    public void parse(Queue<String> tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.length() > 0 : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        this.parse(new BLLexer(tokens));
+    }
+
+    /**
+     * Parses the tokens pulled from {@code tokens} into this, as
+     * {@code parse(Queue)} does for a queue of the same tokens.
+     *
+     * @param tokens
+     *            the input tokens
+     * @replaces this
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [a program string is a proper prefix of #tokens] then
+     *  this = [Program corresponding to program string at start of #tokens]  and
+     *  #tokens = [program string at start of #tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    public void parse(BLLexer tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.hasToken() : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        String name = parseHeader(tokens);
+        Map<String, Statement> m = this.newContext();
+        this.parseInstructions(tokens, m);
+        this.parseMain(tokens, name, m);
+    }
+
+    /**
+     * Parses the tokens in {@code tokens} into this, as {@code parse(Queue)}
+     * does, parsing the INSTRUCTION definitions concurrently on {@code pool}.
+     * <p>
+     * The definitions are moved from {@code tokens} as they come, in batches
+     * of about {@code BATCH_TOKENS} tokens, and each batch is handed to
+     * {@code pool} as soon as it is full, while the next is moved. A batch is
+     * parsed with one lexer, by a parse that reports nothing and stops at the
+     * first definition it cannot parse. The definitions parsed are then added
+     * to the context in order, with the same checks as {@code parse(Queue)},
+     * and the main block is parsed straight from {@code tokens}. The tokens
+     * from the first definition that did not parse on, if any, are parsed as
+     * {@code parse(Queue)} parses them, so the error reported for an invalid
+     * program is the one {@code parse(Queue)} reports, and it is reported
+     * once.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param pool
+     *            the pool the definitions are parsed on
+     * @replaces this
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [a program string is a proper prefix of #tokens] then
+     *  this = [Program corresponding to program string at start of #tokens]  and
+     *  #tokens = [program string at start of #tokens] * tokens
+     * else
+     *  [report an appropriate error message to the console and terminate client]
+     * </pre>
+     */
+    public void parse(Queue<String> tokens, ForkJoinPool pool) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert pool != null : "Violation of: pool is not null";
+        assert tokens.length() > 0 : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        BLLexer lexer = new BLLexer(tokens);
+        String name = parseHeader(lexer);
+
+        List<InstructionBatch> batches = new ArrayList<>();
+        InstructionBatch batch = new InstructionBatch();
+        boolean found = true;
+        while (found && tokens.front().equals(INSTRUCTION)) {
+            found = batch.add(tokens, this.newBody());
+            if (!found || batch.length() >= BATCH_TOKENS) {
+                pool.execute(batch);
+                batches.add(batch);
+                batch = new InstructionBatch();
+            }
+        }
+        if (batch.length() > 0) {
+            pool.execute(batch);
+            batches.add(batch);
+        }
+
+        Map<String, Statement> m = this.newContext();
+        Queue<String> rest = null;
+        for (InstructionBatch b : batches) {
+            b.join();
+            int from = 0;
+            if (rest == null) {
+                from = b.merge(m);
+                if (from < b.length()) {
+                    rest = tokens.newInstance();
+                }
+            }
+            if (rest != null) {
+                b.enqueueTokens(rest, from);
+            }
+        }
+        if (rest != null) {
+            rest.append(tokens);
+            lexer = new BLLexer(rest);
+        }
+        this.parseInstructions(lexer, m);
+        this.parseMain(lexer, name, m);
+        if (rest != null) {
+            tokens.transferFrom(rest);
+        }
+    }
+
+    /**
+     * Returns the fastest of several parses of the tokens of file
+     * {@code fileName}, in microseconds.
+     *
+     * @param fileName
+     *            the name of the file
+     * @param pool
+     *            the pool to parse on, or null to parse in order
+     * @return the time of the fastest parse, in microseconds
+     */
+    private static long bestParseMicros(String fileName, ForkJoinPool pool) {
+        final int runs = 5;
+        final long nanosPerMicro = 1000;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < runs; r++) {
+            SimpleReader file = new SimpleReader1L(fileName);
+            Queue<String> tokens = Tokenizer.tokens(file);
+            file.close();
+            Program1Parse1 p = new Program1Parse1();
+            long start = System.nanoTime();
+            if (pool == null) {
+                p.parse(tokens);
+            } else {
+                p.parse(tokens, pool);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / nanosPerMicro;
+    }
+
+    /*
+     * Main test method -------------------------------------------------------
+     */
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+        /*
+         * Get input file name
+         */
+        out.print("Enter valid BL program file name: ");
+        String fileName = in.nextLine();
+        /*
+         * Parse input file
+         */
+        out.println("*** Parsing input file ***");
+        Program1Parse1 p = new Program1Parse1();
+        try (FileChannel file = new FileInputStream(fileName).getChannel()) {
+            p.parse(new BLLexer(file));
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot read " + fileName + ": " + e.getMessage());
+        }
+        /*
+         * Pretty print the program
+         */
+        out.println("*** Pretty print of parsed program ***");
+        p.prettyPrint(out);
+        /*
+         * Time the parse in order and on pools of 1, 2, 4, ... threads, up
+         * to twice the number of processors
+         */
+        out.println("*** Parse times (best of 5) ***");
+        out.println("in order: " + bestParseMicros(fileName, null) + " us");
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            out.println(threads + " thread(s): "
+                    + bestParseMicros(fileName, pool) + " us");
+            pool.shutdown();
+        }
+        out.println(processors + " processor(s) available");
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,606 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import components.queue.Queue;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.statement.Statement1;
+import components.utilities.Reporter;
+import components.utilities.Tokenizer;
+
+/**
+ * Layered implementation of secondary methods {@code parse} and
+ * {@code parseBlock} for {@code Statement}.
+ * <p>
+ * Tokens are consumed one at a time from a {@code BLLexer}, which
+ * {@code Program1Parse1} also uses, so a program is parsed as it is read; the
+ * {@code Queue} methods wrap their queue in one. IF and WHILE statements are
+ * parsed with an explicit stack rather than by recursion, so statements
+ * nested to any depth are parsed in time linear in their length, on a
+ * native stack of constant depth.
+ *
+ * @author Jono Strunck
+ *
+ */
+public final class Statement1Parse1 extends Statement1 {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Converts {@code c} into the corresponding {@code Condition}.
+     *
+     * @param c
+     *            the condition to convert
+     * @return the {@code Condition} corresponding to {@code c}
+     * @requires [c is a condition string]
+     * @ensures parseCondition = [Condition corresponding to c]
+     */
+    private static Condition parseCondition(String c) {
+        assert c != null : "Violation of: c is not null";
+        assert Tokenizer
+                .isCondition(c) : "Violation of: c is a condition string";
+        return Condition.valueOf(c.replace('-', '_').toUpperCase());
+    }
+
+    /**
+     * An IF or WHILE statement being parsed: its header has been parsed, and
+     * its blocks are being parsed.
+     */
+    private static final class Frame {
+
+        /**
+         * The statement parsed.
+         */
+        private final Statement s;
+
+        /**
+         * The block s is added to, or null if s is the statement to parse.
+         */
+        private final Statement parent;
+
+        /**
+         * IF or WHILE.
+         */
+        private final BLLexer.Keyword kind;
+
+        /**
+         * The condition of s.
+         */
+        private final Condition c;
+
+        /**
+         * The THEN block of an IF_ELSE, once its ELSE has been parsed.
+         */
+        private Statement thenBlock;
+
+        /**
+         * Constructor.
+         *
+         * @param s
+         *            the statement parsed
+         * @param parent
+         *            the block s is added to, or null
+         * @param kind
+         *            IF or WHILE
+         * @param c
+         *            the condition of s
+         */
+        Frame(Statement s, Statement parent, BLLexer.Keyword kind,
+                Condition c) {
+            this.s = s;
+            this.parent = parent;
+            this.kind = kind;
+            this.c = c;
+        }
+
+    }
+
+    /**
+     * Parses the header of an IF or IF_ELSE statement from {@code tokens}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @return the condition of the statement
+     * @updates tokens
+     * @requires <pre>
+     * [<"IF"> is a prefix of tokens]  and
+     *  [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * </pre>
+     * @ensures <pre>
+     * if ["IF", a condition, and "THEN" are a proper prefix of #tokens] then
+     *  parseIfHeader = [Condition corresponding to that condition]  and
+     *  #tokens = [those tokens] * tokens
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    private static Condition parseIfHeader(BLLexer tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.hasToken() && tokens.keyword() == BLLexer.Keyword.IF : ""
+                + "Violation of: <\"IF\"> is proper prefix of tokens";
+
+        BLLexer.Keyword IF = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(IF == BLLexer.Keyword.IF,
+                "ERROR: Expected IF");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+
+        boolean isCondition = tokens.isCondition();
+        String condition = tokens.dequeue();
+        Reporter.assertElseFatalError(isCondition,
+                "ERROR: Expected Valid Condition");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+
+        Condition c = parseCondition(condition);
+
+        BLLexer.Keyword then = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(then == BLLexer.Keyword.THEN,
+                "ERROR: expected THEN");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+        return c;
+    }
+
+    /**
+     * Parses the header of a WHILE statement from {@code tokens}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @return the condition of the statement
+     * @updates tokens
+     * @requires <pre>
+     * [<"WHILE"> is a prefix of tokens]  and
+     *  [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * </pre>
+     * @ensures <pre>
+     * if ["WHILE", a condition, and "DO" are a proper prefix of #tokens] then
+     *  parseWhileHeader = [Condition corresponding to that condition]  and
+     *  #tokens = [those tokens] * tokens
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    private static Condition parseWhileHeader(BLLexer tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.hasToken()
+                && tokens.keyword() == BLLexer.Keyword.WHILE : ""
+                        + "Violation of: <\"WHILE\"> is proper prefix"
+                        + " of tokens";
+
+        BLLexer.Keyword While = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(While == BLLexer.Keyword.WHILE,
+                "ERROR: expected WHILE");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+
+        boolean isCondition = tokens.isCondition();
+        String condition = tokens.dequeue();
+        Reporter.assertElseFatalError(isCondition,
+                "ERROR: Expected Valid Condition");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+
+        Condition c = parseCondition(condition);
+
+        BLLexer.Keyword Do = tokens.dequeueKeyword();
+        Reporter.assertElseFatalError(Do == BLLexer.Keyword.DO,
+                "ERROR: expected DO");
+        Reporter.assertElseFatalError(tokens.hasToken(),
+                "ERROR: Unexpected End of Statement");
+        return c;
+    }
+
+    /**
+     * Parses what follows {@code block} in the statement of {@code f}: an
+     * ELSE, or the end of the statement, which is then assembled into
+     * {@code f.s}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param f
+     *            the statement being parsed
+     * @param block
+     *            the block just parsed, the last of f.s so far
+     * @return true iff the statement of f has been parsed
+     * @updates tokens, f
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [ELSE, END IF, or END WHILE, as f.kind allows, is a prefix of
+     *     #tokens] then
+     *  [those tokens are removed from tokens, and f.s is assembled from f
+     *   and block unless they were ELSE]
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    private static boolean parseEnd(BLLexer tokens, Frame f,
+            Statement block) {
+        boolean result = true;
+        if (f.kind == BLLexer.Keyword.IF && f.thenBlock == null) {
+            BLLexer.Keyword next = tokens.dequeueKeyword();
+
+            if (next == BLLexer.Keyword.ELSE) {
+                Reporter.assertElseFatalError(tokens.hasToken(),
+                        "ERROR: Unexpected End of Statement");
+                f.thenBlock = block;
+                result = false;
+            } else if (next == BLLexer.Keyword.END) {
+                Reporter.assertElseFatalError(tokens.hasToken(),
+                        "ERROR: Unexpected End of Statement");
+                BLLexer.Keyword IF2 = tokens.dequeueKeyword();
+                Reporter.assertElseFatalError(IF2 == BLLexer.Keyword.IF,
+                        "ERROR: Expected IF");
+                f.s.assembleIf(f.c, block);
+            } else {
+                Reporter.assertElseFatalError(true,
+                        "ERROR: expected END or ELSE");
+            }
+        } else if (f.kind == BLLexer.Keyword.IF) {
+            BLLexer.Keyword end = tokens.dequeueKeyword();
+            Reporter.assertElseFatalError(end == BLLexer.Keyword.END,
+                    "ERROR: expected END");
+            Reporter.assertElseFatalError(tokens.hasToken(),
+                    "ERROR: Unexpected End of Statement");
+
+            BLLexer.Keyword IF2 = tokens.dequeueKeyword();
+            Reporter.assertElseFatalError(IF2 == BLLexer.Keyword.IF,
+                    "ERROR: Expected IF");
+            f.s.assembleIfElse(f.c, f.thenBlock, block);
+        } else {
+            BLLexer.Keyword end = tokens.dequeueKeyword();
+            Reporter.assertElseFatalError(end == BLLexer.Keyword.END,
+                    "ERROR: expected END");
+            Reporter.assertElseFatalError(tokens.hasToken(),
+                    "ERROR: Unexpected End of Statement");
+
+            BLLexer.Keyword While2 = tokens.dequeueKeyword();
+            Reporter.assertElseFatalError(While2 == BLLexer.Keyword.WHILE,
+                    "ERROR: expected WHILE");
+            f.s.assembleWhile(f.c, block);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the statements of the block being parsed into {@code block}
+     * from {@code tokens}, up to the first token that does not start a
+     * statement. Each IF or WHILE met has its header parsed and is pushed on
+     * {@code stack}, and its first block is parsed next instead of the rest
+     * of {@code block}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param block
+     *            the block being parsed
+     * @param stack
+     *            the IF and WHILE statements being parsed
+     * @return the block being parsed when the parse stopped: block, or the
+     *         first block of the last statement pushed
+     * @updates tokens, block, stack
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     */
+    private static Statement parseStatements(BLLexer tokens, Statement block,
+            Deque<Frame> stack) {
+        Statement result = block;
+        while (tokens.hasToken() && (tokens.isIdentifier()
+                || tokens.keyword() == BLLexer.Keyword.IF
+                || tokens.keyword() == BLLexer.Keyword.WHILE)) {
+            BLLexer.Keyword k = tokens.keyword();
+            if (k == BLLexer.Keyword.IF) {
+                stack.push(new Frame(result.newInstance(), result, k,
+                        parseIfHeader(tokens)));
+                result = result.newInstance();
+            } else if (k == BLLexer.Keyword.WHILE) {
+                stack.push(new Frame(result.newInstance(), result, k,
+                        parseWhileHeader(tokens)));
+                result = result.newInstance();
+            } else {
+                Statement call = result.newInstance();
+                parseCall(tokens, call);
+                result.addToBlock(result.lengthOfBlock(), call);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the statements of the blocks of the statements on
+     * {@code stack}, starting with {@code block}, and assembles them, until
+     * the statement at the bottom of {@code stack} has been parsed.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param block
+     *            the block being parsed, the last of the statement on top of
+     *            stack so far
+     * @param stack
+     *            the IF and WHILE statements being parsed
+     * @updates tokens, block, stack
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [the rest of the statements on #stack are a proper prefix of
+     *     #tokens] then
+     *  stack = <>  and
+     *  [the statement at the bottom of #stack, or in the block it is added
+     *   to, is assembled]
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    private static void parseNested(BLLexer tokens, Statement block,
+            Deque<Frame> stack) {
+        Statement current = block;
+        while (!stack.isEmpty()) {
+            current = parseStatements(tokens, current, stack);
+            Frame f = stack.peek();
+            if (parseEnd(tokens, f, current)) {
+                stack.pop();
+                current = f.parent;
+                if (current != null) {
+                    current.addToBlock(current.lengthOfBlock(), f.s);
+                }
+            } else {
+                current = current.newInstance();
+            }
+        }
+    }
+
+    /**
+     * Parses a CALL statement from {@code tokens} into {@code s}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param s
+     *            the parsed statement
+     * @replaces s
+     * @updates tokens
+     * @requires [identifier string is a proper prefix of tokens]
+     * @ensures <pre>
+     * s =
+     *   [CALL Statement corresponding to identifier string at start of #tokens]  and
+     *  #tokens = [identifier string at start of #tokens] * tokens
+     * </pre>
+     */
+    private static void parseCall(BLLexer tokens, Statement s) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert s != null : "Violation of: s is not null";
+        assert tokens.hasToken() && tokens.isIdentifier() : ""
+                        + "Violation of: identifier string is proper prefix of tokens";
+
+        String call = tokens.dequeue();
+        s.assembleCall(call);
+    }
+
+    /**
+     * Parses a statement from {@code tokens} into {@code s}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param s
+     *            the parsed statement
+     * @replaces s
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [a statement string is a proper prefix of #tokens] then
+     *  s = [Statement corresponding to statement string at start of #tokens]  and
+     *  #tokens = [statement string at start of #tokens] * tokens
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    static void parseStatement(BLLexer tokens, Statement s) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert s != null : "Violation of: s is not null";
+        assert tokens.hasToken() : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        BLLexer.Keyword k = tokens.keyword();
+        Deque<Frame> stack = new ArrayDeque<>();
+        if (k == BLLexer.Keyword.IF) {
+            stack.push(new Frame(s, null, k, parseIfHeader(tokens)));
+            parseNested(tokens, s.newInstance(), stack);
+        } else if (k == BLLexer.Keyword.WHILE) {
+            stack.push(new Frame(s, null, k, parseWhileHeader(tokens)));
+            parseNested(tokens, s.newInstance(), stack);
+        } else {
+            parseCall(tokens, s);
+        }
+    }
+
+    /**
+     * Parses a block from {@code tokens} into {@code s}.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param s
+     *            the parsed block
+     * @replaces s
+     * @updates tokens
+     * @requires [<Tokenizer.END_OF_INPUT> is a suffix of tokens]
+     * @ensures <pre>
+     * if [there is a block string (possibly empty string) which is a proper
+     *     prefix of #tokens] then
+     *  s = [BLOCK Statement corresponding to block string at start of #tokens]  and
+     *  #tokens = [block string at start of #tokens] * tokens
+     * else
+     *  [reports an appropriate error message to the console and terminates client]
+     * </pre>
+     */
+    static void parseBlock(BLLexer tokens, Statement s) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert s != null : "Violation of: s is not null";
+        assert tokens.hasToken() : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        s.clear();
+        Deque<Frame> stack = new ArrayDeque<>();
+        Statement block = parseStatements(tokens, s, stack);
+        while (!stack.isEmpty()) {
+            parseNested(tokens, block, stack);
+            block = parseStatements(tokens, s, stack);
+        }
+    }
+
+    /**
+     * Parses a block from {@code tokens} into {@code s} as {@code parseBlock}
+     * does, but reports no error to the console, so this may run on a thread
+     * whose failure must not end the program. It accepts only well-formed
+     * blocks, each of which {@code parseBlock} parses into the same
+     * statement.
+     *
+     * @param tokens
+     *            the input tokens
+     * @param s
+     *            the parsed block
+     * @return true iff a block string is a proper prefix of #tokens
+     * @replaces s
+     * @updates tokens
+     * @ensures <pre>
+     * if tryParseBlock then
+     *  s = [BLOCK Statement corresponding to block string at start of #tokens]  and
+     *  #tokens = [block string at start of #tokens] * tokens
+     * </pre>
+     */
+    static boolean tryParseBlock(BLLexer tokens, Statement s) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert s != null : "Violation of: s is not null";
+
+        s.clear();
+        Deque<Frame> stack = new ArrayDeque<>();
+        Statement block = s;
+        boolean result = tokens.hasToken();
+        boolean inBlock = true;
+        while (result && inBlock) {
+            BLLexer.Keyword k = tokens.keyword();
+            if (k == BLLexer.Keyword.IF || k == BLLexer.Keyword.WHILE) {
+                tokens.dequeueKeyword();
+                BLLexer.Keyword expected = BLLexer.Keyword.DO;
+                if (k == BLLexer.Keyword.IF) {
+                    expected = BLLexer.Keyword.THEN;
+                }
+                result = tokens.hasToken() && tokens.isCondition();
+                if (result) {
+                    Condition c = parseCondition(tokens.dequeue());
+                    result = tokens.hasToken()
+                            && tokens.dequeueKeyword() == expected;
+                    stack.push(new Frame(block.newInstance(), block, k, c));
+                    block = block.newInstance();
+                }
+            } else if (tokens.isIdentifier()) {
+                Statement call = block.newInstance();
+                call.assembleCall(tokens.dequeue());
+                block.addToBlock(block.lengthOfBlock(), call);
+            } else if (k == BLLexer.Keyword.ELSE && !stack.isEmpty()
+                    && stack.peek().kind == BLLexer.Keyword.IF
+                    && stack.peek().thenBlock == null) {
+                tokens.dequeueKeyword();
+                stack.peek().thenBlock = block;
+                block = block.newInstance();
+            } else if (k == BLLexer.Keyword.END && !stack.isEmpty()) {
+                tokens.dequeueKeyword();
+                Frame f = stack.pop();
+                result = tokens.hasToken() && tokens.dequeueKeyword() == f.kind;
+                if (result) {
+                    if (f.kind == BLLexer.Keyword.WHILE) {
+                        f.s.assembleWhile(f.c, block);
+                    } else if (f.thenBlock == null) {
+                        f.s.assembleIf(f.c, block);
+                    } else {
+                        f.s.assembleIfElse(f.c, f.thenBlock, block);
+                    }
+                    block = f.parent;
+                    block.addToBlock(block.lengthOfBlock(), f.s);
+                }
+            } else {
+                inBlock = false;
+                result = stack.isEmpty();
+            }
+            result = result && tokens.hasToken();
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Statement1Parse1() {
+        super();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    @Override
+    public void parse(Queue<String> tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.length() > 0 : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        parseStatement(new BLLexer(tokens), this);
+    }
+
+    @Override
+    public void parseBlock(Queue<String> tokens) {
+        assert tokens != null : "Violation of: tokens is not null";
+        assert tokens.length() > 0 : ""
+                + "Violation of: Tokenizer.END_OF_INPUT is a suffix of tokens";
+
+        parseBlock(new BLLexer(tokens), this);
+    }
+
+    /*
+     * Main test method -------------------------------------------------------
+     */
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+        /*
+         * Get input file name
+         */
+        out.print("Enter valid BL statement(s) file name: ");
+        String fileName = in.nextLine();
+        /*
+         * Parse input file
+         */
+        out.println("*** Parsing input file ***");
+        Statement s = new Statement1Parse1();
+        try (FileChannel file = new FileInputStream(fileName).getChannel()) {
+            // replace with parseBlock to test other method
+            parseStatement(new BLLexer(file), s);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot read " + fileName + ": " + e.getMessage());
+        }
+        /*
+         * Pretty print the statement(s)
+         */
+        out.println("*** Pretty print of parsed statement(s) ***");
+        s.prettyPrint(out, 0);
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,143 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import components.queue.Queue;
+import components.queue.Queue1L;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.utilities.Tokenizer;
+
+/**
+ * JUnit test fixture for {@code BLLexer}.
+ */
+public class BLLexerTest {
+
+    /**
+     * The names of files containing BL programs and statements, valid or not.
+     */
+    private static final String[] FILE_NAMES = { "test/program1.bl",
+            "test/program2.bl", "test/programError_1.bl",
+            "test/programError_6.bl", "test/statement1.bl",
+            "test/statement2.bl" };
+
+    /**
+     * Returns the tokens {@code Tokenizer.tokens} finds in file
+     * {@code fileName}.
+     *
+     * @param fileName
+     *            the name of the file
+     * @return the tokens
+     */
+    private static Queue<String> tokens(String fileName) {
+        SimpleReader file = new SimpleReader1L(fileName);
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        return tokens;
+    }
+
+    /**
+     * Checks that {@code lexer} produces exactly {@code expected}.
+     *
+     * @param expected
+     *            the tokens expected
+     * @param lexer
+     *            the lexer
+     */
+    private static void assertTokens(Queue<String> expected, BLLexer lexer) {
+        for (String token : expected) {
+            assertTrue(lexer.hasToken());
+            assertEquals(token, lexer.front());
+            assertEquals(Tokenizer.isIdentifier(token), lexer.isIdentifier());
+            assertEquals(Tokenizer.isCondition(token), lexer.isCondition());
+            assertEquals(token, lexer.dequeue());
+        }
+        assertFalse(lexer.hasToken());
+    }
+
+    @Test
+    public void testSameTokensAsTokenizerFromReader() {
+        for (String fileName : FILE_NAMES) {
+            SimpleReader file = new SimpleReader1L(fileName);
+            assertTokens(tokens(fileName), new BLLexer(file));
+            file.close();
+        }
+    }
+
+    @Test
+    public void testSameTokensAsTokenizerFromChannel() throws IOException {
+        for (String fileName : FILE_NAMES) {
+            try (FileChannel file = new FileInputStream(fileName)
+                    .getChannel()) {
+                assertTokens(tokens(fileName), new BLLexer(file));
+            }
+        }
+    }
+
+    @Test
+    public void testTokensAcrossWindows() {
+        StringBuilder source = new StringBuilder();
+        Queue<String> expected = new Queue1L<>();
+        final int n = 5000;
+        for (int i = 0; i < n; i++) {
+            source.append("WHILE\tnext-is-wall DO turn").append(i)
+                    .append("\n\n(*) END WHILE ");
+            expected.enqueue("WHILE");
+            expected.enqueue("next-is-wall");
+            expected.enqueue("DO");
+            expected.enqueue("turn" + i);
+            expected.enqueue("(*)");
+            expected.enqueue("END");
+            expected.enqueue("WHILE");
+        }
+        expected.enqueue(Tokenizer.END_OF_INPUT);
+        byte[] bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+        assertTokens(expected, new BLLexer(
+                Channels.newChannel(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    public void testKeywordsAndInterning() {
+        SimpleReader file = new SimpleReader1L("test/program1.bl");
+        BLLexer lexer = new BLLexer(file);
+        assertEquals(BLLexer.Keyword.PROGRAM, lexer.dequeueKeyword());
+        assertNull(lexer.keyword());
+        assertTrue(lexer.isIdentifier());
+        String name = lexer.dequeue();
+        assertEquals(BLLexer.Keyword.IS, lexer.dequeueKeyword());
+        String last = null;
+        while (lexer.hasToken()) {
+            String token = lexer.dequeue();
+            if (token.equals(name)) {
+                last = token;
+            }
+        }
+        file.close();
+        assertSame(name, last);
+    }
+
+    @Test
+    public void testQueueConsumedLazily() {
+        Queue<String> tokens = tokens("test/program1.bl");
+        int n = tokens.length();
+        BLLexer lexer = new BLLexer(tokens);
+        assertEquals(BLLexer.Keyword.PROGRAM, lexer.keyword());
+        assertEquals(n, tokens.length());
+        lexer.dequeue();
+        assertEquals(n - 1, tokens.length());
+        assertEquals("Test", tokens.front());
+        assertTrue(lexer.isIdentifier());
+    }
+
+}
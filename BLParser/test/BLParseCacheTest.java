@@ -0,0 +1,257 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.program.Program;
+import components.program.Program1;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.statement.Statement;
+
+/**
+ * JUnit test fixture for {@code BLParseCache}.
+ */
+public class BLParseCacheTest {
+
+    /**
+     * Returns the program parsed from file {@code fileName} by
+     * {@code Program1Parse1}.
+     *
+     * @param fileName
+     *            the name of the file
+     * @return the program
+     */
+    private static Program parsed(String fileName) {
+        Program p = new Program1Parse1();
+        SimpleReader file = new SimpleReader1L(fileName);
+        p.parse(file);
+        file.close();
+        return p;
+    }
+
+    /**
+     * Returns the number of entries in cache directory {@code directory}.
+     *
+     * @param directory
+     *            the directory
+     * @return the number of entries
+     */
+    private static int entries(Path directory) {
+        return directory.toFile().list((d, name) -> name
+                .endsWith(BLParseCache.EXTENSION)).length;
+    }
+
+    /**
+     * Checks that {@code expected} and {@code actual} are the same
+     * statement, walking them with an explicit stack rather than recursively
+     * as {@code equals} does, so statements nested to any depth can be
+     * compared. Both are taken apart.
+     *
+     * @param expected
+     *            the expected statement
+     * @param actual
+     *            the actual statement
+     */
+    private static void assertSameStatement(Statement expected,
+            Statement actual) {
+        Deque<Statement[]> pairs = new ArrayDeque<>();
+        pairs.push(new Statement[] { expected, actual });
+        while (!pairs.isEmpty()) {
+            Statement[] pair = pairs.pop();
+            Statement e = pair[0];
+            Statement a = pair[1];
+            assertEquals(e.kind(), a.kind());
+            switch (e.kind()) {
+                case BLOCK: {
+                    assertEquals(e.lengthOfBlock(), a.lengthOfBlock());
+                    while (e.lengthOfBlock() > 0) {
+                        pairs.push(new Statement[] { e.removeFromBlock(0),
+                                a.removeFromBlock(0) });
+                    }
+                    break;
+                }
+                case IF: {
+                    Statement eBlock = e.newInstance();
+                    Statement aBlock = a.newInstance();
+                    assertEquals(e.disassembleIf(eBlock),
+                            a.disassembleIf(aBlock));
+                    pairs.push(new Statement[] { eBlock, aBlock });
+                    break;
+                }
+                case IF_ELSE: {
+                    Statement eThen = e.newInstance();
+                    Statement eElse = e.newInstance();
+                    Statement aThen = a.newInstance();
+                    Statement aElse = a.newInstance();
+                    assertEquals(e.disassembleIfElse(eThen, eElse),
+                            a.disassembleIfElse(aThen, aElse));
+                    pairs.push(new Statement[] { eThen, aThen });
+                    pairs.push(new Statement[] { eElse, aElse });
+                    break;
+                }
+                case WHILE: {
+                    Statement eBlock = e.newInstance();
+                    Statement aBlock = a.newInstance();
+                    assertEquals(e.disassembleWhile(eBlock),
+                            a.disassembleWhile(aBlock));
+                    pairs.push(new Statement[] { eBlock, aBlock });
+                    break;
+                }
+                default: {
+                    assertEquals(e.disassembleCall(), a.disassembleCall());
+                    break;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHitSameAsParse() throws IOException {
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache cache = new BLParseCache(directory.toString(), 1 << 20);
+        for (String fileName : new String[] { "test/program1.bl",
+                "test/programNoError1.bl", "test/programNoError2.bl" }) {
+            Program miss = new Program1();
+            cache.parse(miss, fileName);
+            Program hit = new Program1Parse1();
+            cache.parse(hit, fileName);
+            assertEquals(parsed(fileName), miss);
+            assertEquals(parsed(fileName), hit);
+        }
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(3, entries(directory));
+        BLParseCache reopened = new BLParseCache(directory.toString(),
+                1 << 20);
+        Program p = new Program1Parse1();
+        reopened.parse(p, "test/program1.bl");
+        assertEquals(parsed("test/program1.bl"), p);
+        assertEquals(1, reopened.hits());
+    }
+
+    @Test
+    public void testDeeplyNested() throws IOException {
+        final int depth = 10000;
+        StringBuilder source = new StringBuilder("PROGRAM Deep IS BEGIN\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("WHILE next-is-empty DO move\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            source.append("END WHILE\n");
+        }
+        source.append("END Deep\n");
+        Path file = Files.createTempFile("deep", ".bl");
+        Files.write(file, source.toString().getBytes(StandardCharsets.UTF_8));
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache cache = new BLParseCache(directory.toString(), 1 << 20);
+        Program miss = new Program1Parse1();
+        cache.parse(miss, file.toString());
+        Program hit = new Program1Parse1();
+        cache.parse(hit, file.toString());
+        assertEquals(1, cache.hits());
+        assertEquals(miss.name(), hit.name());
+        Map<String, Statement> missContext = miss.newContext();
+        miss.swapContext(missContext);
+        Map<String, Statement> hitContext = hit.newContext();
+        hit.swapContext(hitContext);
+        assertEquals(missContext, hitContext);
+        Statement missBody = miss.newBody();
+        miss.swapBody(missBody);
+        Statement hitBody = hit.newBody();
+        hit.swapBody(hitBody);
+        assertSameStatement(missBody, hitBody);
+    }
+
+    @Test
+    public void testChangedSourceAndCorruptEntryMiss() throws IOException {
+        Path file = Files.createTempFile("edit", ".bl");
+        Files.copy(new File("test/program1.bl").toPath(), file,
+                StandardCopyOption.REPLACE_EXISTING);
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache cache = new BLParseCache(directory.toString(), 1 << 20);
+        cache.parse(new Program1Parse1(), file.toString());
+        Files.write(file, "\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        cache.parse(new Program1Parse1(), file.toString());
+        assertEquals(2, cache.misses());
+        for (File entry : directory.toFile().listFiles()) {
+            byte[] bytes = Files.readAllBytes(entry.toPath());
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(entry.toPath(), bytes);
+        }
+        Program p = new Program1Parse1();
+        cache.parse(p, file.toString());
+        assertEquals(3, cache.misses());
+        assertEquals(parsed(file.toString()), p);
+    }
+
+    @Test
+    public void testNewParserVersionMisses() throws IOException {
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache cache = new BLParseCache(directory.toString(), 1 << 20,
+                Program1Parse1.PARSER_VERSION);
+        cache.parse(new Program1Parse1(), "test/program1.bl");
+        cache.parse(new Program1Parse1(), "test/program1.bl");
+        assertEquals(1, cache.hits());
+        BLParseCache bumped = new BLParseCache(directory.toString(), 1 << 20,
+                Program1Parse1.PARSER_VERSION + 1);
+        Program p = new Program1Parse1();
+        bumped.parse(p, "test/program1.bl");
+        assertEquals(0, bumped.hits());
+        assertEquals(1, bumped.misses());
+        assertEquals(parsed("test/program1.bl"), p);
+        assertEquals(2, entries(directory));
+        bumped.parse(new Program1Parse1(), "test/program1.bl");
+        assertEquals(1, bumped.hits());
+    }
+
+    @Test
+    public void testWriteFailureNotFatal() throws IOException {
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache cache = new BLParseCache(directory.toString(), 1 << 20);
+        Files.delete(directory);
+        Program p = new Program1Parse1();
+        cache.parse(p, "test/program1.bl");
+        assertEquals(1, cache.misses());
+        assertEquals(parsed("test/program1.bl"), p);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path directory = Files.createTempDirectory("blp");
+        BLParseCache big = new BLParseCache(directory.toString(), 1 << 20);
+        big.parse(new Program1Parse1(), "test/programNoError1.bl");
+        File first = directory.toFile().listFiles()[0];
+        long size1 = first.length();
+        first.setLastModified(0);
+        big.parse(new Program1Parse1(), "test/programNoError2.bl");
+        long size2 = 0;
+        for (File entry : directory.toFile().listFiles()) {
+            if (!entry.equals(first)) {
+                size2 = entry.length();
+                entry.delete();
+            }
+        }
+        BLParseCache cache = new BLParseCache(directory.toString(),
+                size1 + size2 - 1);
+        cache.parse(new Program1Parse1(), "test/programNoError2.bl");
+        assertEquals(1, entries(directory));
+        assertTrue(!first.exists());
+        cache.parse(new Program1Parse1(), "test/programNoError2.bl");
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+}
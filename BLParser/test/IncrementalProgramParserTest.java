@@ -0,0 +1,198 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.program.Program;
+import components.statement.Statement;
+
+/**
+ * JUnit test fixture for {@code IncrementalProgramParser}.
+ */
+public class IncrementalProgramParserTest {
+
+    /**
+     * Returns the program {@code Program1Parse1} parses from {@code source}.
+     *
+     * @param source
+     *            the source
+     * @return the program
+     */
+    private static Program parsed(String source) {
+        Program1Parse1 p = new Program1Parse1();
+        p.parse(new BLLexer(source, 0, source.length()));
+        return p;
+    }
+
+    /**
+     * Returns the message of the error reported parsing {@code source}, or
+     * after the edit of {@code parser} that makes {@code p} replace
+     * {@code target} in its source with {@code text}.
+     *
+     * @param parser
+     *            the parser, or null to parse source
+     * @param p
+     *            the program
+     * @param source
+     *            the source, if parser is null, or else the text replaced
+     * @param text
+     *            the text replacing it
+     * @return the error message, or null
+     */
+    private static String error(IncrementalProgramParser parser, Program p,
+            String source, String text) {
+        String result = null;
+        try {
+            if (parser == null) {
+                parsed(source);
+            } else {
+                int at = parser.source().indexOf(source);
+                parser.edit(p, at, at + source.length(), text);
+            }
+        } catch (RuntimeException e) {
+            result = e.getMessage();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the source in file {@code fileName}.
+     *
+     * @param fileName
+     *            the name of the file
+     * @return the source
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static String read(String fileName) throws IOException {
+        return new String(Files.readAllBytes(Paths.get(fileName)), "UTF-8");
+    }
+
+    @Test
+    public void testEditOneInstruction() throws IOException {
+        String source = read("test/program1.bl");
+        Program p = new Program1Parse1();
+        IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                source);
+        assertEquals(parsed(source), p);
+
+        Map<String, Statement> context = p.newContext();
+        p.swapContext(context);
+        Statement one = context.value("one");
+        Statement two = context.value("two");
+        p.swapContext(context);
+
+        int at = source.indexOf("turnleft");
+        parser.edit(p, at, at + "turnleft".length(), "turnright\n  skip");
+        assertEquals(parsed(parser.source()), p);
+
+        p.swapContext(context);
+        assertNotSame(one, context.value("one"));
+        assertSame(two, context.value("two"));
+        p.swapContext(context);
+    }
+
+    @Test
+    public void testEditMainBlockAndRename() throws IOException {
+        String source = read("test/program1.bl");
+        Program p = new Program1Parse1();
+        IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                source);
+        int at = source.indexOf("BEGIN") + "BEGIN".length();
+        parser.edit(p, at, at, " two move");
+        assertEquals(parsed(parser.source()), p);
+
+        String text = parser.source();
+        at = text.indexOf("INSTRUCTION one") + "INSTRUCTION ".length();
+        int end = text.indexOf("END one") + "END one".length();
+        parser.edit(p, at, end, "three IS move END three");
+        assertEquals(parsed(parser.source()), p);
+    }
+
+    @Test
+    public void testEditAcrossInstructions() throws IOException {
+        String source = read("test/program1.bl");
+        Program p = new Program1Parse1();
+        IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                source);
+        int at = source.indexOf("END one");
+        int end = source.indexOf("INSTRUCTION two IS")
+                + "INSTRUCTION two IS".length();
+        parser.edit(p, at, end, "END one INSTRUCTION four IS infect END four"
+                + " INSTRUCTION two IS");
+        assertEquals(parsed(parser.source()), p);
+        at = parser.source().indexOf("END four");
+        parser.edit(p, at, at, "move ");
+        assertEquals(parsed(parser.source()), p);
+    }
+
+    @Test
+    public void testWhiteSpaceBetweenInstructionsParsesNothing()
+            throws IOException {
+        String source = read("test/program1.bl");
+        Program p = new Program1Parse1();
+        IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                source);
+        Map<String, Statement> context = p.newContext();
+        p.swapContext(context);
+        Statement one = context.value("one");
+        Statement two = context.value("two");
+        p.swapContext(context);
+        Statement body = p.newBody();
+        p.swapBody(body);
+        Statement main = body;
+        p.swapBody(body);
+
+        int at = source.indexOf("END one") + "END one".length();
+        parser.edit(p, at, at + 1, "\n\n\t \n");
+        at = parser.source().indexOf("END two") + "END two".length();
+        parser.edit(p, at, at, "   ");
+        assertEquals(parsed(parser.source()), p);
+        p.swapContext(context);
+        assertSame(one, context.value("one"));
+        assertSame(two, context.value("two"));
+        p.swapContext(context);
+        p.swapBody(body);
+        assertSame(main, body);
+        p.swapBody(body);
+
+        at = parser.source().indexOf("turnleft", parser.source()
+                .indexOf("INSTRUCTION two"));
+        parser.edit(p, at, at + "turnleft".length(), "turnright");
+        assertEquals(parsed(parser.source()), p);
+
+        String text = parser.source();
+        at = text.indexOf("END one") + "END one".length();
+        int end = text.indexOf("INSTRUCTION two");
+        String expected = error(null, null,
+                text.substring(0, at) + text.substring(end), null);
+        assertNotNull(expected);
+        assertEquals(expected, error(parser, p, text.substring(at, end), ""));
+    }
+
+    @Test
+    public void testSameErrors() throws IOException {
+        String source = read("test/program1.bl");
+        String[][] edits = { { "END one", "END" }, { "END one", "" },
+                { "INSTRUCTION two IS", "INSTRUCTION one IS" },
+                { "IF next-is-not-empty", "IF nothing" },
+                { "END two", "END two move" } };
+        for (String[] edit : edits) {
+            Program p = new Program1Parse1();
+            IncrementalProgramParser parser = new IncrementalProgramParser(p,
+                    source);
+            String expected = error(null, null,
+                    source.replaceFirst(edit[0], edit[1]), null);
+            assertNotNull(expected);
+            assertEquals(expected, error(parser, p, edit[0], edit[1]));
+        }
+    }
+
+}
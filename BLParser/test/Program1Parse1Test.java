@@ -0,0 +1,228 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import components.program.Program;
+import components.program.Program1;
+import components.queue.Queue;
+import components.queue.Queue1L;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.statement.Statement;
+import components.statement.Statement1;
+import components.utilities.Tokenizer;
+
+/**
+ * Customized JUnit test fixture for {@code Program1Parse1}.
+ */
+public class Program1Parse1Test extends ProgramTest {
+
+    @Override
+    protected final Program constructorTest() {
+        return new Program1Parse1();
+    }
+
+    @Override
+    protected final Program constructorRef() {
+        return new Program1();
+    }
+
+    /**
+     * Returns the tokens in file {@code fileName}.
+     *
+     * @param fileName
+     *            the name of the file
+     * @return the tokens
+     */
+    private static Queue<String> tokens(String fileName) {
+        SimpleReader file = new SimpleReader1L(fileName);
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        return tokens;
+    }
+
+    /**
+     * Returns the tokens of a program defining {@code n} instructions, the
+     * instruction {@code duplicate} defined twice unless it is negative.
+     *
+     * @param n
+     *            the number of instructions
+     * @param duplicate
+     *            the instruction defined twice, or -1
+     * @return the tokens
+     */
+    private static Queue<String> generated(int n, int duplicate) {
+        Queue<String> tokens = new Queue1L<>();
+        String source = "PROGRAM Gen IS";
+        for (int i = 0; i < n; i++) {
+            int name = i;
+            if (i == duplicate + 1) {
+                name = duplicate;
+            }
+            source += " INSTRUCTION i" + name + " IS IF next-is-wall THEN"
+                    + " WHILE random DO turnleft END WHILE ELSE move"
+                    + " END IF skip END i" + name;
+        }
+        source += " BEGIN i0 END Gen";
+        for (String t : source.split(" ")) {
+            tokens.enqueue(t);
+        }
+        tokens.enqueue(Tokenizer.END_OF_INPUT);
+        return tokens;
+    }
+
+    /**
+     * Returns a lexer over the tokens of {@code source}, split at spaces.
+     *
+     * @param source
+     *            the source
+     * @return the lexer
+     */
+    private static BLLexer lexer(String source) {
+        Queue<String> tokens = new Queue1L<>();
+        for (String t : source.split(" ")) {
+            tokens.enqueue(t);
+        }
+        return new BLLexer(tokens);
+    }
+
+    /**
+     * Returns the message of the error {@code parse(Queue)} reports on
+     * {@code tokens}, or null if it parses.
+     *
+     * @param tokens
+     *            the tokens
+     * @param pool
+     *            the pool to parse on, or null to parse in order
+     * @return the error message
+     */
+    private static String error(Queue<String> tokens, ForkJoinPool pool) {
+        String result = null;
+        Program1Parse1 p = new Program1Parse1();
+        try {
+            if (pool == null) {
+                p.parse(tokens);
+            } else {
+                p.parse(tokens, pool);
+            }
+        } catch (RuntimeException e) {
+            result = e.getMessage();
+        }
+        return result;
+    }
+
+    @Test
+    public final void testParseParallelSameAsInOrder() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (String fileName : new String[] { "test/program1.bl",
+                "test/programNoError1.bl", "test/programNoError2.bl" }) {
+            Program pRef = this.constructorTest();
+            pRef.parse(tokens(fileName));
+            Program1Parse1 pTest = new Program1Parse1();
+            Queue<String> tokens = tokens(fileName);
+            pTest.parse(tokens, pool);
+            assertEquals(pRef, pTest);
+            assertEquals(0, tokens.length());
+        }
+        final int n = 300;
+        Program pRef = this.constructorTest();
+        pRef.parse(generated(n, -1));
+        Program1Parse1 pTest = new Program1Parse1();
+        pTest.parse(generated(n, -1), pool);
+        assertEquals(pRef, pTest);
+        pool.shutdown();
+    }
+
+    @Test
+    public final void testParseParallelSameErrors() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int i = 1; i <= 6; i++) {
+            String fileName = "test/programError_" + i + ".bl";
+            String expected = error(tokens(fileName), null);
+            assertTrue(expected != null);
+            assertEquals(expected, error(tokens(fileName), pool));
+        }
+        final int n = 100;
+        String expected = error(generated(n, n / 2), null);
+        assertTrue(expected != null);
+        assertEquals(expected, error(generated(n, n / 2), pool));
+        pool.shutdown();
+    }
+
+    @Test
+    public final void testTryParseInstructionReportsNothing() {
+        String[] invalid = { "INSTRUCTION i IS move END j BEGIN",
+                "INSTRUCTION i IS IF next-is-wall THEN move END WHILE END i"
+                        + " BEGIN",
+                "INSTRUCTION i IS WHILE blah DO move END WHILE END i BEGIN",
+                "INSTRUCTION i IS IF random THEN move ELSE skip ELSE skip"
+                        + " END IF END i BEGIN",
+                "INSTRUCTION i IS IF random THEN move END i BEGIN",
+                "INSTRUCTION IF IS move END IF BEGIN",
+                "INSTRUCTION i IS move END" };
+        for (String source : invalid) {
+            assertNull(source, Program1Parse1.tryParseInstruction(
+                    lexer(source), new Statement1()));
+        }
+        String valid = "INSTRUCTION i IS IF random THEN WHILE true DO move"
+                + " END WHILE ELSE skip END IF turnleft END i BEGIN";
+        Statement expected = new Statement1();
+        assertEquals("i", Program1Parse1.parseInstruction(lexer(valid),
+                expected));
+        BLLexer tokens = lexer(valid);
+        Statement body = new Statement1();
+        assertEquals("i", Program1Parse1.tryParseInstruction(tokens, body));
+        assertEquals(expected, body);
+        assertEquals("BEGIN", tokens.dequeue());
+        assertFalse(tokens.hasToken());
+    }
+
+    @Test
+    public final void testParseParallelManyBatches() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        final int n = 1000;
+        Program pRef = this.constructorTest();
+        pRef.parse(generated(n, -1));
+        Program1Parse1 pTest = new Program1Parse1();
+        Queue<String> tokens = generated(n, -1);
+        pTest.parse(tokens, pool);
+        assertEquals(pRef, pTest);
+        assertEquals(0, tokens.length());
+        for (int duplicate : new int[] { 0, n / 3, n - 2 }) {
+            String expected = error(generated(n, duplicate), null);
+            assertTrue(expected != null);
+            assertEquals(expected, error(generated(n, duplicate), pool));
+        }
+        for (int bad : new int[] { 1, n / 2, n - 1 }) {
+            Queue<String> invalid = generated(n, -1);
+            Queue<String> order = invalid.newInstance();
+            int dos = 0;
+            while (invalid.length() > 0) {
+                String t = invalid.dequeue();
+                if (t.equals("DO")) {
+                    if (dos == bad) {
+                        t = "THEN";
+                    }
+                    dos++;
+                }
+                order.enqueue(t);
+            }
+            Queue<String> parallel = order.newInstance();
+            for (int i = 0; i < order.length(); i++) {
+                String t = order.dequeue();
+                parallel.enqueue(t);
+                order.enqueue(t);
+            }
+            String expected = error(order, null);
+            assertTrue(expected != null);
+            assertEquals(expected, error(parallel, pool));
+        }
+        pool.shutdown();
+    }
+
+}
@@ -0,0 +1,229 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import components.program.Program;
+import components.queue.Queue;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.utilities.Tokenizer;
+
+/**
+ * JUnit test fixture for {@code Program}'s constructor and kernel methods.
+ *
+ * @author Put your name here
+ *
+ */
+public abstract class ProgramTest {
+
+    /**
+     * The names of a files containing a (possibly invalid) BL programs.
+     */
+    private static final String FILE_NAME_1 = "test/program1.bl",
+            FILE_NAME_2 = "test/program2.bl";
+
+    /**
+     * Invokes the {@code Program} constructor for the implementation under test
+     * and returns the result.
+     *
+     * @return the new program
+     * @ensures constructorTest = ("Unnamed", {}, compose((BLOCK, ?, ?), <>))
+     */
+    protected abstract Program constructorTest();
+
+    /**
+     * Invokes the {@code Program} constructor for the reference implementation
+     * and returns the result.
+     *
+     * @return the new program
+     * @ensures constructorRef = ("Unnamed", {}, compose((BLOCK, ?, ?), <>))
+     */
+    protected abstract Program constructorRef();
+
+    /**
+     * Test of parse on syntactically valid input.
+     */
+    @Test
+    public final void testParseValidExample() {
+        /*
+         * Setup
+         */
+        Program pRef = this.constructorRef();
+        SimpleReader file = new SimpleReader1L(FILE_NAME_1);
+        pRef.parse(file);
+        file.close();
+        Program pTest = this.constructorTest();
+        file = new SimpleReader1L(FILE_NAME_1);
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call
+         */
+        pTest.parse(tokens);
+        /*
+         * Evaluation
+         */
+        assertEquals(pRef, pTest);
+    }
+
+    @Test
+    public final void testParseValidTestMoreInstruction() {
+        /*
+         * Setup
+         */
+        Program pRef = this.constructorRef();
+        SimpleReader file = new SimpleReader1L("test/programNoError1.bl");
+        pRef.parse(file);
+        file.close();
+        Program pTest = this.constructorTest();
+        file = new SimpleReader1L("test/programNoError1.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call
+         */
+        pTest.parse(tokens);
+        /*
+         * Evaluation
+         */
+        assertEquals(pRef, pTest);
+    }
+
+    @Test
+    public final void testParseValidTestMoreBody() {
+        /*
+         * Setup
+         */
+        Program pRef = this.constructorRef();
+        SimpleReader file = new SimpleReader1L("test/programNoError2.bl");
+        pRef.parse(file);
+        file.close();
+        Program pTest = this.constructorTest();
+        file = new SimpleReader1L("test/programNoError2.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call
+         */
+        pTest.parse(tokens);
+        /*
+         * Evaluation
+         */
+        assertEquals(pRef, pTest);
+    }
+
+    /**
+     * Test of parse on syntactically invalid input.
+     */
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorExample() {
+        /*
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L(FILE_NAME_2);
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorCapitalization() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_1.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorMissingBegin() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_2.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorMissingEnd() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_3.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorFakeCondition() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_4.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorFakeInstructionNameEnd() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_5.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public final void testParseErrorFakeInstructionNameCall() {
+        /*
+         *
+         * Setup
+         */
+        Program pTest = this.constructorTest();
+        SimpleReader file = new SimpleReader1L("test/programError_6.bl");
+        Queue<String> tokens = Tokenizer.tokens(file);
+        file.close();
+        /*
+         * The call--should result in a syntax error being found
+         */
+        pTest.parse(tokens);
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import components.queue.Queue;
+import components.queue.Queue1L;
+import components.statement.Statement;
+import components.statement.Statement1;
+import components.statement.StatementKernel.Kind;
+import components.utilities.Tokenizer;
+
+/**
+ * Customized JUnit test fixture for {@code Statement1Parse1}.
+ */
+public class Statement1Parse1Test extends StatementTest {
+
+    @Override
+    protected final Statement constructorTest() {
+        return new Statement1Parse1();
+    }
+
+    @Override
+    protected final Statement constructorRef() {
+        return new Statement1();
+    }
+
+    /**
+     * Returns the tokens of {@code depth} IF_ELSE statements, each nested in
+     * the ELSE block of the one before, each with a WHILE in its THEN block.
+     *
+     * @param depth
+     *            the nesting depth
+     * @return the tokens
+     */
+    private static Queue<String> nestedTokens(int depth) {
+        Queue<String> tokens = new Queue1L<>();
+        for (int i = 0; i < depth; i++) {
+            for (String t : new String[] { "IF", "next-is-enemy", "THEN",
+                    "WHILE", "random", "DO", "infect", "END", "WHILE",
+                    "ELSE", "turnleft" }) {
+                tokens.enqueue(t);
+            }
+        }
+        tokens.enqueue("move");
+        for (int i = 0; i < depth; i++) {
+            tokens.enqueue("END");
+            tokens.enqueue("IF");
+        }
+        tokens.enqueue("skip");
+        tokens.enqueue(Tokenizer.END_OF_INPUT);
+        return tokens;
+    }
+
+    @Test
+    public final void testParseBlockNestedSameAsReference() {
+        final int depth = 50;
+        Statement sRef = this.constructorRef();
+        sRef.parseBlock(nestedTokens(depth));
+        Statement sTest = this.constructorTest();
+        Queue<String> tokens = nestedTokens(depth);
+        sTest.parseBlock(tokens);
+        assertEquals(sRef, sTest);
+        assertEquals(1, tokens.length());
+    }
+
+    @Test
+    public final void testParseNestedSameAsReference() {
+        final int depth = 50;
+        Statement sRef = this.constructorRef();
+        sRef.parse(nestedTokens(depth));
+        Statement sTest = this.constructorTest();
+        Queue<String> tokens = nestedTokens(depth);
+        sTest.parse(tokens);
+        assertEquals(sRef, sTest);
+        assertEquals(2, tokens.length());
+    }
+
+    @Test
+    public final void testParseDeeplyNested() {
+        final int depth = 100000;
+        Statement s = this.constructorTest();
+        s.parseBlock(nestedTokens(depth));
+        assertEquals(2, s.lengthOfBlock());
+        Statement ifElse = s.removeFromBlock(0);
+        for (int i = 0; i < depth; i++) {
+            Statement thenBlock = ifElse.newInstance();
+            Statement elseBlock = ifElse.newInstance();
+            ifElse.disassembleIfElse(thenBlock, elseBlock);
+            assertEquals(1, thenBlock.lengthOfBlock());
+            assertEquals(Kind.WHILE, thenBlock.removeFromBlock(0).kind());
+            assertEquals(2, elseBlock.lengthOfBlock());
+            assertEquals(Kind.CALL, elseBlock.removeFromBlock(0).kind());
+            ifElse = elseBlock.removeFromBlock(0);
+        }
+        assertEquals("move", ifElse.disassembleCall());
+    }
+
+}
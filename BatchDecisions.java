@@ -0,0 +1,322 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Decisions of many bugs running the same compiled BL program at once. For
+ * every bug the entry of the {@code ResolvedProgram} transition table for its
+ * {@code (pc, wbs)} is looked up first, in one pass over the whole batch;
+ * then, in bug order, the few bugs whose entry is a random jump finish their
+ * walk one at a time. The random source is therefore consulted in the same
+ * order as by a loop calling
+ * {@code ResolvedProgram.nextPrimitiveInstructionAddress} for each bug, and
+ * the answers are identical.
+ * <p>
+ * The lookup pass uses the {@code jdk.incubator.vector} gather in
+ * {@code VectorDecisions} when that module is present and that class, which
+ * is compiled separately, is on the class path, and a plain loop otherwise.
+ * It is looked up by name, so this class compiles without the module.
+ */
+public final class BatchDecisions {
+
+    /**
+     * {@code VectorDecisions.lookUp}, or null if the vector API is not
+     * available.
+     */
+    private static final MethodHandle VECTOR_LOOK_UP = vectorLookUp();
+
+    /**
+     * Whether the vector API is available.
+     */
+    private static final boolean VECTOR = VECTOR_LOOK_UP != null;
+
+    /**
+     * Cached {@code CellState.values()}.
+     */
+    private static final BugsWorldVMInterpreter.CellState[] STATES = BugsWorldVMInterpreter.CellState
+            .values();
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private BatchDecisions() {
+        // no code needed here
+    }
+
+    /**
+     * Returns {@code VectorDecisions.lookUp}, or null if the
+     * {@code jdk.incubator.vector} module is not present or
+     * {@code VectorDecisions} is not on the class path.
+     *
+     * @return the method handle, or null
+     */
+    private static MethodHandle vectorLookUp() {
+        MethodHandle result = null;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector")
+                .isPresent()) {
+            try {
+                result = MethodHandles.lookup().findStatic(
+                        Class.forName("VectorDecisions"), "lookUp",
+                        MethodType.methodType(void.class, int[].class,
+                                byte[].class, int[].class, int[].class));
+            } catch (ReflectiveOperationException | LinkageError e) {
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs {@code VectorDecisions.lookUp(table, wbs, pcs, result)}.
+     *
+     * @param table
+     *            the transition table
+     * @param wbs
+     *            the ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            receives the table entry of each bug
+     * @replaces result
+     * @requires <pre>
+     * isVectorized  and  |wbs| = |pcs| = |result|  and
+     *  [every (pcs[i] << STATE_SHIFT) | wbs[i] is an index of table]
+     * </pre>
+     */
+    private static void vectorLookUp(int[] table, byte[] wbs, int[] pcs,
+            int[] result) {
+        try {
+            VECTOR_LOOK_UP.invokeExact(table, wbs, pcs, result);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finishes, in bug order, the walks of the bugs whose table entry is a
+     * random jump.
+     *
+     * @param rp
+     *            the resolved program
+     * @param wbs
+     *            the ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            the table entry of each bug, replaced by its decision
+     * @param random
+     *            the source of random condition values
+     * @updates result, random
+     */
+    private static void finishRandomWalks(ResolvedProgram rp, byte[] wbs,
+            int[] pcs, int[] result, RandomSource random) {
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] < 0 && result[i] != BugsWorldVMInterpreter.STALLED) {
+                result[i] = rp.nextPrimitiveInstructionAddress(STATES[wbs[i]],
+                        pcs[i], random);
+            }
+        }
+    }
+
+    /**
+     * Sets {@code result[i]} to the transition table entry of bug {@code i}
+     * with a plain loop.
+     *
+     * @param table
+     *            the transition table
+     * @param wbs
+     *            the ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            receives the table entry of each bug
+     * @replaces result
+     */
+    private static void lookUp(int[] table, byte[] wbs, int[] pcs,
+            int[] result) {
+        for (int i = 0; i < pcs.length; i++) {
+            result[i] = table[(pcs[i] << ResolvedProgram.STATE_SHIFT) | wbs[i]];
+        }
+    }
+
+    /**
+     * Reports whether the vector lookup is available.
+     *
+     * @return true iff the {@code jdk.incubator.vector} module is present and
+     *         {@code VectorDecisions} is on the class path
+     */
+    public static boolean isVectorized() {
+        return VECTOR;
+    }
+
+    /**
+     * Computes the location of the next primitive instruction of every bug
+     * of a batch running the program of {@code rp}, as
+     * {@code rp.nextPrimitiveInstructionAddress} would for each bug in turn.
+     *
+     * @param rp
+     *            the resolved program
+     * @param wbs
+     *            the {@code CellState} ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            receives the decision of each bug
+     * @param random
+     *            the source of random condition values
+     * @replaces result
+     * @updates random
+     * @requires <pre>
+     * |wbs| = |pcs| = |result|  and  [every wbs[i] is a CellState ordinal]
+     *  and  [every pcs[i] is the location of an instruction byte code in
+     *  rp.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [result[i] is rp.nextPrimitiveInstructionAddress(wbs[i], pcs[i],
+     *  random) for i = 0, 1, ... in turn]
+     * </pre>
+     */
+    public static void nextPrimitiveInstructionAddresses(ResolvedProgram rp,
+            byte[] wbs, int[] pcs, int[] result, RandomSource random) {
+        nextPrimitiveInstructionAddresses(rp, wbs, pcs, result, random,
+                VECTOR);
+    }
+
+    /**
+     * Same as {@link #nextPrimitiveInstructionAddresses(ResolvedProgram,
+     * byte[], int[], int[], RandomSource)}, with the lookup pass vectorized
+     * only if {@code vectorized} is true.
+     *
+     * @param rp
+     *            the resolved program
+     * @param wbs
+     *            the {@code CellState} ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            receives the decision of each bug
+     * @param random
+     *            the source of random condition values
+     * @param vectorized
+     *            whether to use the vector lookup
+     * @replaces result
+     * @updates random
+     * @requires <pre>
+     * [as for the public overload]  and  (not vectorized or isVectorized)
+     * </pre>
+     */
+    static void nextPrimitiveInstructionAddresses(ResolvedProgram rp,
+            byte[] wbs, int[] pcs, int[] result, RandomSource random,
+            boolean vectorized) {
+        assert rp != null : "Violation of: rp is not null";
+        assert wbs != null : "Violation of: wbs is not null";
+        assert pcs != null : "Violation of: pcs is not null";
+        assert result != null : "Violation of: result is not null";
+        assert random != null : "Violation of: random is not null";
+        assert wbs.length == pcs.length
+                && pcs.length == result.length : ""
+                        + "Violation of: |wbs| = |pcs| = |result|";
+        assert !vectorized || VECTOR : "Violation of: isVectorized";
+
+        if (vectorized) {
+            vectorLookUp(rp.table(), wbs, pcs, result);
+        } else {
+            lookUp(rp.table(), wbs, pcs, result);
+        }
+        finishRandomWalks(rp, wbs, pcs, result, random);
+    }
+
+    /**
+     * Main method: times a batch of random bug states decided one call at a
+     * time, with the scalar batch and with the vector batch.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter compiled BL program file name: ");
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(
+                BugsWorldVMInterpreter.loadProgram(in.nextLine())));
+        DecodedProgram dp = rp.decoded();
+
+        final int bugs = 1 << 14;
+        final int batches = 2000;
+        final int rounds = 5;
+        final long seed = 2231;
+        final double nanosPerSecond = 1e9;
+        SplittableRandom states = new SplittableRandom(seed);
+        byte[] wbs = new byte[bugs];
+        int[] pcs = new int[bugs];
+        for (int i = 0; i < bugs; i++) {
+            wbs[i] = (byte) states.nextInt(STATES.length);
+            int pc = states.nextInt(dp.length());
+            while (!dp.isInstructionStart(pc)) {
+                pc--;
+            }
+            pcs[i] = pc;
+        }
+        int[] result = new int[bugs];
+        int[] expected = new int[bugs];
+
+        final int modes = 3;
+        String[] names = { "one call per bug", "scalar batch",
+                "vector batch" };
+        double[] best = new double[modes];
+        Arrays.fill(best, Double.MAX_VALUE);
+        for (int r = 0; r < rounds; r++) {
+            for (int mode = 0; mode < modes; mode++) {
+                if (mode < 2 || VECTOR) {
+                    RandomSource random = new SplitMixRandomSource(seed);
+                    long start = System.nanoTime();
+                    for (int b = 0; b < batches; b++) {
+                        if (mode == 0) {
+                            for (int i = 0; i < bugs; i++) {
+                                expected[i] = rp
+                                        .nextPrimitiveInstructionAddress(
+                                                STATES[wbs[i]], pcs[i],
+                                                random);
+                            }
+                        } else {
+                            nextPrimitiveInstructionAddresses(rp, wbs, pcs,
+                                    result, random, mode == 2);
+                        }
+                    }
+                    best[mode] = Math.min(best[mode],
+                            (System.nanoTime() - start) / nanosPerSecond);
+                    if (mode > 0 && !Arrays.equals(result, expected)) {
+                        out.println("*** " + names[mode]
+                                + " DIFFERS FROM ONE CALL PER BUG ***");
+                    }
+                }
+            }
+        }
+        double decisions = (double) bugs * batches;
+        for (int mode = 0; mode < modes; mode++) {
+            if (mode < 2 || VECTOR) {
+                out.println(String.format("%-18s %8.2f ns/decision",
+                        names[mode], best[mode] * nanosPerSecond / decisions));
+            } else {
+                out.println(String.format("%-18s %s", names[mode],
+                        "unavailable (compile vector/VectorDecisions.java"
+                                + " and run with --add-modules"
+                                + " jdk.incubator.vector)"));
+            }
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
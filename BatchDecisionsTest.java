@@ -0,0 +1,86 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BatchDecisions}.
+ */
+public class BatchDecisionsTest {
+
+    /**
+     * Compiled program for
+     * {@code IF next-is-empty THEN move ELSE IF random THEN turnleft ELSE
+     * turnright END IF END IF} in a loop, followed by a jump cycle.
+     */
+    private static final int[] MIXED = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 10,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.TURNRIGHT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.JUMP.byteCode(), 13, Instruction.HALT.byteCode() };
+
+    /**
+     * Checks the batch decisions for {@code n} random bug states of
+     * {@code cp} against one call per bug, in every available mode.
+     *
+     * @param cp
+     *            the compiled program
+     * @param n
+     *            the number of bugs
+     */
+    private static void assertAgreesWithOneCallPerBug(int[] cp, int n) {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(cp));
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        SplittableRandom r = new SplittableRandom(n);
+        byte[] wbs = new byte[n];
+        int[] pcs = new int[n];
+        for (int i = 0; i < n; i++) {
+            wbs[i] = (byte) r.nextInt(states.length);
+            int pc = r.nextInt(cp.length);
+            while (!rp.decoded().isInstructionStart(pc)) {
+                pc--;
+            }
+            pcs[i] = pc;
+        }
+        final long seed = 5;
+        int[] expected = new int[n];
+        RandomSource random = new SplitMixRandomSource(seed);
+        for (int i = 0; i < n; i++) {
+            expected[i] = rp.nextPrimitiveInstructionAddress(states[wbs[i]],
+                    pcs[i], random);
+        }
+        int[] result = new int[n];
+        BatchDecisions.nextPrimitiveInstructionAddresses(rp, wbs, pcs, result,
+                new SplitMixRandomSource(seed), false);
+        assertArrayEquals(expected, result);
+        if (BatchDecisions.isVectorized()) {
+            result = new int[n];
+            BatchDecisions.nextPrimitiveInstructionAddresses(rp, wbs, pcs,
+                    result, new SplitMixRandomSource(seed), true);
+            assertArrayEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertAgreesWithOneCallPerBug(MIXED, 0);
+    }
+
+    @Test
+    public void testSmallBatch() {
+        assertAgreesWithOneCallPerBug(MIXED, 3);
+    }
+
+    @Test
+    public void testLargeUnevenBatch() {
+        final int bugs = 1001;
+        assertAgreesWithOneCallPerBug(MIXED, bugs);
+    }
+
+}
@@ -0,0 +1,1264 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import components.program.Program.Instruction;
+import components.utilities.Reporter;
+
+/**
+ * Headless BugsWorld simulation engine. Bugs live on a rectangular grid whose
+ * border behaves as a wall; each bug runs the compiled BL program of its
+ * species with the semantics of
+ * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress}.
+ * <p>
+ * Bug state is kept in parallel primitive arrays indexed by bug number
+ * (struct of arrays) rather than in one object per bug, and all scratch
+ * space is allocated up front, so stepping the world allocates nothing and
+ * streams through a handful of dense arrays.
+ * <p>
+ * A round has two phases. First every bug senses the cell in front of it and
+ * decides its next primitive instruction from the state of the world at the
+ * start of the round. Then the decisions are committed: a MOVE succeeds if the
+ * target cell was empty at the start of the round and no lower-numbered bug
+ * moved into it, and when several bugs INFECT the same enemy the
+ * lowest-numbered one wins, with the species it had at the start of the round.
+ * <p>
+ * Every per-bug task in a round only reads state from the start of the round
+ * (or of the current pass) and only writes state owned by its own bug, and
+ * conflicts are settled by bug number rather than by order of execution. A
+ * round can therefore be split across a fork-join pool, and a given seed gives
+ * bit-identical results for any number of threads.
+ */
+public final class BugsWorld {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Grid value of an empty cell.
+     */
+    private static final int EMPTY_CELL = -1;
+
+    /**
+     * Grid value of a wall cell.
+     */
+    private static final int WALL_CELL = -2;
+
+    /**
+     * Ordinal of {@code CellState.EMPTY}.
+     */
+    private static final int EMPTY = BugsWorldVMInterpreter.CellState.EMPTY
+            .ordinal();
+
+    /**
+     * Ordinal of {@code CellState.WALL}.
+     */
+    private static final int WALL = BugsWorldVMInterpreter.CellState.WALL
+            .ordinal();
+
+    /**
+     * Ordinal of {@code CellState.FRIEND}.
+     */
+    private static final int FRIEND = BugsWorldVMInterpreter.CellState.FRIEND
+            .ordinal();
+
+    /**
+     * Ordinal of {@code CellState.ENEMY}.
+     */
+    private static final int ENEMY = BugsWorldVMInterpreter.CellState.ENEMY
+            .ordinal();
+
+    /**
+     * Number of directions.
+     */
+    private static final int DIRECTIONS = 4;
+
+    /**
+     * Byte codes of the primitive instructions.
+     */
+    private static final int MOVE = Instruction.MOVE.byteCode(),
+            TURNLEFT = Instruction.TURNLEFT.byteCode(),
+            TURNRIGHT = Instruction.TURNRIGHT.byteCode(),
+            INFECT = Instruction.INFECT.byteCode(),
+            SKIP = Instruction.SKIP.byteCode(),
+            HALT = Instruction.HALT.byteCode();
+
+    /**
+     * Number of tasks each pass is split into per worker of the pool, so a
+     * worker that finishes early can steal work from one still busy.
+     */
+    private static final int LEAVES_PER_WORKER = 4;
+
+    /**
+     * Fewest bugs a task processes without splitting, so that the cost of a
+     * task stays small next to the work it does.
+     */
+    private static final int MIN_LEAF_SIZE = 64;
+
+    /**
+     * Pass that senses and decides every bug's primitive instruction.
+     */
+    private static final int DECIDE = 0;
+
+    /**
+     * Pass that settles MOVE and INFECT conflicts.
+     */
+    private static final int RESOLVE = 1;
+
+    /**
+     * Pass that applies every bug's outcome.
+     */
+    private static final int APPLY = 2;
+
+    /**
+     * Grid width.
+     */
+    private final int width;
+
+    /**
+     * Grid height.
+     */
+    private final int height;
+
+    /**
+     * Grid cells in row-major order: {@code EMPTY_CELL}, {@code WALL_CELL} or
+     * the number of the bug in the cell.
+     */
+    private final int[] grid;
+
+    /**
+     * Resolved program of each species.
+     */
+    private final ResolvedProgram[] programs;
+
+    /**
+     * Number of bugs in the world.
+     */
+    private int bugs;
+
+    /**
+     * Number of rounds stepped so far.
+     */
+    private long rounds;
+
+    /**
+     * Seed from which each bug's random stream is derived; bug {@code b} uses
+     * stream {@code b} of this seed.
+     */
+    private final long seed;
+
+    /*
+     * Bug state, indexed by bug number.
+     */
+
+    /**
+     * Grid cell of each bug.
+     */
+    private final int[] cell;
+
+    /**
+     * Direction of each bug: 0 = north, 1 = east, 2 = south, 3 = west.
+     */
+    private final byte[] direction;
+
+    /**
+     * Species of each bug.
+     */
+    private final byte[] species;
+
+    /**
+     * Program counter of each bug.
+     */
+    private final int[] pc;
+
+    /**
+     * State of each bug's random stream, stepped exactly as a
+     * {@code SplitMixRandomSource} would step it.
+     */
+    private final long[] rng;
+
+    /**
+     * Increment of each bug's random stream; it depends only on the seed and
+     * the bug number, so it is not saved with the state.
+     */
+    private final long[] gamma;
+
+    /*
+     * Per-round scratch, indexed by bug number.
+     */
+
+    /**
+     * Location of the primitive instruction decided this round.
+     */
+    private final int[] decision;
+
+    /**
+     * Byte code of the primitive instruction decided this round.
+     */
+    private final byte[] action;
+
+    /**
+     * Ordinal of what the bug saw at the start of the round.
+     */
+    private final byte[] seen;
+
+    /**
+     * Cell in front at the start of the round, or -1 if off the grid.
+     */
+    private final int[] ahead;
+
+    /**
+     * Whether the bug's MOVE succeeds this round.
+     */
+    private final boolean[] moves;
+
+    /**
+     * Start-of-round species of the lowest-numbered bug infecting this bug
+     * this round, or {@code EMPTY_CELL}.
+     */
+    private final int[] infector;
+
+    /**
+     * Number of random condition values drawn deciding this round.
+     */
+    private final int[] draws;
+
+    /**
+     * Event log the rounds are written to, or null.
+     */
+    private BugsWorldLog log;
+
+    /**
+     * Runs one pass of a round over a range of bugs, splitting the range
+     * across the pool while it is large.
+     */
+    private final class PassTask extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The pass to run.
+         */
+        private final int pass;
+
+        /**
+         * First bug of the range.
+         */
+        private final int lo;
+
+        /**
+         * One past the last bug of the range.
+         */
+        private final int hi;
+
+        /**
+         * Number of bugs at or below which the range is not split.
+         */
+        private final int leaf;
+
+        /**
+         * Constructor.
+         *
+         * @param pass
+         *            the pass to run
+         * @param lo
+         *            first bug of the range
+         * @param hi
+         *            one past the last bug of the range
+         * @param leaf
+         *            number of bugs at or below which the range is not split
+         */
+        PassTask(int pass, int lo, int hi, int leaf) {
+            this.pass = pass;
+            this.lo = lo;
+            this.hi = hi;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo <= this.leaf) {
+                BugsWorld.this.runPass(this.pass, this.lo, this.hi);
+            } else {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new PassTask(this.pass, this.lo, mid, this.leaf),
+                        new PassTask(this.pass, mid, this.hi, this.leaf));
+            }
+        }
+
+    }
+
+    /**
+     * Returns the number of bugs at or below which a pass over {@code bugs}
+     * bugs on a pool of {@code parallelism} workers stops splitting, so that
+     * each worker gets about {@code LEAVES_PER_WORKER} tasks per pass.
+     *
+     * @param bugs
+     *            the number of bugs
+     * @param parallelism
+     *            the number of workers of the pool
+     * @return the leaf size
+     * @requires parallelism > 0
+     * @ensures <pre>
+     * leafSize = max(MIN_LEAF_SIZE,
+     *                bugs / (parallelism * LEAVES_PER_WORKER))
+     * </pre>
+     */
+    static int leafSize(int bugs, int parallelism) {
+        assert parallelism > 0 : "Violation of: parallelism > 0";
+
+        long leaves = (long) parallelism * LEAVES_PER_WORKER;
+        return (int) Math.max(MIN_LEAF_SIZE, bugs / leaves);
+    }
+
+    /**
+     * Returns the grid cell in front of a bug at {@code c} facing {@code d},
+     * or -1 if that is off the grid.
+     *
+     * @param c
+     *            the bug's cell
+     * @param d
+     *            the bug's direction
+     * @return the cell in front, or -1
+     */
+    private int front(int c, int d) {
+        int x = c % this.width;
+        int y = c / this.width;
+        int result;
+        switch (d) {
+            case 0: {
+                result = (y > 0) ? c - this.width : -1;
+                break;
+            }
+            case 1: {
+                result = (x < this.width - 1) ? c + 1 : -1;
+                break;
+            }
+            case 2: {
+                result = (y < this.height - 1) ? c + this.width : -1;
+                break;
+            }
+            default: {
+                result = (x > 0) ? c - 1 : -1;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Advances the random stream of bug {@code b} and returns a random
+     * condition value.
+     *
+     * @param b
+     *            the bug
+     * @return a uniformly random boolean from bug {@code b}'s stream
+     */
+    private boolean nextRandomCondition(int b) {
+        long z = SplitMixRandomSource.advance(this.rng[b], this.gamma[b]);
+        this.rng[b] = z;
+        return SplitMixRandomSource.condition(z);
+    }
+
+    /**
+     * Returns the grid value of the cell in front of bug {@code b}, treating
+     * cells off the grid as walls.
+     *
+     * @param b
+     *            the bug
+     * @return {@code EMPTY_CELL}, {@code WALL_CELL} or the bug in front
+     */
+    private int occupantInFront(int b) {
+        int f = this.front(this.cell[b], this.direction[b]);
+        int result = WALL_CELL;
+        if (f >= 0) {
+            result = this.grid[f];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ordinal of the {@code CellState} bug {@code b} sees when the
+     * cell in front of it holds {@code occupant}.
+     *
+     * @param b
+     *            the bug
+     * @param occupant
+     *            the grid value of the cell in front of bug {@code b}
+     * @return the ordinal of what bug {@code b} sees
+     */
+    private int sense(int b, int occupant) {
+        int w;
+        if (occupant == EMPTY_CELL) {
+            w = EMPTY;
+        } else if (occupant == WALL_CELL) {
+            w = WALL;
+        } else if (this.species[occupant] == this.species[b]) {
+            w = FRIEND;
+        } else {
+            w = ENEMY;
+        }
+        return w;
+    }
+
+    /**
+     * Senses and decides the next primitive instruction of bug {@code b} from
+     * the state of the world at the start of the round. Writes only bug
+     * {@code b}'s state. A bug whose walk stalls in a jump cycle skips the
+     * round and stays at the same address.
+     *
+     * @param b
+     *            the bug
+     */
+    private void decide(int b) {
+        int f = this.front(this.cell[b], this.direction[b]);
+        int occupant = WALL_CELL;
+        if (f >= 0) {
+            occupant = this.grid[f];
+        }
+        int w = this.sense(b, occupant);
+        ResolvedProgram rp = this.programs[this.species[b]];
+        int next = rp.entry(this.pc[b], w);
+        int budget = BugsWorldVMInterpreter.stepBudget(rp.decoded().length());
+        int steps = budget;
+        while (next < 0 && next != BugsWorldVMInterpreter.STALLED) {
+            if (steps == 0) {
+                next = BugsWorldVMInterpreter.STALLED;
+            } else {
+                next = rp.afterRandomJump(-(next + 1), w,
+                        this.nextRandomCondition(b));
+                steps--;
+            }
+        }
+        if (next == BugsWorldVMInterpreter.STALLED) {
+            /*
+             * Jump cycle: skip this turn and stay at the same address
+             */
+            this.decision[b] = this.pc[b] - 1;
+            this.action[b] = (byte) SKIP;
+        } else {
+            this.decision[b] = next;
+            this.action[b] = (byte) rp.decoded().byteCode(next);
+        }
+        this.seen[b] = (byte) w;
+        this.ahead[b] = f;
+        this.draws[b] = budget - steps;
+    }
+
+    /**
+     * Reports whether bug {@code o} decided this round to MOVE into cell
+     * {@code f}, and was facing an empty cell when it did.
+     *
+     * @param o
+     *            the grid value of a cell next to {@code f}
+     * @param f
+     *            the cell
+     * @return true iff {@code o} is a bug trying to move into {@code f}
+     */
+    private boolean triesToMoveInto(int o, int f) {
+        return (o >= 0) && (this.action[o] == MOVE) && (this.seen[o] == EMPTY)
+                && (this.ahead[o] == f);
+    }
+
+    /**
+     * Reports whether bug {@code o} decided this round to INFECT the bug in
+     * cell {@code c}, and saw an enemy there when it did.
+     *
+     * @param o
+     *            the grid value of a cell next to {@code c}
+     * @param c
+     *            the cell
+     * @return true iff {@code o} is a bug trying to infect the bug in
+     *         {@code c}
+     */
+    private boolean triesToInfect(int o, int c) {
+        return (o >= 0) && (this.action[o] == INFECT)
+                && (this.seen[o] == ENEMY) && (this.ahead[o] == c);
+    }
+
+    /**
+     * Settles bug {@code b}'s MOVE and INFECT conflicts by bug number, looking
+     * only at the bugs next to the cells involved. Reads the grid and the
+     * decisions of the round, and writes only bug {@code b}'s outcome.
+     *
+     * @param b
+     *            the bug
+     */
+    private void resolve(int b) {
+        /*
+         * A MOVE into f competes only with the other neighbours of f
+         */
+        boolean wins = false;
+        int f = this.ahead[b];
+        if (this.triesToMoveInto(b, f)) {
+            wins = true;
+            for (int d = 0; d < DIRECTIONS; d++) {
+                int n = this.front(f, d);
+                if (n >= 0) {
+                    int o = this.grid[n];
+                    if (o >= 0 && o < b && this.triesToMoveInto(o, f)) {
+                        wins = false;
+                    }
+                }
+            }
+        }
+        this.moves[b] = wins;
+        /*
+         * Only the neighbours of b's cell can infect b
+         */
+        int c = this.cell[b];
+        int winner = EMPTY_CELL;
+        for (int d = 0; d < DIRECTIONS; d++) {
+            int n = this.front(c, d);
+            if (n >= 0) {
+                int o = this.grid[n];
+                if (this.triesToInfect(o, c)
+                        && (winner == EMPTY_CELL || o < winner)) {
+                    winner = o;
+                }
+            }
+        }
+        if (winner != EMPTY_CELL) {
+            this.infector[b] = this.species[winner];
+        } else {
+            this.infector[b] = EMPTY_CELL;
+        }
+    }
+
+    /**
+     * Applies bug {@code b}'s outcome for the round. Writes only bug
+     * {@code b}'s state and the grid cells it leaves and enters; no two bugs
+     * leave or enter the same cell in a round.
+     *
+     * @param b
+     *            the bug
+     */
+    private void apply(int b) {
+        int loc = this.decision[b];
+        int instr = this.action[b];
+        if (this.moves[b]) {
+            this.grid[this.cell[b]] = EMPTY_CELL;
+            this.grid[this.ahead[b]] = b;
+            this.cell[b] = this.ahead[b];
+        } else if (instr == TURNLEFT) {
+            this.direction[b] = (byte) ((this.direction[b] + DIRECTIONS - 1)
+                    % DIRECTIONS);
+        } else if (instr == TURNRIGHT) {
+            this.direction[b] = (byte) ((this.direction[b] + 1) % DIRECTIONS);
+        }
+        if (instr != HALT) {
+            this.pc[b] = loc + 1;
+        } else {
+            this.pc[b] = loc;
+        }
+        if (this.infector[b] != EMPTY_CELL) {
+            this.species[b] = (byte) this.infector[b];
+            this.pc[b] = 0;
+        }
+    }
+
+    /**
+     * Runs pass {@code pass} of a round over bugs {@code lo} to {@code hi - 1}.
+     *
+     * @param pass
+     *            the pass
+     * @param lo
+     *            first bug of the range
+     * @param hi
+     *            one past the last bug of the range
+     */
+    private void runPass(int pass, int lo, int hi) {
+        switch (pass) {
+            case DECIDE: {
+                for (int b = lo; b < hi; b++) {
+                    this.decide(b);
+                }
+                break;
+            }
+            case RESOLVE: {
+                for (int b = lo; b < hi; b++) {
+                    this.resolve(b);
+                }
+                break;
+            }
+            default: {
+                for (int b = lo; b < hi; b++) {
+                    this.apply(b);
+                }
+                break;
+            }
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor of an empty world.
+     *
+     * @param width
+     *            the grid width
+     * @param height
+     *            the grid height
+     * @param programs
+     *            the resolved program of each species
+     * @param capacity
+     *            the maximum number of bugs
+     * @param seed
+     *            the seed from which every bug's random stream is derived
+     *            (see {@code SplitMixRandomSource.forStream})
+     * @requires <pre>
+     * width > 0  and  height > 0  and  capacity >= 0  and
+     *  0 < |programs| <= Byte.MAX_VALUE
+     * </pre>
+     * @ensures [this is a width x height world with no walls and no bugs]
+     */
+    public BugsWorld(int width, int height, ResolvedProgram[] programs,
+            int capacity, long seed) {
+        assert width > 0 : "Violation of: width > 0";
+        assert height > 0 : "Violation of: height > 0";
+        assert programs != null : "Violation of: programs is not null";
+        assert programs.length > 0
+                && programs.length <= Byte.MAX_VALUE : ""
+                        + "Violation of: 0 < |programs| <= Byte.MAX_VALUE";
+        assert capacity >= 0 : "Violation of: capacity >= 0";
+
+        this.width = width;
+        this.height = height;
+        this.grid = new int[width * height];
+        Arrays.fill(this.grid, EMPTY_CELL);
+        this.programs = programs.clone();
+        this.seed = seed;
+        this.cell = new int[capacity];
+        this.direction = new byte[capacity];
+        this.species = new byte[capacity];
+        this.pc = new int[capacity];
+        this.rng = new long[capacity];
+        this.gamma = new long[capacity];
+        this.decision = new int[capacity];
+        this.action = new byte[capacity];
+        this.seen = new byte[capacity];
+        this.ahead = new int[capacity];
+        this.moves = new boolean[capacity];
+        this.infector = new int[capacity];
+        this.draws = new int[capacity];
+    }
+
+    /*
+     * Event log and replay, used by BugsWorldLog and BugsWorldReplay ---------
+     */
+
+    /**
+     * Sets the event log every following round is written to.
+     *
+     * @param log
+     *            the event log, or null to stop logging
+     * @updates this
+     */
+    void setLog(BugsWorldLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Reports the seed the bugs' random streams are derived from.
+     *
+     * @return the seed
+     */
+    long seed() {
+        return this.seed;
+    }
+
+    /**
+     * Reports the number of species.
+     *
+     * @return the number of species
+     */
+    int speciesCount() {
+        return this.programs.length;
+    }
+
+    /**
+     * Returns the resolved program of species {@code s}.
+     *
+     * @param s
+     *            the species
+     * @return the resolved program of species {@code s}
+     * @requires 0 <= s < speciesCount
+     */
+    ResolvedProgram program(int s) {
+        return this.programs[s];
+    }
+
+    /**
+     * Reports whether grid cell {@code c} is a wall.
+     *
+     * @param c
+     *            the cell, in row-major order
+     * @return true iff cell {@code c} is a wall
+     * @requires 0 <= c < width * height
+     */
+    boolean isWall(int c) {
+        return this.grid[c] == WALL_CELL;
+    }
+
+    /**
+     * Reports the grid cell of bug {@code b}, in row-major order.
+     *
+     * @param b
+     *            the bug
+     * @return the cell
+     * @requires 0 <= b < bugCount
+     */
+    int cell(int b) {
+        return this.cell[b];
+    }
+
+    /**
+     * Reports the state of bug {@code b}'s random stream.
+     *
+     * @param b
+     *            the bug
+     * @return the state of the random stream
+     * @requires 0 <= b < bugCount
+     */
+    long rng(int b) {
+        return this.rng[b];
+    }
+
+    /**
+     * Reports the location of the primitive instruction bug {@code b}
+     * decided this round.
+     *
+     * @param b
+     *            the bug
+     * @return the location decided
+     * @requires 0 <= b < bugCount and [the decisions of the round are made]
+     */
+    int decision(int b) {
+        return this.decision[b];
+    }
+
+    /**
+     * Reports the byte code of the primitive instruction bug {@code b}
+     * decided this round.
+     *
+     * @param b
+     *            the bug
+     * @return the byte code decided
+     * @requires 0 <= b < bugCount and [the decisions of the round are made]
+     */
+    int action(int b) {
+        return this.action[b];
+    }
+
+    /**
+     * Reports whether bug {@code b}'s MOVE succeeds this round.
+     *
+     * @param b
+     *            the bug
+     * @return true iff bug {@code b} moves
+     * @requires 0 <= b < bugCount and [the round is resolved]
+     */
+    boolean moves(int b) {
+        return this.moves[b];
+    }
+
+    /**
+     * Reports the species bug {@code b} is infected with this round.
+     *
+     * @param b
+     *            the bug
+     * @return the species, or -1 if bug {@code b} is not infected
+     * @requires 0 <= b < bugCount and [the round is resolved]
+     */
+    int infector(int b) {
+        return this.infector[b];
+    }
+
+    /**
+     * Reports the number of random condition values bug {@code b} drew
+     * deciding this round.
+     *
+     * @param b
+     *            the bug
+     * @return the number of draws
+     * @requires 0 <= b < bugCount and [the decisions of the round are made]
+     */
+    int draws(int b) {
+        return this.draws[b];
+    }
+
+    /**
+     * Sets the number of rounds stepped so far.
+     *
+     * @param rounds
+     *            the number of rounds
+     * @replaces this.rounds
+     */
+    void restoreRounds(long rounds) {
+        this.rounds = rounds;
+    }
+
+    /**
+     * Adds a bug in the given state and returns its number.
+     *
+     * @param c
+     *            the cell, in row-major order
+     * @param d
+     *            the direction
+     * @param s
+     *            the species
+     * @param p
+     *            the program counter
+     * @param r
+     *            the state of the random stream
+     * @return the number of the new bug
+     * @requires <pre>
+     * [cell c is empty]  and  0 <= d < 4  and  0 <= s < |programs|  and
+     *  bugCount < capacity
+     * </pre>
+     * @ensures restoreBug = #bugCount  and  bugCount = #bugCount + 1
+     */
+    int restoreBug(int c, int d, int s, int p, long r) {
+        assert this.grid[c] == EMPTY_CELL : "Violation of: cell c is empty";
+        assert this.bugs < this.cell.length : "Violation of: bugCount < capacity";
+
+        int b = this.bugs;
+        this.grid[c] = b;
+        this.cell[b] = c;
+        this.direction[b] = (byte) d;
+        this.species[b] = (byte) s;
+        this.pc[b] = p;
+        this.rng[b] = r;
+        this.gamma[b] = SplitMixRandomSource.streamGamma(this.seed, b);
+        this.bugs++;
+        return b;
+    }
+
+    /**
+     * Applies a logged outcome to bug {@code b} exactly as the apply pass of
+     * the round that logged it did, without running the bug's program.
+     *
+     * @param b
+     *            the bug
+     * @param loc
+     *            the location decided
+     * @param instr
+     *            the byte code decided
+     * @param moved
+     *            whether the bug's MOVE succeeded
+     * @param infectedWith
+     *            the species the bug was infected with, or -1
+     * @param drawn
+     *            the number of random condition values drawn
+     * @updates this
+     * @requires 0 <= b < bugCount and [the outcome was logged for bug b in
+     *           the state of this]
+     */
+    void replayOutcome(int b, int loc, int instr, boolean moved,
+            int infectedWith, int drawn) {
+        this.decision[b] = loc;
+        this.action[b] = (byte) instr;
+        this.moves[b] = moved;
+        this.ahead[b] = this.front(this.cell[b], this.direction[b]);
+        this.infector[b] = (infectedWith < 0) ? EMPTY_CELL : infectedWith;
+        this.rng[b] = SplitMixRandomSource.advance(this.rng[b], this.gamma[b],
+                drawn);
+        this.apply(b);
+    }
+
+    /*
+     * Snapshots, used by BugsWorldSnapshot -----------------------------------
+     */
+
+    /**
+     * Writes the state of the walls and of every bug to the given buffers,
+     * each with one bulk transfer: the walls as a bit set of the cells in
+     * row-major order, 64 per {@code long}, and the random stream state,
+     * cell, program counter, direction, and species of the bugs in order.
+     *
+     * @param walls
+     *            receives the walls
+     * @param rngs
+     *            receives the random stream states
+     * @param cells
+     *            receives the cells
+     * @param pcs
+     *            receives the program counters
+     * @param directions
+     *            receives the directions
+     * @param kinds
+     *            receives the species
+     * @updates walls, rngs, cells, pcs, directions, kinds
+     * @requires <pre>
+     * [walls has room for (width * height + 63) / 64 longs]  and
+     *  [the others have room for bugCount values]
+     * </pre>
+     */
+    void saveState(LongBuffer walls, LongBuffer rngs, IntBuffer cells,
+            IntBuffer pcs, ByteBuffer directions, ByteBuffer kinds) {
+        long[] bits = new long[(this.grid.length + Long.SIZE - 1) / Long.SIZE];
+        for (int c = 0; c < this.grid.length; c++) {
+            if (this.grid[c] == WALL_CELL) {
+                bits[c / Long.SIZE] |= 1L << (c % Long.SIZE);
+            }
+        }
+        walls.put(bits);
+        rngs.put(this.rng, 0, this.bugs);
+        cells.put(this.cell, 0, this.bugs);
+        pcs.put(this.pc, 0, this.bugs);
+        directions.put(this.direction, 0, this.bugs);
+        kinds.put(this.species, 0, this.bugs);
+    }
+
+    /**
+     * Replaces the walls and bugs of this, which has neither, by those in
+     * the given buffers, as written by {@code saveState}, each with one bulk
+     * transfer, and rebuilds the grid from them.
+     *
+     * @param walls
+     *            the walls
+     * @param rngs
+     *            the random stream states
+     * @param cells
+     *            the cells
+     * @param pcs
+     *            the program counters
+     * @param directions
+     *            the directions
+     * @param kinds
+     *            the species
+     * @param n
+     *            the number of bugs
+     * @updates this
+     * @requires <pre>
+     * [this has no walls and no bugs]  and  n <= capacity  and
+     *  [the buffers hold the state of n bugs and the walls of a world of
+     *  this size, in the layout written by saveState]
+     * </pre>
+     * @ensures <pre>
+     * if [every wall is in the grid and every bug is in its own non-wall
+     *  cell, faces one of the four directions, and is of a species of this
+     *  whose program has an instruction at the bug's program counter] then
+     *  bugCount = n  and  [the walls and bugs of this are those in the
+     *  buffers]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    void restoreState(LongBuffer walls, LongBuffer rngs, IntBuffer cells,
+            IntBuffer pcs, ByteBuffer directions, ByteBuffer kinds, int n) {
+        assert this.bugs == 0 : "Violation of: this has no bugs";
+        assert n <= this.cell.length : "Violation of: n <= capacity";
+
+        long[] bits = new long[(this.grid.length + Long.SIZE - 1) / Long.SIZE];
+        walls.get(bits);
+        for (int i = 0; i < bits.length; i++) {
+            long w = bits[i];
+            while (w != 0) {
+                int c = i * Long.SIZE + Long.numberOfTrailingZeros(w);
+                Reporter.assertElseFatalError(c < this.grid.length,
+                        "ERROR: Snapshot has a wall outside the grid");
+                this.grid[c] = WALL_CELL;
+                w &= w - 1;
+            }
+        }
+        rngs.get(this.rng, 0, n);
+        cells.get(this.cell, 0, n);
+        pcs.get(this.pc, 0, n);
+        directions.get(this.direction, 0, n);
+        kinds.get(this.species, 0, n);
+        for (int b = 0; b < n; b++) {
+            int c = this.cell[b];
+            int s = this.species[b];
+            Reporter.assertElseFatalError(
+                    0 <= c && c < this.grid.length
+                            && this.grid[c] == EMPTY_CELL,
+                    "ERROR: Snapshot bug " + b + " is outside the grid, in"
+                            + " a wall or in another bug's cell");
+            Reporter.assertElseFatalError(
+                    0 <= this.direction[b] && this.direction[b] < DIRECTIONS,
+                    "ERROR: Snapshot bug " + b + " has an invalid direction");
+            Reporter.assertElseFatalError(0 <= s && s < this.programs.length,
+                    "ERROR: Snapshot bug " + b + " has an invalid species");
+            Reporter.assertElseFatalError(
+                    this.programs[s].decoded().isInstructionStart(this.pc[b]),
+                    "ERROR: Snapshot bug " + b + " has a program counter"
+                            + " that is not an instruction of its program");
+            this.grid[c] = b;
+            this.gamma[b] = SplitMixRandomSource.streamGamma(this.seed, b);
+        }
+        this.bugs = n;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Puts a wall in cell {@code (x, y)}.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @requires [0 <= x < width]  and  [0 <= y < height]  and
+     *           [cell (x, y) is empty]
+     * @ensures [cell (x, y) is a wall]
+     */
+    public void addWall(int x, int y) {
+        assert this.isEmpty(x, y) : "Violation of: cell (x, y) is empty";
+
+        this.grid[y * this.width + x] = WALL_CELL;
+    }
+
+    /**
+     * Adds a bug at cell {@code (x, y)} and returns its number. The bug starts
+     * at program counter 0.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @param d
+     *            the direction (0 = north, 1 = east, 2 = south, 3 = west)
+     * @param s
+     *            the species
+     * @return the number of the new bug
+     * @requires <pre>
+     * [cell (x, y) is empty]  and  0 <= d < 4  and  0 <= s < |programs|  and
+     *  bugCount < capacity
+     * </pre>
+     * @ensures addBug = #bugCount  and  bugCount = #bugCount + 1
+     */
+    public int addBug(int x, int y, int d, int s) {
+        assert this.isEmpty(x, y) : "Violation of: cell (x, y) is empty";
+        assert 0 <= d && d < DIRECTIONS : "Violation of: 0 <= d < 4";
+        assert 0 <= s
+                && s < this.programs.length : "Violation of: 0 <= s < |programs|";
+        assert this.bugs < this.cell.length : "Violation of: bugCount < capacity";
+
+        int b = this.bugs;
+        int c = y * this.width + x;
+        this.grid[c] = b;
+        this.cell[b] = c;
+        this.direction[b] = (byte) d;
+        this.species[b] = (byte) s;
+        this.pc[b] = 0;
+        this.rng[b] = SplitMixRandomSource.streamSeed(this.seed, b);
+        this.gamma[b] = SplitMixRandomSource.streamGamma(this.seed, b);
+        this.bugs++;
+        return b;
+    }
+
+    /**
+     * Reports whether cell {@code (x, y)} is empty.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @return true iff cell {@code (x, y)} holds neither a wall nor a bug
+     * @requires [0 <= x < width]  and  [0 <= y < height]
+     * @ensures isEmpty = [cell (x, y) is empty]
+     */
+    public boolean isEmpty(int x, int y) {
+        assert 0 <= x && x < this.width : "Violation of: 0 <= x < width";
+        assert 0 <= y && y < this.height : "Violation of: 0 <= y < height";
+
+        return this.grid[y * this.width + x] == EMPTY_CELL;
+    }
+
+    /**
+     * Steps the world by one round in which every bug executes one primitive
+     * instruction.
+     *
+     * @updates this
+     * @ensures [this is #this after one round]
+     */
+    public void step() {
+        int n = this.bugs;
+        this.runPass(DECIDE, 0, n);
+        this.runPass(RESOLVE, 0, n);
+        if (this.log != null) {
+            this.log.logRound(this);
+        }
+        this.runPass(APPLY, 0, n);
+        this.rounds++;
+        if (this.log != null) {
+            this.log.roundEnded(this);
+        }
+    }
+
+    /**
+     * Steps the world by one round in which every bug executes one primitive
+     * instruction, splitting each pass of the round across {@code pool}. The
+     * result is identical to {@link #step()}.
+     *
+     * @param pool
+     *            the fork-join pool
+     * @updates this
+     * @ensures [this is #this after one round]
+     */
+    public void step(ForkJoinPool pool) {
+        assert pool != null : "Violation of: pool is not null";
+
+        int n = this.bugs;
+        int leaf = leafSize(n, pool.getParallelism());
+        pool.invoke(new PassTask(DECIDE, 0, n, leaf));
+        pool.invoke(new PassTask(RESOLVE, 0, n, leaf));
+        if (this.log != null) {
+            this.log.logRound(this);
+        }
+        pool.invoke(new PassTask(APPLY, 0, n, leaf));
+        this.rounds++;
+        if (this.log != null) {
+            this.log.roundEnded(this);
+        }
+    }
+
+    /**
+     * Returns a hash of the state of every bug and of the grid, for checking
+     * that two runs are identical.
+     *
+     * @return the hash of the world state
+     * @ensures <pre>
+     * [fingerprint is a hash of the state of this; equal worlds have equal
+     *  fingerprints]
+     * </pre>
+     */
+    public long fingerprint() {
+        long h = this.rounds;
+        for (int b = 0; b < this.bugs; b++) {
+            h = SplitMixRandomSource.mix64(h + this.cell[b]);
+            h = SplitMixRandomSource.mix64(h + this.direction[b]);
+            h = SplitMixRandomSource.mix64(h + this.species[b]);
+            h = SplitMixRandomSource.mix64(h + this.pc[b]);
+            h = SplitMixRandomSource.mix64(h + this.rng[b]);
+        }
+        return h;
+    }
+
+    /**
+     * Reports the number of bugs.
+     *
+     * @return the number of bugs
+     * @ensures bugCount = [number of bugs in this]
+     */
+    public int bugCount() {
+        return this.bugs;
+    }
+
+    /**
+     * Reports the number of rounds stepped so far.
+     *
+     * @return the number of rounds
+     * @ensures rounds = [number of rounds stepped]
+     */
+    public long rounds() {
+        return this.rounds;
+    }
+
+    /**
+     * Reports the grid width.
+     *
+     * @return the width
+     */
+    public int width() {
+        return this.width;
+    }
+
+    /**
+     * Reports the grid height.
+     *
+     * @return the height
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Reports the column of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the column
+     * @requires 0 <= b < bugCount
+     */
+    public int x(int b) {
+        return this.cell[b] % this.width;
+    }
+
+    /**
+     * Reports the row of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the row
+     * @requires 0 <= b < bugCount
+     */
+    public int y(int b) {
+        return this.cell[b] / this.width;
+    }
+
+    /**
+     * Reports the direction of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the direction (0 = north, 1 = east, 2 = south, 3 = west)
+     * @requires 0 <= b < bugCount
+     */
+    public int direction(int b) {
+        return this.direction[b];
+    }
+
+    /**
+     * Reports the species of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the species
+     * @requires 0 <= b < bugCount
+     */
+    public int species(int b) {
+        return this.species[b];
+    }
+
+    /**
+     * Reports the program counter of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the program counter
+     * @requires 0 <= b < bugCount
+     */
+    public int pc(int b) {
+        return this.pc[b];
+    }
+
+    /**
+     * Reports what bug {@code b} sees in the cell in front of it.
+     *
+     * @param b
+     *            the bug
+     * @return the {@code CellState} of the cell in front of bug {@code b}
+     * @requires 0 <= b < bugCount
+     */
+    public BugsWorldVMInterpreter.CellState whatBugSees(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return BugsWorldVMInterpreter.CellState.values()[this.sense(b,
+                this.occupantInFront(b))];
+    }
+
+}
@@ -0,0 +1,208 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Program to measure how many bug steps per second {@code BugsWorld} runs for
+ * two species of bugs scattered at random on a square world, single-threaded
+ * and on fork-join pools of increasing size.
+ */
+public final class BugsWorldBenchmark {
+
+    /**
+     * Number of species in the benchmark world.
+     */
+    private static final int SPECIES = 2;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private BugsWorldBenchmark() {
+        // no code needed here
+    }
+
+    /**
+     * Prompts the user with {@code prompt} until a positive integer is
+     * entered, and returns it.
+     *
+     * @param in
+     *            the input stream
+     * @param out
+     *            the output stream
+     * @param prompt
+     *            the prompt
+     * @return the positive integer entered
+     * @updates in.content
+     * @updates out.content
+     * @requires in.is_open and out.is_open
+     * @ensures getPositiveInteger > 0
+     */
+    static int getPositiveInteger(SimpleReader in, SimpleWriter out,
+            String prompt) {
+        int result = 0;
+        while (result <= 0) {
+            out.print(prompt);
+            String input = in.nextLine();
+            try {
+                result = Integer.parseInt(input.trim());
+            } catch (NumberFormatException e) {
+                result = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds a {@code side} x {@code side} world running {@code programs} and
+     * scatters {@code bugs} bugs on it, alternating species.
+     *
+     * @param programs
+     *            the resolved program of each species
+     * @param side
+     *            the side of the world
+     * @param bugs
+     *            the number of bugs
+     * @param seed
+     *            the seed for placement and for the bugs' random streams
+     * @return the populated world
+     * @requires bugs <= side * side
+     * @ensures [populatedWorld is a world with bugs bugs at random cells]
+     */
+    static BugsWorld populatedWorld(ResolvedProgram[] programs, int side,
+            int bugs, long seed) {
+        assert (long) bugs <= (long) side
+                * side : "Violation of: bugs <= side * side";
+
+        final int directions = 4;
+        BugsWorld world = new BugsWorld(side, side, programs, bugs, seed);
+        SplittableRandom placement = new SplittableRandom(seed);
+        for (int b = 0; b < bugs; b++) {
+            int x = placement.nextInt(side);
+            int y = placement.nextInt(side);
+            while (!world.isEmpty(x, y)) {
+                x = placement.nextInt(side);
+                y = placement.nextInt(side);
+            }
+            world.addBug(x, y, placement.nextInt(directions),
+                    b % programs.length);
+        }
+        return world;
+    }
+
+    /**
+     * Runs {@code rounds} rounds on {@code world}, on {@code pool} if it is
+     * not null, and returns the elapsed time in seconds.
+     *
+     * @param world
+     *            the world
+     * @param rounds
+     *            the number of rounds
+     * @param pool
+     *            the fork-join pool, or null to step on this thread
+     * @return the elapsed time in seconds
+     * @updates world
+     */
+    private static double timedRun(BugsWorld world, int rounds,
+            ForkJoinPool pool) {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            if (pool == null) {
+                world.step();
+            } else {
+                world.step(pool);
+            }
+        }
+        return (System.nanoTime() - start) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        /*
+         * Load one compiled BL program per species
+         */
+        ResolvedProgram[] programs = new ResolvedProgram[SPECIES];
+        for (int s = 0; s < SPECIES; s++) {
+            out.print("Enter compiled BL program file name for species " + s
+                    + ": ");
+            String fileName = in.nextLine();
+            programs[s] = new ResolvedProgram(new DecodedProgram(
+                    BugsWorldVMInterpreter.loadProgram(fileName)));
+        }
+
+        int side = getPositiveInteger(in, out, "Enter world side: ");
+        int bugs = getPositiveInteger(in, out, "Enter number of bugs: ");
+        while ((long) bugs > (long) side * side) {
+            out.println("The world has only " + ((long) side * side)
+                    + " cells");
+            bugs = getPositiveInteger(in, out, "Enter number of bugs: ");
+        }
+        int rounds = getPositiveInteger(in, out, "Enter number of rounds: ");
+        final long seed = 2231;
+
+        /*
+         * Warm up on a separate world so the timed runs are compiled code
+         */
+        timedRun(populatedWorld(programs, side, bugs, seed), rounds, null);
+
+        BugsWorld world = populatedWorld(programs, side, bugs, seed);
+        double seconds = timedRun(world, rounds, null);
+        long expected = world.fingerprint();
+        double bugSteps = (double) bugs * rounds;
+        out.println();
+        out.println("Rounds: " + rounds + ", bugs: " + bugs);
+        out.println("Sequential: " + String.format("%.3f", seconds) + " s, "
+                + String.format("%.0f", bugSteps / seconds)
+                + " bug steps per second");
+
+        /*
+         * Same run on pools of 1, 2, 4, ... threads up to the core count
+         */
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = 1;
+        while (threads <= cores) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            timedRun(populatedWorld(programs, side, bugs, seed), rounds, pool);
+            world = populatedWorld(programs, side, bugs, seed);
+            double parallelSeconds = timedRun(world, rounds, pool);
+            pool.shutdown();
+            int leaf = BugsWorld.leafSize(bugs, threads);
+            int tasks = 1;
+            while ((bugs + tasks - 1) / tasks > leaf) {
+                tasks *= 2;
+            }
+            out.println(threads + " thread(s), " + tasks + " tasks per pass: "
+                    + String.format("%.3f", parallelSeconds) + " s, "
+                    + String.format("%.0f", bugSteps / parallelSeconds)
+                    + " bug steps per second, speedup "
+                    + String.format("%.2f", seconds / parallelSeconds)
+                    + (world.fingerprint() == expected ? ""
+                            : "  *** RESULT DIFFERS FROM SEQUENTIAL RUN ***"));
+            if (threads < cores && threads * 2 > cores) {
+                threads = cores;
+            } else {
+                threads *= 2;
+            }
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
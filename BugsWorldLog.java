@@ -0,0 +1,495 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import components.utilities.Reporter;
+
+/**
+ * Append-only binary event log of a {@code BugsWorld} run. Once attached to a
+ * world, every round the world steps is written as one record holding, for
+ * each bug, the outcome of its decision: the primitive instruction decided,
+ * whether its MOVE succeeded, the species it was infected with, and how many
+ * random condition values it drew. Every {@code checkpointInterval} rounds a
+ * full-state checkpoint of the bugs is written as well, and closing the log
+ * appends an index of the checkpoints. {@code BugsWorldReplay} reads the log
+ * back and rebuilds the world at any logged round from the nearest
+ * checkpoint, without running any BL program.
+ * <p>
+ * The file starts with {@code MAGIC} and a header record. Every record is a
+ * tag byte, the varint length of its payload, and the payload. Integers are
+ * unsigned LEB128 varints, and signed differences are zigzag-encoded first.
+ * <ul>
+ * <li>Header: format version, width, height, seed (8 bytes, little-endian),
+ * number of species, checkpoint interval, number of walls, and the wall cells
+ * in increasing order, each as the difference from the previous one.</li>
+ * <li>Checkpoint: round, number of bugs, then for each bug the difference of
+ * its cell from the previous bug's, {@code species << 2 | direction}, program
+ * counter, and random stream state (8 bytes, little-endian).</li>
+ * <li>Round: for each bug an event byte with the byte code decided in bits
+ * 0-2, moved in bit 3, infected in bit 4 and the number of draws (7 meaning 7
+ * or more, the rest following as a varint) in bits 5-7; then the decided
+ * location minus the program counter; then the infecting species if
+ * infected. A typical bug takes two bytes per round.</li>
+ * <li>Index, written on close: last round, number of checkpoints, and each
+ * checkpoint's round and file offset as differences from the previous one;
+ * followed by the offset of the index record (8 bytes, big-endian) and
+ * {@code MAGIC}.</li>
+ * </ul>
+ * A log that was not closed has no index, and is read by scanning its record
+ * headers up to the last complete record.
+ */
+public final class BugsWorldLog {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Magic number at the start and end of a log: "BWLG".
+     */
+    static final int MAGIC = 0x42574C47;
+
+    /**
+     * Version of the log format.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Tag of the header record.
+     */
+    static final int HEADER = 1;
+
+    /**
+     * Tag of a checkpoint record.
+     */
+    static final int CHECKPOINT = 2;
+
+    /**
+     * Tag of a round record.
+     */
+    static final int ROUND = 3;
+
+    /**
+     * Tag of the index record.
+     */
+    static final int INDEX = 4;
+
+    /**
+     * Bytes after the index record: its offset and {@code MAGIC}.
+     */
+    static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Event bits holding the byte code decided.
+     */
+    static final int ACTION_MASK = 0x07;
+
+    /**
+     * Event bit set when the bug's MOVE succeeded.
+     */
+    static final int MOVED = 0x08;
+
+    /**
+     * Event bit set when the bug was infected.
+     */
+    static final int INFECTED = 0x10;
+
+    /**
+     * Shift of the number of draws in the event byte.
+     */
+    static final int DRAWS_SHIFT = 5;
+
+    /**
+     * Largest number of draws stored in the event byte alone.
+     */
+    static final int DRAWS_INLINE = 7;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Initial size of the record being built.
+     */
+    private static final int INITIAL_RECORD_BYTES = 1 << 12;
+
+    /**
+     * Largest size of an encoded varint.
+     */
+    private static final int MAX_VARINT_BYTES = 10;
+
+    /**
+     * The logged world.
+     */
+    private final BugsWorld world;
+
+    /**
+     * Rounds between checkpoints.
+     */
+    private final int checkpointInterval;
+
+    /**
+     * The file.
+     */
+    private final OutputStream out;
+
+    /**
+     * Number of bytes written to the file so far.
+     */
+    private long position;
+
+    /**
+     * Payload of the record being built.
+     */
+    private byte[] record;
+
+    /**
+     * Number of bytes in {@code record}.
+     */
+    private int size;
+
+    /**
+     * Round of each checkpoint written.
+     */
+    private long[] checkpointRounds;
+
+    /**
+     * File offset of each checkpoint written.
+     */
+    private long[] checkpointOffsets;
+
+    /**
+     * Number of checkpoints written.
+     */
+    private int checkpoints;
+
+    /**
+     * Makes room for {@code n} more bytes in {@code record}.
+     *
+     * @param n
+     *            the number of bytes
+     */
+    private void ensure(int n) {
+        if (this.size + n > this.record.length) {
+            this.record = Arrays.copyOf(this.record,
+                    Math.max(2 * this.record.length, this.size + n));
+        }
+    }
+
+    /**
+     * Appends one byte to the record.
+     *
+     * @param v
+     *            the byte, in the low 8 bits
+     */
+    private void putByte(int v) {
+        this.ensure(1);
+        this.record[this.size] = (byte) v;
+        this.size++;
+    }
+
+    /**
+     * Appends an unsigned varint to the record.
+     *
+     * @param v
+     *            the value, taken as unsigned
+     */
+    private void putVarint(long v) {
+        this.ensure(MAX_VARINT_BYTES);
+        long rest = v;
+        while ((rest & ~0x7FL) != 0) {
+            this.record[this.size] = (byte) ((rest & 0x7F) | 0x80);
+            this.size++;
+            rest >>>= 7;
+        }
+        this.record[this.size] = (byte) rest;
+        this.size++;
+    }
+
+    /**
+     * Appends a little-endian {@code long} to the record.
+     *
+     * @param v
+     *            the value
+     */
+    private void putLong(long v) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            this.putByte((int) (v >>> (Byte.SIZE * i)));
+        }
+    }
+
+    /**
+     * Writes the record with tag {@code tag} to the file and empties it.
+     *
+     * @param tag
+     *            the tag
+     */
+    private void writeRecord(int tag) {
+        byte[] prefix = new byte[1 + MAX_VARINT_BYTES];
+        prefix[0] = (byte) tag;
+        int n = 1;
+        int rest = this.size;
+        while ((rest & ~0x7F) != 0) {
+            prefix[n] = (byte) ((rest & 0x7F) | 0x80);
+            n++;
+            rest >>>= 7;
+        }
+        prefix[n] = (byte) rest;
+        n++;
+        try {
+            this.out.write(prefix, 0, n);
+            this.out.write(this.record, 0, this.size);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot write event log: " + e.getMessage());
+        }
+        this.position += n + this.size;
+        this.size = 0;
+    }
+
+    /**
+     * Writes the bytes of the record to the file, without a tag or length,
+     * and empties it.
+     */
+    private void writeRaw() {
+        try {
+            this.out.write(this.record, 0, this.size);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot write event log: " + e.getMessage());
+        }
+        this.position += this.size;
+        this.size = 0;
+    }
+
+    /**
+     * Writes a checkpoint of the world's current state.
+     */
+    private void writeCheckpoint() {
+        BugsWorld w = this.world;
+        if (this.checkpoints == this.checkpointRounds.length) {
+            this.checkpointRounds = Arrays.copyOf(this.checkpointRounds,
+                    2 * this.checkpoints);
+            this.checkpointOffsets = Arrays.copyOf(this.checkpointOffsets,
+                    2 * this.checkpoints);
+        }
+        this.checkpointRounds[this.checkpoints] = w.rounds();
+        this.checkpointOffsets[this.checkpoints] = this.position;
+        this.checkpoints++;
+        this.putVarint(w.rounds());
+        this.putVarint(w.bugCount());
+        int previous = 0;
+        for (int b = 0; b < w.bugCount(); b++) {
+            int c = w.cell(b);
+            this.putVarint(zigzag(c - previous));
+            previous = c;
+            this.putVarint(((long) w.species(b) << 2) | w.direction(b));
+            this.putVarint(w.pc(b));
+            this.putLong(w.rng(b));
+        }
+        this.writeRecord(CHECKPOINT);
+    }
+
+    /**
+     * Returns the zigzag encoding of {@code v}: small magnitudes of either
+     * sign become small unsigned values.
+     *
+     * @param v
+     *            the value
+     * @return the encoding
+     */
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> (Long.SIZE - 1));
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor: creates the log file, writes the header and a first
+     * checkpoint of {@code world}, and attaches the log to {@code world} so
+     * that every round it steps from now on is logged.
+     *
+     * @param fileName
+     *            the name of the log file
+     * @param world
+     *            the world
+     * @param checkpointInterval
+     *            the number of rounds between checkpoints
+     * @requires <pre>
+     * checkpointInterval > 0  and  [no bugs are added to world while it is
+     *  logged]
+     * </pre>
+     * @ensures <pre>
+     * [fileName holds the header and a checkpoint of world, and world logs its
+     *  rounds to this]
+     * </pre>
+     */
+    public BugsWorldLog(String fileName, BugsWorld world,
+            int checkpointInterval) {
+        assert fileName != null : "Violation of: fileName is not null";
+        assert world != null : "Violation of: world is not null";
+        assert checkpointInterval > 0 : "Violation of: checkpointInterval > 0";
+
+        this.world = world;
+        this.checkpointInterval = checkpointInterval;
+        this.record = new byte[INITIAL_RECORD_BYTES];
+        this.size = 0;
+        this.checkpointRounds = new long[1];
+        this.checkpointOffsets = new long[1];
+        this.checkpoints = 0;
+        OutputStream file = null;
+        try {
+            file = new BufferedOutputStream(new FileOutputStream(fileName),
+                    BUFFER_SIZE);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole("ERROR: Cannot create event log "
+                    + fileName + ": " + e.getMessage());
+        }
+        this.out = file;
+        this.position = 0;
+        /*
+         * Magic number, as four big-endian bytes, and the header record
+         */
+        for (int i = Integer.BYTES - 1; i >= 0; i--) {
+            this.putByte(MAGIC >>> (Byte.SIZE * i));
+        }
+        this.writeRaw();
+        int cells = world.width() * world.height();
+        int walls = 0;
+        for (int c = 0; c < cells; c++) {
+            if (world.isWall(c)) {
+                walls++;
+            }
+        }
+        this.putVarint(FORMAT_VERSION);
+        this.putVarint(world.width());
+        this.putVarint(world.height());
+        this.putLong(world.seed());
+        this.putVarint(world.speciesCount());
+        this.putVarint(checkpointInterval);
+        this.putVarint(walls);
+        int previous = 0;
+        for (int c = 0; c < cells; c++) {
+            if (world.isWall(c)) {
+                this.putVarint(c - previous);
+                previous = c;
+            }
+        }
+        this.writeRecord(HEADER);
+        this.writeCheckpoint();
+        world.setLog(this);
+    }
+
+    /*
+     * Recording, called by BugsWorld -----------------------------------------
+     */
+
+    /**
+     * Writes the outcomes of the round {@code w} has decided and resolved but
+     * not yet applied.
+     *
+     * @param w
+     *            the logged world
+     * @requires [w is resolved but not applied]
+     */
+    void logRound(BugsWorld w) {
+        for (int b = 0; b < w.bugCount(); b++) {
+            int drawn = w.draws(b);
+            int infectedWith = w.infector(b);
+            int event = w.action(b) | (Math.min(drawn,
+                    DRAWS_INLINE) << DRAWS_SHIFT);
+            if (w.moves(b)) {
+                event |= MOVED;
+            }
+            if (infectedWith >= 0) {
+                event |= INFECTED;
+            }
+            this.putByte(event);
+            if (drawn >= DRAWS_INLINE) {
+                this.putVarint(drawn - DRAWS_INLINE);
+            }
+            this.putVarint(zigzag(w.decision(b) - w.pc(b)));
+            if (infectedWith >= 0) {
+                this.putVarint(infectedWith);
+            }
+        }
+        this.writeRecord(ROUND);
+    }
+
+    /**
+     * Writes a checkpoint if {@code w} has completed a multiple of the
+     * checkpoint interval.
+     *
+     * @param w
+     *            the logged world
+     */
+    void roundEnded(BugsWorld w) {
+        if (w.rounds() % this.checkpointInterval == 0) {
+            this.writeCheckpoint();
+        }
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports the number of bytes written so far.
+     *
+     * @return the size of the log
+     */
+    public long bytes() {
+        return this.position;
+    }
+
+    /**
+     * Reports the number of checkpoints written so far.
+     *
+     * @return the number of checkpoints
+     */
+    public int checkpoints() {
+        return this.checkpoints;
+    }
+
+    /**
+     * Detaches the log from the world, appends the checkpoint index and
+     * closes the file.
+     *
+     * @clears this
+     * @ensures [the log file is complete and the world is no longer logged]
+     */
+    public void close() {
+        this.world.setLog(null);
+        long indexOffset = this.position;
+        this.putVarint(this.world.rounds());
+        this.putVarint(this.checkpoints);
+        long previousRound = 0;
+        long previousOffset = 0;
+        for (int i = 0; i < this.checkpoints; i++) {
+            this.putVarint(this.checkpointRounds[i] - previousRound);
+            this.putVarint(this.checkpointOffsets[i] - previousOffset);
+            previousRound = this.checkpointRounds[i];
+            previousOffset = this.checkpointOffsets[i];
+        }
+        this.writeRecord(INDEX);
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            this.putByte((int) (indexOffset >>> (Byte.SIZE * i)));
+        }
+        for (int i = Integer.BYTES - 1; i >= 0; i--) {
+            this.putByte(MAGIC >>> (Byte.SIZE * i));
+        }
+        this.writeRaw();
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot write event log: " + e.getMessage());
+        }
+    }
+
+}
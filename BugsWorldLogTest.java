@@ -0,0 +1,216 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BugsWorldLog} and {@code BugsWorldReplay}.
+ */
+public class BugsWorldLogTest {
+
+    /**
+     * Compiled program for {@code WHILE true DO infect END WHILE}.
+     */
+    private static final int[] INFECTOR = { Instruction.INFECT.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program that draws random values until one is true, then
+     * moves, in a loop; some decisions draw many values.
+     */
+    private static final int[] HESITANT = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 0,
+            Instruction.TURNRIGHT.byteCode(), Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO END WHILE  move} in a loop.
+     */
+    private static final int[] SENSING_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Side of the test world.
+     */
+    private static final int SIDE = 16;
+
+    /**
+     * Number of bugs in the test world.
+     */
+    private static final int BUGS = 80;
+
+    /**
+     * Number of rounds run.
+     */
+    private static final int ROUNDS = 60;
+
+    /**
+     * Rounds between checkpoints.
+     */
+    private static final int INTERVAL = 16;
+
+    /**
+     * Returns the name of a new scratch file, deleted when the JVM exits.
+     *
+     * @return the name of the scratch file
+     */
+    private static String scratchFile() {
+        File f = null;
+        try {
+            f = File.createTempFile("events", ".log");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        f.deleteOnExit();
+        return f.getPath();
+    }
+
+    /**
+     * Returns the resolved programs of the test world.
+     *
+     * @return the resolved programs
+     */
+    private static ResolvedProgram[] programs() {
+        int[][] code = { WANDERER, INFECTOR, HESITANT, SENSING_LOOP };
+        ResolvedProgram[] programs = new ResolvedProgram[code.length];
+        for (int s = 0; s < code.length; s++) {
+            programs[s] = new ResolvedProgram(new DecodedProgram(code[s]));
+        }
+        return programs;
+    }
+
+    /**
+     * Returns a new test world with a wall across part of it.
+     *
+     * @return the test world
+     */
+    private static BugsWorld world() {
+        BugsWorld w = new BugsWorld(SIDE, SIDE, programs(), BUGS, SIDE);
+        for (int x = 2; x < SIDE - 2; x++) {
+            w.addWall(x, SIDE / 2);
+        }
+        int b = 0;
+        for (int c = 0; b < BUGS; c += 3) {
+            int x = c % SIDE;
+            int y = c / SIDE;
+            if (w.isEmpty(x, y)) {
+                w.addBug(x, y, c % 4, b % programs().length);
+                b++;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Runs the test world with a log in {@code fileName} and returns its
+     * fingerprint after each round.
+     *
+     * @param fileName
+     *            the name of the log file
+     * @return the fingerprints, by round
+     */
+    private static long[] loggedRun(String fileName) {
+        BugsWorld w = world();
+        long[] fingerprints = new long[ROUNDS + 1];
+        fingerprints[0] = w.fingerprint();
+        BugsWorldLog log = new BugsWorldLog(fileName, w, INTERVAL);
+        for (int r = 1; r <= ROUNDS; r++) {
+            w.step();
+            fingerprints[r] = w.fingerprint();
+        }
+        log.close();
+        return fingerprints;
+    }
+
+    @Test
+    public void testSeekEveryRound() {
+        String fileName = scratchFile();
+        long[] fingerprints = loggedRun(fileName);
+        BugsWorldReplay replay = new BugsWorldReplay(fileName, programs());
+        assertEquals(0, replay.firstRound());
+        assertEquals(ROUNDS, replay.lastRound());
+        assertEquals(1 + ROUNDS / INTERVAL, replay.checkpoints());
+        for (int r = ROUNDS; r >= 0; r--) {
+            assertEquals("round " + r, fingerprints[r],
+                    replay.seek(r).fingerprint());
+        }
+        replay.close();
+    }
+
+    @Test
+    public void testReplayedWorldStepsOn() {
+        String fileName = scratchFile();
+        long[] fingerprints = loggedRun(fileName);
+        BugsWorldReplay replay = new BugsWorldReplay(fileName, programs());
+        final int from = 21;
+        BugsWorld w = replay.seek(from);
+        for (int r = from + 1; r <= ROUNDS; r++) {
+            w.step();
+            assertEquals("round " + r, fingerprints[r], w.fingerprint());
+        }
+        replay.close();
+    }
+
+    @Test
+    public void testLogWithoutIndexIsScanned() throws IOException {
+        String fileName = scratchFile();
+        long[] fingerprints = loggedRun(fileName);
+        /*
+         * Cut the log in the middle of its last round record, as a crash
+         * would
+         */
+        long cut;
+        try (RandomAccessFile f = new RandomAccessFile(fileName, "rw")) {
+            f.seek(f.length() - BugsWorldLog.TRAILER_BYTES);
+            cut = f.readLong() - 2;
+            f.setLength(cut);
+        }
+        BugsWorldReplay replay = new BugsWorldReplay(fileName, programs());
+        assertEquals(ROUNDS - 1, replay.lastRound());
+        assertEquals(1 + ROUNDS / INTERVAL, replay.checkpoints());
+        assertEquals(fingerprints[ROUNDS - 1],
+                replay.seek(ROUNDS - 1).fingerprint());
+        replay.close();
+    }
+
+    @Test
+    public void testLogIsCompact() {
+        String fileName = scratchFile();
+        BugsWorld w = world();
+        BugsWorldLog log = new BugsWorldLog(fileName, w, INTERVAL);
+        long start = log.bytes();
+        w.step();
+        final int maxBytesPerBug = 3;
+        assertTrue(log.bytes() - start <= maxBytesPerBug * BUGS);
+        log.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testNotALog() throws IOException {
+        String fileName = scratchFile();
+        try (RandomAccessFile f = new RandomAccessFile(fileName, "rw")) {
+            f.writeInt(0);
+        }
+        new BugsWorldReplay(fileName, programs());
+    }
+
+}
@@ -0,0 +1,670 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.utilities.Reporter;
+
+/**
+ * Reader of a {@code BugsWorldLog} that rebuilds the logged world at any
+ * logged round. {@code seek} restores the last checkpoint at or before the
+ * round and applies the logged outcomes of the rounds after it, so no BL
+ * program runs and the cost of a seek is bounded by the checkpoint interval
+ * rather than by the length of the run.
+ * <p>
+ * The checkpoint index is read from the end of a closed log; a log that was
+ * not closed, e.g., because the run crashed, is indexed by scanning it once,
+ * up to its last complete record.
+ */
+public final class BugsWorldReplay {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Size of the read window.
+     */
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    /**
+     * Largest size of a record tag and payload length.
+     */
+    private static final int MAX_RECORD_PREFIX = 6;
+
+    /**
+     * Number of species in the world run by {@code main}.
+     */
+    private static final int SPECIES = 2;
+
+    /**
+     * Number of random seeks timed by {@code main}.
+     */
+    private static final int SEEKS = 10;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * Mask of the direction in a checkpointed bug's species and direction.
+     */
+    private static final int DIRECTION_MASK = 3;
+
+    /**
+     * The log file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the log file.
+     */
+    private final long fileSize;
+
+    /**
+     * Bytes of the file from {@code windowStart} on, or null.
+     */
+    private ByteBuffer window;
+
+    /**
+     * File offset of the first byte of {@code window}.
+     */
+    private long windowStart;
+
+    /**
+     * Tag of the record last read.
+     */
+    private int recordTag;
+
+    /**
+     * File offset just past the record last read.
+     */
+    private long recordEnd;
+
+    /**
+     * Resolved program of each species, for the rebuilt worlds.
+     */
+    private final ResolvedProgram[] programs;
+
+    /**
+     * Grid width.
+     */
+    private int width;
+
+    /**
+     * Grid height.
+     */
+    private int height;
+
+    /**
+     * Seed of the bugs' random streams.
+     */
+    private long seed;
+
+    /**
+     * Wall cells, in increasing order.
+     */
+    private int[] walls;
+
+    /**
+     * Round of each checkpoint, in increasing order.
+     */
+    private long[] checkpointRounds;
+
+    /**
+     * File offset of each checkpoint.
+     */
+    private long[] checkpointOffsets;
+
+    /**
+     * Number of checkpoints.
+     */
+    private int checkpoints;
+
+    /**
+     * Last round logged.
+     */
+    private long lastRound;
+
+    /**
+     * Reads an unsigned varint from {@code in}.
+     *
+     * @param in
+     *            the bytes
+     * @return the value
+     * @updates in
+     */
+    private static long getVarint(ByteBuffer in) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0 && shift < Long.SIZE);
+        return v;
+    }
+
+    /**
+     * Returns the value whose zigzag encoding is {@code v}.
+     *
+     * @param v
+     *            the encoding
+     * @return the value
+     */
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Reports a corrupt log and terminates.
+     *
+     * @param fileName
+     *            the name of the log file, or a description of the problem
+     */
+    private static void corrupt(String fileName) {
+        Reporter.fatalErrorToConsole("ERROR: Corrupt event log: " + fileName);
+    }
+
+    /**
+     * Returns up to {@code n} bytes of the file starting at offset
+     * {@code pos}, fewer at the end of the file, in little-endian order.
+     *
+     * @param pos
+     *            the offset
+     * @param n
+     *            the number of bytes
+     * @return the bytes
+     */
+    private ByteBuffer read(long pos, int n) {
+        long available = Math.min(n, Math.max(this.fileSize - pos, 0));
+        if (this.window == null || pos < this.windowStart
+                || pos + available > this.windowStart
+                        + this.window.limit()) {
+            int capacity = (int) Math.min(Math.max(n, WINDOW_SIZE),
+                    Math.max(this.fileSize - pos, 0));
+            if (this.window == null || this.window.capacity() < capacity) {
+                this.window = ByteBuffer.allocate(capacity);
+            }
+            this.window.clear();
+            this.window.limit(capacity);
+            try {
+                while (this.window.hasRemaining()
+                        && this.channel.read(this.window,
+                                pos + this.window.position()) >= 0) {
+                    // keep reading
+                }
+            } catch (IOException e) {
+                Reporter.fatalErrorToConsole(
+                        "ERROR: Cannot read event log: " + e.getMessage());
+            }
+            this.window.flip();
+            this.windowStart = pos;
+        }
+        int from = (int) (pos - this.windowStart);
+        ByteBuffer result = this.window.duplicate();
+        result.position(from);
+        result.limit((int) Math.min(from + available, this.window.limit()));
+        return result.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads the record at offset {@code pos} and returns its payload, setting
+     * {@code recordTag} and {@code recordEnd}.
+     *
+     * @param pos
+     *            the offset
+     * @return the payload, or null if the file ends inside the record
+     */
+    private ByteBuffer readRecord(long pos) {
+        ByteBuffer prefix = this.read(pos, MAX_RECORD_PREFIX);
+        ByteBuffer result = null;
+        if (prefix.hasRemaining()) {
+            this.recordTag = prefix.get() & 0xFF;
+            long length = -1;
+            try {
+                length = getVarint(prefix);
+            } catch (BufferUnderflowException e) {
+                length = -1;
+            }
+            long start = pos + prefix.position();
+            if (length >= 0 && length <= Integer.MAX_VALUE
+                    && start + length <= this.fileSize) {
+                this.recordEnd = start + length;
+                result = this.read(start, (int) length);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the header record at offset {@code pos}.
+     *
+     * @param pos
+     *            the offset
+     * @param fileName
+     *            the name of the log file, for error messages
+     */
+    private void readHeader(long pos, String fileName) {
+        ByteBuffer p = this.readRecord(pos);
+        if (p == null || this.recordTag != BugsWorldLog.HEADER) {
+            corrupt(fileName);
+        }
+        Reporter.assertElseFatalError(
+                getVarint(p) == BugsWorldLog.FORMAT_VERSION,
+                "ERROR: Event log " + fileName
+                        + " has an unsupported format version");
+        this.width = (int) getVarint(p);
+        this.height = (int) getVarint(p);
+        this.seed = p.getLong();
+        Reporter.assertElseFatalError(
+                getVarint(p) == this.programs.length,
+                "ERROR: Event log " + fileName + " has a different number"
+                        + " of species than the programs given");
+        /*
+         * The checkpoint interval is implied by the checkpoints themselves
+         */
+        getVarint(p);
+        this.walls = new int[(int) getVarint(p)];
+        int c = 0;
+        for (int i = 0; i < this.walls.length; i++) {
+            c += (int) getVarint(p);
+            this.walls[i] = c;
+        }
+    }
+
+    /**
+     * Appends a checkpoint to the index.
+     *
+     * @param round
+     *            the round of the checkpoint
+     * @param offset
+     *            the file offset of the checkpoint
+     */
+    private void addCheckpoint(long round, long offset) {
+        if (this.checkpoints == this.checkpointRounds.length) {
+            this.checkpointRounds = Arrays.copyOf(this.checkpointRounds,
+                    2 * this.checkpoints);
+            this.checkpointOffsets = Arrays.copyOf(this.checkpointOffsets,
+                    2 * this.checkpoints);
+        }
+        this.checkpointRounds[this.checkpoints] = round;
+        this.checkpointOffsets[this.checkpoints] = offset;
+        this.checkpoints++;
+    }
+
+    /**
+     * Reads the index at the end of a closed log.
+     *
+     * @return true iff the log has an index
+     */
+    private boolean readIndex() {
+        boolean found = false;
+        if (this.fileSize >= Integer.BYTES + BugsWorldLog.TRAILER_BYTES) {
+            ByteBuffer trailer = this.read(
+                    this.fileSize - BugsWorldLog.TRAILER_BYTES,
+                    BugsWorldLog.TRAILER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            long offset = trailer.getLong();
+            if (trailer.getInt() == BugsWorldLog.MAGIC && offset >= 0
+                    && offset < this.fileSize) {
+                ByteBuffer p = this.readRecord(offset);
+                if (p != null && this.recordTag == BugsWorldLog.INDEX) {
+                    this.lastRound = getVarint(p);
+                    long n = getVarint(p);
+                    long round = 0;
+                    long at = 0;
+                    for (long i = 0; i < n; i++) {
+                        round += getVarint(p);
+                        at += getVarint(p);
+                        this.addCheckpoint(round, at);
+                    }
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Indexes the records from offset {@code pos} to the last complete one.
+     *
+     * @param pos
+     *            the offset of the first record after the header
+     */
+    private void scan(long pos) {
+        long at = pos;
+        ByteBuffer p = this.readRecord(at);
+        while (p != null && this.recordTag != BugsWorldLog.INDEX) {
+            if (this.recordTag == BugsWorldLog.CHECKPOINT) {
+                this.lastRound = getVarint(p);
+                this.addCheckpoint(this.lastRound, at);
+            } else if (this.recordTag == BugsWorldLog.ROUND
+                    && this.checkpoints > 0) {
+                this.lastRound++;
+            }
+            at = this.recordEnd;
+            p = this.readRecord(at);
+        }
+    }
+
+    /**
+     * Rebuilds the world from the checkpoint payload {@code p}.
+     *
+     * @param p
+     *            the payload of a checkpoint record
+     * @return the world
+     */
+    private BugsWorld restore(ByteBuffer p) {
+        long round = getVarint(p);
+        int n = (int) getVarint(p);
+        BugsWorld w = new BugsWorld(this.width, this.height, this.programs, n,
+                this.seed);
+        for (int c : this.walls) {
+            w.addWall(c % this.width, c / this.width);
+        }
+        w.restoreRounds(round);
+        int cells = this.width * this.height;
+        int c = 0;
+        for (int b = 0; b < n; b++) {
+            c += (int) unzigzag(getVarint(p));
+            int speciesAndDirection = (int) getVarint(p);
+            int s = speciesAndDirection >>> 2;
+            if (c < 0 || c >= cells || s >= this.programs.length
+                    || !w.isEmpty(c % this.width, c / this.width)) {
+                corrupt("bad bug in checkpoint of round " + round);
+            }
+            int pc = (int) getVarint(p);
+            w.restoreBug(c, speciesAndDirection & DIRECTION_MASK, s, pc,
+                    p.getLong());
+        }
+        return w;
+    }
+
+    /**
+     * Applies the round payload {@code p} to {@code w}.
+     *
+     * @param w
+     *            the world
+     * @param p
+     *            the payload of a round record
+     * @updates w
+     */
+    private static void replayRound(BugsWorld w, ByteBuffer p) {
+        for (int b = 0; b < w.bugCount(); b++) {
+            int event = p.get() & 0xFF;
+            int drawn = event >>> BugsWorldLog.DRAWS_SHIFT;
+            if (drawn == BugsWorldLog.DRAWS_INLINE) {
+                drawn += (int) getVarint(p);
+            }
+            int loc = w.pc(b) + (int) unzigzag(getVarint(p));
+            int infectedWith = -1;
+            if ((event & BugsWorldLog.INFECTED) != 0) {
+                infectedWith = (int) getVarint(p);
+            }
+            w.replayOutcome(b, loc, event & BugsWorldLog.ACTION_MASK,
+                    (event & BugsWorldLog.MOVED) != 0, infectedWith, drawn);
+        }
+        w.restoreRounds(w.rounds() + 1);
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor: opens the log in file {@code fileName} and indexes its
+     * checkpoints.
+     *
+     * @param fileName
+     *            the name of the log file
+     * @param programs
+     *            the resolved program of each species of the logged world,
+     *            given to the rebuilt worlds so they can be stepped further
+     * @ensures <pre>
+     * if [fileName is an event log of a world with |programs| species and at
+     *  least one checkpoint] then
+     *  [this reads fileName]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public BugsWorldReplay(String fileName, ResolvedProgram[] programs) {
+        assert fileName != null : "Violation of: fileName is not null";
+        assert programs != null : "Violation of: programs is not null";
+
+        this.programs = programs.clone();
+        FileChannel file = null;
+        long bytes = 0;
+        try {
+            file = FileChannel.open(Paths.get(fileName),
+                    StandardOpenOption.READ);
+            bytes = file.size();
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole("ERROR: Cannot open event log "
+                    + fileName + ": " + e.getMessage());
+        }
+        this.channel = file;
+        this.fileSize = bytes;
+        this.checkpointRounds = new long[1];
+        this.checkpointOffsets = new long[1];
+        this.checkpoints = 0;
+        this.lastRound = -1;
+        try {
+            ByteBuffer magic = this.read(0, Integer.BYTES)
+                    .order(ByteOrder.BIG_ENDIAN);
+            Reporter.assertElseFatalError(
+                    magic.remaining() == Integer.BYTES
+                            && magic.getInt() == BugsWorldLog.MAGIC,
+                    "ERROR: " + fileName + " is not an event log");
+            this.readHeader(Integer.BYTES, fileName);
+            long firstRecord = this.recordEnd;
+            if (!this.readIndex()) {
+                this.scan(firstRecord);
+            }
+        } catch (BufferUnderflowException e) {
+            corrupt(fileName);
+        }
+        Reporter.assertElseFatalError(this.checkpoints > 0,
+                "ERROR: Event log " + fileName + " has no checkpoint");
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports the first round logged.
+     *
+     * @return the round of the first checkpoint
+     */
+    public long firstRound() {
+        return this.checkpointRounds[0];
+    }
+
+    /**
+     * Reports the last round logged.
+     *
+     * @return the last round
+     */
+    public long lastRound() {
+        return this.lastRound;
+    }
+
+    /**
+     * Reports the number of checkpoints.
+     *
+     * @return the number of checkpoints
+     */
+    public int checkpoints() {
+        return this.checkpoints;
+    }
+
+    /**
+     * Returns the logged world as it was after {@code round} rounds, rebuilt
+     * from the last checkpoint at or before {@code round} without running any
+     * BL program.
+     *
+     * @param round
+     *            the round
+     * @return the world after round rounds
+     * @requires firstRound <= round <= lastRound
+     * @ensures <pre>
+     * seek = [the logged world after round rounds, with the same fingerprint
+     *  it had then]
+     * </pre>
+     */
+    public BugsWorld seek(long round) {
+        assert this.firstRound() <= round
+                && round <= this.lastRound : ""
+                        + "Violation of: firstRound <= round <= lastRound";
+
+        /*
+         * Last checkpoint at or before round
+         */
+        int lo = 0;
+        int hi = this.checkpoints - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.checkpointRounds[mid] <= round) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        BugsWorld w = null;
+        try {
+            ByteBuffer p = this.readRecord(this.checkpointOffsets[lo]);
+            if (p == null || this.recordTag != BugsWorldLog.CHECKPOINT) {
+                corrupt("no checkpoint at indexed offset");
+            }
+            w = this.restore(p);
+            long pos = this.recordEnd;
+            while (w.rounds() < round) {
+                p = this.readRecord(pos);
+                if (p == null) {
+                    corrupt("log ends before round " + round);
+                }
+                if (this.recordTag == BugsWorldLog.ROUND) {
+                    replayRound(w, p);
+                }
+                pos = this.recordEnd;
+            }
+        } catch (BufferUnderflowException e) {
+            corrupt("truncated record before round " + round);
+        }
+        return w;
+    }
+
+    /**
+     * Closes the log file.
+     *
+     * @clears this
+     */
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot close event log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Main method: runs a random world with and without an event log, and
+     * reports the size of the log, the cost of logging and the time to seek.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        ResolvedProgram[] programs = new ResolvedProgram[SPECIES];
+        for (int s = 0; s < SPECIES; s++) {
+            out.print("Enter compiled BL program file name for species " + s
+                    + ": ");
+            programs[s] = new ResolvedProgram(new DecodedProgram(
+                    BugsWorldVMInterpreter.loadProgram(in.nextLine())));
+        }
+        int side = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter world side: ");
+        int bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of bugs: ");
+        while ((long) bugs > (long) side * side) {
+            out.println("The world has only " + ((long) side * side)
+                    + " cells");
+            bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                    "Enter number of bugs: ");
+        }
+        int rounds = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of rounds: ");
+        int interval = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter rounds between checkpoints: ");
+        out.print("Enter event log file name: ");
+        String fileName = in.nextLine();
+        final long seed = 2231;
+
+        BugsWorld world = BugsWorldBenchmark.populatedWorld(programs, side,
+                bugs, seed);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            world.step();
+        }
+        long plainNanos = System.nanoTime() - start;
+
+        world = BugsWorldBenchmark.populatedWorld(programs, side, bugs, seed);
+        start = System.nanoTime();
+        BugsWorldLog log = new BugsWorldLog(fileName, world, interval);
+        for (int r = 0; r < rounds; r++) {
+            world.step();
+        }
+        log.close();
+        long loggedNanos = System.nanoTime() - start;
+        out.println();
+        out.println("Log: " + log.bytes() + " bytes, "
+                + log.checkpoints() + " checkpoints, "
+                + String.format("%.2f",
+                        (double) log.bytes() / ((double) bugs * rounds))
+                + " bytes per bug step");
+        out.println("Run: "
+                + String.format("%.1f", plainNanos / NANOS_PER_MILLI)
+                + " ms without log, "
+                + String.format("%.1f", loggedNanos / NANOS_PER_MILLI)
+                + " ms with log");
+
+        BugsWorldReplay replay = new BugsWorldReplay(fileName, programs);
+        start = System.nanoTime();
+        BugsWorld last = replay.seek(replay.lastRound());
+        long lastNanos = System.nanoTime() - start;
+        out.println("Seek to round " + replay.lastRound() + ": "
+                + String.format("%.2f", lastNanos / NANOS_PER_MILLI) + " ms"
+                + (last.fingerprint() == world.fingerprint() ? ""
+                        : "  *** REPLAY DIFFERS FROM RUN ***"));
+        SplittableRandom targets = new SplittableRandom(seed);
+        start = System.nanoTime();
+        for (int i = 0; i < SEEKS; i++) {
+            replay.seek(targets.nextLong(replay.lastRound() + 1));
+        }
+        out.println("Seek to a random round: " + String.format("%.2f",
+                (System.nanoTime() - start) / NANOS_PER_MILLI / SEEKS)
+                + " ms on average");
+        replay.close();
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,624 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.utilities.Reporter;
+
+/**
+ * Snapshot of a {@code BugsWorld} between rounds, in a memory-mapped file:
+ * the walls, and the program counter (as used by
+ * {@code ResolvedProgram.nextPrimitiveInstructionAddress}), direction,
+ * species, cell, and random stream state of every bug. Any number of worlds
+ * can be restored from one snapshot and stepped on independently, so
+ * what-if runs fork from a mid-run state without running the rounds before
+ * it again.
+ * <p>
+ * A snapshot file is a 48-byte header followed by fixed-size sections, all
+ * big-endian:
+ *
+ * <pre>
+ * int magic     0x42575353 ("BWSS")
+ * int version   FORMAT_VERSION
+ * int width, height, species, bugs
+ * long rounds, seed
+ * int checksum  CRC-32 of the sections
+ * int           0
+ * long[species] CRC-32 of each species' compiled program
+ * long[(width * height + 63) / 64]  walls, one bit per cell
+ * long[bugs]    random stream states
+ * int[bugs]     cells, in row-major order
+ * int[bugs]     program counters
+ * byte[bugs]    directions
+ * byte[bugs]    species
+ * </pre>
+ *
+ * Opening a snapshot maps the file and checks its header and checksum; the
+ * state of a bug is then read in place, and restoring moves each section
+ * into the new world's arrays with one bulk transfer from the mapped pages;
+ * nothing is decoded per bug, and only the grid is rebuilt, from the cells.
+ * Restoring checks that the programs given are the ones the snapshot was
+ * taken with, and the pass that rebuilds the grid checks every bug against
+ * the grid and its program, so a snapshot that passes the checksum but does
+ * not fit the world is reported rather than restored.
+ */
+public final class BugsWorldSnapshot {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Magic number at the start of every snapshot file.
+     */
+    private static final int MAGIC = 0x42575353;
+
+    /**
+     * Version of the format written by this class.
+     */
+    static final int FORMAT_VERSION = 2;
+
+    /**
+     * Number of bytes in the header.
+     */
+    private static final int HEADER_BYTES = 48;
+
+    /**
+     * Number of species in the world run by {@code main}.
+     */
+    private static final int SPECIES = 2;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * Grid width.
+     */
+    private final int width;
+
+    /**
+     * Grid height.
+     */
+    private final int height;
+
+    /**
+     * Number of species.
+     */
+    private final int species;
+
+    /**
+     * Number of bugs.
+     */
+    private final int bugs;
+
+    /**
+     * Number of rounds stepped before the snapshot.
+     */
+    private final long rounds;
+
+    /**
+     * Seed the bugs' random streams were derived from.
+     */
+    private final long seed;
+
+    /**
+     * The program checksums section.
+     */
+    private final LongBuffer programChecksums;
+
+    /**
+     * The walls section.
+     */
+    private final LongBuffer walls;
+
+    /**
+     * The random stream states section.
+     */
+    private final LongBuffer rngs;
+
+    /**
+     * The cells section.
+     */
+    private final IntBuffer cells;
+
+    /**
+     * The program counters section.
+     */
+    private final IntBuffer pcs;
+
+    /**
+     * The directions section.
+     */
+    private final ByteBuffer directions;
+
+    /**
+     * The species section.
+     */
+    private final ByteBuffer kinds;
+
+    /**
+     * Returns the size of a snapshot of a world with {@code cells} cells,
+     * {@code species} species and {@code n} bugs.
+     *
+     * @param cells
+     *            the number of cells
+     * @param species
+     *            the number of species
+     * @param n
+     *            the number of bugs
+     * @return the number of bytes in the snapshot
+     */
+    private static long fileSize(int cells, int species, int n) {
+        long wallWords = (cells + (long) Long.SIZE - 1) / Long.SIZE;
+        return HEADER_BYTES + (species + wallWords + n) * Long.BYTES
+                + 2L * n * Integer.BYTES + 2L * n;
+    }
+
+    /**
+     * Returns the bytes of {@code all} from {@code offset} on, {@code length}
+     * of them, as a buffer of their own, and advances {@code offset}.
+     *
+     * @param all
+     *            the whole file
+     * @param offset
+     *            holds the offset of the section, advanced past it
+     * @param length
+     *            the number of bytes in the section
+     * @return the section
+     * @updates offset
+     */
+    private static ByteBuffer section(ByteBuffer all, long[] offset,
+            long length) {
+        ByteBuffer result = all.duplicate();
+        result.limit((int) (offset[0] + length));
+        result.position((int) offset[0]);
+        offset[0] += length;
+        return result.slice();
+    }
+
+    /**
+     * Returns the CRC-32 of the bytes of {@code all} after the header.
+     *
+     * @param all
+     *            the whole file
+     * @return the CRC-32 of the sections, as an {@code int}
+     */
+    private static int checksum(ByteBuffer all) {
+        ByteBuffer sections = all.duplicate();
+        sections.position(HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(sections);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the CRC-32 of the compiled program of {@code rp}.
+     *
+     * @param rp
+     *            the resolved program
+     * @return the CRC-32 of the compiled program
+     */
+    private static long programChecksum(ResolvedProgram rp) {
+        int[] cp = rp.decoded().code();
+        ByteBuffer bytes = ByteBuffer.allocate(cp.length * Integer.BYTES);
+        bytes.asIntBuffer().put(cp);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the bytes of file {@code fileName}, mapped with {@code mode},
+     * resized to {@code size} bytes unless mapped read-only.
+     *
+     * @param fileName
+     *            the file name
+     * @param mode
+     *            the mapping mode
+     * @param size
+     *            the size of the file written, if not read-only
+     * @return the mapped file
+     */
+    private static MappedByteBuffer map(String fileName,
+            FileChannel.MapMode mode, long size) {
+        MappedByteBuffer result = null;
+        boolean reading = mode == FileChannel.MapMode.READ_ONLY;
+        try (FileChannel channel = reading
+                ? FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)
+                : FileChannel.open(Paths.get(fileName),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long bytes = size;
+            if (reading) {
+                bytes = channel.size();
+            }
+            Reporter.assertElseFatalError(bytes <= Integer.MAX_VALUE,
+                    "ERROR: " + fileName + " is too large for a snapshot");
+            result = channel.map(mode, 0, bytes);
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole("ERROR: Cannot "
+                    + (reading ? "read " : "write ") + fileName + ": "
+                    + e.getMessage());
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor: maps the snapshot in file {@code fileName} and checks its
+     * header and checksum.
+     *
+     * @param fileName
+     *            the name of the snapshot file
+     * @ensures <pre>
+     * if [fileName is a snapshot with a valid header and checksum] then
+     *  [this is the snapshot in fileName]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public BugsWorldSnapshot(String fileName) {
+        assert fileName != null : "Violation of: fileName is not null";
+
+        MappedByteBuffer all = map(fileName, FileChannel.MapMode.READ_ONLY,
+                0);
+        Reporter.assertElseFatalError(all.remaining() >= HEADER_BYTES,
+                "ERROR: " + fileName + " is too short to be a snapshot");
+        Reporter.assertElseFatalError(all.getInt() == MAGIC,
+                "ERROR: " + fileName + " is not a snapshot");
+        Reporter.assertElseFatalError(all.getInt() == FORMAT_VERSION,
+                "ERROR: " + fileName + " has an unsupported snapshot version");
+        this.width = all.getInt();
+        this.height = all.getInt();
+        this.species = all.getInt();
+        this.bugs = all.getInt();
+        this.rounds = all.getLong();
+        this.seed = all.getLong();
+        int expected = all.getInt();
+        Reporter.assertElseFatalError(
+                this.width > 0 && this.height > 0 && this.species > 0
+                        && this.bugs >= 0 && this.rounds >= 0
+                        && (long) this.width * this.height <= Integer.MAX_VALUE
+                        && this.bugs <= (long) this.width * this.height
+                        && all.capacity() == fileSize(
+                                this.width * this.height, this.species,
+                                this.bugs),
+                "ERROR: " + fileName + " has a corrupted header");
+        Reporter.assertElseFatalError(checksum(all) == expected,
+                "ERROR: " + fileName + " is corrupted (checksum mismatch)");
+        long wallWords = ((long) this.width * this.height + Long.SIZE - 1)
+                / Long.SIZE;
+        long[] offset = { HEADER_BYTES };
+        this.programChecksums = section(all, offset,
+                (long) this.species * Long.BYTES).asLongBuffer();
+        this.walls = section(all, offset, wallWords * Long.BYTES)
+                .asLongBuffer();
+        this.rngs = section(all, offset, (long) this.bugs * Long.BYTES)
+                .asLongBuffer();
+        this.cells = section(all, offset, (long) this.bugs * Integer.BYTES)
+                .asIntBuffer();
+        this.pcs = section(all, offset, (long) this.bugs * Integer.BYTES)
+                .asIntBuffer();
+        this.directions = section(all, offset, this.bugs);
+        this.kinds = section(all, offset, this.bugs);
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Writes a snapshot of {@code world} to file {@code fileName}.
+     *
+     * @param world
+     *            the world
+     * @param fileName
+     *            the name of the snapshot file
+     * @requires [world is between rounds]
+     * @ensures [the file fileName contains a snapshot of world]
+     */
+    public static void save(BugsWorld world, String fileName) {
+        assert world != null : "Violation of: world is not null";
+        assert fileName != null : "Violation of: fileName is not null";
+
+        int n = world.bugCount();
+        int species = world.speciesCount();
+        int cellCount = world.width() * world.height();
+        MappedByteBuffer all = map(fileName, FileChannel.MapMode.READ_WRITE,
+                fileSize(cellCount, species, n));
+        long wallWords = (cellCount + (long) Long.SIZE - 1) / Long.SIZE;
+        long[] offset = { HEADER_BYTES };
+        LongBuffer programSection = section(all, offset,
+                (long) species * Long.BYTES).asLongBuffer();
+        for (int s = 0; s < species; s++) {
+            programSection.put(programChecksum(world.program(s)));
+        }
+        LongBuffer wallSection = section(all, offset, wallWords * Long.BYTES)
+                .asLongBuffer();
+        LongBuffer rngSection = section(all, offset, (long) n * Long.BYTES)
+                .asLongBuffer();
+        IntBuffer cellSection = section(all, offset, (long) n * Integer.BYTES)
+                .asIntBuffer();
+        IntBuffer pcSection = section(all, offset, (long) n * Integer.BYTES)
+                .asIntBuffer();
+        ByteBuffer directionSection = section(all, offset, n);
+        ByteBuffer speciesSection = section(all, offset, n);
+        world.saveState(wallSection, rngSection, cellSection, pcSection,
+                directionSection, speciesSection);
+        all.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(world.width())
+                .putInt(world.height()).putInt(species).putInt(n)
+                .putLong(world.rounds()).putLong(world.seed())
+                .putInt(checksum(all)).putInt(0);
+        all.force();
+    }
+
+    /**
+     * Reports the grid width.
+     *
+     * @return the width
+     */
+    public int width() {
+        return this.width;
+    }
+
+    /**
+     * Reports the grid height.
+     *
+     * @return the height
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Reports the number of species.
+     *
+     * @return the number of species
+     */
+    public int speciesCount() {
+        return this.species;
+    }
+
+    /**
+     * Reports the number of bugs.
+     *
+     * @return the number of bugs
+     */
+    public int bugCount() {
+        return this.bugs;
+    }
+
+    /**
+     * Reports the number of rounds stepped before the snapshot.
+     *
+     * @return the number of rounds
+     */
+    public long rounds() {
+        return this.rounds;
+    }
+
+    /**
+     * Reports whether cell {@code (x, y)} is a wall.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @return true iff cell (x, y) is a wall
+     * @requires [0 <= x < width]  and  [0 <= y < height]
+     */
+    public boolean isWall(int x, int y) {
+        assert 0 <= x && x < this.width : "Violation of: 0 <= x < width";
+        assert 0 <= y && y < this.height : "Violation of: 0 <= y < height";
+
+        int c = y * this.width + x;
+        return (this.walls.get(c / Long.SIZE) >>> (c % Long.SIZE) & 1) != 0;
+    }
+
+    /**
+     * Reports the column of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the column
+     * @requires 0 <= b < bugCount
+     */
+    public int x(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return this.cells.get(b) % this.width;
+    }
+
+    /**
+     * Reports the row of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the row
+     * @requires 0 <= b < bugCount
+     */
+    public int y(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return this.cells.get(b) / this.width;
+    }
+
+    /**
+     * Reports the direction of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the direction: 0 = north, 1 = east, 2 = south, 3 = west
+     * @requires 0 <= b < bugCount
+     */
+    public int direction(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return this.directions.get(b);
+    }
+
+    /**
+     * Reports the species of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the species
+     * @requires 0 <= b < bugCount
+     */
+    public int species(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return this.kinds.get(b);
+    }
+
+    /**
+     * Reports the program counter of bug {@code b}.
+     *
+     * @param b
+     *            the bug
+     * @return the program counter
+     * @requires 0 <= b < bugCount
+     */
+    public int pc(int b) {
+        assert 0 <= b && b < this.bugs : "Violation of: 0 <= b < bugCount";
+
+        return this.pcs.get(b);
+    }
+
+    /**
+     * Returns a new world in the state of the snapshot, running
+     * {@code programs}.
+     *
+     * @param programs
+     *            the resolved program of each species, the same as those of
+     *            the world the snapshot was taken of
+     * @param capacity
+     *            the maximum number of bugs of the new world, which may
+     *            exceed bugCount so that bugs can be added to ask what if
+     * @return the restored world
+     * @requires capacity >= bugCount
+     * @ensures <pre>
+     * if |programs| = speciesCount  and  [the compiled program of each
+     *  species matches the checksum in the snapshot]  and  [every bug of the
+     *  snapshot fits the grid and its program] then
+     *  [restore is the world of the snapshot, with the same fingerprint it
+     *   had, running programs]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public BugsWorld restore(ResolvedProgram[] programs, int capacity) {
+        assert programs != null : "Violation of: programs is not null";
+        assert capacity >= this.bugs : "Violation of: capacity >= bugCount";
+
+        Reporter.assertElseFatalError(programs.length == this.species,
+                "ERROR: Snapshot has a different number of species than the"
+                        + " programs given");
+        for (int s = 0; s < this.species; s++) {
+            Reporter.assertElseFatalError(
+                    programChecksum(programs[s]) == this.programChecksums
+                            .get(s),
+                    "ERROR: Snapshot was taken with a different program for"
+                            + " species " + s);
+        }
+        BugsWorld result = new BugsWorld(this.width, this.height, programs,
+                capacity, this.seed);
+        result.restoreState(this.walls.duplicate(), this.rngs.duplicate(),
+                this.cells.duplicate(), this.pcs.duplicate(),
+                this.directions.duplicate(), this.kinds.duplicate(),
+                this.bugs);
+        result.restoreRounds(this.rounds);
+        return result;
+    }
+
+    /**
+     * Main method: runs a random world, takes a snapshot half way through,
+     * and compares restoring the snapshot with running the first half again.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        ResolvedProgram[] programs = new ResolvedProgram[SPECIES];
+        for (int s = 0; s < SPECIES; s++) {
+            out.print("Enter compiled BL program file name for species " + s
+                    + ": ");
+            programs[s] = new ResolvedProgram(new DecodedProgram(
+                    BugsWorldVMInterpreter.loadProgram(in.nextLine())));
+        }
+        int side = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter world side: ");
+        int bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of bugs: ");
+        while ((long) bugs > (long) side * side) {
+            out.println("The world has only " + ((long) side * side)
+                    + " cells");
+            bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                    "Enter number of bugs: ");
+        }
+        int rounds = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of rounds: ");
+        out.print("Enter snapshot file name: ");
+        String fileName = in.nextLine();
+        final long seed = 2231;
+
+        BugsWorld world = BugsWorldBenchmark.populatedWorld(programs, side,
+                bugs, seed);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds / 2; r++) {
+            world.step();
+        }
+        long prefixNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        save(world, fileName);
+        long saveNanos = System.nanoTime() - start;
+        for (int r = rounds / 2; r < rounds; r++) {
+            world.step();
+        }
+
+        start = System.nanoTime();
+        BugsWorldSnapshot snapshot = new BugsWorldSnapshot(fileName);
+        BugsWorld fork = snapshot.restore(programs, bugs);
+        long restoreNanos = System.nanoTime() - start;
+        for (long r = fork.rounds(); r < rounds; r++) {
+            fork.step();
+        }
+        out.println();
+        out.println("Snapshot: " + fileSize(side * side, SPECIES, bugs)
+                + " bytes");
+        out.println("Save: "
+                + String.format("%.2f", saveNanos / NANOS_PER_MILLI)
+                + " ms, restore: "
+                + String.format("%.2f", restoreNanos / NANOS_PER_MILLI)
+                + " ms, running the first " + (rounds / 2) + " rounds: "
+                + String.format("%.2f", prefixNanos / NANOS_PER_MILLI)
+                + " ms");
+        if (fork.fingerprint() != world.fingerprint()) {
+            out.println("*** RESTORED RUN DIFFERS FROM RUN ***");
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
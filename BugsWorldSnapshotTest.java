@@ -0,0 +1,242 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BugsWorldSnapshot}.
+ */
+public class BugsWorldSnapshotTest {
+
+    /**
+     * Compiled program for {@code WHILE true DO infect END WHILE}.
+     */
+    private static final int[] INFECTOR = { Instruction.INFECT.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Side of the test world.
+     */
+    private static final int SIDE = 13;
+
+    /**
+     * Number of bugs in the test world.
+     */
+    private static final int BUGS = 40;
+
+    /**
+     * Number of rounds run before the snapshot.
+     */
+    private static final int ROUNDS = 25;
+
+    /**
+     * Returns the name of a new scratch file, deleted when the JVM exits.
+     *
+     * @return the name of the scratch file
+     */
+    private static String scratchFile() {
+        File f = null;
+        try {
+            f = File.createTempFile("world", ".snap");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        f.deleteOnExit();
+        return f.getPath();
+    }
+
+    /**
+     * Returns the resolved programs of the test world.
+     *
+     * @return the resolved programs
+     */
+    private static ResolvedProgram[] programs() {
+        return new ResolvedProgram[] {
+                new ResolvedProgram(new DecodedProgram(WANDERER)),
+                new ResolvedProgram(new DecodedProgram(INFECTOR)) };
+    }
+
+    /**
+     * Returns a new test world with a wall across part of it, run for
+     * {@code ROUNDS} rounds.
+     *
+     * @return the test world
+     */
+    private static BugsWorld world() {
+        BugsWorld w = new BugsWorld(SIDE, SIDE, programs(), BUGS, SIDE);
+        for (int x = 2; x < SIDE - 2; x++) {
+            w.addWall(x, SIDE / 2);
+        }
+        int b = 0;
+        for (int c = 0; b < BUGS; c += 2) {
+            int x = c % SIDE;
+            int y = c / SIDE;
+            if (w.isEmpty(x, y)) {
+                w.addBug(x, y, c % 4, b % 2);
+                b++;
+            }
+        }
+        for (int r = 0; r < ROUNDS; r++) {
+            w.step();
+        }
+        return w;
+    }
+
+    /**
+     * Restores bugs in {@code cells}, with program counters {@code pcs},
+     * facing {@code directions} and of species {@code kinds}, into a new
+     * world with a wall in cell 0.
+     *
+     * @param cells
+     *            the cells of the bugs
+     * @param pcs
+     *            the program counters of the bugs
+     * @param directions
+     *            the directions of the bugs
+     * @param kinds
+     *            the species of the bugs
+     * @return the restored world
+     */
+    private static BugsWorld restored(int[] cells, int[] pcs,
+            byte[] directions, byte[] kinds) {
+        BugsWorld w = new BugsWorld(SIDE, SIDE, programs(), BUGS, SIDE);
+        long[] walls = new long[(SIDE * SIDE + Long.SIZE - 1) / Long.SIZE];
+        walls[0] = 1;
+        w.restoreState(LongBuffer.wrap(walls),
+                LongBuffer.wrap(new long[cells.length]), IntBuffer.wrap(cells),
+                IntBuffer.wrap(pcs), ByteBuffer.wrap(directions),
+                ByteBuffer.wrap(kinds), cells.length);
+        return w;
+    }
+
+    @Test
+    public void testSnapshotMatchesWorld() {
+        String fileName = scratchFile();
+        BugsWorld w = world();
+        BugsWorldSnapshot.save(w, fileName);
+        BugsWorldSnapshot snapshot = new BugsWorldSnapshot(fileName);
+        assertEquals(SIDE, snapshot.width());
+        assertEquals(BUGS, snapshot.bugCount());
+        assertEquals(ROUNDS, snapshot.rounds());
+        assertTrue(snapshot.isWall(2, SIDE / 2));
+        for (int b = 0; b < BUGS; b++) {
+            assertEquals(w.x(b), snapshot.x(b));
+            assertEquals(w.y(b), snapshot.y(b));
+            assertEquals(w.direction(b), snapshot.direction(b));
+            assertEquals(w.species(b), snapshot.species(b));
+            assertEquals(w.pc(b), snapshot.pc(b));
+        }
+        BugsWorld restored = snapshot.restore(programs(), BUGS);
+        assertEquals(w.fingerprint(), restored.fingerprint());
+        assertTrue(!restored.isEmpty(2, SIDE / 2));
+    }
+
+    @Test
+    public void testForksStepLikeTheRun() {
+        String fileName = scratchFile();
+        BugsWorld w = world();
+        BugsWorldSnapshot.save(w, fileName);
+        BugsWorldSnapshot snapshot = new BugsWorldSnapshot(fileName);
+        BugsWorld first = snapshot.restore(programs(), BUGS);
+        BugsWorld second = snapshot.restore(programs(), BUGS);
+        for (int r = 0; r < ROUNDS; r++) {
+            w.step();
+            first.step();
+            assertEquals(w.fingerprint(), first.fingerprint());
+        }
+        second.step();
+        assertEquals(ROUNDS + 1, second.rounds());
+    }
+
+    @Test
+    public void testRestoreValidBugs() {
+        BugsWorld w = restored(new int[] { 1, SIDE }, new int[] { 5, 0 },
+                new byte[] { 0, 3 }, new byte[] { 0, 1 });
+        assertEquals(2, w.bugCount());
+        assertEquals(1, w.x(0));
+        assertEquals(1, w.y(1));
+        assertEquals(3, w.direction(1));
+        assertEquals(5, w.pc(0));
+        assertTrue(!w.isEmpty(0, 0));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsBugInWall() {
+        restored(new int[] { 0 }, new int[] { 0 }, new byte[] { 0 },
+                new byte[] { 0 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsSharedCell() {
+        restored(new int[] { 1, 1 }, new int[] { 0, 0 }, new byte[] { 0, 0 },
+                new byte[] { 0, 1 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsCellOutsideGrid() {
+        restored(new int[] { SIDE * SIDE }, new int[] { 0 }, new byte[] { 0 },
+                new byte[] { 0 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsBadDirection() {
+        restored(new int[] { 1 }, new int[] { 0 }, new byte[] { 4 },
+                new byte[] { 0 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsBadSpecies() {
+        restored(new int[] { 1 }, new int[] { 0 }, new byte[] { 0 },
+                new byte[] { 2 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsOperandProgramCounter() {
+        restored(new int[] { 1 }, new int[] { 1 }, new byte[] { 0 },
+                new byte[] { 0 });
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRestoreRejectsOtherPrograms() {
+        String fileName = scratchFile();
+        BugsWorldSnapshot.save(world(), fileName);
+        ResolvedProgram[] swapped = programs();
+        ResolvedProgram first = swapped[0];
+        swapped[0] = swapped[1];
+        swapped[1] = first;
+        new BugsWorldSnapshot(fileName).restore(swapped, BUGS);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCorruptedSnapshot() throws IOException {
+        String fileName = scratchFile();
+        BugsWorldSnapshot.save(world(), fileName);
+        try (RandomAccessFile f = new RandomAccessFile(fileName, "rw")) {
+            f.seek(f.length() - 1);
+            int last = f.read();
+            f.seek(f.length() - 1);
+            f.write(last + 1);
+        }
+        new BugsWorldSnapshot(fileName);
+    }
+
+}
@@ -0,0 +1,188 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BugsWorld}.
+ */
+public class BugsWorldTest {
+
+    /**
+     * Compiled program for {@code WHILE true DO move END WHILE}.
+     */
+    private static final int[] MOVER = { Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for {@code WHILE true DO infect END WHILE}.
+     */
+    private static final int[] INFECTOR = { Instruction.INFECT.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO END WHILE  move} in a loop.
+     */
+    private static final int[] SENSING_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Returns the resolved form of {@code cp}.
+     *
+     * @param cp
+     *            the compiled program
+     * @return the resolved program
+     */
+    private static ResolvedProgram resolved(int[] cp) {
+        return new ResolvedProgram(new DecodedProgram(cp));
+    }
+
+    @Test
+    public void testMoveStopsAtBorder() {
+        final int side = 3;
+        BugsWorld w = new BugsWorld(side, 1,
+                new ResolvedProgram[] { resolved(MOVER) }, 1, 0);
+        int b = w.addBug(0, 0, 1, 0);
+        w.step();
+        assertEquals(1, w.x(b));
+        assertEquals(1, w.pc(b));
+        w.step();
+        w.step();
+        w.step();
+        assertEquals(2, w.x(b));
+        assertEquals(BugsWorldVMInterpreter.CellState.WALL, w.whatBugSees(b));
+    }
+
+    @Test
+    public void testJumpCycleSkipsTurn() {
+        final int side = 3;
+        BugsWorld w = new BugsWorld(side, 1,
+                new ResolvedProgram[] { resolved(SENSING_LOOP) }, 1, 0);
+        int b = w.addBug(0, 0, 1, 0);
+        w.step();
+        w.step();
+        assertEquals(0, w.x(b));
+        assertEquals(0, w.pc(b));
+        assertEquals(1, w.direction(b));
+    }
+
+    @Test
+    public void testMoveConflictLowestBugWins() {
+        final int side = 3;
+        BugsWorld w = new BugsWorld(side, 1,
+                new ResolvedProgram[] { resolved(MOVER) }, 2, 0);
+        int left = w.addBug(0, 0, 1, 0);
+        final int west = 3;
+        int right = w.addBug(2, 0, west, 0);
+        w.step();
+        assertEquals(1, w.x(left));
+        assertEquals(2, w.x(right));
+    }
+
+    @Test
+    public void testInfectUsesStartOfRoundSpecies() {
+        final int side = 3;
+        BugsWorld w = new BugsWorld(side, 1, new ResolvedProgram[] {
+                resolved(INFECTOR), resolved(INFECTOR) }, side, 0);
+        final int west = 3;
+        int a = w.addBug(0, 0, 1, 0);
+        int b = w.addBug(1, 0, 1, 1);
+        int c = w.addBug(2, 0, west, 0);
+        w.step();
+        /*
+         * a and c both infect b; a has the lower number. b infects c in the
+         * same round with its start-of-round species.
+         */
+        assertEquals(0, w.species(b));
+        assertEquals(0, w.pc(b));
+        assertEquals(1, w.species(c));
+        assertEquals(0, w.species(a));
+    }
+
+    @Test
+    public void testSameSeedSameRun() {
+        final int side = 20;
+        final int bugs = 100;
+        final int rounds = 50;
+        final long seed = 42;
+        ResolvedProgram[] programs = { resolved(WANDERER),
+                resolved(INFECTOR) };
+        BugsWorld w1 = BugsWorldBenchmark.populatedWorld(programs, side, bugs,
+                seed);
+        BugsWorld w2 = BugsWorldBenchmark.populatedWorld(programs, side, bugs,
+                seed);
+        for (int r = 0; r < rounds; r++) {
+            w1.step();
+            w2.step();
+        }
+        boolean moved = false;
+        BugsWorld fresh = BugsWorldBenchmark.populatedWorld(programs, side,
+                bugs, seed);
+        for (int b = 0; b < bugs; b++) {
+            assertEquals(w1.x(b), w2.x(b));
+            assertEquals(w1.y(b), w2.y(b));
+            assertEquals(w1.direction(b), w2.direction(b));
+            assertEquals(w1.species(b), w2.species(b));
+            assertEquals(w1.pc(b), w2.pc(b));
+            moved |= w1.x(b) != fresh.x(b) || w1.y(b) != fresh.y(b);
+        }
+        assertTrue(moved);
+        assertEquals(rounds, w1.rounds());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        final int side = 300;
+        final int bugs = 20000;
+        final int rounds = 20;
+        final long seed = 7;
+        ResolvedProgram[] programs = { resolved(WANDERER),
+                resolved(INFECTOR) };
+        BugsWorld sequential = BugsWorldBenchmark.populatedWorld(programs,
+                side, bugs, seed);
+        for (int r = 0; r < rounds; r++) {
+            sequential.step();
+        }
+        final int[] parallelism = { 1, 2, 3, 8 };
+        for (int p : parallelism) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            BugsWorld parallel = BugsWorldBenchmark.populatedWorld(programs,
+                    side, bugs, seed);
+            for (int r = 0; r < rounds; r++) {
+                parallel.step(pool);
+            }
+            pool.shutdown();
+            assertEquals("parallelism " + p, sequential.fingerprint(),
+                    parallel.fingerprint());
+        }
+    }
+
+    @Test
+    public void testLeafSizeKeepsEveryWorkerBusy() {
+        final int bugs = 10000;
+        for (int p = 1; p <= 64; p *= 2) {
+            int leaf = BugsWorld.leafSize(bugs, p);
+            assertTrue("parallelism " + p, (bugs + leaf - 1) / leaf >= p
+                    || leaf == BugsWorld.leafSize(0, 1));
+        }
+        assertEquals(BugsWorld.leafSize(0, 1), BugsWorld.leafSize(100, 64));
+    }
+
+}
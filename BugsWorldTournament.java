@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Round-robin tournament of compiled BL programs in {@code BugsWorld}. Every
+ * pair of entrants meets in each of a number of random worlds: half the bugs
+ * of the world run one program and half the other, and after a fixed number
+ * of rounds (or as soon as one species is wiped out) the program with more
+ * bugs wins the match.
+ * <p>
+ * The entrants are loaded and resolved once and their read-only resolved
+ * form is shared by every match. Matches are independent fork-join tasks, so
+ * a pool with one thread per core keeps all cores busy; each match steps its
+ * own world on its own thread and writes only its own result slot, so the
+ * results do not depend on the number of threads. (There are no virtual
+ * threads in the Java release this code targets, and the matches are
+ * compute-bound, so a fork-join pool is the better fit anyway.) World
+ * {@code k} is the same for every pair. Species 0, whose bugs are numbered
+ * first and so win MOVE and INFECT conflicts, has the advantage, so worlds
+ * {@code 2j} and {@code 2j + 1} share one layout and swap the programs
+ * between the two species; with an even number of worlds each program plays
+ * every layout from both sides.
+ */
+public final class BugsWorldTournament {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Result of a drawn match.
+     */
+    private static final int DRAW = -1;
+
+    /**
+     * Rounds between checks for a species being wiped out.
+     */
+    private static final int EXTINCTION_CHECK = 16;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * The entrants.
+     */
+    private final ResolvedProgram[] entrants;
+
+    /**
+     * Number of worlds each pair meets in.
+     */
+    private final int worlds;
+
+    /**
+     * Side of each world.
+     */
+    private final int side;
+
+    /**
+     * Number of bugs in each world.
+     */
+    private final int bugs;
+
+    /**
+     * Maximum number of rounds of a match.
+     */
+    private final int rounds;
+
+    /**
+     * Seed from which the seed of each world is derived.
+     */
+    private final long seed;
+
+    /**
+     * First entrant of each pair.
+     */
+    private final int[] first;
+
+    /**
+     * Second entrant of each pair.
+     */
+    private final int[] second;
+
+    /**
+     * Winning entrant of each match, or {@code DRAW}.
+     */
+    private final int[] winner;
+
+    /**
+     * Number of bug steps of each match.
+     */
+    private final long[] steps;
+
+    /**
+     * Plays a range of matches, splitting the range across the pool.
+     */
+    private final class MatchTask extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First match of the range.
+         */
+        private final int lo;
+
+        /**
+         * One past the last match of the range.
+         */
+        private final int hi;
+
+        /**
+         * Constructor.
+         *
+         * @param lo
+         *            first match of the range
+         * @param hi
+         *            one past the last match of the range
+         */
+        MatchTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo == 1) {
+                BugsWorldTournament.this.playMatch(this.lo);
+            } else {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new MatchTask(this.lo, mid),
+                        new MatchTask(mid, this.hi));
+            }
+        }
+
+    }
+
+    /**
+     * Counts the bugs of each species of {@code w}.
+     *
+     * @param w
+     *            the world
+     * @param counts
+     *            receives the number of bugs of species 0 and 1
+     * @replaces counts
+     */
+    private static void countSpecies(BugsWorld w, int[] counts) {
+        counts[0] = 0;
+        counts[1] = 0;
+        for (int b = 0; b < w.bugCount(); b++) {
+            counts[w.species(b)]++;
+        }
+    }
+
+    /**
+     * Plays match {@code m} and records its winner and number of steps.
+     *
+     * @param m
+     *            the match
+     */
+    private void playMatch(int m) {
+        int pair = m / this.worlds;
+        int k = m % this.worlds;
+        int[] entrant = { this.first[pair], this.second[pair] };
+        if (k % 2 == 1) {
+            entrant[0] = this.second[pair];
+            entrant[1] = this.first[pair];
+        }
+        ResolvedProgram[] programs = { this.entrants[entrant[0]],
+                this.entrants[entrant[1]] };
+        BugsWorld w = BugsWorldBenchmark.populatedWorld(programs, this.side,
+                this.bugs, SplitMixRandomSource.streamSeed(this.seed, k / 2));
+        int[] counts = new int[2];
+        int r = 0;
+        boolean extinct = false;
+        while (r < this.rounds && !extinct) {
+            w.step();
+            r++;
+            if (r % EXTINCTION_CHECK == 0) {
+                countSpecies(w, counts);
+                extinct = counts[0] == 0 || counts[1] == 0;
+            }
+        }
+        countSpecies(w, counts);
+        if (counts[0] > counts[1]) {
+            this.winner[m] = entrant[0];
+        } else if (counts[1] > counts[0]) {
+            this.winner[m] = entrant[1];
+        } else {
+            this.winner[m] = DRAW;
+        }
+        this.steps[m] = (long) r * this.bugs;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param entrants
+     *            the resolved programs of the entrants
+     * @param worlds
+     *            the number of worlds each pair of entrants meets in
+     * @param side
+     *            the side of each world
+     * @param bugs
+     *            the number of bugs in each world
+     * @param rounds
+     *            the maximum number of rounds of a match
+     * @param seed
+     *            the seed from which the worlds are derived
+     * @requires <pre>
+     * |entrants| >= 2  and  worlds > 0  and  side > 0  and
+     *  0 < bugs <= side * side  and  rounds > 0
+     * </pre>
+     * @ensures [this is a tournament of entrants that has not been played]
+     */
+    public BugsWorldTournament(ResolvedProgram[] entrants, int worlds,
+            int side, int bugs, int rounds, long seed) {
+        assert entrants != null : "Violation of: entrants is not null";
+        assert entrants.length >= 2 : "Violation of: |entrants| >= 2";
+        assert worlds > 0 : "Violation of: worlds > 0";
+        assert side > 0 : "Violation of: side > 0";
+        assert bugs > 0 && (long) bugs <= (long) side
+                * side : "Violation of: 0 < bugs <= side * side";
+        assert rounds > 0 : "Violation of: rounds > 0";
+
+        this.entrants = entrants.clone();
+        this.worlds = worlds;
+        this.side = side;
+        this.bugs = bugs;
+        this.rounds = rounds;
+        this.seed = seed;
+        int n = entrants.length;
+        int pairs = n * (n - 1) / 2;
+        this.first = new int[pairs];
+        this.second = new int[pairs];
+        int p = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                this.first[p] = i;
+                this.second[p] = j;
+                p++;
+            }
+        }
+        this.winner = new int[pairs * worlds];
+        this.steps = new long[pairs * worlds];
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Plays every match of the tournament on {@code pool}.
+     *
+     * @param pool
+     *            the fork-join pool
+     * @updates this
+     * @ensures [every match of this has been played]
+     */
+    public void play(ForkJoinPool pool) {
+        assert pool != null : "Violation of: pool is not null";
+
+        pool.invoke(new MatchTask(0, this.winner.length));
+    }
+
+    /**
+     * Reports the number of matches.
+     *
+     * @return the number of matches
+     */
+    public int matches() {
+        return this.winner.length;
+    }
+
+    /**
+     * Reports the number of matches entrant {@code e} won.
+     *
+     * @param e
+     *            the entrant
+     * @return the number of wins
+     * @requires [this has been played] and 0 <= e < |entrants|
+     */
+    public int wins(int e) {
+        int result = 0;
+        for (int m = 0; m < this.winner.length; m++) {
+            if (this.winner[m] == e) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of matches entrant {@code e} drew.
+     *
+     * @param e
+     *            the entrant
+     * @return the number of draws
+     * @requires [this has been played] and 0 <= e < |entrants|
+     */
+    public int draws(int e) {
+        int result = 0;
+        for (int m = 0; m < this.winner.length; m++) {
+            int pair = m / this.worlds;
+            if (this.winner[m] == DRAW
+                    && (this.first[pair] == e || this.second[pair] == e)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of matches entrant {@code e} lost.
+     *
+     * @param e
+     *            the entrant
+     * @return the number of losses
+     * @requires [this has been played] and 0 <= e < |entrants|
+     */
+    public int losses(int e) {
+        return (this.entrants.length - 1) * this.worlds - this.wins(e)
+                - this.draws(e);
+    }
+
+    /**
+     * Reports the total number of bug steps of all matches.
+     *
+     * @return the number of bug steps
+     * @requires [this has been played]
+     */
+    public long steps() {
+        long result = 0;
+        for (long s : this.steps) {
+            result += s;
+        }
+        return result;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        List<String> names = new ArrayList<>();
+        out.println("Enter compiled BL program file names, one per line "
+                + "(empty line to finish):");
+        String fileName = in.nextLine();
+        while (fileName.length() > 0) {
+            names.add(fileName);
+            fileName = in.nextLine();
+        }
+        while (names.size() < 2) {
+            out.print("A tournament needs at least two programs; enter "
+                    + "another: ");
+            names.add(in.nextLine());
+        }
+        ResolvedProgram[] entrants = new ResolvedProgram[names.size()];
+        for (int e = 0; e < entrants.length; e++) {
+            entrants[e] = new ResolvedProgram(new DecodedProgram(
+                    BugsWorldVMInterpreter.loadProgram(names.get(e))));
+        }
+        int worlds = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of worlds per pairing: ");
+        int side = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter world side: ");
+        int bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter number of bugs: ");
+        while ((long) bugs > (long) side * side) {
+            out.println("The world has only " + ((long) side * side)
+                    + " cells");
+            bugs = BugsWorldBenchmark.getPositiveInteger(in, out,
+                    "Enter number of bugs: ");
+        }
+        int rounds = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter maximum number of rounds: ");
+        final long seed = 2231;
+
+        BugsWorldTournament t = new BugsWorldTournament(entrants, worlds,
+                side, bugs, rounds, seed);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        t.play(pool);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        pool.shutdown();
+
+        /*
+         * Standings by wins, then draws
+         */
+        Integer[] order = new Integer[entrants.length];
+        for (int e = 0; e < order.length; e++) {
+            order[e] = e;
+        }
+        int[] wins = new int[entrants.length];
+        int[] draws = new int[entrants.length];
+        for (int e = 0; e < entrants.length; e++) {
+            wins[e] = t.wins(e);
+            draws[e] = t.draws(e);
+        }
+        Arrays.sort(order, (a, b) -> wins[a] != wins[b] ? wins[b] - wins[a]
+                : draws[b] - draws[a]);
+        out.println();
+        out.println(String.format("%4s %6s %6s %6s  %s", "rank", "wins",
+                "draws", "losses", "program"));
+        for (int i = 0; i < order.length; i++) {
+            int e = order[i];
+            out.println(String.format("%4d %6d %6d %6d  %s", i + 1, wins[e],
+                    draws[e], t.losses(e), names.get(e)));
+        }
+        out.println();
+        out.println("Matches: " + t.matches() + ", bug steps: " + t.steps()
+                + ", threads: " + threads);
+        out.println("Time: " + String.format("%.3f", seconds) + " s, "
+                + String.format("%.0f", t.matches() / seconds)
+                + " matches per second, "
+                + String.format("%.0f", t.steps() / seconds)
+                + " bug steps per second");
+
+        in.close();
+        out.close();
+    }
+
+}
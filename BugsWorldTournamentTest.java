@@ -0,0 +1,115 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BugsWorldTournament}.
+ */
+public class BugsWorldTournamentTest {
+
+    /**
+     * Compiled program for {@code WHILE true DO infect END WHILE}.
+     */
+    private static final int[] INFECTOR = { Instruction.INFECT.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for {@code WHILE true DO skip END WHILE}.
+     */
+    private static final int[] SKIPPER = { Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Returns the resolved form of {@code cp}.
+     *
+     * @param cp
+     *            the compiled program
+     * @return the resolved program
+     */
+    private static ResolvedProgram resolved(int[] cp) {
+        return new ResolvedProgram(new DecodedProgram(cp));
+    }
+
+    @Test
+    public void testSkipperNeverWins() {
+        final int worlds = 4;
+        ResolvedProgram[] entrants = { resolved(SKIPPER), resolved(INFECTOR),
+                resolved(WANDERER) };
+        BugsWorldTournament t = new BugsWorldTournament(entrants, worlds, 12,
+                40, 100, 1);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        t.play(pool);
+        pool.shutdown();
+        assertEquals(3 * worlds, t.matches());
+        assertEquals(0, t.wins(0));
+        for (int e = 0; e < entrants.length; e++) {
+            assertEquals(2 * worlds, t.wins(e) + t.draws(e) + t.losses(e));
+        }
+    }
+
+    @Test
+    public void testSkippersDraw() {
+        final int worlds = 3;
+        final int bugs = 10;
+        final int rounds = 20;
+        ResolvedProgram[] entrants = { resolved(SKIPPER), resolved(SKIPPER) };
+        BugsWorldTournament t = new BugsWorldTournament(entrants, worlds, 5,
+                bugs, rounds, 1);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        t.play(pool);
+        pool.shutdown();
+        assertEquals(worlds, t.draws(0));
+        assertEquals(worlds, t.draws(1));
+        assertEquals((long) worlds * bugs * rounds, t.steps());
+    }
+
+    @Test
+    public void testSwappedSidesBalanceTwins() {
+        final int worlds = 6;
+        ResolvedProgram[] entrants = { resolved(INFECTOR),
+                resolved(INFECTOR) };
+        BugsWorldTournament t = new BugsWorldTournament(entrants, worlds, 8,
+                30, 60, 5);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        t.play(pool);
+        pool.shutdown();
+        assertEquals(t.wins(0), t.wins(1));
+        assertEquals(worlds, t.wins(0) + t.wins(1) + t.draws(0));
+    }
+
+    @Test
+    public void testResultsIndependentOfThreads() {
+        ResolvedProgram[] entrants = { resolved(SKIPPER), resolved(INFECTOR),
+                resolved(WANDERER) };
+        BugsWorldTournament one = new BugsWorldTournament(entrants, 5, 10, 30,
+                60, 9);
+        BugsWorldTournament three = new BugsWorldTournament(entrants, 5, 10,
+                30, 60, 9);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        one.play(pool);
+        pool.shutdown();
+        pool = new ForkJoinPool(3);
+        three.play(pool);
+        pool.shutdown();
+        assertEquals(one.steps(), three.steps());
+        for (int e = 0; e < entrants.length; e++) {
+            assertEquals(one.wins(e), three.wins(e));
+            assertEquals(one.draws(e), three.draws(e));
+        }
+    }
+
+}
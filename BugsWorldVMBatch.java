@@ -0,0 +1,423 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.utilities.Reporter;
+
+/**
+ * Non-interactive mode of the BugsWorld virtual machine interpreter driver:
+ * streams a file of queries, one {@code pc wbs} pair per line, and writes the
+ * address of the next primitive instruction for each query on its own line.
+ * Blank lines and lines starting with {@code #} are skipped. {@code wbs} is
+ * the {@code CellState} ordinal (EMPTY=0, WALL=1, FRIEND=2, ENEMY=3). A
+ * query whose walk runs out of its step budget is answered {@code STALLED}.
+ * <p>
+ * Queries are read and answers written through large buffers, and each query
+ * is parsed without splitting the line. Queries are parsed a block of
+ * {@code BLOCK_SIZE} at a time and then decided, so reading and writing stay
+ * out of the timed loop. Every decision is timed on its own, between two
+ * reads of {@code System.nanoTime}. At the end the driver reports the
+ * throughput and the latency percentiles and maximum of the decisions. A
+ * decision takes only a few nanoseconds, so the report also gives the cost
+ * of one clock read, which each latency includes.
+ */
+public final class BugsWorldVMBatch {
+
+    /**
+     * Size in chars of the input and output buffers.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of queries parsed before they are decided.
+     */
+    static final int BLOCK_SIZE = 256;
+
+    /**
+     * Number of back-to-back clock reads timed to find the cost of one.
+     */
+    private static final int CLOCK_SAMPLES = 1 << 12;
+
+    /**
+     * Initial capacity of the latency array.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Percentiles reported.
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /**
+     * Seed of the random source, so batch answers are reproducible.
+     */
+    private static final long SEED = 2231;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private BugsWorldVMBatch() {
+        // no code needed here
+    }
+
+    /**
+     * Parses the non-negative decimal integer starting at or after
+     * {@code from} in {@code line}, skipping leading blanks, and stores the
+     * index just past it in {@code end[0]}.
+     *
+     * @param line
+     *            the line
+     * @param from
+     *            the index to start from
+     * @param end
+     *            holds the index just past the integer
+     * @param lineNumber
+     *            the line number, for error messages
+     * @return the integer
+     * @updates end
+     * @ensures <pre>
+     * if [line has a non-negative integer at from, after blanks] then
+     *  parseInt = [that integer]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    private static int parseInt(String line, int from, int[] end,
+            int lineNumber) {
+        int i = from;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        while (i < line.length() && line.charAt(i) >= '0'
+                && line.charAt(i) <= '9' && value <= Integer.MAX_VALUE) {
+            value = value * 10 + (line.charAt(i) - '0');
+            i++;
+        }
+        Reporter.assertElseFatalError(
+                i > start && value <= Integer.MAX_VALUE,
+                "ERROR: Line " + lineNumber + ": expected \"pc wbs\"");
+        end[0] = i;
+        return (int) value;
+    }
+
+    /**
+     * Checks that {@code line} holds nothing but blanks from {@code from} on.
+     *
+     * @param line
+     *            the line
+     * @param from
+     *            the index to start from
+     * @param lineNumber
+     *            the line number, for error messages
+     * @ensures <pre>
+     * if [line has a non-blank char at or after from] then
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    private static void parseEnd(String line, int from, int lineNumber) {
+        int i = from;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        Reporter.assertElseFatalError(i == line.length(),
+                "ERROR: Line " + lineNumber + ": expected \"pc wbs\"");
+    }
+
+    /**
+     * Answers the {@code n} queries of a block with {@code rp}, timing each
+     * decision on its own, writes the answers to {@code answers}, and stores
+     * the latency of each decision in nanoseconds in
+     * {@code latencies[first, first + n)}.
+     *
+     * @param rp
+     *            the resolved program
+     * @param pcs
+     *            the program counter of each query
+     * @param wbs
+     *            what the bug sees in each query
+     * @param n
+     *            the number of queries
+     * @param next
+     *            scratch space for the decisions
+     * @param answers
+     *            the answers
+     * @param random
+     *            the source of random condition values
+     * @param latencies
+     *            the latency of each decision
+     * @param first
+     *            the index in latencies of the first query of the block
+     * @throws IOException
+     *             if writing fails
+     * @updates answers, random, latencies
+     * @replaces next
+     * @requires <pre>
+     * n <= |pcs| = |wbs| = |next|  and  first + n <= |latencies|
+     * </pre>
+     */
+    private static void runBlock(ResolvedProgram rp, int[] pcs,
+            BugsWorldVMInterpreter.CellState[] wbs, int n, int[] next,
+            Writer answers, RandomSource random, int[] latencies, int first)
+            throws IOException {
+        long before = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            next[i] = rp.nextPrimitiveInstructionAddress(wbs[i], pcs[i],
+                    random);
+            long after = System.nanoTime();
+            latencies[first + i] = (int) Math.min(after - before,
+                    Integer.MAX_VALUE);
+            before = after;
+        }
+        for (int i = 0; i < n; i++) {
+            if (next[i] == BugsWorldVMInterpreter.STALLED) {
+                answers.write("STALLED");
+            } else {
+                answers.write(Integer.toString(next[i]));
+            }
+            answers.write('\n');
+        }
+    }
+
+    /**
+     * Answers every query read from {@code queries} with {@code rp}, writes
+     * the answers to {@code answers}, and returns the latency in nanoseconds
+     * of each decision in query order, clock read included.
+     *
+     * @param rp
+     *            the resolved program
+     * @param queries
+     *            the queries
+     * @param answers
+     *            the answers
+     * @param random
+     *            the source of random condition values
+     * @return the latency of each decision
+     * @throws IOException
+     *             if reading or writing fails
+     * @updates queries, answers, random
+     * @ensures <pre>
+     * if [every query has a valid pc and wbs] then
+     *  [answers has one line per query with the address of the next
+     *   primitive instruction] and |run| = [number of queries]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    static int[] run(ResolvedProgram rp, BufferedReader queries, Writer answers,
+            RandomSource random) throws IOException {
+        assert rp != null : "Violation of: rp is not null";
+        assert queries != null : "Violation of: queries is not null";
+        assert answers != null : "Violation of: answers is not null";
+        assert random != null : "Violation of: random is not null";
+
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        DecodedProgram dp = rp.decoded();
+        int[] latencies = new int[INITIAL_CAPACITY];
+        int count = 0;
+        int[] pcs = new int[BLOCK_SIZE];
+        int[] next = new int[BLOCK_SIZE];
+        BugsWorldVMInterpreter.CellState[] seen =
+                new BugsWorldVMInterpreter.CellState[BLOCK_SIZE];
+        int queued = 0;
+        int[] end = new int[1];
+        int lineNumber = 0;
+        String line = queries.readLine();
+        while (line != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.length() > 0 && trimmed.charAt(0) != '#') {
+                int pc = parseInt(line, 0, end, lineNumber);
+                int wbs = parseInt(line, end[0], end, lineNumber);
+                parseEnd(line, end[0], lineNumber);
+                Reporter.assertElseFatalError(dp.isInstructionStart(pc),
+                        "ERROR: Line " + lineNumber + ": " + pc
+                                + " is not the location of an instruction");
+                Reporter.assertElseFatalError(wbs < states.length,
+                        "ERROR: Line " + lineNumber
+                                + ": what bug sees must be in the [0,3] range");
+                pcs[queued] = pc;
+                seen[queued] = states[wbs];
+                queued++;
+                if (queued == BLOCK_SIZE) {
+                    if (count + queued > latencies.length) {
+                        latencies = Arrays.copyOf(latencies,
+                                2 * latencies.length);
+                    }
+                    runBlock(rp, pcs, seen, queued, next, answers, random,
+                            latencies, count);
+                    count += queued;
+                    queued = 0;
+                }
+            }
+            line = queries.readLine();
+        }
+        if (count + queued > latencies.length) {
+            latencies = Arrays.copyOf(latencies, count + queued);
+        }
+        runBlock(rp, pcs, seen, queued, next, answers, random, latencies,
+                count);
+        count += queued;
+        answers.flush();
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Returns the {@code p}-th percentile of {@code sorted}, by the
+     * nearest-rank method.
+     *
+     * @param sorted
+     *            the values, in non-decreasing order
+     * @param p
+     *            the percentile
+     * @return the percentile
+     * @requires |sorted| > 0 and 0 < p <= 100
+     * @ensures <pre>
+     * percentile = [the smallest value of sorted such that at least p percent
+     *  of sorted is <= it]
+     * </pre>
+     */
+    static int percentile(int[] sorted, double p) {
+        assert sorted.length > 0 : "Violation of: |sorted| > 0";
+        assert 0 < p && p <= 100 : "Violation of: 0 < p <= 100";
+
+        final double hundred = 100;
+        int rank = (int) Math.ceil(p / hundred * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Returns the median time between two back-to-back reads of
+     * {@code System.nanoTime}, the part of each measured latency that is the
+     * clock itself.
+     *
+     * @return the cost of one clock read, in nanoseconds
+     */
+    private static int clockReadNanos() {
+        int[] deltas = new int[CLOCK_SAMPLES];
+        for (int i = 0; i < deltas.length; i++) {
+            long before = System.nanoTime();
+            deltas[i] = (int) (System.nanoTime() - before);
+        }
+        Arrays.sort(deltas);
+        final int median = 50;
+        return percentile(deltas, median);
+    }
+
+    /**
+     * Runs the queries in file {@code queryFileName} against the program in
+     * file {@code programFileName}, writes the answers to file
+     * {@code answerFileName}, and reports throughput and latency percentiles
+     * to {@code out}.
+     *
+     * @param programFileName
+     *            the name of the compiled program file
+     * @param queryFileName
+     *            the name of the query file
+     * @param answerFileName
+     *            the name of the answer file
+     * @param out
+     *            the output stream for the report
+     * @updates out.content
+     * @requires out.is_open
+     * @ensures [answerFileName holds the answers and out has the report]
+     */
+    static void runFiles(String programFileName, String queryFileName,
+            String answerFileName, SimpleWriter out) {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(
+                BugsWorldVMInterpreter.loadProgram(programFileName)));
+        int[] latencies = null;
+        long start = System.nanoTime();
+        try (BufferedReader queries = new BufferedReader(
+                Files.newBufferedReader(Paths.get(queryFileName),
+                        StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+                BufferedWriter answers = new BufferedWriter(
+                        Files.newBufferedWriter(Paths.get(answerFileName),
+                                StandardCharsets.UTF_8),
+                        BUFFER_SIZE)) {
+            latencies = run(rp, queries, answers,
+                    new SplitMixRandomSource(SEED));
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole("ERROR: " + e.getMessage());
+        }
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        long decisionNanos = 0;
+        for (int latency : latencies) {
+            decisionNanos += latency;
+        }
+        out.println("Queries: " + latencies.length);
+        out.println("Total time: " + String.format("%.3f", seconds)
+                + " s, " + String.format("%.0f", latencies.length / seconds)
+                + " queries per second (including I/O)");
+        if (latencies.length > 0) {
+            if (decisionNanos > 0) {
+                out.println("Decision time: " + String.format("%.0f",
+                        latencies.length / (decisionNanos / NANOS_PER_SECOND))
+                        + " decisions per second (including clock reads)");
+            } else {
+                out.println("Decision time: below the clock resolution");
+            }
+            Arrays.sort(latencies);
+            StringBuilder report = new StringBuilder(
+                    "Latency (ns per decision, one clock read of about "
+                            + clockReadNanos() + " ns included):");
+            for (double p : PERCENTILES) {
+                report.append(" p").append(p == Math.rint(p)
+                        ? Integer.toString((int) p) : Double.toString(p))
+                        .append('=').append(percentile(latencies, p));
+            }
+            report.append(" max=").append(latencies[latencies.length - 1]);
+            out.println(report.toString());
+        }
+    }
+
+    /**
+     * Main method: the file names are taken from {@code args} when three are
+     * given, otherwise they are prompted for.
+     *
+     * @param args
+     *            the command line arguments: program, query and answer file
+     *            names
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        String[] fileNames = args;
+        if (fileNames.length != 3) {
+            fileNames = new String[3];
+            out.print("Enter compiled BL program file name: ");
+            fileNames[0] = in.nextLine();
+            out.print("Enter query file name: ");
+            fileNames[1] = in.nextLine();
+            out.print("Enter answer file name: ");
+            fileNames[2] = in.nextLine();
+        }
+        runFiles(fileNames[0], fileNames[1], fileNames[2], out);
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code BugsWorldVMBatch}.
+ */
+public class BugsWorldVMBatchTest {
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN move
+     *   ELSE IF next-is-wall THEN turnleft ELSE infect END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     */
+    private static final int[] NESTED = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 16,
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.JUMP_IF_NOT_NEXT_IS_WALL.byteCode(), 12,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.INFECT.byteCode(), Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Runs {@code queries} against {@code NESTED}.
+     *
+     * @param queries
+     *            the query text
+     * @param answers
+     *            receives the answer text
+     * @return the latencies
+     * @throws IOException
+     *             never, the streams are in memory
+     */
+    private static int[] run(String queries, StringWriter answers)
+            throws IOException {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(NESTED));
+        return BugsWorldVMBatch.run(rp,
+                new BufferedReader(new StringReader(queries)), answers,
+                new SplitMixRandomSource(1));
+    }
+
+    @Test
+    public void testAnswers() throws IOException {
+        StringWriter answers = new StringWriter();
+        int[] latencies = run("0 0\n0 1\n0 3\n13 2\n", answers);
+        assertEquals("4\n9\n12\n13\n", answers.toString());
+        assertEquals(4, latencies.length);
+    }
+
+    @Test
+    public void testSkipsBlankAndCommentLines() throws IOException {
+        StringWriter answers = new StringWriter();
+        int[] latencies = run("# pc wbs\n\n  7\t1  \n", answers);
+        assertEquals("9\n", answers.toString());
+        assertEquals(1, latencies.length);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testNotInstructionStart() throws IOException {
+        run("1 0\n", new StringWriter());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testBadState() throws IOException {
+        run("0 4\n", new StringWriter());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMalformedLine() throws IOException {
+        run("0\n", new StringWriter());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExtraNumber() throws IOException {
+        run("3 1 7\n", new StringWriter());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testTrailingText() throws IOException {
+        run("3 1 junk\n", new StringWriter());
+    }
+
+    @Test
+    public void testSeveralBlocks() throws IOException {
+        StringBuilder queries = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        int n = 2 * BugsWorldVMBatch.BLOCK_SIZE + 3;
+        for (int i = 0; i < n; i++) {
+            queries.append("0 ").append(i % 2).append('\n');
+            expected.append(i % 2 == 0 ? "4" : "9").append('\n');
+        }
+        StringWriter answers = new StringWriter();
+        int[] latencies = run(queries.toString(), answers);
+        assertEquals(expected.toString(), answers.toString());
+        assertEquals(n, latencies.length);
+    }
+
+    @Test
+    public void testPercentile() {
+        int[] sorted = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        assertEquals(5, BugsWorldVMBatch.percentile(sorted, 50));
+        assertEquals(9, BugsWorldVMBatch.percentile(sorted, 90));
+        assertEquals(10, BugsWorldVMBatch.percentile(sorted, 99.9));
+        assertEquals(1, BugsWorldVMBatch.percentile(new int[] { 1 }, 50));
+    }
+
+}
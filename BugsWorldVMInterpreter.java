@@ -1,6 +1,7 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 import components.program.Program;
 import components.program.Program.Instruction;
-import components.program.Program1;
 import components.simplereader.SimpleReader;
 import components.simplereader.SimpleReader1L;
 import components.simplewriter.SimpleWriter;
@@ -26,12 +27,101 @@ public final class BugsWorldVMInterpreter {
         EMPTY, WALL, FRIEND, ENEMY;
     }
 
+    /**
+     * {@code RandomSource} drawing from the calling thread's
+     * {@code ThreadLocalRandom}, so threads never contend for one generator.
+     */
+    private static final class ThreadLocalRandomSource
+            implements RandomSource {
+
+        @Override
+        public boolean nextBoolean() {
+            return ThreadLocalRandom.current().nextBoolean();
+        }
+
+    }
+
+    /**
+     * Random source used when the caller does not supply one. Runs that must
+     * be reproducible should pass a seeded source instead.
+     */
+    static final RandomSource DEFAULT_RANDOM = new ThreadLocalRandomSource();
+
+    /**
+     * Steps a walk may take beyond the length of the program before it gives
+     * up. A walk without cycles takes at most one step per instruction, so
+     * only walks around a cycle through a random jump can run out.
+     */
+    private static final int EXTRA_STEPS = 1024;
+
+    /**
+     * Returned instead of a location when a walk runs out of steps, so the
+     * bug can behave as if it executed SKIP and stay where it is.
+     */
+    public static final int STALLED = Integer.MIN_VALUE;
+
     /**
      * Private constructor so this utility class cannot be instantiated.
      */
     private BugsWorldVMInterpreter() {
     }
 
+    /**
+     * Loads a BL compiled program in the text format (the length followed by
+     * the integers of the program, whitespace separated) from the file with
+     * the given name and returns an array containing the compiled program.
+     *
+     * @param fileName
+     *            the name of the file containing the compiled program
+     * @return the compiled BL program loaded from file {@code fileName}
+     * @requires [fileName is the name of a file containing a compiled BL
+     *           program in the text format]
+     * @ensures loadTextProgram = [the compiled program in file fileName]
+     */
+    static int[] loadTextProgram(String fileName) {
+        int[] cp;
+        SimpleReader file = new SimpleReader1L(fileName);
+        int length = file.nextInteger();
+        cp = new int[length];
+        for (int i = 0; i < length; i++) {
+            cp[i] = file.nextInteger();
+        }
+        file.close();
+        return cp;
+    }
+
+    /**
+     * Loads a BL compiled program from the file with the given name and
+     * returns an array containing the compiled program. Files named
+     * {@code *.blc} are memory-mapped in the binary format of
+     * {@code CompiledProgramFile}; any other file is read in the text format.
+     * Programs with a cycle of jumps that can never reach a primitive
+     * instruction are rejected.
+     *
+     * @param fileName
+     *            the name of the file containing the compiled program
+     * @return the compiled BL program loaded from file {@code fileName}
+     * @requires [fileName is the name of a file containing a compiled BL
+     *           program]
+     * @ensures <pre>
+     * if [the program in file fileName has no trapped jump] then
+     *  loadProgram = [the compiled program in file fileName]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    static int[] loadProgram(String fileName) {
+        int[] cp;
+        if (fileName.endsWith(CompiledProgramFile.EXTENSION)) {
+            cp = CompiledProgramFile.load(fileName);
+        } else {
+            cp = loadTextProgram(fileName);
+        }
+        JumpCycles.check(cp, fileName);
+        return cp;
+    }
+
     /**
      * Gets a file name from the user and loads a BL compiled program from the
      * corresponding file and returns an array containing the compiled program.
@@ -51,17 +141,9 @@ public final class BugsWorldVMInterpreter {
      * </pre>
      */
     private static int[] loadProgram(SimpleReader in, SimpleWriter out) {
-        int[] cp;
         out.print("Enter compiled BL program file name: ");
         String fileName = in.nextLine();
-        SimpleReader file = new SimpleReader1L(fileName);
-        int length = file.nextInteger();
-        cp = new int[length];
-        for (int i = 0; i < length; i++) {
-            cp[i] = file.nextInteger();
-        }
-        file.close();
-        return cp;
+        return loadProgram(fileName);
     }
 
     /**
@@ -78,7 +160,7 @@ public final class BugsWorldVMInterpreter {
      *  [true iff byteCode is the byte code of a primitive instruction]
      * </pre>
      */
-    private static boolean isPrimitiveInstructionByteCode(int byteCode) {
+    static boolean isPrimitiveInstructionByteCode(int byteCode) {
         return (byteCode == Instruction.MOVE.byteCode())
                 || (byteCode == Instruction.TURNLEFT.byteCode())
                 || (byteCode == Instruction.TURNRIGHT.byteCode())
@@ -92,22 +174,25 @@ public final class BugsWorldVMInterpreter {
      * {@code condJump} given what the bug sees {@code wbs}. Note that if
      * {@code condJump} is the byte code for the conditional jump
      * JUMP_IF_NOT_condition, the value returned is the value of the "condition"
-     * part of the jump instruction.
+     * part of the jump instruction. The condition of JUMP_IF_NOT_RANDOM is
+     * drawn from {@code random}.
      *
      * @param wbs
      *            the {@code CellState} indicating what the bug sees
      * @param condJump
      *            the byte code of a conditional jump
+     * @param random
+     *            the source of random condition values
      * @return the value of the conditional jump condition
+     * @updates random
      * @requires [condJump is the byte code of a conditional jump]
      * @ensures <pre>
      * conditionalJumpCondition =
      *  [the value of the condition of condJump given what the bug sees wbs]
      * </pre>
      */
-    private static boolean conditionalJumpCondition(CellState wbs,
-            int condJump) {
-        final double half = 0.5;
+    static boolean conditionalJumpCondition(CellState wbs, int condJump,
+            RandomSource random) {
         boolean answer = true;
         if (condJump == Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode()) {
             answer = (wbs == CellState.EMPTY);
@@ -133,7 +218,7 @@ public final class BugsWorldVMInterpreter {
                 .byteCode()) {
             answer = (wbs != CellState.ENEMY);
         } else if (condJump == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
-            answer = (Math.random() < half);
+            answer = random.nextBoolean();
         } else if (condJump == Instruction.JUMP_IF_NOT_TRUE.byteCode()) {
             answer = true;
         } else {
@@ -177,6 +262,116 @@ public final class BugsWorldVMInterpreter {
         return found;
     }
 
+    /**
+     * Returns the number of steps a walk of a program of {@code length}
+     * integers may take before it returns {@code STALLED}.
+     *
+     * @param length
+     *            the length of the program
+     * @return the step budget
+     * @ensures stepBudget = [length plus a fixed allowance, at most
+     *          Integer.MAX_VALUE]
+     */
+    static int stepBudget(int length) {
+        return (int) Math.min((long) length + EXTRA_STEPS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Walks the jumps of compiled program {@code cp} from location {@code pc}
+     * to the next primitive instruction given what the bug sees {@code wbs},
+     * giving up after {@code stepBudget(cp.length)} jumps. Callers are
+     * responsible for checking the precondition.
+     *
+     * @param cp
+     *            the compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED}
+     * @updates random
+     * @requires <pre>
+     * [cp is a valid compiled BL program]  and
+     * [pc is the location of an instruction byte code in cp]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program cp given what the bug sees wbs and
+     *  starting execution at address pc in program cp, or STALLED if it is
+     *  not reached within the step budget]
+     * </pre>
+     */
+    private static int walkToPrimitive(int[] cp, CellState wbs, int pc,
+            RandomSource random) {
+        int counter = pc;
+        int steps = stepBudget(cp.length);
+        while (!isPrimitiveInstructionByteCode(cp[counter]) && steps > 0) {
+            if (cp[counter] == Instruction.JUMP.byteCode()
+                    || !conditionalJumpCondition(wbs, cp[counter], random)) {
+                /*
+                 * Unconditional jump, or conditional jump whose condition
+                 * does not hold: go to the address that follows the byte code
+                 */
+                counter = cp[counter + 1];
+            } else {
+                counter += 2;
+            }
+            steps--;
+        }
+        if (!isPrimitiveInstructionByteCode(cp[counter])) {
+            counter = STALLED;
+        }
+        return counter;
+    }
+
+    /**
+     * Same walk as {@code walkToPrimitive}, recording every visited address,
+     * every jump taken and the number of jumps walked in {@code profile}.
+     *
+     * @param cp
+     *            the compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @param profile
+     *            the execution profile
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED}
+     * @updates random, profile
+     * @requires [pc is the location of an instruction byte code in cp]
+     * @ensures [same as walkToPrimitive, with the walk counted in profile]
+     */
+    private static int profiledWalkToPrimitive(int[] cp, CellState wbs,
+            int pc, RandomSource random, ExecutionProfile profile) {
+        int counter = pc;
+        int jumps = 0;
+        int steps = stepBudget(cp.length);
+        profile.visit(counter);
+        while (!isPrimitiveInstructionByteCode(cp[counter]) && steps > 0) {
+            if (cp[counter] == Instruction.JUMP.byteCode()
+                    || !conditionalJumpCondition(wbs, cp[counter], random)) {
+                profile.jumped(counter);
+                counter = cp[counter + 1];
+            } else {
+                counter += 2;
+            }
+            jumps++;
+            steps--;
+            profile.visit(counter);
+        }
+        profile.decided(jumps);
+        if (!isPrimitiveInstructionByteCode(cp[counter])) {
+            counter = STALLED;
+        }
+        return counter;
+    }
+
     /*
      * Public members ---------------------------------------------------------
      */
@@ -184,7 +379,12 @@ public final class BugsWorldVMInterpreter {
     /**
      * Returns the location of the next primitive instruction to execute in
      * compiled program {@code cp} given what the bug sees {@code wbs} and
-     * starting from location {@code pc}.
+     * starting from location {@code pc}. With assertions enabled, checking
+     * the precondition rescans {@code cp}; callers that make many queries
+     * against the same program should decode it once and use
+     * {@link #nextPrimitiveInstructionAddress(DecodedProgram, CellState, int, RandomSource)}.
+     * Random conditions are drawn from the calling thread's
+     * {@code ThreadLocalRandom}.
      *
      * @param cp
      *            the compiled program
@@ -192,7 +392,8 @@ public final class BugsWorldVMInterpreter {
      *            the {@code CellState} indicating what the bug sees
      * @param pc
      *            the program counter
-     * @return the location of the next primitive instruction to execute
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
      * @requires <pre>
      * [cp is a valid compiled BL program]  and
      * 0 <= pc < cp.length  and
@@ -207,45 +408,228 @@ public final class BugsWorldVMInterpreter {
      */
     public static int nextPrimitiveInstructionAddress(int[] cp, CellState wbs,
             int pc) {
+        return nextPrimitiveInstructionAddress(cp, wbs, pc, DEFAULT_RANDOM);
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute in
+     * compiled program {@code cp} given what the bug sees {@code wbs} and
+     * starting from location {@code pc}, drawing the conditions of
+     * JUMP_IF_NOT_RANDOM jumps from {@code random}. A seeded source makes the
+     * result reproducible.
+     *
+     * @param cp
+     *            the compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * [cp is a valid compiled BL program]  and
+     * 0 <= pc < cp.length  and
+     * [pc is the location of an instruction byte code in cp, that is, pc
+     *  cannot be the location of an address]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program cp given what the bug sees wbs and
+     *  starting execution at address pc in program cp]
+     * </pre>
+     */
+    public static int nextPrimitiveInstructionAddress(int[] cp, CellState wbs,
+            int pc, RandomSource random) {
         assert cp != null : "Violation of: cp is not null";
         assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
         assert cp.length > 0 : "Violation of: cp is a valid compiled BL program";
         assert 0 <= pc : "Violation of: 0 <= pc";
         assert pc < cp.length : "Violation of: pc < cp.length";
         assert isValidInstructionLocation(cp, pc) : ""
                 + "Violation of: pc is the location of an instruction byte code in cp";
 
-        boolean foundPrim = false;
-        int instr = 0;
-        int counter = pc;
-        final int jumpLowerBound = 6;
-        final int jumpUpperBound = 16;
-
-        while (!foundPrim) {
-            instr = cp[counter];
-
-            if (isPrimitiveInstructionByteCode(instr)) {
-                foundPrim = true;
-            } else if (instr == 6) {
-                counter = cp[counter++];
-            } else if (instr >= jumpLowerBound && instr <= jumpUpperBound) {
-                if (conditionalJumpCondition(wbs, cp[counter])) {
-                    counter = cp[counter++];
-                } else {
-                    counter += 2;
-                }
-            }
-        }
-        return instr;
+        return walkToPrimitive(cp, wbs, pc, random);
     }
 
     /**
-     * Main method.
+     * Returns the location of the next primitive instruction to execute in
+     * decoded program {@code dp} given what the bug sees {@code wbs} and
+     * starting from location {@code pc}. The precondition is checked in
+     * constant time against the instruction-start index of {@code dp}.
+     *
+     * @param dp
+     *            the decoded compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * 0 <= pc < dp.length  and
+     * [pc is the location of an instruction byte code in dp.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program dp.code given what the bug sees wbs and
+     *  starting execution at address pc in program dp.code]
+     * </pre>
+     */
+    public static int nextPrimitiveInstructionAddress(DecodedProgram dp,
+            CellState wbs, int pc, RandomSource random) {
+        assert dp != null : "Violation of: dp is not null";
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert 0 <= pc : "Violation of: 0 <= pc";
+        assert pc < dp.length() : "Violation of: pc < dp.length";
+        assert dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code in dp";
+
+        return walkToPrimitive(dp.code(), wbs, pc, random);
+    }
+
+    /**
+     * Same as
+     * {@link #nextPrimitiveInstructionAddress(DecodedProgram, CellState, int, RandomSource)},
+     * also counting the walk in {@code profile}. Only this overload profiles;
+     * the others are unaffected by profiling.
+     *
+     * @param dp
+     *            the decoded compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @param profile
+     *            the execution profile of dp
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random, profile
+     * @requires <pre>
+     * 0 <= pc < dp.length  and
+     * [pc is the location of an instruction byte code in dp.code]  and
+     * [profile was created for dp.length]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program dp.code given what the bug sees wbs and
+     *  starting execution at address pc in program dp.code, and record the
+     *  addresses visited, the jumps taken and the chain length in profile]
+     * </pre>
+     */
+    public static int nextPrimitiveInstructionAddress(DecodedProgram dp,
+            CellState wbs, int pc, RandomSource random,
+            ExecutionProfile profile) {
+        assert dp != null : "Violation of: dp is not null";
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert profile != null : "Violation of: profile is not null";
+        assert 0 <= pc : "Violation of: 0 <= pc";
+        assert pc < dp.length() : "Violation of: pc < dp.length";
+        assert dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code in dp";
+
+        return profiledWalkToPrimitive(dp.code(), wbs, pc, random, profile);
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute in
+     * resolved program {@code rp} given what the bug sees {@code wbs} and
+     * starting from location {@code pc}. The answer is read from the
+     * transition table of {@code rp}; only {@code JUMP_IF_NOT_RANDOM} jumps
+     * are decided at run time.
+     *
+     * @param rp
+     *            the resolved compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * 0 <= pc < rp.decoded.length  and
+     * [pc is the location of an instruction byte code in rp.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program rp.decoded.code given what the bug sees
+     *  wbs and starting execution at address pc in program rp.decoded.code]
+     * </pre>
+     */
+    public static int nextPrimitiveInstructionAddress(ResolvedProgram rp,
+            CellState wbs, int pc, RandomSource random) {
+        assert rp != null : "Violation of: rp is not null";
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert rp.decoded().isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code in rp";
+
+        return rp.nextPrimitiveInstructionAddress(wbs, pc, random);
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute in
+     * fused program {@code fp} given what the bug sees {@code wbs} and
+     * starting from location {@code pc}, dispatching on the fused opcodes of
+     * {@code fp}.
+     *
+     * @param fp
+     *            the fused compiled program
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * 0 <= pc < fp.decoded.length  and
+     * [pc is the location of an instruction byte code in fp.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in program fp.decoded.code given what the bug sees
+     *  wbs and starting execution at address pc in program fp.decoded.code]
+     * </pre>
+     */
+    public static int nextPrimitiveInstructionAddress(FusedProgram fp,
+            CellState wbs, int pc, RandomSource random) {
+        assert fp != null : "Violation of: fp is not null";
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert fp.decoded().isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code in fp";
+
+        return fp.nextPrimitiveInstructionAddress(wbs, pc, random);
+    }
+
+    /**
+     * Main method. Given program, query and answer file names as arguments,
+     * runs non-interactively in the batch mode of {@code BugsWorldVMBatch}.
      *
      * @param args
      *            the command line arguments
      */
     public static void main(String[] args) {
+        if (args.length == 3) {
+            BugsWorldVMBatch.main(args);
+            return;
+        }
         SimpleReader in = new SimpleReader1L();
         SimpleWriter out = new SimpleWriter1L();
 
@@ -253,16 +637,32 @@ public final class BugsWorldVMInterpreter {
          * Load compiled BL program
          */
         int[] cp = loadProgram(in, out);
+        DecodedProgram dp = new DecodedProgram(cp);
+        ResolvedProgram rp = new ResolvedProgram(dp);
+
+        DisassemblyView view = new DisassemblyView(dp);
+        int radius = -1;
+        out.print("Enter number of disassembly lines to show around pc "
+                + "(Enter => marked line only): ");
+        String window = in.nextLine();
+        while (window.length() > 0 && (!FormatChecker.canParseInt(window)
+                || Integer.parseInt(window) < 0)) {
+            out.print("Number of lines must be a non-negative number: ");
+            window = in.nextLine();
+        }
+        if (window.length() > 0) {
+            radius = Integer.parseInt(window);
+        }
 
         int pc = 0;
         out.println();
         out.println("Enter program counter outside the [0," + cp.length
                 + ") range to quit.");
         /*
-         * Output disassembled program with marked address
+         * Output disassembled program with marked address, once in full
          */
         out.println();
-        Program1.disassembleProgram(out, cp, pc);
+        view.printAll(out, pc);
         while (true) {
             /*
              * Input new program counter
@@ -278,7 +678,7 @@ public final class BugsWorldVMInterpreter {
                 int pcCandidate = Integer.parseInt(input);
                 if (pcCandidate < 0 || pcCandidate >= cp.length) {
                     break;
-                } else if (!isValidInstructionLocation(cp, pcCandidate)) {
+                } else if (!dp.isInstructionStart(pcCandidate)) {
                     out.println("Program counter must be the location of an "
                             + "instruction byte code in the program");
                     continue;
@@ -319,16 +719,29 @@ public final class BugsWorldVMInterpreter {
             /*
              * Interpret program to find next primitive instruction
              */
-            pc = nextPrimitiveInstructionAddress(cp, cs, pc);
+            int next = nextPrimitiveInstructionAddress(rp, cs, pc,
+                    DEFAULT_RANDOM);
             out.println();
+            if (next == STALLED) {
+                out.println("  No primitive instruction reached within "
+                        + stepBudget(cp.length)
+                        + " jumps; behaving like SKIP at address " + pc);
+                continue;
+            }
+            pc = next;
             out.println("  Next primitive instruction: "
                     + Program.Instruction.values()[cp[pc]].toString()
                     + " at address " + pc);
             /*
-             * Output disassembled program with marked address
+             * Output the marked line, or the window around it, from the
+             * cached disassembly
              */
             out.println();
-            Program1.disassembleProgram(out, cp, pc);
+            if (radius < 0) {
+                view.printMarker(out, pc);
+            } else {
+                view.printWindow(out, pc, radius);
+            }
             /*
              * Increment program counter pc to make progress
              */
@@ -0,0 +1,435 @@
+import java.util.Arrays;
+
+import components.program.Program.Instruction;
+import components.program.Program1;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Peephole optimizer for compiled BL programs. It threads jumps whose target
+ * is another jump with a known outcome, removes conditional jumps that can
+ * never be taken (e.g., {@code JUMP_IF_NOT_TRUE}) and jumps to the next
+ * instruction, drops code that cannot be reached from address 0, and remaps
+ * all addresses.
+ * <p>
+ * No primitive instruction and no {@code JUMP_IF_NOT_RANDOM} is ever skipped
+ * or added, and a jump is only threaded when its outcome is determined by what
+ * the bug sees (which cannot change until the next primitive), so for every
+ * sequence of {@code CellState}s and random conditions the optimized program
+ * produces exactly the same sequence of primitive instructions through
+ * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress} as the
+ * original, when execution continues after each primitive other than HALT
+ * at the following location.
+ */
+public final class ByteCodeOptimizer {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Set of all four {@code CellState}s, one bit per ordinal.
+     */
+    private static final int ALL_STATES = (1 << BugsWorldVMInterpreter.CellState
+            .values().length) - 1;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private ByteCodeOptimizer() {
+        // no code needed here
+    }
+
+    /**
+     * Reports whether {@code byteCode} is a jump (conditional or not).
+     *
+     * @param byteCode
+     *            the byte code
+     * @return true iff {@code byteCode} is the byte code of a jump
+     */
+    private static boolean isJump(int byteCode) {
+        return !BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(byteCode);
+    }
+
+    /**
+     * Returns the subset of {@code states} in which the condition of
+     * conditional jump {@code condJump} holds.
+     *
+     * @param condJump
+     *            the byte code of a conditional jump other than
+     *            JUMP_IF_NOT_RANDOM
+     * @param states
+     *            set of {@code CellState} ordinals, one bit each
+     * @return the subset of {@code states} where the condition holds
+     */
+    private static int holdsIn(int condJump, int states) {
+        int result = 0;
+        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                .values()) {
+            int bit = 1 << wbs.ordinal();
+            if ((states & bit) != 0 && BugsWorldVMInterpreter
+                    .conditionalJumpCondition(wbs, condJump,
+                            BugsWorldVMInterpreter.DEFAULT_RANDOM)) {
+                result |= bit;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the final destination of control that reaches location
+     * {@code target} while what the bug sees is known to be in {@code states},
+     * following unconditional jumps and conditional jumps whose outcome is the
+     * same for every state in {@code states}. Stops at primitives, random
+     * jumps, jumps with an undetermined outcome, and after {@code limit} hops
+     * (so jump-only cycles are left alone).
+     *
+     * @param cp
+     *            the compiled program
+     * @param target
+     *            the location reached
+     * @param states
+     *            the possible {@code CellState} ordinals, one bit each
+     * @param limit
+     *            the maximum number of jumps to follow
+     * @return the location control eventually reaches
+     */
+    private static int thread(int[] cp, int target, int states, int limit) {
+        int t = target;
+        int known = states;
+        int hops = 0;
+        boolean done = false;
+        while (!done && hops < limit) {
+            int instr = cp[t];
+            if (instr == Instruction.JUMP.byteCode()) {
+                t = cp[t + 1];
+            } else if (isJump(instr)
+                    && instr != Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+                int holds = holdsIn(instr, known);
+                if (holds == 0) {
+                    t = cp[t + 1];
+                } else if (holds == known) {
+                    t = t + 2;
+                } else {
+                    done = true;
+                }
+            } else {
+                done = true;
+            }
+            hops++;
+        }
+        return t;
+    }
+
+    /**
+     * Computes, for each instruction location of {@code code}, the set of
+     * {@code CellState}s the bug can be seeing when control reaches it from
+     * address 0. What the bug sees can only change at a primitive instruction,
+     * and a conditional jump tells which states are possible on each of its
+     * branches. Unreachable locations get the empty set.
+     *
+     * @param code
+     *            the compiled program
+     * @param limit
+     *            the number of instructions in {@code code}
+     * @return the set of possible {@code CellState} ordinals (one bit each)
+     *         at each location
+     */
+    private static int[] possibleStates(int[] code, int limit) {
+        int[] known = new int[code.length];
+        boolean[] queued = new boolean[code.length];
+        int[] work = new int[limit];
+        int top = 0;
+        known[0] = ALL_STATES;
+        work[top] = 0;
+        top++;
+        queued[0] = true;
+        while (top > 0) {
+            top--;
+            int loc = work[top];
+            queued[loc] = false;
+            int instr = code[loc];
+            int k = known[loc];
+            int[] targets;
+            int[] states;
+            if (!isJump(instr)) {
+                if (instr == Instruction.HALT.byteCode()) {
+                    targets = new int[0];
+                    states = new int[0];
+                } else {
+                    targets = new int[] { loc + 1 };
+                    states = new int[] { ALL_STATES };
+                }
+            } else if (instr == Instruction.JUMP.byteCode()) {
+                targets = new int[] { code[loc + 1] };
+                states = new int[] { k };
+            } else if (instr == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+                targets = new int[] { code[loc + 1], loc + 2 };
+                states = new int[] { k, k };
+            } else {
+                int holds = holdsIn(instr, k);
+                targets = new int[] { code[loc + 1], loc + 2 };
+                states = new int[] { k & ~holds, holds };
+            }
+            for (int i = 0; i < targets.length; i++) {
+                int t = targets[i];
+                if (t < code.length && (states[i] & ~known[t]) != 0) {
+                    known[t] |= states[i];
+                    if (!queued[t]) {
+                        queued[t] = true;
+                        work[top] = t;
+                        top++;
+                    }
+                }
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Runs one round of folding, threading, dead-code removal and remapping.
+     *
+     * @param cp
+     *            the compiled program
+     * @param newAddress
+     *            receives, for each location of {@code cp}, the location of
+     *            the same instruction in the result, or the location control
+     *            continues at if the instruction was folded away, or -1 if it
+     *            was unreachable or is an address
+     * @return the optimized program
+     */
+    private static int[] optimizeOnce(int[] cp, int[] newAddress) {
+        DecodedProgram dp = new DecodedProgram(cp);
+        int limit = dp.instructionCount();
+        int[] code = cp.clone();
+        int[] known = possibleStates(code, limit);
+
+        /*
+         * Constant-condition folding: a conditional jump whose condition has
+         * the same value in every state possible at it is either never taken
+         * (it does nothing) or always taken (it is a JUMP)
+         */
+        boolean[] noOp = new boolean[code.length];
+        for (int loc = 0; loc < code.length; loc++) {
+            int instr = code[loc];
+            if (known[loc] != 0 && isJump(instr)
+                    && instr != Instruction.JUMP.byteCode()
+                    && instr != Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+                int holds = holdsIn(instr, known[loc]);
+                if (holds == known[loc]) {
+                    noOp[loc] = true;
+                } else if (holds == 0) {
+                    code[loc] = Instruction.JUMP.byteCode();
+                }
+            }
+        }
+
+        /*
+         * Jump threading: a jump is taken only when its condition is false,
+         * so the states in which it is taken are known at its target
+         */
+        for (int loc = 0; loc < code.length; loc++) {
+            int instr = code[loc];
+            if (known[loc] != 0 && isJump(instr) && !noOp[loc]) {
+                int taken = known[loc];
+                if (instr != Instruction.JUMP.byteCode()
+                        && instr != Instruction.JUMP_IF_NOT_RANDOM
+                                .byteCode()) {
+                    taken = known[loc] & ~holdsIn(instr, known[loc]);
+                }
+                code[loc + 1] = thread(code, code[loc + 1], taken, limit);
+                /*
+                 * A random jump draws a condition even when both branches
+                 * meet, so it must stay to keep the random stream in step
+                 */
+                noOp[loc] = code[loc + 1] == loc + 2
+                        && instr != Instruction.JUMP_IF_NOT_RANDOM.byteCode();
+            }
+        }
+
+        /*
+         * Dead code: keep what is reachable from address 0
+         */
+        boolean[] reachable = new boolean[code.length];
+        int[] work = new int[limit];
+        int top = 0;
+        work[top] = 0;
+        top++;
+        reachable[0] = true;
+        while (top > 0) {
+            top--;
+            int loc = work[top];
+            int instr = code[loc];
+            int[] successors;
+            if (!isJump(instr)) {
+                if (instr == Instruction.HALT.byteCode()) {
+                    successors = new int[0];
+                } else {
+                    successors = new int[] { loc + 1 };
+                }
+            } else if (noOp[loc]) {
+                successors = new int[] { loc + 2 };
+            } else if (instr == Instruction.JUMP.byteCode()) {
+                successors = new int[] { code[loc + 1] };
+            } else {
+                successors = new int[] { code[loc + 1], loc + 2 };
+            }
+            for (int s : successors) {
+                if (s < code.length && !reachable[s]) {
+                    reachable[s] = true;
+                    work[top] = s;
+                    top++;
+                }
+            }
+        }
+
+        /*
+         * Layout: kept instructions in their original order
+         */
+        Arrays.fill(newAddress, -1);
+        int size = 0;
+        for (int loc = 0; loc < code.length; loc++) {
+            if (reachable[loc] && !noOp[loc]) {
+                newAddress[loc] = size;
+                if (isJump(code[loc])) {
+                    size += 2;
+                } else {
+                    size++;
+                }
+            }
+        }
+        /*
+         * A folded instruction continues at the instruction after it, which
+         * is reachable; resolve from the end so chains of folded ones work
+         */
+        for (int loc = code.length - 1; loc >= 0; loc--) {
+            if (reachable[loc] && noOp[loc]) {
+                int next = loc + 2;
+                if (next < code.length) {
+                    newAddress[loc] = newAddress[next];
+                } else {
+                    newAddress[loc] = size;
+                }
+            }
+        }
+        int[] result = new int[size];
+        for (int loc = 0; loc < code.length; loc++) {
+            if (reachable[loc] && !noOp[loc]) {
+                int at = newAddress[loc];
+                result[at] = code[loc];
+                if (isJump(code[loc])) {
+                    result[at + 1] = newAddress[code[loc + 1]];
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the optimized form of compiled program {@code cp}.
+     *
+     * @param cp
+     *            the compiled program
+     * @return the optimized program
+     * @requires <pre>
+     * [cp is a valid compiled BL program]  and
+     * [the last reachable instruction of cp is a JUMP or HALT]
+     * </pre>
+     * @ensures <pre>
+     * [optimize produces the same sequence of primitive instructions as cp
+     *  starting at address 0, for every sequence of what the bug sees and
+     *  of random conditions]  and
+     * |optimize| <= |cp|
+     * </pre>
+     */
+    public static int[] optimize(int[] cp) {
+        return optimize(cp, new int[cp.length]);
+    }
+
+    /**
+     * Returns the optimized form of compiled program {@code cp}, recording in
+     * {@code newAddress} where each primitive instruction of {@code cp} ended
+     * up, so program counters saved for {@code cp} can be carried over.
+     *
+     * @param cp
+     *            the compiled program
+     * @param newAddress
+     *            receives the new location of each primitive instruction of
+     *            {@code cp}, or -1 if it was unreachable
+     * @return the optimized program
+     * @replaces newAddress
+     * @requires <pre>
+     * [cp is a valid compiled BL program]  and
+     * [the last reachable instruction of cp is a JUMP or HALT]  and
+     * |newAddress| = |cp|
+     * </pre>
+     * @ensures <pre>
+     * [optimize produces the same sequence of primitive instructions as cp
+     *  starting at address 0, for every sequence of what the bug sees and
+     *  of random conditions]  and
+     * |optimize| <= |cp|  and
+     * [newAddress maps the primitive locations of cp to those of optimize]
+     * </pre>
+     */
+    public static int[] optimize(int[] cp, int[] newAddress) {
+        assert cp != null : "Violation of: cp is not null";
+        assert newAddress != null : "Violation of: newAddress is not null";
+        assert newAddress.length == cp.length : ""
+                + "Violation of: |newAddress| = |cp|";
+
+        int[] result = cp;
+        for (int i = 0; i < newAddress.length; i++) {
+            newAddress[i] = i;
+        }
+        boolean shrinking = true;
+        while (shrinking) {
+            int[] map = new int[result.length];
+            int[] next = optimizeOnce(result, map);
+            for (int i = 0; i < newAddress.length; i++) {
+                if (newAddress[i] >= 0) {
+                    newAddress[i] = map[newAddress[i]];
+                }
+            }
+            shrinking = next.length < result.length;
+            result = next;
+        }
+        DecodedProgram dp = new DecodedProgram(cp);
+        for (int i = 0; i < newAddress.length; i++) {
+            if (!dp.isInstructionStart(i) || isJump(cp[i])) {
+                newAddress[i] = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter compiled BL program file name: ");
+        String fileName = in.nextLine();
+        int[] cp = BugsWorldVMInterpreter.loadProgram(fileName);
+        int[] optimized = optimize(cp);
+        out.println();
+        out.println("Original length:  " + cp.length);
+        out.println("Optimized length: " + optimized.length);
+        out.println();
+        Program1.disassembleProgram(out, optimized, 0);
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,175 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code ByteCodeOptimizer}.
+ */
+public class ByteCodeOptimizerTest {
+
+    /**
+     * Byte code of MOVE.
+     */
+    private static final int MOVE = Instruction.MOVE.byteCode();
+
+    /**
+     * Byte code of TURNLEFT.
+     */
+    private static final int TURNLEFT = Instruction.TURNLEFT.byteCode();
+
+    /**
+     * Byte code of INFECT.
+     */
+    private static final int INFECT = Instruction.INFECT.byteCode();
+
+    /**
+     * Byte code of HALT.
+     */
+    private static final int HALT = Instruction.HALT.byteCode();
+
+    /**
+     * Byte code of JUMP.
+     */
+    private static final int JUMP = Instruction.JUMP.byteCode();
+
+    /**
+     * Byte code of JUMP_IF_NOT_TRUE.
+     */
+    private static final int IF_NOT_TRUE = Instruction.JUMP_IF_NOT_TRUE
+            .byteCode();
+
+    /**
+     * Byte code of JUMP_IF_NOT_NEXT_IS_EMPTY.
+     */
+    private static final int IF_NOT_EMPTY = Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY
+            .byteCode();
+
+    /**
+     * Byte code of JUMP_IF_NOT_NEXT_IS_NOT_EMPTY.
+     */
+    private static final int IF_NOT_NOT_EMPTY = Instruction.JUMP_IF_NOT_NEXT_IS_NOT_EMPTY
+            .byteCode();
+
+    /**
+     * Byte code of JUMP_IF_NOT_RANDOM.
+     */
+    private static final int IF_NOT_RANDOM = Instruction.JUMP_IF_NOT_RANDOM
+            .byteCode();
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN
+     *     IF next-is-not-empty THEN infect END IF
+     *     move
+     *   ELSE
+     *     IF random THEN turnleft END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     * as a naive compiler emits it, with jumps to jumps and dead code.
+     */
+    private static final int[] NAIVE = {
+            /* 0 */ IF_NOT_TRUE, 22,
+            /* 2 */ IF_NOT_EMPTY, 12,
+            /* 4 */ IF_NOT_NOT_EMPTY, 7,
+            /* 6 */ INFECT,
+            /* 7 */ MOVE,
+            /* 8 */ JUMP, 10,
+            /* 10 */ JUMP, 17,
+            /* 12 */ IF_NOT_RANDOM, 15,
+            /* 14 */ TURNLEFT,
+            /* 15 */ JUMP, 17,
+            /* 17 */ JUMP, 0,
+            /* 19 */ MOVE,
+            /* 20 */ JUMP, 19,
+            /* 22 */ HALT };
+
+    /**
+     * Returns the primitive byte codes {@code cp} executes in {@code steps}
+     * steps for the sequence of what the bug sees drawn from {@code seed},
+     * with random conditions drawn from {@code randomSeed}.
+     *
+     * @param cp
+     *            the compiled program
+     * @param steps
+     *            the number of steps
+     * @param seed
+     *            the seed of what the bug sees
+     * @param randomSeed
+     *            the seed of the random conditions
+     * @return the primitive byte codes executed
+     */
+    private static int[] trace(int[] cp, int steps, long seed,
+            long randomSeed) {
+        SplittableRandom world = new SplittableRandom(seed);
+        RandomSource random = new SplitMixRandomSource(randomSeed);
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        int[] result = new int[steps];
+        int pc = 0;
+        for (int i = 0; i < steps; i++) {
+            BugsWorldVMInterpreter.CellState wbs = states[world
+                    .nextInt(states.length)];
+            pc = BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(cp,
+                    wbs, pc, random);
+            result[i] = cp[pc];
+            if (cp[pc] != HALT) {
+                pc++;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testShrinks() {
+        int[] optimized = ByteCodeOptimizer.optimize(NAIVE);
+        assertTrue(optimized.length < NAIVE.length);
+    }
+
+    @Test
+    public void testSamePrimitiveSequence() {
+        int[] optimized = ByteCodeOptimizer.optimize(NAIVE);
+        final int steps = 500;
+        final int seeds = 20;
+        for (long seed = 0; seed < seeds; seed++) {
+            assertArrayEquals(trace(NAIVE, steps, seed, seed),
+                    trace(optimized, steps, seed, seed));
+        }
+    }
+
+    @Test
+    public void testImpossibleInfectRemoved() {
+        int[] optimized = ByteCodeOptimizer.optimize(NAIVE);
+        for (int i = 0; i < optimized.length; i++) {
+            assertTrue(optimized[i] != INFECT
+                    || !new DecodedProgram(optimized).isInstructionStart(i));
+        }
+    }
+
+    @Test
+    public void testAddressMap() {
+        int[] newAddress = new int[NAIVE.length];
+        int[] optimized = ByteCodeOptimizer.optimize(NAIVE, newAddress);
+        final int move = 7;
+        final int deadMove = 19;
+        assertEquals(MOVE, optimized[newAddress[move]]);
+        assertEquals(-1, newAddress[deadMove]);
+        assertEquals(-1, newAddress[0]);
+    }
+
+    @Test
+    public void testAlreadyOptimal() {
+        int[] cp = { MOVE, TURNLEFT, JUMP, 0, HALT };
+        assertArrayEquals(new int[] { MOVE, TURNLEFT, JUMP, 0 },
+                ByteCodeOptimizer.optimize(cp));
+    }
+
+}
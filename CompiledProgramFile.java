@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.utilities.Reporter;
+
+/**
+ * Reads and writes compiled BL programs in the binary {@code .blc} format, and
+ * converts programs from the text format read by
+ * {@code BugsWorldVMInterpreter}.
+ * <p>
+ * A {@code .blc} file is a 16-byte header followed by the program, all
+ * big-endian:
+ *
+ * <pre>
+ * int magic     0x424C4300 ("BLC\0")
+ * int version   FORMAT_VERSION
+ * int length    number of integers in the program
+ * int checksum  CRC-32 of the program bytes
+ * int[length]   the program
+ * </pre>
+ *
+ * Loading memory-maps the file and checks the header and checksum in place,
+ * so no text is parsed and nothing is allocated per integer.
+ */
+public final class CompiledProgramFile {
+
+    /**
+     * Magic number at the start of every {@code .blc} file.
+     */
+    private static final int MAGIC = 0x424C4300;
+
+    /**
+     * Version of the format written by this class.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Number of bytes in the header.
+     */
+    private static final int HEADER_BYTES = 16;
+
+    /**
+     * File name extension of binary compiled programs.
+     */
+    static final String EXTENSION = ".blc";
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CompiledProgramFile() {
+        // no code needed here
+    }
+
+    /**
+     * Returns the CRC-32 of the remaining bytes of {@code bytes}, without
+     * moving its position.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the CRC-32 of the remaining bytes, as an {@code int}
+     */
+    private static int checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Memory-maps the {@code .blc} file with the given name, checks its header
+     * and checksum, and returns a read-only view of the program.
+     *
+     * @param fileName
+     *            the name of the {@code .blc} file
+     * @return a read-only view of the compiled program in the file
+     * @requires [fileName is the name of a .blc file]
+     * @ensures <pre>
+     * if [the file has a valid header and checksum] then
+     *  map = [the compiled program in the file]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public static IntBuffer map(String fileName) {
+        assert fileName != null : "Violation of: fileName is not null";
+
+        MappedByteBuffer bytes = null;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot read " + fileName + ": " + e.getMessage());
+        }
+        Reporter.assertElseFatalError(bytes.remaining() >= HEADER_BYTES,
+                "ERROR: " + fileName + " is too short to be a .blc file");
+        Reporter.assertElseFatalError(bytes.getInt() == MAGIC,
+                "ERROR: " + fileName + " is not a .blc file");
+        Reporter.assertElseFatalError(bytes.getInt() == FORMAT_VERSION,
+                "ERROR: " + fileName + " has an unsupported .blc version");
+        int length = bytes.getInt();
+        int expected = bytes.getInt();
+        Reporter.assertElseFatalError(
+                length > 0 && bytes.remaining() == (long) length
+                        * Integer.BYTES,
+                "ERROR: " + fileName + " has the wrong length");
+        Reporter.assertElseFatalError(checksum(bytes) == expected,
+                "ERROR: " + fileName + " is corrupted (checksum mismatch)");
+        return bytes.slice().asIntBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Loads the compiled program in the {@code .blc} file with the given name.
+     *
+     * @param fileName
+     *            the name of the {@code .blc} file
+     * @return the compiled program in the file
+     * @requires [fileName is the name of a .blc file]
+     * @ensures <pre>
+     * if [the file has a valid header and checksum] then
+     *  load = [the compiled program in the file]
+     * else
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public static int[] load(String fileName) {
+        IntBuffer view = map(fileName);
+        int[] cp = new int[view.remaining()];
+        view.get(cp);
+        return cp;
+    }
+
+    /**
+     * Writes {@code cp} to the {@code .blc} file with the given name.
+     *
+     * @param cp
+     *            the compiled program
+     * @param fileName
+     *            the name of the {@code .blc} file
+     * @requires [cp is a valid compiled BL program]
+     * @ensures [the file fileName contains cp in the .blc format]
+     */
+    public static void write(int[] cp, String fileName) {
+        assert cp != null : "Violation of: cp is not null";
+        assert cp.length > 0 : "Violation of: cp is a valid compiled BL program";
+        assert fileName != null : "Violation of: fileName is not null";
+
+        ByteBuffer body = ByteBuffer.allocate(cp.length * Integer.BYTES);
+        body.asIntBuffer().put(cp);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(cp.length)
+                .putInt(checksum(body));
+        header.flip();
+        Path path = Paths.get(fileName);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || body.hasRemaining()) {
+                channel.write(new ByteBuffer[] { header, body });
+            }
+        } catch (IOException e) {
+            Reporter.fatalErrorToConsole(
+                    "ERROR: Cannot write " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the text-format compiled program in file {@code textFileName}
+     * into the {@code .blc} file {@code binaryFileName}.
+     *
+     * @param textFileName
+     *            the name of the text-format file
+     * @param binaryFileName
+     *            the name of the {@code .blc} file
+     * @requires [textFileName is the name of a text-format compiled program]
+     * @ensures [the file binaryFileName contains the same program in the .blc
+     *          format]
+     */
+    public static void convert(String textFileName, String binaryFileName) {
+        write(BugsWorldVMInterpreter.loadTextProgram(textFileName),
+                binaryFileName);
+    }
+
+    /**
+     * Main method: converts a text-format compiled program to {@code .blc}.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter text compiled BL program file name: ");
+        String textFileName = in.nextLine();
+        String binaryFileName = textFileName;
+        int dot = binaryFileName.lastIndexOf('.');
+        if (dot > 0) {
+            binaryFileName = binaryFileName.substring(0, dot);
+        }
+        binaryFileName = binaryFileName + EXTENSION;
+        convert(textFileName, binaryFileName);
+        out.println("Wrote " + binaryFileName + " ("
+                + load(binaryFileName).length + " integers)");
+
+        in.close();
+        out.close();
+    }
+
+}
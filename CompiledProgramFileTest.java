@@ -0,0 +1,94 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * JUnit test fixture for {@code CompiledProgramFile}.
+ */
+public class CompiledProgramFileTest {
+
+    /**
+     * Returns the name of a new scratch file with the given suffix, deleted
+     * when the JVM exits.
+     *
+     * @param suffix
+     *            the file name suffix
+     * @return the name of the scratch file
+     */
+    private static String scratchFile(String suffix) {
+        File f = null;
+        try {
+            f = File.createTempFile("program", suffix);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        f.deleteOnExit();
+        return f.getPath();
+    }
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO move END WHILE turnleft}.
+     */
+    private static final int[] WHILE_MOVE = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.TURNLEFT.byteCode(), Instruction.HALT.byteCode() };
+
+    @Test
+    public void testRoundTrip() {
+        String binaryFile = scratchFile(CompiledProgramFile.EXTENSION);
+        CompiledProgramFile.write(WHILE_MOVE, binaryFile);
+        assertArrayEquals(WHILE_MOVE, CompiledProgramFile.load(binaryFile));
+    }
+
+    @Test
+    public void testMapIsView() {
+        String binaryFile = scratchFile(CompiledProgramFile.EXTENSION);
+        CompiledProgramFile.write(WHILE_MOVE, binaryFile);
+        IntBuffer view = CompiledProgramFile.map(binaryFile);
+        assertEquals(WHILE_MOVE.length, view.remaining());
+        for (int i = 0; i < WHILE_MOVE.length; i++) {
+            assertEquals(WHILE_MOVE[i], view.get(i));
+        }
+    }
+
+    @Test
+    public void testConvertFromText() {
+        String textFile = scratchFile(".txt");
+        String binaryFile = scratchFile(CompiledProgramFile.EXTENSION);
+        SimpleWriter out = new SimpleWriter1L(textFile);
+        out.println(WHILE_MOVE.length);
+        for (int x : WHILE_MOVE) {
+            out.println(x);
+        }
+        out.close();
+        CompiledProgramFile.convert(textFile, binaryFile);
+        assertArrayEquals(WHILE_MOVE,
+                BugsWorldVMInterpreter.loadProgram(binaryFile));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCorruptedFileRejected() throws IOException {
+        String binaryFile = scratchFile(CompiledProgramFile.EXTENSION);
+        CompiledProgramFile.write(WHILE_MOVE, binaryFile);
+        final int lastByte = 16 + WHILE_MOVE.length * Integer.BYTES - 1;
+        try (RandomAccessFile file = new RandomAccessFile(binaryFile,
+                "rw")) {
+            file.seek(lastByte);
+            file.write(1);
+        }
+        CompiledProgramFile.load(binaryFile);
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * The decision made by a compiled BL program: given a program counter and
+ * what the bug sees, the location of the next primitive instruction. Programs
+ * compiled to JVM classes by {@code JvmCompiledProgram} implement this
+ * interface.
+ */
+public interface DecisionFunction {
+
+    /**
+     * Returns the location of the next primitive instruction to execute
+     * starting from location {@code pc} given what the bug sees.
+     *
+     * @param pc
+     *            the program counter
+     * @param wbs
+     *            the ordinal of the {@code CellState} indicating what the bug
+     *            sees
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute,
+     *         {@code BugsWorldVMInterpreter.STALLED} if it is not reached
+     *         within the step budget, or -1 if {@code pc} is not the location
+     *         of an instruction
+     * @updates random
+     * @requires 0 <= wbs < |CellState.values()|
+     * @ensures <pre>
+     * [next = BugsWorldVMInterpreter.nextPrimitiveInstructionAddress of the
+     *  compiled program for (CellState.values()[wbs], pc, random)]
+     * </pre>
+     */
+    int next(int pc, int wbs, RandomSource random);
+
+}
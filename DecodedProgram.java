@@ -0,0 +1,155 @@
+/**
+ * A compiled BL program decoded once at load time. Alongside the byte code it
+ * keeps a bitmap with one bit per address recording whether that address is
+ * the start of an instruction (as opposed to the address operand of a jump),
+ * so instruction-location checks take constant time instead of rescanning the
+ * program from address 0.
+ */
+public final class DecodedProgram {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of bits in one bitmap word.
+     */
+    private static final int BITS_PER_WORD = 64;
+
+    /**
+     * Shift turning an address into the index of its bitmap word.
+     */
+    private static final int WORD_SHIFT = 6;
+
+    /**
+     * The compiled program.
+     */
+    private final int[] cp;
+
+    /**
+     * Bitmap of instruction-start addresses: bit {@code loc} is set iff
+     * {@code loc} is the location of an instruction byte code in {@code cp}.
+     */
+    private final long[] instructionStarts;
+
+    /**
+     * Number of instructions (primitive and jump) in {@code cp}.
+     */
+    private final int instructionCount;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from a compiled program. The array is shared, not copied,
+     * and must not be modified afterwards.
+     *
+     * @param cp
+     *            the compiled program
+     * @requires [cp is a valid compiled BL program]
+     * @ensures <pre>
+     * this.code = cp  and
+     * [this.instructionStarts marks exactly the instruction byte code
+     *  locations in cp]
+     * </pre>
+     */
+    public DecodedProgram(int[] cp) {
+        assert cp != null : "Violation of: cp is not null";
+        assert cp.length > 0 : "Violation of: cp is a valid compiled BL program";
+
+        this.cp = cp;
+        this.instructionStarts = new long[(cp.length + BITS_PER_WORD - 1)
+                >>> WORD_SHIFT];
+        int count = 0;
+        int pos = 0;
+        while (pos < cp.length) {
+            this.instructionStarts[pos >>> WORD_SHIFT] |= 1L << pos;
+            count++;
+            if (!BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(cp[pos])) {
+                /*
+                 * It must be a jump instruction, skip its address
+                 */
+                pos++;
+                assert pos < cp.length : ""
+                        + "Violation of: cp is a valid compiled BL program";
+            }
+            pos++;
+        }
+        this.instructionCount = count;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports the length of the compiled program.
+     *
+     * @return the number of integers in the compiled program
+     * @ensures length = |this.code|
+     */
+    public int length() {
+        return this.cp.length;
+    }
+
+    /**
+     * Returns the compiled program. The returned array is shared with this
+     * object and must not be modified.
+     *
+     * @return the compiled program
+     * @ensures code = this.code
+     */
+    public int[] code() {
+        return this.cp;
+    }
+
+    /**
+     * Reports the integer stored at location {@code loc}.
+     *
+     * @param loc
+     *            the location
+     * @return the integer at {@code loc}
+     * @requires 0 <= loc < |this.code|
+     * @ensures byteCode = this.code[loc]
+     */
+    public int byteCode(int loc) {
+        assert 0 <= loc : "Violation of: 0 <= loc";
+        assert loc < this.cp.length : "Violation of: loc < |this.code|";
+
+        return this.cp[loc];
+    }
+
+    /**
+     * Reports whether {@code loc} is the location of an instruction byte code
+     * in the compiled program. Locations outside the program are never
+     * instruction locations.
+     *
+     * @param loc
+     *            the location to check
+     * @return true iff {@code loc} is the address of an instruction byte code
+     * @ensures <pre>
+     * isInstructionStart =
+     *  [true iff loc is the address of an instruction byte code in this.code]
+     * </pre>
+     */
+    public boolean isInstructionStart(int loc) {
+        return (0 <= loc) && (loc < this.cp.length)
+                && ((this.instructionStarts[loc >>> WORD_SHIFT]
+                        & (1L << loc)) != 0);
+    }
+
+    /**
+     * Reports the number of instructions in the compiled program.
+     *
+     * @return the number of instructions, primitive and jump
+     * @ensures <pre>
+     * instructionCount = [number of instruction byte code locations in
+     *  this.code]
+     * </pre>
+     */
+    public int instructionCount() {
+        return this.instructionCount;
+    }
+
+}
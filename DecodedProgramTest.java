@@ -0,0 +1,80 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code DecodedProgram}.
+ */
+public class DecodedProgramTest {
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO move END WHILE turnleft}.
+     */
+    private static final int[] WHILE_MOVE = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.TURNLEFT.byteCode(), Instruction.HALT.byteCode() };
+
+    @Test
+    public void testLength() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        assertEquals(WHILE_MOVE.length, dp.length());
+        assertEquals(5, dp.instructionCount());
+    }
+
+    @Test
+    public void testInstructionStarts() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        boolean[] expected = { true, false, true, true, false, true, true };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("loc " + i, expected[i], dp.isInstructionStart(i));
+        }
+    }
+
+    @Test
+    public void testOutOfRange() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        assertFalse(dp.isInstructionStart(-1));
+        assertFalse(dp.isInstructionStart(WHILE_MOVE.length));
+    }
+
+    @Test
+    public void testSpansSeveralWords() {
+        final int moves = 130;
+        int[] cp = new int[moves + 2];
+        cp[0] = Instruction.JUMP.byteCode();
+        cp[1] = 2;
+        for (int i = 2; i < cp.length; i++) {
+            cp[i] = Instruction.MOVE.byteCode();
+        }
+        DecodedProgram dp = new DecodedProgram(cp);
+        assertTrue(dp.isInstructionStart(0));
+        assertFalse(dp.isInstructionStart(1));
+        for (int i = 2; i < cp.length; i++) {
+            assertTrue(dp.isInstructionStart(i));
+        }
+        assertEquals(moves + 1, dp.instructionCount());
+    }
+
+    @Test
+    public void testArrayQueriesAlternatingPrograms() {
+        int[] moves = { Instruction.JUMP.byteCode(), 3,
+                Instruction.TURNLEFT.byteCode(), Instruction.MOVE.byteCode() };
+        BugsWorldVMInterpreter.CellState empty =
+                BugsWorldVMInterpreter.CellState.EMPTY;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2,
+                    BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                            WHILE_MOVE, empty, 0));
+            assertEquals(3,
+                    BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                            moves, empty, 0));
+        }
+    }
+
+}
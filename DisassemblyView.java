@@ -0,0 +1,235 @@
+import components.program.Program.Instruction;
+import components.simplewriter.SimpleWriter;
+
+/**
+ * Disassembly of a compiled BL program in the layout of
+ * {@code Program1.disassembleProgram}, formatted once and then printed from
+ * the cached lines with the program counter marker moved to any address.
+ * Besides the whole listing, the view prints just the marked line, or a
+ * window of lines around it, so a driver showing the program after every
+ * query stays responsive however large the program is.
+ * <p>
+ * Each instruction takes one line: a marker column holding {@code '*'} on
+ * the line of the program counter and a space elsewhere, the address in four
+ * digits, {@code ": "}, the instruction name and, for a jump, a space and its
+ * target. Moving the marker therefore changes only the first character of
+ * two lines.
+ */
+public final class DisassemblyView {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * The marker column of the line of the program counter.
+     */
+    private static final char MARKER = '*';
+
+    /**
+     * The marker column of every other line.
+     */
+    private static final char NO_MARKER = ' ';
+
+    /**
+     * Unmarked lines of the listing.
+     */
+    private final String[] lines;
+
+    /**
+     * Line of the instruction at each location, or -1.
+     */
+    private final int[] lineOf;
+
+    /**
+     * The unmarked listing, one line per line.
+     */
+    private final String text;
+
+    /**
+     * Offset in {@code text} of the start of each line, and of its end.
+     */
+    private final int[] lineStart;
+
+    /**
+     * Returns the unmarked line of the instruction at {@code loc} of
+     * {@code dp}.
+     *
+     * @param dp
+     *            the decoded program
+     * @param loc
+     *            the location
+     * @return the unmarked line
+     * @requires [loc is the location of an instruction byte code in dp]
+     */
+    private static String line(DecodedProgram dp, int loc) {
+        int byteCode = dp.byteCode(loc);
+        String result = NO_MARKER + String.format("%04d: ", loc)
+                + Instruction.values()[byteCode];
+        if (!BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(byteCode)) {
+            result += " " + dp.code()[loc + 1];
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; formats the listing of {@code dp}.
+     *
+     * @param dp
+     *            the decoded program
+     * @ensures [this shows the disassembly of dp]
+     */
+    public DisassemblyView(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        int n = dp.instructionCount();
+        this.lines = new String[n];
+        this.lineOf = new int[dp.length()];
+        this.lineStart = new int[n + 1];
+        StringBuilder all = new StringBuilder();
+        int k = 0;
+        for (int loc = 0; loc < dp.length(); loc++) {
+            this.lineOf[loc] = -1;
+            if (dp.isInstructionStart(loc)) {
+                this.lines[k] = line(dp, loc);
+                this.lineOf[loc] = k;
+                this.lineStart[k] = all.length();
+                all.append(this.lines[k]).append('\n');
+                k++;
+            }
+        }
+        this.lineStart[n] = all.length();
+        this.text = all.toString();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports the number of lines of the listing.
+     *
+     * @return the number of lines
+     */
+    public int lineCount() {
+        return this.lines.length;
+    }
+
+    /**
+     * Returns the line of the listing for the instruction at {@code loc},
+     * unmarked.
+     *
+     * @param loc
+     *            the address
+     * @return the unmarked line
+     * @requires [loc is the location of an instruction byte code]
+     */
+    public String line(int loc) {
+        assert 0 <= loc && loc < this.lineOf.length
+                && this.lineOf[loc] >= 0 : ""
+                        + "Violation of: loc is the location of an instruction";
+
+        return this.lines[this.lineOf[loc]];
+    }
+
+    /**
+     * Returns the line of the listing for the instruction at {@code pc},
+     * marked.
+     *
+     * @param pc
+     *            the address
+     * @return the marked line
+     * @requires [pc is the location of an instruction byte code]
+     */
+    public String markedLine(int pc) {
+        assert 0 <= pc && pc < this.lineOf.length
+                && this.lineOf[pc] >= 0 : ""
+                        + "Violation of: pc is the location of an instruction";
+
+        return MARKER + this.lines[this.lineOf[pc]].substring(1);
+    }
+
+    /**
+     * Outputs the whole listing with the marker at {@code pc}.
+     *
+     * @param out
+     *            the output stream
+     * @param pc
+     *            the marked address
+     * @updates out.content
+     * @requires out.is_open and [pc is the location of an instruction byte
+     *           code]
+     * @ensures <pre>
+     * out.content = #out.content * [the output of
+     *  Program1.disassembleProgram(out, cp, pc)]
+     * </pre>
+     */
+    public void printAll(SimpleWriter out, int pc) {
+        assert out != null : "Violation of: out is not null";
+        assert out.isOpen() : "Violation of: out.is_open";
+
+        int k = this.lineOf[pc];
+        out.print(this.text.substring(0, this.lineStart[k]));
+        out.println(this.markedLine(pc));
+        out.print(this.text.substring(this.lineStart[k + 1]));
+    }
+
+    /**
+     * Outputs the marked line of {@code pc} only.
+     *
+     * @param out
+     *            the output stream
+     * @param pc
+     *            the marked address
+     * @updates out.content
+     * @requires out.is_open and [pc is the location of an instruction byte
+     *           code]
+     * @ensures out.content = #out.content * [the marked line of pc]
+     */
+    public void printMarker(SimpleWriter out, int pc) {
+        assert out != null : "Violation of: out is not null";
+        assert out.isOpen() : "Violation of: out.is_open";
+
+        out.println(this.markedLine(pc));
+    }
+
+    /**
+     * Outputs up to {@code radius} lines of the listing on each side of the
+     * marked line of {@code pc}.
+     *
+     * @param out
+     *            the output stream
+     * @param pc
+     *            the marked address
+     * @param radius
+     *            the number of lines shown before and after the marked line
+     * @updates out.content
+     * @requires <pre>
+     * out.is_open  and  radius >= 0  and
+     *  [pc is the location of an instruction byte code]
+     * </pre>
+     * @ensures <pre>
+     * out.content = #out.content * [the lines of the listing from radius
+     *  lines before the marked line of pc to radius lines after it]
+     * </pre>
+     */
+    public void printWindow(SimpleWriter out, int pc, int radius) {
+        assert out != null : "Violation of: out is not null";
+        assert out.isOpen() : "Violation of: out.is_open";
+        assert radius >= 0 : "Violation of: radius >= 0";
+
+        int k = this.lineOf[pc];
+        int from = Math.max(k - radius, 0);
+        int to = Math.min(k + radius + 1, this.lines.length);
+        out.print(this.text.substring(this.lineStart[from],
+                this.lineStart[k]));
+        out.println(this.markedLine(pc));
+        out.print(this.text.substring(this.lineStart[k + 1],
+                this.lineStart[to]));
+    }
+
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+import components.program.Program1;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * JUnit test fixture for {@code DisassemblyView}.
+ */
+public class DisassemblyViewTest {
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO move END WHILE turnleft}.
+     */
+    private static final int[] WHILE_MOVE = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.TURNLEFT.byteCode(), Instruction.HALT.byteCode() };
+
+    /**
+     * Returns the name of a new scratch file, deleted when the JVM exits.
+     *
+     * @return the name of the scratch file
+     */
+    private static String scratchFile() {
+        File f = null;
+        try {
+            f = File.createTempFile("listing", ".txt");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        f.deleteOnExit();
+        return f.getPath();
+    }
+
+    /**
+     * Returns the lines of file {@code fileName}.
+     *
+     * @param fileName
+     *            the name of the file
+     * @return the lines of the file
+     */
+    private static List<String> linesOf(String fileName) {
+        List<String> result = new ArrayList<>();
+        SimpleReader in = new SimpleReader1L(fileName);
+        while (!in.atEOS()) {
+            result.add(in.nextLine());
+        }
+        in.close();
+        return result;
+    }
+
+    @Test
+    public void testPrintAllMatchesDisassembleProgram() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        DisassemblyView view = new DisassemblyView(dp);
+        for (int pc = 0; pc < WHILE_MOVE.length; pc++) {
+            if (dp.isInstructionStart(pc)) {
+                String expectedFile = scratchFile();
+                SimpleWriter out = new SimpleWriter1L(expectedFile);
+                Program1.disassembleProgram(out, WHILE_MOVE, pc);
+                out.close();
+                String actualFile = scratchFile();
+                out = new SimpleWriter1L(actualFile);
+                view.printAll(out, pc);
+                out.close();
+                assertEquals("pc " + pc, linesOf(expectedFile),
+                        linesOf(actualFile));
+            }
+        }
+    }
+
+    @Test
+    public void testWindow() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        DisassemblyView view = new DisassemblyView(dp);
+        String fileName = scratchFile();
+        SimpleWriter out = new SimpleWriter1L(fileName);
+        view.printWindow(out, 0, 1);
+        view.printWindow(out, 2, 1);
+        view.printWindow(out, 2, 0);
+        out.close();
+        List<String> lines = linesOf(fileName);
+        assertEquals(2 + 3 + 1, lines.size());
+        assertEquals(view.markedLine(0), lines.get(0));
+        assertEquals(view.markedLine(2), lines.get(3));
+        assertEquals(view.markedLine(2), lines.get(5));
+    }
+
+    @Test
+    public void testMarkerOnly() {
+        DecodedProgram dp = new DecodedProgram(WHILE_MOVE);
+        DisassemblyView view = new DisassemblyView(dp);
+        String fileName = scratchFile();
+        SimpleWriter out = new SimpleWriter1L(fileName);
+        view.printMarker(out, 5);
+        out.close();
+        List<String> lines = linesOf(fileName);
+        assertEquals(1, lines.size());
+        assertEquals(view.markedLine(5), lines.get(0));
+    }
+
+}
@@ -0,0 +1,361 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import components.program.Program.Instruction;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Execution counts collected by the profiled walk of
+ * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress}: visits per
+ * address, how often each jump went to its target (taken) or fell through
+ * (not taken), and a histogram of the number of jumps walked per decision.
+ * <p>
+ * Profiling is opt-in: only the overloads that take an
+ * {@code ExecutionProfile} run the counting walk, so the unprofiled paths pay
+ * nothing for it.
+ */
+public final class ExecutionProfile {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Chain lengths of at least this many jumps share the last histogram
+     * bucket.
+     */
+    private static final int MAX_CHAIN_BUCKET = 32;
+
+    /**
+     * Number of hottest addresses listed in the report.
+     */
+    private static final int HOTTEST = 5;
+
+    /**
+     * Column the annotations start at in the report.
+     */
+    private static final int ANNOTATION_COLUMN = 40;
+
+    /**
+     * Number of visits per address.
+     */
+    private final long[] visits;
+
+    /**
+     * Number of times the jump at each address went to its target.
+     */
+    private final long[] taken;
+
+    /**
+     * Number of decisions by chain length.
+     */
+    private final long[] chains;
+
+    /**
+     * Longest chain walked.
+     */
+    private int longestChain;
+
+    /**
+     * Returns the percentage {@code part} is of {@code whole}.
+     *
+     * @param part
+     *            the part
+     * @param whole
+     *            the whole
+     * @return the percentage, 0 if {@code whole} is 0
+     */
+    private static double percent(long part, long whole) {
+        final double hundred = 100;
+        double result = 0;
+        if (whole > 0) {
+            result = hundred * part / whole;
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor for a program of {@code length} integers.
+     *
+     * @param length
+     *            the length of the compiled program
+     * @requires length > 0
+     * @ensures [this has no counts]
+     */
+    public ExecutionProfile(int length) {
+        assert length > 0 : "Violation of: length > 0";
+
+        this.visits = new long[length];
+        this.taken = new long[length];
+        this.chains = new long[MAX_CHAIN_BUCKET + 1];
+        this.longestChain = 0;
+    }
+
+    /*
+     * Recording, called by the profiled walk ---------------------------------
+     */
+
+    /**
+     * Records a visit to the instruction at {@code loc}.
+     *
+     * @param loc
+     *            the address
+     * @requires 0 <= loc < [length of the program]
+     */
+    void visit(int loc) {
+        this.visits[loc]++;
+    }
+
+    /**
+     * Records that the jump at {@code loc} went to its target.
+     *
+     * @param loc
+     *            the address of the jump
+     * @requires 0 <= loc < [length of the program]
+     */
+    void jumped(int loc) {
+        this.taken[loc]++;
+    }
+
+    /**
+     * Records a decision that walked {@code jumps} jumps.
+     *
+     * @param jumps
+     *            the number of jumps walked
+     * @requires jumps >= 0
+     */
+    void decided(int jumps) {
+        this.chains[Math.min(jumps, MAX_CHAIN_BUCKET)]++;
+        this.longestChain = Math.max(this.longestChain, jumps);
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the number of visits to address {@code loc}.
+     *
+     * @param loc
+     *            the address
+     * @return the number of visits
+     */
+    public long visits(int loc) {
+        return this.visits[loc];
+    }
+
+    /**
+     * Returns the number of times the jump at {@code loc} went to its target.
+     *
+     * @param loc
+     *            the address of the jump
+     * @return the number of taken jumps
+     */
+    public long taken(int loc) {
+        return this.taken[loc];
+    }
+
+    /**
+     * Returns the number of times the jump at {@code loc} fell through.
+     *
+     * @param loc
+     *            the address of the jump
+     * @return the number of jumps not taken
+     */
+    public long notTaken(int loc) {
+        return this.visits[loc] - this.taken[loc];
+    }
+
+    /**
+     * Returns the number of decisions recorded.
+     *
+     * @return the number of decisions
+     */
+    public long decisions() {
+        long result = 0;
+        for (long c : this.chains) {
+            result += c;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of decisions that walked {@code jumps} jumps, or at
+     * least {@code jumps} for the last bucket.
+     *
+     * @param jumps
+     *            the chain length
+     * @return the number of decisions
+     */
+    public long decisionsWithChain(int jumps) {
+        return this.chains[Math.min(jumps, MAX_CHAIN_BUCKET)];
+    }
+
+    /**
+     * Returns the longest chain of jumps walked by one decision.
+     *
+     * @return the longest chain
+     */
+    public int longestChain() {
+        return this.longestChain;
+    }
+
+    /**
+     * Clears all counts.
+     *
+     * @clears this
+     */
+    public void clear() {
+        Arrays.fill(this.visits, 0);
+        Arrays.fill(this.taken, 0);
+        Arrays.fill(this.chains, 0);
+        this.longestChain = 0;
+    }
+
+    /**
+     * Outputs the disassembly of {@code dp}, as {@code DisassemblyView} lays
+     * it out, with the hottest instruction marked,
+     * with the counts of each visited address appended to its line, followed
+     * by the hottest addresses and the chain length histogram.
+     *
+     * @param out
+     *            the output stream
+     * @param dp
+     *            the profiled program
+     * @updates out.content
+     * @requires out.is_open and [this profiles dp]
+     * @ensures [out.content has the annotated disassembly appended]
+     */
+    public void report(SimpleWriter out, DecodedProgram dp) {
+        assert out != null : "Violation of: out is not null";
+        assert dp != null : "Violation of: dp is not null";
+        assert out.isOpen() : "Violation of: out.is_open";
+
+        int[] cp = dp.code();
+        int hottest = 0;
+        for (int loc = 0; loc < cp.length; loc++) {
+            if (this.visits[loc] > this.visits[hottest]) {
+                hottest = loc;
+            }
+        }
+        long decisions = this.decisions();
+        /*
+         * Annotate the disassembly line by line
+         */
+        DisassemblyView view = new DisassemblyView(dp);
+        for (int loc = 0; loc < cp.length; loc++) {
+            if (dp.isInstructionStart(loc)) {
+                String line = view.line(loc);
+                if (loc == hottest) {
+                    line = view.markedLine(loc);
+                }
+                if (this.visits[loc] > 0) {
+                    StringBuilder annotated = new StringBuilder(line);
+                    while (annotated.length() < ANNOTATION_COLUMN) {
+                        annotated.append(' ');
+                    }
+                    annotated.append(" | ").append(this.visits[loc])
+                            .append(String.format(" visits (%.2f/decision)",
+                                    (double) this.visits[loc]
+                                            / Math.max(decisions, 1)));
+                    if (!BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(cp[loc])
+                            && cp[loc] != Instruction.JUMP.byteCode()) {
+                        annotated.append(String.format(
+                                ", taken %d (%.1f%%), not taken %d",
+                                this.taken[loc],
+                                percent(this.taken[loc], this.visits[loc]),
+                                this.notTaken(loc)));
+                    }
+                    line = annotated.toString();
+                }
+                out.println(line);
+            }
+        }
+        /*
+         * Hottest addresses
+         */
+        out.println();
+        out.println("Decisions: " + decisions + ", longest chain: "
+                + this.longestChain + " jumps");
+        out.println("Hottest addresses:");
+        boolean[] listed = new boolean[cp.length];
+        for (int i = 0; i < HOTTEST; i++) {
+            int best = -1;
+            for (int loc = 0; loc < cp.length; loc++) {
+                if (!listed[loc] && this.visits[loc] > 0
+                        && (best < 0 || this.visits[loc] > this.visits[best])) {
+                    best = loc;
+                }
+            }
+            if (best >= 0) {
+                listed[best] = true;
+                out.println(String.format("  %6d  %-28s %12d", best,
+                        Instruction.values()[cp[best]].toString(),
+                        this.visits[best]));
+            }
+        }
+        /*
+         * Chain length histogram
+         */
+        out.println("Jumps walked per decision:");
+        for (int jumps = 0; jumps <= MAX_CHAIN_BUCKET; jumps++) {
+            if (this.chains[jumps] > 0) {
+                out.println(String.format("  %3d%s %12d  (%.1f%%)", jumps,
+                        jumps == MAX_CHAIN_BUCKET ? "+" : " ",
+                        this.chains[jumps],
+                        percent(this.chains[jumps], decisions)));
+            }
+        }
+    }
+
+    /**
+     * Main method: profiles a compiled program over decisions in random
+     * states, stepping past each primitive as a bug would, and reports.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter compiled BL program file name: ");
+        String fileName = in.nextLine();
+        DecodedProgram dp = new DecodedProgram(
+                BugsWorldVMInterpreter.loadProgram(fileName));
+        ExecutionProfile profile = new ExecutionProfile(dp.length());
+
+        final int decisions = 1_000_000;
+        final long seed = 2231;
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        SplittableRandom world = new SplittableRandom(seed);
+        RandomSource random = new SplitMixRandomSource(seed);
+        int pc = 0;
+        for (int i = 0; i < decisions; i++) {
+            int next = BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                    dp, states[world.nextInt(states.length)], pc, random,
+                    profile);
+            if (next != BugsWorldVMInterpreter.STALLED) {
+                pc = next;
+                if (dp.byteCode(pc) != Instruction.HALT.byteCode()) {
+                    pc++;
+                }
+            }
+        }
+        out.println();
+        profile.report(out, dp);
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,134 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * JUnit test fixture for {@code ExecutionProfile}.
+ */
+public class ExecutionProfileTest {
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN move
+     *   ELSE IF next-is-wall THEN turnleft ELSE infect END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     */
+    private static final int[] NESTED = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 16,
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.JUMP_IF_NOT_NEXT_IS_WALL.byteCode(), 12,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.INFECT.byteCode(), Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Profiles one decision of {@code NESTED}.
+     *
+     * @param profile
+     *            the profile
+     * @param wbs
+     *            what the bug sees
+     * @param pc
+     *            the program counter
+     * @return the next primitive address
+     */
+    private static int decide(ExecutionProfile profile,
+            BugsWorldVMInterpreter.CellState wbs, int pc) {
+        return BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                new DecodedProgram(NESTED), wbs, pc,
+                BugsWorldVMInterpreter.DEFAULT_RANDOM, profile);
+    }
+
+    @Test
+    public void testSameAnswerAsUnprofiled() {
+        ExecutionProfile profile = new ExecutionProfile(NESTED.length);
+        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                .values()) {
+            assertEquals(BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                    NESTED, wbs, 0), decide(profile, wbs, 0));
+        }
+        assertEquals(4, profile.decisions());
+    }
+
+    @Test
+    public void testVisitsAndBranches() {
+        ExecutionProfile profile = new ExecutionProfile(NESTED.length);
+        decide(profile, BugsWorldVMInterpreter.CellState.EMPTY, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.WALL, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.ENEMY, 0);
+        assertEquals(3, profile.visits(0));
+        assertEquals(0, profile.taken(0));
+        assertEquals(3, profile.visits(2));
+        assertEquals(2, profile.taken(2));
+        assertEquals(1, profile.notTaken(2));
+        assertEquals(2, profile.visits(7));
+        assertEquals(1, profile.taken(7));
+        assertEquals(1, profile.visits(4));
+        assertEquals(1, profile.visits(9));
+        assertEquals(1, profile.visits(12));
+    }
+
+    @Test
+    public void testReportAnnotatesListing() throws IOException {
+        ExecutionProfile profile = new ExecutionProfile(NESTED.length);
+        decide(profile, BugsWorldVMInterpreter.CellState.EMPTY, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.WALL, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.ENEMY, 0);
+        DecodedProgram dp = new DecodedProgram(NESTED);
+        File f = File.createTempFile("profile", ".txt");
+        f.deleteOnExit();
+        SimpleWriter out = new SimpleWriter1L(f.getPath());
+        profile.report(out, dp);
+        out.close();
+        SimpleReader in = new SimpleReader1L(f.getPath());
+        String hottest = in.nextLine();
+        in.nextLine();
+        in.nextLine();
+        String unvisited = in.nextLine();
+        in.close();
+        DisassemblyView view = new DisassemblyView(dp);
+        assertTrue(hottest.startsWith(view.markedLine(0)));
+        assertTrue(hottest.contains("| 3 visits"));
+        assertEquals(view.line(5), unvisited);
+    }
+
+    @Test
+    public void testChainLengths() {
+        ExecutionProfile profile = new ExecutionProfile(NESTED.length);
+        decide(profile, BugsWorldVMInterpreter.CellState.EMPTY, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.WALL, 0);
+        decide(profile, BugsWorldVMInterpreter.CellState.ENEMY, 13);
+        decide(profile, BugsWorldVMInterpreter.CellState.ENEMY, 14);
+        assertEquals(1, profile.decisionsWithChain(0));
+        assertEquals(1, profile.decisionsWithChain(2));
+        assertEquals(1, profile.decisionsWithChain(3));
+        assertEquals(1, profile.decisionsWithChain(4));
+        assertEquals(4, profile.longestChain());
+    }
+
+    @Test
+    public void testClear() {
+        ExecutionProfile profile = new ExecutionProfile(NESTED.length);
+        decide(profile, BugsWorldVMInterpreter.CellState.EMPTY, 0);
+        profile.clear();
+        assertEquals(0, profile.decisions());
+        assertEquals(0, profile.visits(0));
+        assertEquals(0, profile.longestChain());
+    }
+
+}
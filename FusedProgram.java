@@ -0,0 +1,578 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import components.program.Program.Instruction;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * A compiled BL program rewritten at load time into fused internal opcodes,
+ * so the walk to the next primitive dispatches once per conditional jump
+ * instead of once per instruction. The rewrite keeps every address: opcode
+ * {@code op[loc]} stands for the instruction at {@code loc} of the original
+ * program, and the walk returns the same locations and draws random
+ * conditions in the same order as
+ * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress}.
+ * <p>
+ * The idioms fused are:
+ * <ul>
+ * <li>a conditional jump followed by a primitive ({@code IF c THEN move}),
+ * which returns the primitive directly when the condition holds;</li>
+ * <li>a conditional jump whose target is a primitive, likewise when it does
+ * not hold;</li>
+ * <li>chains of {@code JUMP} and {@code JUMP_IF_NOT_TRUE} (loop back-edges and
+ * {@code WHILE true}), which are followed at load time, so neither kind is
+ * ever dispatched except as the starting instruction.</li>
+ * </ul>
+ * Consecutive primitives such as TURNLEFT/TURNRIGHT pairs are never fused: each
+ * is a separate observable step of the bug.
+ */
+public final class FusedProgram {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Fused opcode: return this location (a primitive).
+     */
+    private static final byte OP_PRIMITIVE = 0;
+
+    /**
+     * Fused opcode: the unconditional jumps from here cycle; stall.
+     */
+    private static final byte OP_STALL = 1;
+
+    /**
+     * Fused opcode: continue at {@code onTrue[loc]}.
+     */
+    private static final byte OP_GOTO = 2;
+
+    /**
+     * Fused opcode: return {@code onTrue[loc]}.
+     */
+    private static final byte OP_GOTO_PRIMITIVE = 3;
+
+    /**
+     * Fused opcode family: test what the bug sees against {@code mask[loc]}.
+     */
+    private static final byte OP_TEST = 4;
+
+    /**
+     * Fused opcode family: draw a random condition.
+     */
+    private static final byte OP_RANDOM = 8;
+
+    /**
+     * Flag of a conditional opcode: {@code onTrue[loc]} is a primitive to
+     * return.
+     */
+    private static final byte TRUE_IS_PRIMITIVE = 1;
+
+    /**
+     * Flag of a conditional opcode: {@code onFalse[loc]} is a primitive to
+     * return.
+     */
+    private static final byte FALSE_IS_PRIMITIVE = 2;
+
+    /**
+     * The decoded program.
+     */
+    private final DecodedProgram dp;
+
+    /**
+     * Fused opcode by location.
+     */
+    private final byte[] op;
+
+    /**
+     * Where to go when the condition holds (or the threaded target of an
+     * unconditional jump), by location.
+     */
+    private final int[] onTrue;
+
+    /**
+     * Where to go when the condition does not hold, by location.
+     */
+    private final int[] onFalse;
+
+    /**
+     * Mask of {@code CellState} ordinals in which the condition of a sensing
+     * jump holds, by location.
+     */
+    private final byte[] mask;
+
+    /**
+     * Step budget of a walk.
+     */
+    private final int budget;
+
+    /**
+     * Reports whether {@code instr} is a jump that never depends on its
+     * condition: {@code JUMP} always goes to its target and
+     * {@code JUMP_IF_NOT_TRUE} never does.
+     *
+     * @param instr
+     *            the byte code
+     * @return true iff {@code instr} is unconditional
+     */
+    private static boolean isUnconditional(int instr) {
+        return instr == Instruction.JUMP.byteCode()
+                || instr == Instruction.JUMP_IF_NOT_TRUE.byteCode();
+    }
+
+    /**
+     * Follows the unconditional jumps of {@code cp} from {@code loc} and
+     * returns the first location that is not one, or -1 if they cycle.
+     *
+     * @param cp
+     *            the compiled program
+     * @param loc
+     *            the location
+     * @return the end of the chain of unconditional jumps, or -1
+     */
+    private static int thread(int[] cp, int loc) {
+        int t = loc;
+        int steps = 0;
+        while (isUnconditional(cp[t]) && steps <= cp.length) {
+            if (cp[t] == Instruction.JUMP.byteCode()) {
+                t = cp[t + 1];
+            } else {
+                t += 2;
+            }
+            steps++;
+        }
+        if (isUnconditional(cp[t])) {
+            t = -1;
+        }
+        return t;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from a decoded program; rewrites it into fused opcodes.
+     *
+     * @param dp
+     *            the decoded program
+     * @ensures <pre>
+     * this.decoded = dp  and
+     * [the fused opcodes of this walk dp like
+     *  BugsWorldVMInterpreter.nextPrimitiveInstructionAddress]
+     * </pre>
+     */
+    public FusedProgram(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        this.dp = dp;
+        int[] cp = dp.code();
+        int n = cp.length;
+        this.op = new byte[n];
+        this.onTrue = new int[n];
+        this.onFalse = new int[n];
+        this.mask = new byte[n];
+        this.budget = BugsWorldVMInterpreter.stepBudget(n);
+        for (int loc = 0; loc < n; loc++) {
+            if (dp.isInstructionStart(loc)) {
+                int instr = cp[loc];
+                if (BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(instr)) {
+                    this.op[loc] = OP_PRIMITIVE;
+                } else if (isUnconditional(instr)) {
+                    int t = thread(cp, loc);
+                    if (t < 0) {
+                        this.op[loc] = OP_STALL;
+                    } else if (BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(cp[t])) {
+                        this.op[loc] = OP_GOTO_PRIMITIVE;
+                    } else {
+                        this.op[loc] = OP_GOTO;
+                    }
+                    this.onTrue[loc] = t;
+                } else {
+                    byte fused = OP_TEST;
+                    if (instr == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+                        fused = OP_RANDOM;
+                    } else {
+                        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                                .values()) {
+                            if (BugsWorldVMInterpreter.conditionalJumpCondition(
+                                    wbs, instr,
+                                    BugsWorldVMInterpreter.DEFAULT_RANDOM)) {
+                                this.mask[loc] |= (byte) (1 << wbs.ordinal());
+                            }
+                        }
+                    }
+                    /*
+                     * A chain of unconditional jumps that cycles is left in
+                     * place: its first jump is an OP_STALL
+                     */
+                    int t = thread(cp, loc + 2);
+                    if (t < 0) {
+                        t = loc + 2;
+                    } else if (BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(cp[t])) {
+                        fused |= TRUE_IS_PRIMITIVE;
+                    }
+                    this.onTrue[loc] = t;
+                    int f = thread(cp, cp[loc + 1]);
+                    if (f < 0) {
+                        f = cp[loc + 1];
+                    } else if (BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(cp[f])) {
+                        fused |= FALSE_IS_PRIMITIVE;
+                    }
+                    this.onFalse[loc] = f;
+                    this.op[loc] = fused;
+                }
+            }
+        }
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the decoded program this was built from.
+     *
+     * @return the decoded program
+     * @ensures decoded = this.decoded
+     */
+    public DecodedProgram decoded() {
+        return this.dp;
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute given
+     * what the bug sees {@code wbs} and starting from location {@code pc}.
+     *
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in this.decoded.code given what the bug sees wbs
+     *  and starting execution at address pc]
+     * </pre>
+     */
+    public int nextPrimitiveInstructionAddress(
+            BugsWorldVMInterpreter.CellState wbs, int pc, RandomSource random) {
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert this.dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code";
+
+        int w = wbs.ordinal();
+        int loc = pc;
+        int result = -1;
+        int steps = this.budget;
+        while (result == -1) {
+            int fused = this.op[loc];
+            switch (fused) {
+                case OP_PRIMITIVE: {
+                    result = loc;
+                    break;
+                }
+                case OP_STALL: {
+                    result = BugsWorldVMInterpreter.STALLED;
+                    break;
+                }
+                case OP_GOTO: {
+                    loc = this.onTrue[loc];
+                    break;
+                }
+                case OP_GOTO_PRIMITIVE: {
+                    result = this.onTrue[loc];
+                    break;
+                }
+                default: {
+                    boolean holds;
+                    if (fused >= OP_RANDOM) {
+                        holds = random.nextBoolean();
+                    } else {
+                        holds = ((this.mask[loc] >> w) & 1) != 0;
+                    }
+                    int to;
+                    int primitiveFlag;
+                    if (holds) {
+                        to = this.onTrue[loc];
+                        primitiveFlag = TRUE_IS_PRIMITIVE;
+                    } else {
+                        to = this.onFalse[loc];
+                        primitiveFlag = FALSE_IS_PRIMITIVE;
+                    }
+                    if ((fused & primitiveFlag) != 0) {
+                        result = to;
+                    } else {
+                        loc = to;
+                    }
+                    break;
+                }
+            }
+            steps--;
+            if (result == -1 && steps == 0) {
+                result = BugsWorldVMInterpreter.STALLED;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@code nextPrimitiveInstructionAddress}, also recording each
+     * dispatch as a visit, and the number of dispatches after the first as
+     * the chain length, in {@code profile}.
+     *
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @param profile
+     *            the execution profile
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random, profile
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.decoded.code]
+     *  and [profile was created for this.decoded.length]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction, and record
+     *  the dispatches in profile]
+     * </pre>
+     */
+    public int nextPrimitiveInstructionAddress(
+            BugsWorldVMInterpreter.CellState wbs, int pc, RandomSource random,
+            ExecutionProfile profile) {
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert profile != null : "Violation of: profile is not null";
+        assert this.dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code";
+
+        return this.profiledWalk(wbs.ordinal(), pc, random, profile);
+    }
+
+    /**
+     * Walks the fused opcodes from {@code pc}, counting the walk in
+     * {@code profile}; the unprofiled walk is kept separate so it carries no
+     * profiling checks.
+     *
+     * @param w
+     *            the ordinal of what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @param profile
+     *            the execution profile
+     * @return the location of the next primitive instruction, or
+     *         {@code STALLED}
+     * @updates random, profile
+     */
+    private int profiledWalk(int w, int pc, RandomSource random,
+            ExecutionProfile profile) {
+        final int walking = -1;
+        int loc = pc;
+        int result = walking;
+        int steps = this.budget;
+        int dispatches = 0;
+        while (result == walking) {
+            profile.visit(loc);
+            dispatches++;
+            int fused = this.op[loc];
+            switch (fused) {
+                case OP_PRIMITIVE: {
+                    result = loc;
+                    break;
+                }
+                case OP_STALL: {
+                    result = BugsWorldVMInterpreter.STALLED;
+                    break;
+                }
+                case OP_GOTO: {
+                    loc = this.onTrue[loc];
+                    break;
+                }
+                case OP_GOTO_PRIMITIVE: {
+                    result = this.onTrue[loc];
+                    break;
+                }
+                default: {
+                    boolean holds;
+                    if (fused >= OP_RANDOM) {
+                        holds = random.nextBoolean();
+                    } else {
+                        holds = ((this.mask[loc] >> w) & 1) != 0;
+                    }
+                    if (holds) {
+                        if ((fused & TRUE_IS_PRIMITIVE) != 0) {
+                            result = this.onTrue[loc];
+                        } else {
+                            loc = this.onTrue[loc];
+                        }
+                    } else {
+                        profile.jumped(loc);
+                        if ((fused & FALSE_IS_PRIMITIVE) != 0) {
+                            result = this.onFalse[loc];
+                        } else {
+                            loc = this.onFalse[loc];
+                        }
+                    }
+                    break;
+                }
+            }
+            steps--;
+            if (result == walking && steps == 0) {
+                result = BugsWorldVMInterpreter.STALLED;
+            }
+        }
+        profile.decided(dispatches - 1);
+        return result;
+    }
+
+    /**
+     * Returns the number of dispatches of the fused walk recorded in
+     * {@code profile} per decision.
+     *
+     * @param profile
+     *            the profile
+     * @param length
+     *            the length of the profiled program
+     * @return the mean number of dispatches per decision
+     */
+    private static double dispatchesPerDecision(ExecutionProfile profile,
+            int length) {
+        long visits = 0;
+        for (int loc = 0; loc < length; loc++) {
+            visits += profile.visits(loc);
+        }
+        return (double) visits / Math.max(profile.decisions(), 1);
+    }
+
+    /**
+     * Runs {@code decisions} decisions of {@code dp} in random states,
+     * stepping past each primitive as a bug would, and returns the time per
+     * decision in nanoseconds.
+     *
+     * @param dp
+     *            the decoded program
+     * @param fp
+     *            the fused program, or null to use
+     *            {@code BugsWorldVMInterpreter}
+     * @param profile
+     *            the profile to record in, or null not to profile
+     * @param decisions
+     *            the number of decisions
+     * @param seed
+     *            the seed of the states and random conditions
+     * @return the time per decision in nanoseconds
+     * @updates profile
+     */
+    private static double run(DecodedProgram dp, FusedProgram fp,
+            ExecutionProfile profile, int decisions, long seed) {
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        SplittableRandom world = new SplittableRandom(seed);
+        RandomSource random = new SplitMixRandomSource(seed);
+        int pc = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < decisions; i++) {
+            BugsWorldVMInterpreter.CellState wbs = states[world
+                    .nextInt(states.length)];
+            int next;
+            if (fp == null && profile == null) {
+                next = BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                        dp, wbs, pc, random);
+            } else if (fp == null) {
+                next = BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                        dp, wbs, pc, random, profile);
+            } else if (profile == null) {
+                next = fp.nextPrimitiveInstructionAddress(wbs, pc, random);
+            } else {
+                next = fp.nextPrimitiveInstructionAddress(wbs, pc, random,
+                        profile);
+            }
+            if (next != BugsWorldVMInterpreter.STALLED) {
+                pc = next;
+                if (dp.byteCode(pc) != Instruction.HALT.byteCode()) {
+                    pc++;
+                }
+            }
+        }
+        return (double) (System.nanoTime() - start) / decisions;
+    }
+
+    /**
+     * Main method: for each program of a corpus, compares the dispatches per
+     * decision and the time per decision of
+     * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress} and of
+     * the fused opcodes.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        List<String> corpus = new ArrayList<>();
+        out.println("Enter compiled BL program file names, one per line "
+                + "(empty line to finish):");
+        String fileName = in.nextLine();
+        while (fileName.length() > 0) {
+            corpus.add(fileName);
+            fileName = in.nextLine();
+        }
+
+        final int decisions = 2_000_000;
+        final long seed = 2231;
+        final int rounds = 5;
+        out.println(String.format("%-24s %12s %12s %10s %10s", "program",
+                "dispatches", "fused", "ns", "fused ns"));
+        for (String name : corpus) {
+            DecodedProgram dp = new DecodedProgram(
+                    BugsWorldVMInterpreter.loadProgram(name));
+            FusedProgram fp = new FusedProgram(dp);
+            ExecutionProfile plain = new ExecutionProfile(dp.length());
+            ExecutionProfile fused = new ExecutionProfile(dp.length());
+            run(dp, null, plain, decisions, seed);
+            run(dp, fp, fused, decisions, seed);
+            /*
+             * Alternate the timed runs and keep the best of each
+             */
+            double plainTime = Double.MAX_VALUE;
+            double fusedTime = Double.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                plainTime = Math.min(plainTime,
+                        run(dp, null, null, decisions, seed));
+                fusedTime = Math.min(fusedTime,
+                        run(dp, fp, null, decisions, seed));
+            }
+            out.println(String.format("%-24s %12.2f %12.2f %10.1f %10.1f",
+                    name, dispatchesPerDecision(plain, dp.length()),
+                    dispatchesPerDecision(fused, dp.length()), plainTime,
+                    fusedTime));
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
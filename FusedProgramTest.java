@@ -0,0 +1,157 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code FusedProgram}, using
+ * {@code BugsWorldVMInterpreter} as the reference.
+ */
+public class FusedProgramTest {
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN move
+     *   ELSE IF next-is-wall THEN turnleft ELSE infect END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     */
+    private static final int[] NESTED = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 16,
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.JUMP_IF_NOT_NEXT_IS_WALL.byteCode(), 12,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.INFECT.byteCode(), Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for {@code WHILE true DO END WHILE}.
+     */
+    private static final int[] EMPTY_LOOP = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Asserts that fused {@code cp} decides like the interpreter from every
+     * instruction in every state, drawing the same random conditions.
+     *
+     * @param cp
+     *            the compiled program
+     */
+    private static void assertAgreesWithInterpreter(int[] cp) {
+        final long seed = 2231;
+        DecodedProgram dp = new DecodedProgram(cp);
+        FusedProgram fp = new FusedProgram(dp);
+        RandomSource expectedRandom = new SplitMixRandomSource(seed);
+        RandomSource actualRandom = new SplitMixRandomSource(seed);
+        for (int pc = 0; pc < cp.length; pc++) {
+            if (dp.isInstructionStart(pc)) {
+                for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                        .values()) {
+                    assertEquals("pc " + pc + " " + wbs,
+                            BugsWorldVMInterpreter
+                                    .nextPrimitiveInstructionAddress(cp, wbs,
+                                            pc, expectedRandom),
+                            fp.nextPrimitiveInstructionAddress(wbs, pc,
+                                    actualRandom));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a compiled program of {@code blocks} random {@code IF} and
+     * {@code WHILE true} blocks followed by a jump back to the start.
+     *
+     * @param blocks
+     *            the number of blocks
+     * @param seed
+     *            the seed of the generator
+     * @return the compiled program
+     */
+    private static int[] randomProgram(int blocks, long seed) {
+        final int blockLength = 6;
+        final int firstCondition = Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY
+                .byteCode();
+        final int conditions = Instruction.JUMP_IF_NOT_TRUE.byteCode()
+                - firstCondition + 1;
+        final int primitives = Instruction.HALT.byteCode();
+        SplittableRandom r = new SplittableRandom(seed);
+        int[] cp = new int[blocks * blockLength + 3];
+        int loc = 0;
+        for (int i = 0; i < blocks; i++) {
+            cp[loc] = firstCondition + r.nextInt(conditions);
+            cp[loc + 1] = loc + 5;
+            cp[loc + 2] = r.nextInt(primitives);
+            cp[loc + 3] = Instruction.JUMP.byteCode();
+            if (r.nextBoolean()) {
+                /* IF c THEN p1 ELSE p2 END IF */
+                cp[loc + 4] = loc + blockLength;
+            } else {
+                /* WHILE c DO p1 END WHILE  p2 */
+                cp[loc + 4] = loc;
+            }
+            cp[loc + 5] = r.nextInt(primitives);
+            loc += blockLength;
+        }
+        cp[loc] = Instruction.JUMP.byteCode();
+        cp[loc + 1] = 0;
+        cp[loc + 2] = Instruction.HALT.byteCode();
+        return cp;
+    }
+
+    @Test
+    public void testNestedAgreesWithInterpreter() {
+        assertAgreesWithInterpreter(NESTED);
+    }
+
+    @Test
+    public void testRandomProgramsAgreeWithInterpreter() {
+        final int programs = 50;
+        final int blocks = 20;
+        for (int i = 0; i < programs; i++) {
+            assertAgreesWithInterpreter(randomProgram(blocks, i));
+        }
+    }
+
+    @Test
+    public void testFewerDispatches() {
+        DecodedProgram dp = new DecodedProgram(NESTED);
+        FusedProgram fp = new FusedProgram(dp);
+        ExecutionProfile plain = new ExecutionProfile(dp.length());
+        ExecutionProfile fused = new ExecutionProfile(dp.length());
+        /*
+         * From the loop back-edge: JUMP, JUMP_IF_NOT_TRUE, the test and MOVE
+         * are four dispatches; fused, the back-edge goes straight to the
+         * test, which returns MOVE
+         */
+        BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(dp,
+                BugsWorldVMInterpreter.CellState.EMPTY, 14,
+                BugsWorldVMInterpreter.DEFAULT_RANDOM, plain);
+        assertEquals(4, fp.nextPrimitiveInstructionAddress(
+                BugsWorldVMInterpreter.CellState.EMPTY, 14,
+                BugsWorldVMInterpreter.DEFAULT_RANDOM, fused));
+        assertEquals(3, plain.longestChain());
+        assertEquals(1, fused.longestChain());
+        assertTrue(fused.visits(14) == 1 && fused.visits(2) == 1);
+    }
+
+    @Test
+    public void testUnconditionalCycleStalls() {
+        FusedProgram fp = new FusedProgram(new DecodedProgram(EMPTY_LOOP));
+        assertEquals(BugsWorldVMInterpreter.STALLED,
+                fp.nextPrimitiveInstructionAddress(
+                        BugsWorldVMInterpreter.CellState.WALL, 0,
+                        BugsWorldVMInterpreter.DEFAULT_RANDOM));
+        assertAgreesWithInterpreter(EMPTY_LOOP);
+    }
+
+}
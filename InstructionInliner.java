@@ -0,0 +1,439 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import components.map.Map;
+import components.program.Program;
+import components.program.Program1;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.statement.StatementKernel.Condition;
+import components.statement.StatementKernel.Kind;
+
+/**
+ * Inline expansion of user-defined instructions of a BL {@code Program}: every
+ * call of a user instruction that does not call itself, directly or
+ * indirectly, is replaced by the statements of its body, as long as the
+ * program stays within a size budget; then the instructions no longer called
+ * from the body are removed from the context.
+ * <p>
+ * Instructions are expanded callees first, so the body copied at a call site
+ * has already had its own calls expanded, and each call site is visited once.
+ * The size of a program is its number of statements other than blocks,
+ * counting the body and the body of every instruction in the context. The
+ * program means the same before and after, and {@code generatedCode} is
+ * unchanged; all statements are walked with explicit stacks, so nesting of any
+ * depth is fine.
+ */
+public final class InstructionInliner {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private InstructionInliner() {
+        // no code needed here
+    }
+
+    /**
+     * A statement being walked: taken apart, with its children held here
+     * until it is put back together.
+     */
+    private static final class Frame {
+
+        /**
+         * The statement, taken apart unless it is a CALL.
+         */
+        private final Statement s;
+
+        /**
+         * Its kind.
+         */
+        private final Kind kind;
+
+        /**
+         * Its condition, if it is an IF, IF_ELSE, or WHILE.
+         */
+        private Condition c;
+
+        /**
+         * Its name, if it is a CALL.
+         */
+        private String name;
+
+        /**
+         * Its children, in order.
+         */
+        private final List<Statement> children = new ArrayList<>();
+
+        /**
+         * Number of children walked so far.
+         */
+        private int next;
+
+        /**
+         * Copies of its children walked, when copying.
+         */
+        private final List<Statement> copies = new ArrayList<>();
+
+        /**
+         * Constructor; takes {@code s} apart.
+         *
+         * @param s
+         *            the statement
+         */
+        Frame(Statement s) {
+            this.s = s;
+            this.kind = s.kind();
+            switch (this.kind) {
+                case BLOCK: {
+                    while (s.lengthOfBlock() > 0) {
+                        this.children.add(s.removeFromBlock(0));
+                    }
+                    break;
+                }
+                case IF: {
+                    Statement block = s.newInstance();
+                    this.c = s.disassembleIf(block);
+                    this.children.add(block);
+                    break;
+                }
+                case IF_ELSE: {
+                    Statement block1 = s.newInstance();
+                    Statement block2 = s.newInstance();
+                    this.c = s.disassembleIfElse(block1, block2);
+                    this.children.add(block1);
+                    this.children.add(block2);
+                    break;
+                }
+                case WHILE: {
+                    Statement block = s.newInstance();
+                    this.c = s.disassembleWhile(block);
+                    this.children.add(block);
+                    break;
+                }
+                default: {
+                    this.name = s.disassembleCall();
+                    s.assembleCall(this.name);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Assembles into {@code t} the statement taken apart, with children
+         * {@code blocks}.
+         *
+         * @param t
+         *            the statement assembled
+         * @param blocks
+         *            the children
+         * @replaces t
+         */
+        void assemble(Statement t, List<Statement> blocks) {
+            switch (this.kind) {
+                case BLOCK: {
+                    for (Statement child : blocks) {
+                        t.addToBlock(t.lengthOfBlock(), child);
+                    }
+                    break;
+                }
+                case IF: {
+                    t.assembleIf(this.c, blocks.get(0));
+                    break;
+                }
+                case IF_ELSE: {
+                    t.assembleIfElse(this.c, blocks.get(0), blocks.get(1));
+                    break;
+                }
+                case WHILE: {
+                    t.assembleWhile(this.c, blocks.get(0));
+                    break;
+                }
+                default: {
+                    t.assembleCall(this.name);
+                    break;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Walks {@code s} in preorder, passing every statement to {@code visit}
+     * before its children, and returns a copy of {@code s} as it is after the
+     * walk if {@code copying}.
+     *
+     * @param s
+     *            the statement
+     * @param visit
+     *            the action on each statement; it may change the statement
+     *            passed, which is whole at that point
+     * @param copying
+     *            whether to copy s
+     * @return the copy of s, or null if not copying
+     * @updates s
+     */
+    private static Statement walk(Statement s, Consumer<Statement> visit,
+            boolean copying) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        visit.accept(s);
+        stack.push(new Frame(s));
+        Statement result = null;
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            if (f.next < f.children.size()) {
+                Statement child = f.children.get(f.next);
+                f.next++;
+                visit.accept(child);
+                stack.push(new Frame(child));
+            } else {
+                stack.pop();
+                f.assemble(f.s, f.children);
+                if (copying) {
+                    Statement copy = f.s.newInstance();
+                    f.assemble(copy, f.copies);
+                    if (stack.isEmpty()) {
+                        result = copy;
+                    } else {
+                        stack.peek().copies.add(copy);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports the number of statements in {@code s} other than blocks.
+     *
+     * @param s
+     *            the statement
+     * @return the number of statements
+     */
+    private static int size(Statement s) {
+        int[] result = { 0 };
+        walk(s, t -> {
+            if (t.kind() != Kind.BLOCK) {
+                result[0]++;
+            }
+        }, false);
+        return result[0];
+    }
+
+    /**
+     * Returns the names of the user instructions in {@code context} called
+     * in {@code s}.
+     *
+     * @param s
+     *            the statement
+     * @param context
+     *            the user instructions
+     * @return the names called
+     */
+    private static Set<String> calls(Statement s,
+            Map<String, Statement> context) {
+        Set<String> result = new HashSet<>();
+        walk(s, t -> {
+            if (t.kind() == Kind.CALL) {
+                String name = t.disassembleCall();
+                t.assembleCall(name);
+                if (context.hasKey(name)) {
+                    result.add(name);
+                }
+            }
+        }, false);
+        return result;
+    }
+
+    /**
+     * Returns the user instructions of {@code context} that do not call
+     * themselves, directly or indirectly, nor any instruction that does,
+     * with every instruction after all the instructions it calls.
+     *
+     * @param context
+     *            the user instructions
+     * @param callees
+     *            the names called by each instruction
+     * @return the instructions that can be expanded, callees first
+     */
+    private static List<String> calleesFirst(Map<String, Statement> context,
+            java.util.Map<String, Set<String>> callees) {
+        java.util.Map<String, Integer> waiting = new HashMap<>();
+        java.util.Map<String, List<String>> callers = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (Map.Pair<String, Statement> pair : context) {
+            String name = pair.key();
+            waiting.put(name, callees.get(name).size());
+            if (callees.get(name).isEmpty()) {
+                ready.add(name);
+            }
+            for (String callee : callees.get(name)) {
+                callers.computeIfAbsent(callee, k -> new ArrayList<>())
+                        .add(name);
+            }
+        }
+        List<String> result = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            result.add(name);
+            for (String caller : callers.getOrDefault(name,
+                    new ArrayList<>())) {
+                int n = waiting.get(caller) - 1;
+                waiting.put(caller, n);
+                if (n == 0) {
+                    ready.add(caller);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inline expands the user instructions of {@code p}, as many calls as
+     * fit in {@code budget} statements, and removes the instructions no
+     * longer called.
+     *
+     * @param p
+     *            the program
+     * @param budget
+     *            the largest number of statements other than blocks that p
+     *            may have while calls are expanded, counting p.body and the
+     *            bodies of all instructions in p.context
+     * @return the number of calls expanded
+     * @updates p
+     * @ensures <pre>
+     * p.name = #p.name  and  p.generatedCode = #p.generatedCode  and
+     *  [p.body and the bodies in p.context are those of #p with calls of
+     *  instructions that do not call themselves replaced by their bodies
+     *  while the size of p is at most budget]  and
+     *  [p.context has only the instructions of #p.context called in p]
+     * </pre>
+     */
+    public static int inline(Program p, int budget) {
+        assert p != null : "Violation of: p is not null";
+
+        Map<String, Statement> context = p.newContext();
+        Statement body = p.newBody();
+        p.swapContext(context);
+        p.swapBody(body);
+
+        java.util.Map<String, Set<String>> callees = new HashMap<>();
+        java.util.Map<String, Integer> sizes = new HashMap<>();
+        int total = size(body);
+        for (Map.Pair<String, Statement> pair : context) {
+            callees.put(pair.key(), calls(pair.value(), context));
+            int n = size(pair.value());
+            sizes.put(pair.key(), n);
+            total += n;
+        }
+        List<String> order = calleesFirst(context, callees);
+        Set<String> expandable = new HashSet<>(order);
+
+        /*
+         * Expands calls in one block at a time; the statements spliced in
+         * are walked afterwards like the rest, but have already been expanded
+         */
+        int[] state = { total, 0 };
+        Consumer<Statement> expand = t -> {
+            if (t.kind() == Kind.BLOCK) {
+                int i = 0;
+                while (i < t.lengthOfBlock()) {
+                    Statement child = t.removeFromBlock(i);
+                    String name = null;
+                    if (child.kind() == Kind.CALL) {
+                        name = child.disassembleCall();
+                        child.assembleCall(name);
+                    }
+                    if (name != null && expandable.contains(name)
+                            && state[0] + sizes.get(name) - 1 <= budget) {
+                        Statement copy = walk(context.value(name),
+                                s -> {
+                                }, true);
+                        int n = copy.lengthOfBlock();
+                        for (int j = 0; j < n; j++) {
+                            t.addToBlock(i + j, copy.removeFromBlock(0));
+                        }
+                        i += n;
+                        state[0] += sizes.get(name) - 1;
+                        state[1]++;
+                    } else {
+                        t.addToBlock(i, child);
+                        i++;
+                    }
+                }
+            }
+        };
+        for (String name : order) {
+            walk(context.value(name), expand, false);
+            sizes.put(name, size(context.value(name)));
+        }
+        walk(body, expand, false);
+
+        /*
+         * Prunes the instructions not reachable from the body
+         */
+        Set<String> called = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(calls(body, context));
+        while (!work.isEmpty()) {
+            String name = work.poll();
+            if (called.add(name)) {
+                work.addAll(calls(context.value(name), context));
+            }
+        }
+        List<String> unused = new ArrayList<>();
+        for (Map.Pair<String, Statement> pair : context) {
+            if (!called.contains(pair.key())) {
+                unused.add(pair.key());
+            }
+        }
+        for (String name : unused) {
+            context.remove(name);
+        }
+
+        p.swapBody(body);
+        p.swapContext(context);
+        return state[1];
+    }
+
+    /**
+     * Main method: inline expands the instructions of a BL program and pretty
+     * prints the result.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter valid BL program file name: ");
+        String fileName = in.nextLine();
+        int budget = BugsWorldBenchmark.getPositiveInteger(in, out,
+                "Enter size budget (statements): ");
+        Program p = new Program1();
+        SimpleReader file = new SimpleReader1L(fileName);
+        p.parse(file);
+        file.close();
+
+        int[] before = p.generatedCode();
+        int expanded = inline(p, budget);
+        out.println("*** Expanded " + expanded + " calls ***");
+        p.prettyPrint(out);
+        if (!Arrays.equals(before, p.generatedCode())) {
+            out.println("*** GENERATED CODE CHANGED ***");
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
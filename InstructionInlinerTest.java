@@ -0,0 +1,151 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.program.Program;
+import components.program.Program1;
+import components.statement.Statement;
+import components.statement.Statement1;
+import components.statement.StatementKernel.Condition;
+
+/**
+ * JUnit test fixture for {@code InstructionInliner}.
+ */
+public class InstructionInlinerTest {
+
+    /**
+     * Returns a BLOCK of calls of {@code names}.
+     *
+     * @param names
+     *            the names called
+     * @return the block
+     */
+    private static Statement calls(String... names) {
+        Statement block = new Statement1();
+        for (String name : names) {
+            Statement call = new Statement1();
+            call.assembleCall(name);
+            block.addToBlock(block.lengthOfBlock(), call);
+        }
+        return block;
+    }
+
+    /**
+     * Returns a program with instructions {@code names} having bodies
+     * {@code bodies} and body {@code body}.
+     *
+     * @param body
+     *            the program body
+     * @param names
+     *            the instruction names
+     * @param bodies
+     *            the instruction bodies
+     * @return the program
+     */
+    private static Program program(Statement body, String[] names,
+            Statement[] bodies) {
+        Program p = new Program1();
+        Map<String, Statement> context = p.newContext();
+        for (int i = 0; i < names.length; i++) {
+            context.add(names[i], bodies[i]);
+        }
+        p.swapContext(context);
+        p.swapBody(body);
+        return p;
+    }
+
+    /**
+     * Returns the program
+     *
+     * <pre>
+     * INSTRUCTION two IS turnleft turnleft END two
+     * INSTRUCTION back IS two two END back
+     * INSTRUCTION unused IS move END unused
+     * BEGIN
+     *   WHILE true DO
+     *     IF next-is-empty THEN move ELSE back END IF
+     *     two
+     *   END WHILE
+     * END
+     * </pre>
+     *
+     * @return the program
+     */
+    private static Program sample() {
+        Statement ifElse = new Statement1();
+        ifElse.assembleIfElse(Condition.NEXT_IS_EMPTY, calls("move"),
+                calls("back"));
+        Statement loopBody = calls("two");
+        loopBody.addToBlock(0, ifElse);
+        Statement loop = new Statement1();
+        loop.assembleWhile(Condition.TRUE, loopBody);
+        Statement body = new Statement1();
+        body.addToBlock(0, loop);
+        return program(body, new String[] { "two", "back", "unused" },
+                new Statement[] { calls("turnleft", "turnleft"),
+                        calls("two", "two"), calls("move") });
+    }
+
+    /**
+     * Returns the context of {@code p}, removed from it.
+     *
+     * @param p
+     *            the program
+     * @return the context
+     */
+    private static Map<String, Statement> context(Program p) {
+        Map<String, Statement> context = p.newContext();
+        p.swapContext(context);
+        return context;
+    }
+
+    @Test
+    public void testExpandAll() {
+        final int budget = 100;
+        Program p = sample();
+        int[] before = p.generatedCode();
+        assertEquals(2 + 2, InstructionInliner.inline(p, budget));
+        assertArrayEquals(before, p.generatedCode());
+        assertEquals(0, context(p).size());
+        Statement body = p.newBody();
+        p.swapBody(body);
+        assertEquals(1, body.lengthOfBlock());
+        Statement loop = body.removeFromBlock(0);
+        Statement loopBody = body.newInstance();
+        loop.disassembleWhile(loopBody);
+        final int expandedLength = 3;
+        assertEquals(expandedLength, loopBody.lengthOfBlock());
+    }
+
+    @Test
+    public void testBudget() {
+        /*
+         * sample has 10 statements; expanding two in back adds 1 each, back
+         * in the body 3, two in the body 1
+         */
+        final int budget = 12;
+        Program p = sample();
+        int[] before = p.generatedCode();
+        assertEquals(2, InstructionInliner.inline(p, budget));
+        assertArrayEquals(before, p.generatedCode());
+        Map<String, Statement> context = context(p);
+        assertEquals(2, context.size());
+        assertTrue(context.hasKey("back") && context.hasKey("two"));
+    }
+
+    @Test
+    public void testRecursionKept() {
+        final int budget = 100;
+        Program p = program(calls("a", "c"), new String[] { "a", "b", "c" },
+                new Statement[] { calls("move", "b"), calls("a"),
+                        calls("skip") });
+        assertEquals(1, InstructionInliner.inline(p, budget));
+        Map<String, Statement> context = context(p);
+        assertEquals(2, context.size());
+        assertTrue(context.hasKey("a") && context.hasKey("b"));
+    }
+
+}
@@ -0,0 +1,343 @@
+import java.util.Arrays;
+
+import components.program.Program.Instruction;
+import components.utilities.Reporter;
+
+/**
+ * Load-time analysis of the cycles made only of jumps in a compiled BL
+ * program. For each {@code CellState} the jumps of a program form a graph in
+ * which a sensing jump has one successor, {@code JUMP} and
+ * {@code JUMP_IF_NOT_TRUE} have one, and {@code JUMP_IF_NOT_RANDOM} has two.
+ * Walks start at address 0 and just after each primitive instruction. A jump
+ * that a walk can arrive at in that graph, but from which no primitive
+ * instruction can be reached, is <i>trapped</i>: a walk arriving there never
+ * ends, whatever the random source does. A cycle that passes through a
+ * random jump but can still reach a primitive ends with probability 1, but
+ * not within any fixed number of steps; the step budget of the walks in
+ * {@code BugsWorldVMInterpreter}, {@code ResolvedProgram} and
+ * {@code JvmCompiledProgram} bounds those.
+ */
+public final class JumpCycles {
+
+    /**
+     * Number of {@code CellState} values.
+     */
+    private static final int STATES = BugsWorldVMInterpreter.CellState
+            .values().length;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private JumpCycles() {
+        // no code needed here
+    }
+
+    /**
+     * Returns the successors of the jump at {@code loc} when the bug sees
+     * {@code wbs}, -1 standing for no successor.
+     *
+     * @param cp
+     *            the compiled program
+     * @param loc
+     *            the location of a jump
+     * @param wbs
+     *            what the bug sees
+     * @param successors
+     *            receives the (up to two) successors
+     * @replaces successors
+     */
+    private static void successors(int[] cp, int loc,
+            BugsWorldVMInterpreter.CellState wbs, int[] successors) {
+        int instr = cp[loc];
+        int target = cp[loc + 1];
+        int fallThrough = loc + 2;
+        if (fallThrough >= cp.length) {
+            fallThrough = -1;
+        }
+        successors[1] = -1;
+        if (instr == Instruction.JUMP.byteCode()) {
+            successors[0] = target;
+        } else if (instr == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+            successors[0] = fallThrough;
+            successors[1] = target;
+        } else if (BugsWorldVMInterpreter.conditionalJumpCondition(wbs, instr,
+                BugsWorldVMInterpreter.DEFAULT_RANDOM)) {
+            successors[0] = fallThrough;
+        } else {
+            successors[0] = target;
+        }
+    }
+
+    /**
+     * Reports whether a walk of {@code dp} can start at {@code loc}, that is,
+     * whether {@code loc} is 0 or just after a primitive instruction.
+     *
+     * @param dp
+     *            the decoded program
+     * @param loc
+     *            the location
+     * @return true iff a walk can start at loc
+     * @requires 0 <= loc < dp.length
+     */
+    private static boolean isEntry(DecodedProgram dp, int loc) {
+        return loc == 0 || (dp.isInstructionStart(loc - 1)
+                && BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(dp.byteCode(loc - 1)));
+    }
+
+    /**
+     * Marks in {@code reached} every location a walk of {@code dp} can arrive
+     * at when the bug sees {@code wbs}, following jumps from the entries
+     * until a primitive instruction.
+     *
+     * @param dp
+     *            the decoded program
+     * @param wbs
+     *            what the bug sees
+     * @param reached
+     *            receives the locations reached
+     * @param work
+     *            scratch space of at least dp.length entries
+     * @replaces reached, work
+     * @requires |reached| = dp.length
+     */
+    private static void reachable(DecodedProgram dp,
+            BugsWorldVMInterpreter.CellState wbs, boolean[] reached,
+            int[] work) {
+        int[] cp = dp.code();
+        int[] succ = new int[2];
+        Arrays.fill(reached, false);
+        int top = 0;
+        for (int loc = 0; loc < cp.length; loc++) {
+            if (isEntry(dp, loc)) {
+                reached[loc] = true;
+                work[top] = loc;
+                top++;
+            }
+        }
+        while (top > 0) {
+            top--;
+            int loc = work[top];
+            if (!BugsWorldVMInterpreter
+                    .isPrimitiveInstructionByteCode(cp[loc])) {
+                successors(cp, loc, wbs, succ);
+                for (int s : succ) {
+                    if (s >= 0 && !reached[s]) {
+                        reached[s] = true;
+                        work[top] = s;
+                        top++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns, for every location of {@code dp}, the mask of
+     * {@code CellState} ordinals in which the instruction there is a trapped
+     * jump.
+     *
+     * @param dp
+     *            the decoded program
+     * @return the trapped state masks, by location
+     * @ensures <pre>
+     * [bit w of trappedStates[loc] is set iff loc is the location of a jump
+     *  that a walk can arrive at, and from which no primitive instruction is
+     *  reachable, when the bug sees CellState.values()[w]]
+     * </pre>
+     */
+    public static int[] trappedStates(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        int[] cp = dp.code();
+        int n = cp.length;
+        int[] result = new int[n];
+        int[] succ = new int[2];
+        int[] predecessorCount = new int[n + 1];
+        int[] predecessors = new int[2 * n];
+        int[] work = new int[n];
+        boolean[] reaches = new boolean[n];
+        boolean[] reached = new boolean[n];
+        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                .values()) {
+            /*
+             * Reverse edges in compressed rows, then search backwards from
+             * the primitives
+             */
+            Arrays.fill(predecessorCount, 0);
+            for (int loc = 0; loc < n; loc++) {
+                if (dp.isInstructionStart(loc) && !BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(cp[loc])) {
+                    successors(cp, loc, wbs, succ);
+                    for (int s : succ) {
+                        if (s >= 0) {
+                            predecessorCount[s + 1]++;
+                        }
+                    }
+                }
+            }
+            for (int loc = 0; loc < n; loc++) {
+                predecessorCount[loc + 1] += predecessorCount[loc];
+            }
+            int[] fill = Arrays.copyOf(predecessorCount, n);
+            for (int loc = 0; loc < n; loc++) {
+                if (dp.isInstructionStart(loc) && !BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(cp[loc])) {
+                    successors(cp, loc, wbs, succ);
+                    for (int s : succ) {
+                        if (s >= 0) {
+                            predecessors[fill[s]] = loc;
+                            fill[s]++;
+                        }
+                    }
+                }
+            }
+            Arrays.fill(reaches, false);
+            int top = 0;
+            for (int loc = 0; loc < n; loc++) {
+                if (dp.isInstructionStart(loc) && BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(cp[loc])) {
+                    reaches[loc] = true;
+                    work[top] = loc;
+                    top++;
+                }
+            }
+            while (top > 0) {
+                top--;
+                int loc = work[top];
+                for (int i = predecessorCount[loc]; i < predecessorCount[loc
+                        + 1]; i++) {
+                    int p = predecessors[i];
+                    if (!reaches[p]) {
+                        reaches[p] = true;
+                        work[top] = p;
+                        top++;
+                    }
+                }
+            }
+            /*
+             * Only jumps some walk arrives at are trapped
+             */
+            reachable(dp, wbs, reached, work);
+            for (int loc = 0; loc < n; loc++) {
+                if (reached[loc] && !reaches[loc]) {
+                    result[loc] |= 1 << wbs.ordinal();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether {@code dp} has a cycle of jumps, under some
+     * {@code CellState}, that can be walked repeatedly before a primitive is
+     * reached. Every such cycle that is not trapped passes through a
+     * {@code JUMP_IF_NOT_RANDOM}.
+     *
+     * @param dp
+     *            the decoded program
+     * @return true iff a walk of dp can revisit a jump
+     * @ensures <pre>
+     * hasJumpCycle = [some CellState has a cycle in the jump graph of dp
+     *  that a walk can arrive at]
+     * </pre>
+     */
+    public static boolean hasJumpCycle(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        final int unvisited = 0;
+        final int onStack = 1;
+        final int done = 2;
+        int[] cp = dp.code();
+        int n = cp.length;
+        int[] color = new int[n];
+        int[] stack = new int[n];
+        int[] nextEdge = new int[n];
+        int[] succ = new int[2];
+        boolean found = false;
+        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                .values()) {
+            Arrays.fill(color, unvisited);
+            for (int root = 0; root < n && !found; root++) {
+                if (isEntry(dp, root) && color[root] == unvisited
+                        && !BugsWorldVMInterpreter
+                                .isPrimitiveInstructionByteCode(cp[root])) {
+                    /*
+                     * Iterative depth-first search; a successor on the stack
+                     * closes a cycle
+                     */
+                    int top = 0;
+                    stack[top] = root;
+                    nextEdge[top] = 0;
+                    color[root] = onStack;
+                    top++;
+                    while (top > 0 && !found) {
+                        int loc = stack[top - 1];
+                        successors(cp, loc, wbs, succ);
+                        int edge = nextEdge[top - 1];
+                        if (edge < 2) {
+                            nextEdge[top - 1]++;
+                            int s = succ[edge];
+                            if (s >= 0 && !BugsWorldVMInterpreter
+                                    .isPrimitiveInstructionByteCode(cp[s])) {
+                                if (color[s] == onStack) {
+                                    found = true;
+                                } else if (color[s] == unvisited) {
+                                    color[s] = onStack;
+                                    stack[top] = s;
+                                    nextEdge[top] = 0;
+                                    top++;
+                                }
+                            }
+                        } else {
+                            color[loc] = done;
+                            top--;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rejects {@code cp} if it has a trapped jump, reporting the first one
+     * and the states in which it is trapped.
+     *
+     * @param cp
+     *            the compiled program
+     * @param name
+     *            the name of the program, for the error message
+     * @ensures <pre>
+     * if [cp has a trapped jump] then
+     *  [reports an appropriate error message to the console and terminates
+     *   client]
+     * </pre>
+     */
+    public static void check(int[] cp, String name) {
+        assert cp != null : "Violation of: cp is not null";
+        assert name != null : "Violation of: name is not null";
+
+        int[] trapped = trappedStates(new DecodedProgram(cp));
+        int loc = 0;
+        while (loc < trapped.length && trapped[loc] == 0) {
+            loc++;
+        }
+        if (loc < trapped.length) {
+            StringBuilder states = new StringBuilder();
+            for (int w = 0; w < STATES; w++) {
+                if ((trapped[loc] & (1 << w)) != 0) {
+                    if (states.length() > 0) {
+                        states.append(", ");
+                    }
+                    states.append(BugsWorldVMInterpreter.CellState.values()[w]);
+                }
+            }
+            Reporter.fatalErrorToConsole("ERROR: " + name
+                    + ": the jumps from address " + loc
+                    + " cycle without reaching a primitive instruction when"
+                    + " the bug sees " + states);
+        }
+    }
+
+}
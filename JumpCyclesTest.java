@@ -0,0 +1,126 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code JumpCycles}.
+ */
+public class JumpCyclesTest {
+
+    /**
+     * Compiled program for {@code WHILE true DO END WHILE}.
+     */
+    private static final int[] EMPTY_LOOP = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO END WHILE  move} in a loop.
+     */
+    private static final int[] SENSING_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for {@code WHILE random DO END WHILE  move} in a loop.
+     */
+    private static final int[] RANDOM_LOOP = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code IF next-is-empty THEN WHILE next-is-enemy DO END WHILE END IF
+     * move}; the empty loop is trapped when the bug sees ENEMY, but no walk
+     * seeing ENEMY gets past the IF.
+     */
+    private static final int[] GUARDED_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 6,
+            Instruction.JUMP_IF_NOT_NEXT_IS_ENEMY.byteCode(), 6,
+            Instruction.JUMP.byteCode(), 2, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0 };
+
+    /**
+     * Mask of all {@code CellState} ordinals.
+     */
+    private static final int ALL_STATES = (1 << BugsWorldVMInterpreter.CellState
+            .values().length) - 1;
+
+    @Test
+    public void testEmptyLoopTrappedInEveryState() {
+        int[] trapped = JumpCycles
+                .trappedStates(new DecodedProgram(EMPTY_LOOP));
+        assertEquals(ALL_STATES, trapped[0]);
+        assertEquals(ALL_STATES, trapped[2]);
+        assertEquals(0, trapped[4]);
+        assertTrue(JumpCycles.hasJumpCycle(new DecodedProgram(EMPTY_LOOP)));
+    }
+
+    @Test
+    public void testSensingLoopTrappedOnlyWhenEmpty() {
+        int[] trapped = JumpCycles
+                .trappedStates(new DecodedProgram(SENSING_LOOP));
+        int empty = 1 << BugsWorldVMInterpreter.CellState.EMPTY.ordinal();
+        assertEquals(empty, trapped[0]);
+        assertEquals(empty, trapped[2]);
+        assertEquals(0, trapped[4]);
+        assertEquals(empty, trapped[5]);
+    }
+
+    @Test
+    public void testRandomLoopCyclesButIsNotTrapped() {
+        DecodedProgram dp = new DecodedProgram(RANDOM_LOOP);
+        int[] trapped = JumpCycles.trappedStates(dp);
+        for (int t : trapped) {
+            assertEquals(0, t);
+        }
+        assertTrue(JumpCycles.hasJumpCycle(dp));
+    }
+
+    @Test
+    public void testLoopThroughPrimitiveIsNotACycle() {
+        DecodedProgram dp = new DecodedProgram(WANDERER);
+        assertFalse(JumpCycles.hasJumpCycle(dp));
+        for (int t : JumpCycles.trappedStates(dp)) {
+            assertEquals(0, t);
+        }
+    }
+
+    @Test
+    public void testCheckAcceptsRandomLoop() {
+        JumpCycles.check(RANDOM_LOOP, "random loop");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCheckRejectsTrappedLoop() {
+        JumpCycles.check(SENSING_LOOP, "sensing loop");
+    }
+
+    @Test
+    public void testUnreachableLoopIsNotTrapped() {
+        DecodedProgram dp = new DecodedProgram(GUARDED_LOOP);
+        for (int t : JumpCycles.trappedStates(dp)) {
+            assertEquals(0, t);
+        }
+        assertFalse(JumpCycles.hasJumpCycle(dp));
+        JumpCycles.check(GUARDED_LOOP, "guarded loop");
+    }
+
+}
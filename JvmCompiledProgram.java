@@ -0,0 +1,941 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+
+import components.program.Program.Instruction;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * A compiled BL program translated to a JVM class, so the JIT sees the
+ * program's control flow directly instead of an interpreter loop over
+ * {@code cp}. The generated hidden class implements {@code DecisionFunction}
+ * with one method: a {@code tableswitch} on {@code pc} into a block per BL
+ * instruction, where a primitive returns its location, a {@code JUMP} is a
+ * {@code goto}, a sensing jump tests one bit of a mask of the states in which
+ * its condition holds, and {@code JUMP_IF_NOT_RANDOM} calls the random
+ * source. Blocks are laid out in program order, so falling through to the
+ * next BL instruction is falling through to the next block. Every block that
+ * a jump reaches backwards starts by counting down the step budget, so a
+ * walk around a jump cycle returns {@code BugsWorldVMInterpreter.STALLED}
+ * instead of spinning.
+ * <p>
+ * {@code BugsWorldVMInterpreter.nextPrimitiveInstructionAddress} remains the
+ * reference: the generated code makes the same decisions and draws random
+ * conditions in the same order.
+ */
+public final class JvmCompiledProgram {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest code length of a JVM method.
+     */
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    /**
+     * Largest offset of a short branch.
+     */
+    private static final int MAX_SHORT_BRANCH = Short.MAX_VALUE;
+
+    /**
+     * Class file version (Java 5: verified without stack map frames).
+     */
+    private static final int CLASS_VERSION = 49;
+
+    /*
+     * JVM opcodes used by the generated code.
+     */
+
+    /**
+     * Opcode {@code iconst_m1}.
+     */
+    private static final int ICONST_M1 = 0x02;
+
+    /**
+     * Opcode {@code iconst_0}.
+     */
+    private static final int ICONST_0 = 0x03;
+
+    /**
+     * Opcode {@code iconst_1}.
+     */
+    private static final int ICONST_1 = 0x04;
+
+    /**
+     * Opcode {@code bipush}.
+     */
+    private static final int BIPUSH = 0x10;
+
+    /**
+     * Opcode {@code sipush}.
+     */
+    private static final int SIPUSH = 0x11;
+
+    /**
+     * Opcode {@code ldc_w}.
+     */
+    private static final int LDC_W = 0x13;
+
+    /**
+     * Opcode {@code istore}.
+     */
+    private static final int ISTORE = 0x36;
+
+    /**
+     * Opcode {@code iload}.
+     */
+    private static final int ILOAD = 0x15;
+
+    /**
+     * Opcode {@code iinc}.
+     */
+    private static final int IINC = 0x84;
+
+    /**
+     * Opcode {@code ifgt}.
+     */
+    private static final int IFGT = 0x9d;
+
+    /**
+     * Opcode {@code ifle}.
+     */
+    private static final int IFLE = 0x9e;
+
+    /**
+     * Local variable holding the remaining step budget.
+     */
+    private static final int BUDGET_LOCAL = 4;
+
+    /**
+     * Opcode {@code iload_1}.
+     */
+    private static final int ILOAD_1 = 0x1b;
+
+    /**
+     * Opcode {@code iload_2}.
+     */
+    private static final int ILOAD_2 = 0x1c;
+
+    /**
+     * Opcode {@code aload_0}.
+     */
+    private static final int ALOAD_0 = 0x2a;
+
+    /**
+     * Opcode {@code aload_3}.
+     */
+    private static final int ALOAD_3 = 0x2d;
+
+    /**
+     * Opcode {@code ishl}.
+     */
+    private static final int ISHL = 0x78;
+
+    /**
+     * Opcode {@code iand}.
+     */
+    private static final int IAND = 0x7e;
+
+    /**
+     * Opcode {@code ifeq}.
+     */
+    private static final int IFEQ = 0x99;
+
+    /**
+     * Opcode {@code ifne}.
+     */
+    private static final int IFNE = 0x9a;
+
+    /**
+     * Opcode {@code goto}.
+     */
+    private static final int GOTO = 0xa7;
+
+    /**
+     * Opcode {@code tableswitch}.
+     */
+    private static final int TABLESWITCH = 0xaa;
+
+    /**
+     * Opcode {@code ireturn}.
+     */
+    private static final int IRETURN = 0xac;
+
+    /**
+     * Opcode {@code return}.
+     */
+    private static final int RETURN = 0xb1;
+
+    /**
+     * Opcode {@code invokespecial}.
+     */
+    private static final int INVOKESPECIAL = 0xb7;
+
+    /**
+     * Opcode {@code invokeinterface}.
+     */
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    /**
+     * Opcode {@code goto_w}.
+     */
+    private static final int GOTO_W = 0xc8;
+
+    /*
+     * Constant pool layout of the generated class.
+     */
+
+    /**
+     * Index of the generated class.
+     */
+    private static final int CP_THIS = 2;
+
+    /**
+     * Index of {@code java.lang.Object}.
+     */
+    private static final int CP_OBJECT = 4;
+
+    /**
+     * Index of {@code DecisionFunction}.
+     */
+    private static final int CP_DECISION = 6;
+
+    /**
+     * Index of {@code Object.<init>()V}.
+     */
+    private static final int CP_OBJECT_INIT = 10;
+
+    /**
+     * Index of {@code RandomSource.nextBoolean()Z}.
+     */
+    private static final int CP_NEXT_BOOLEAN = 16;
+
+    /**
+     * Index of the method name {@code <init>}.
+     */
+    private static final int CP_INIT_NAME = 7;
+
+    /**
+     * Index of the descriptor {@code ()V}.
+     */
+    private static final int CP_INIT_TYPE = 8;
+
+    /**
+     * Index of the method name {@code next}.
+     */
+    private static final int CP_NEXT_NAME = 17;
+
+    /**
+     * Index of the descriptor of {@code next}.
+     */
+    private static final int CP_NEXT_TYPE = 18;
+
+    /**
+     * Index of the attribute name {@code Code}.
+     */
+    private static final int CP_CODE = 19;
+
+    /**
+     * Index of the integer constant holding the step budget.
+     */
+    private static final int CP_BUDGET = 20;
+
+    /**
+     * Index of the integer constant {@code STALLED}.
+     */
+    private static final int CP_STALLED = 21;
+
+    /**
+     * Index of the first integer constant for a location.
+     */
+    private static final int CP_FIRST_INTEGER = 22;
+
+    /**
+     * The decoded program.
+     */
+    private final DecodedProgram dp;
+
+    /**
+     * The generated decision function.
+     */
+    private final DecisionFunction decision;
+
+    /**
+     * Reports whether {@code byteCode} is a jump whose condition depends on
+     * what the bug sees.
+     *
+     * @param byteCode
+     *            the byte code
+     * @return true iff {@code byteCode} is a sensing conditional jump
+     */
+    private static boolean isSensingJump(int byteCode) {
+        return !BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(byteCode)
+                && byteCode != Instruction.JUMP.byteCode()
+                && byteCode != Instruction.JUMP_IF_NOT_RANDOM.byteCode()
+                && byteCode != Instruction.JUMP_IF_NOT_TRUE.byteCode();
+    }
+
+    /**
+     * Returns the mask of {@code CellState} ordinals in which the condition of
+     * {@code condJump} holds.
+     *
+     * @param condJump
+     *            the byte code of a sensing conditional jump
+     * @return the mask of states where the condition holds
+     */
+    private static int holdsMask(int condJump) {
+        int mask = 0;
+        for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                .values()) {
+            if (BugsWorldVMInterpreter.conditionalJumpCondition(wbs, condJump,
+                    BugsWorldVMInterpreter.DEFAULT_RANDOM)) {
+                mask |= 1 << wbs.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the number of bytes of code that return location {@code loc}.
+     *
+     * @param loc
+     *            the location
+     * @return the size of the code
+     */
+    private static int returnSize(int loc) {
+        final int iconstMax = 5;
+        int size;
+        if (loc <= iconstMax) {
+            size = 1;
+        } else if (loc <= Byte.MAX_VALUE) {
+            size = 2;
+        } else {
+            size = 3;
+        }
+        return size + 1;
+    }
+
+    /**
+     * Returns the number of bytes of code of the block for instruction
+     * {@code instr}.
+     *
+     * @param instr
+     *            the instruction byte code
+     * @param loc
+     *            the instruction location
+     * @param wide
+     *            whether branches use 32-bit offsets
+     * @param header
+     *            whether the block counts down the step budget
+     * @return the size of the block
+     */
+    private static int blockSize(int instr, int loc, boolean wide,
+            boolean header) {
+        final int countDown = 5;
+        final int sensing = 6;
+        final int random = 6;
+        final int shortBranch = 3;
+        final int wideBranch = 8;
+        final int gotoW = 5;
+        int branch = wide ? wideBranch : shortBranch;
+        int size;
+        if (BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(instr)) {
+            size = returnSize(loc);
+        } else if (instr == Instruction.JUMP.byteCode()) {
+            size = wide ? gotoW : shortBranch;
+        } else if (instr == Instruction.JUMP_IF_NOT_TRUE.byteCode()) {
+            size = 0;
+        } else if (instr == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+            size = random + branch;
+        } else {
+            size = sensing + branch;
+        }
+        if (header) {
+            size += countDown + branch;
+        }
+        return size;
+    }
+
+    /**
+     * Computes the offset of the block of every location of {@code dp}, of
+     * the block for locations that are not instructions at
+     * {@code offset[dp.length()]}, and of the block returning {@code STALLED}
+     * at {@code offset[dp.length() + 1]}.
+     *
+     * @param dp
+     *            the decoded program
+     * @param headers
+     *            whether each location is the target of a backward jump
+     * @param blocksStart
+     *            offset of the first block
+     * @param wide
+     *            whether branches use 32-bit offsets
+     * @param offset
+     *            the block offsets
+     * @return the length of the code
+     * @replaces offset
+     */
+    private static int layout(DecodedProgram dp, boolean[] headers,
+            int blocksStart, boolean wide, int[] offset) {
+        final int badSize = 2;
+        final int stalledSize = 4;
+        int[] cp = dp.code();
+        int at = blocksStart;
+        for (int loc = 0; loc < cp.length; loc++) {
+            offset[loc] = at;
+            if (dp.isInstructionStart(loc)) {
+                at += blockSize(cp[loc], loc, wide, headers[loc]);
+            }
+        }
+        offset[cp.length] = at;
+        offset[cp.length + 1] = at + badSize;
+        return at + badSize + stalledSize;
+    }
+
+    /**
+     * Returns which locations of {@code dp} are jumps reached by a backward
+     * jump. Every cycle of jumps passes through one of them.
+     *
+     * @param dp
+     *            the decoded program
+     * @return whether each location is a loop header
+     */
+    private static boolean[] loopHeaders(DecodedProgram dp) {
+        int[] cp = dp.code();
+        boolean[] headers = new boolean[cp.length];
+        for (int loc = 0; loc < cp.length; loc++) {
+            if (dp.isInstructionStart(loc) && !BugsWorldVMInterpreter
+                    .isPrimitiveInstructionByteCode(cp[loc])) {
+                int target = cp[loc + 1];
+                if (target <= loc && !BugsWorldVMInterpreter
+                        .isPrimitiveInstructionByteCode(cp[target])) {
+                    headers[target] = true;
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Emits the code that returns location {@code loc}.
+     *
+     * @param code
+     *            the code stream
+     * @param loc
+     *            the location
+     * @param integers
+     *            constant pool indices of integer constants, by location
+     * @throws IOException
+     *             never, the stream is in memory
+     */
+    private static void emitReturn(DataOutputStream code, int loc,
+            int[] integers) throws IOException {
+        final int iconstMax = 5;
+        if (loc <= iconstMax) {
+            code.writeByte(ICONST_0 + loc);
+        } else if (loc <= Byte.MAX_VALUE) {
+            code.writeByte(BIPUSH);
+            code.writeByte(loc);
+        } else if (loc <= Short.MAX_VALUE) {
+            code.writeByte(SIPUSH);
+            code.writeShort(loc);
+        } else {
+            code.writeByte(LDC_W);
+            code.writeShort(integers[loc]);
+        }
+        code.writeByte(IRETURN);
+    }
+
+    /**
+     * Emits a branch taken when the int on top of the stack is zero.
+     *
+     * @param code
+     *            the code stream
+     * @param from
+     *            offset of the branch instruction
+     * @param to
+     *            offset of the target
+     * @param wide
+     *            whether to use a 32-bit offset
+     * @throws IOException
+     *             never, the stream is in memory
+     */
+    private static void emitIfZero(DataOutputStream code, int from, int to,
+            boolean wide) throws IOException {
+        final int skipGotoW = 8;
+        final int ifSize = 3;
+        if (wide) {
+            code.writeByte(IFNE);
+            code.writeShort(skipGotoW);
+            code.writeByte(GOTO_W);
+            code.writeInt(to - (from + ifSize));
+        } else {
+            code.writeByte(IFEQ);
+            code.writeShort(to - from);
+        }
+    }
+
+    /**
+     * Generates the code of method {@code next}.
+     *
+     * @param dp
+     *            the decoded program
+     * @param integers
+     *            constant pool indices of integer constants, by location
+     * @return the code, or null if it does not fit in a JVM method
+     * @throws IOException
+     *             never, the stream is in memory
+     */
+    private static byte[] generateCode(DecodedProgram dp, int[] integers)
+            throws IOException {
+        int[] cp = dp.code();
+        int n = cp.length;
+        final int tableHeader = 12;
+        boolean[] headers = loopHeaders(dp);
+        /*
+         * Offsets: the budget is stored, then iload_1, then tableswitch
+         * padded to 4, then the blocks, then the block for locations that are
+         * not instructions and the block returning STALLED
+         */
+        final int prologue = 5;
+        int tableStart = prologue + 1;
+        int pad = (4 - ((tableStart + 1) % 4)) % 4;
+        int blocksStart = tableStart + 1 + pad + tableHeader + 4 * n;
+        int[] offset = new int[n + 2];
+        boolean wide = false;
+        int end = layout(dp, headers, blocksStart, wide, offset);
+        if (end > MAX_SHORT_BRANCH) {
+            wide = true;
+            end = layout(dp, headers, blocksStart, wide, offset);
+        }
+        byte[] result = null;
+        if (end <= MAX_CODE_LENGTH) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(end);
+            DataOutputStream code = new DataOutputStream(bytes);
+            code.writeByte(LDC_W);
+            code.writeShort(CP_BUDGET);
+            code.writeByte(ISTORE);
+            code.writeByte(BUDGET_LOCAL);
+            code.writeByte(ILOAD_1);
+            code.writeByte(TABLESWITCH);
+            for (int i = 0; i < pad; i++) {
+                code.writeByte(0);
+            }
+            int bad = offset[n];
+            code.writeInt(bad - tableStart);
+            code.writeInt(0);
+            code.writeInt(n - 1);
+            for (int loc = 0; loc < n; loc++) {
+                if (dp.isInstructionStart(loc)) {
+                    code.writeInt(offset[loc] - tableStart);
+                } else {
+                    code.writeInt(bad - tableStart);
+                }
+            }
+            for (int loc = 0; loc < n; loc++) {
+                if (dp.isInstructionStart(loc)) {
+                    int instr = cp[loc];
+                    int at = offset[loc];
+                    if (headers[loc]) {
+                        final int countDownSize = 5;
+                        final int skipGotoW = 8;
+                        final int ifSize = 3;
+                        int stalled = offset[n + 1];
+                        code.writeByte(IINC);
+                        code.writeByte(BUDGET_LOCAL);
+                        code.writeByte(-1);
+                        code.writeByte(ILOAD);
+                        code.writeByte(BUDGET_LOCAL);
+                        at += countDownSize;
+                        if (wide) {
+                            code.writeByte(IFGT);
+                            code.writeShort(skipGotoW);
+                            code.writeByte(GOTO_W);
+                            code.writeInt(stalled - (at + ifSize));
+                            at += skipGotoW;
+                        } else {
+                            code.writeByte(IFLE);
+                            code.writeShort(stalled - at);
+                            at += ifSize;
+                        }
+                    }
+                    if (BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(instr)) {
+                        emitReturn(code, loc, integers);
+                    } else if (instr == Instruction.JUMP.byteCode()) {
+                        if (wide) {
+                            code.writeByte(GOTO_W);
+                            code.writeInt(offset[cp[loc + 1]] - at);
+                        } else {
+                            code.writeByte(GOTO);
+                            code.writeShort(offset[cp[loc + 1]] - at);
+                        }
+                    } else if (instr == Instruction.JUMP_IF_NOT_RANDOM
+                            .byteCode()) {
+                        final int invokeSize = 5;
+                        code.writeByte(ALOAD_3);
+                        code.writeByte(INVOKEINTERFACE);
+                        code.writeShort(CP_NEXT_BOOLEAN);
+                        code.writeByte(1);
+                        code.writeByte(0);
+                        emitIfZero(code, at + 1 + invokeSize,
+                                offset[cp[loc + 1]], wide);
+                    } else if (isSensingJump(instr)) {
+                        final int testSize = 5;
+                        code.writeByte(ICONST_1);
+                        code.writeByte(ILOAD_2);
+                        code.writeByte(ISHL);
+                        code.writeByte(BIPUSH);
+                        code.writeByte(holdsMask(instr));
+                        code.writeByte(IAND);
+                        emitIfZero(code, at + testSize + 1,
+                                offset[cp[loc + 1]], wide);
+                    }
+                }
+            }
+            code.writeByte(ICONST_M1);
+            code.writeByte(IRETURN);
+            code.writeByte(LDC_W);
+            code.writeShort(CP_STALLED);
+            code.writeByte(IRETURN);
+            code.flush();
+            result = bytes.toByteArray();
+        }
+        return result;
+    }
+
+    /**
+     * Generates the class file of the decision function of {@code dp}.
+     *
+     * @param dp
+     *            the decoded program
+     * @return the class file, or null if the program is too large
+     * @throws IOException
+     *             never, the stream is in memory
+     */
+    private static byte[] generateClass(DecodedProgram dp) throws IOException {
+        int[] cp = dp.code();
+        int[] integers = new int[cp.length];
+        int poolCount = CP_FIRST_INTEGER;
+        for (int loc = 0; loc < cp.length; loc++) {
+            if (loc > Short.MAX_VALUE && dp.isInstructionStart(loc)
+                    && BugsWorldVMInterpreter
+                            .isPrimitiveInstructionByteCode(cp[loc])) {
+                integers[loc] = poolCount;
+                poolCount++;
+            }
+        }
+        byte[] code = generateCode(dp, integers);
+        byte[] result = null;
+        if (code != null) {
+            final int magic = 0xCAFEBABE;
+            final int utf8 = 1;
+            final int integer = 3;
+            final int classRef = 7;
+            final int methodRef = 10;
+            final int interfaceMethodRef = 11;
+            final int nameAndType = 12;
+            final int accPublicFinal = 0x0011;
+            final int accPublic = 0x0001;
+            final int accSuper = 0x0020;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(magic);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(poolCount);
+            /* 1, 2 */
+            out.writeByte(utf8);
+            out.writeUTF("JvmCompiledProgram$Decision");
+            out.writeByte(classRef);
+            out.writeShort(1);
+            /* 3, 4 */
+            out.writeByte(utf8);
+            out.writeUTF("java/lang/Object");
+            out.writeByte(classRef);
+            out.writeShort(3);
+            /* 5, 6 */
+            out.writeByte(utf8);
+            out.writeUTF("DecisionFunction");
+            out.writeByte(classRef);
+            out.writeShort(5);
+            /* 7, 8, 9, 10: Object.<init>()V */
+            out.writeByte(utf8);
+            out.writeUTF("<init>");
+            out.writeByte(utf8);
+            out.writeUTF("()V");
+            out.writeByte(nameAndType);
+            out.writeShort(CP_INIT_NAME);
+            out.writeShort(CP_INIT_TYPE);
+            out.writeByte(methodRef);
+            out.writeShort(CP_OBJECT);
+            out.writeShort(9);
+            /* 11, 12, 13, 14, 15, 16: RandomSource.nextBoolean()Z */
+            out.writeByte(utf8);
+            out.writeUTF("RandomSource");
+            out.writeByte(classRef);
+            out.writeShort(11);
+            out.writeByte(utf8);
+            out.writeUTF("nextBoolean");
+            out.writeByte(utf8);
+            out.writeUTF("()Z");
+            out.writeByte(nameAndType);
+            out.writeShort(13);
+            out.writeShort(14);
+            out.writeByte(interfaceMethodRef);
+            out.writeShort(12);
+            out.writeShort(15);
+            /* 17, 18, 19 */
+            out.writeByte(utf8);
+            out.writeUTF("next");
+            out.writeByte(utf8);
+            out.writeUTF("(IILRandomSource;)I");
+            out.writeByte(utf8);
+            out.writeUTF("Code");
+            /* 20, 21 */
+            out.writeByte(integer);
+            out.writeInt(BugsWorldVMInterpreter.stepBudget(cp.length));
+            out.writeByte(integer);
+            out.writeInt(BugsWorldVMInterpreter.STALLED);
+            for (int loc = 0; loc < cp.length; loc++) {
+                if (integers[loc] != 0) {
+                    out.writeByte(integer);
+                    out.writeInt(loc);
+                }
+            }
+            out.writeShort(accPublicFinal | accSuper);
+            out.writeShort(CP_THIS);
+            out.writeShort(CP_OBJECT);
+            out.writeShort(1);
+            out.writeShort(CP_DECISION);
+            out.writeShort(0);
+            out.writeShort(2);
+            /* public <init>()V */
+            final int initCodeLength = 5;
+            final int codeAttributeOverhead = 12;
+            out.writeShort(accPublic);
+            out.writeShort(CP_INIT_NAME);
+            out.writeShort(CP_INIT_TYPE);
+            out.writeShort(1);
+            out.writeShort(CP_CODE);
+            out.writeInt(codeAttributeOverhead + initCodeLength);
+            out.writeShort(1);
+            out.writeShort(1);
+            out.writeInt(initCodeLength);
+            out.writeByte(ALOAD_0);
+            out.writeByte(INVOKESPECIAL);
+            out.writeShort(CP_OBJECT_INIT);
+            out.writeByte(RETURN);
+            out.writeShort(0);
+            out.writeShort(0);
+            /* public next(IILRandomSource;)I */
+            final int maxStack = 3;
+            final int maxLocals = 5;
+            out.writeShort(accPublic);
+            out.writeShort(CP_NEXT_NAME);
+            out.writeShort(CP_NEXT_TYPE);
+            out.writeShort(1);
+            out.writeShort(CP_CODE);
+            out.writeInt(codeAttributeOverhead + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.flush();
+            result = bytes.toByteArray();
+        }
+        return result;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; generates and loads the decision function of {@code dp}.
+     *
+     * @param dp
+     *            the decoded program
+     * @requires [JvmCompiledProgram.canCompile(dp)]
+     * @ensures [this.decision makes the same decisions as dp]
+     */
+    public JvmCompiledProgram(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        this.dp = dp;
+        DecisionFunction f = null;
+        try {
+            byte[] classFile = generateClass(dp);
+            assert classFile != null : "Violation of: canCompile(dp)";
+            MethodHandles.Lookup hidden = MethodHandles.lookup()
+                    .defineHiddenClass(classFile, true);
+            f = (DecisionFunction) hidden
+                    .findConstructor(hidden.lookupClass(),
+                            MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(
+                    "Cannot load generated decision class", e);
+        }
+        this.decision = f;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Reports whether the decision function of {@code dp} fits in a JVM
+     * method (programs of up to a few thousand instructions do).
+     *
+     * @param dp
+     *            the decoded program
+     * @return true iff {@code dp} can be compiled
+     * @ensures canCompile = [the generated method of dp fits in 64K]
+     */
+    public static boolean canCompile(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        boolean result = false;
+        try {
+            result = generateCode(dp, new int[dp.length()]) != null;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the decoded program this was compiled from.
+     *
+     * @return the decoded program
+     */
+    public DecodedProgram decoded() {
+        return this.dp;
+    }
+
+    /**
+     * Returns the generated decision function, for hot loops that should
+     * call it directly.
+     *
+     * @return the decision function
+     */
+    public DecisionFunction decision() {
+        return this.decision;
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute given
+     * what the bug sees {@code wbs} and starting from location {@code pc}.
+     *
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in this.decoded.code given what the bug sees wbs
+     *  and starting execution at address pc]
+     * </pre>
+     */
+    public int nextPrimitiveInstructionAddress(
+            BugsWorldVMInterpreter.CellState wbs, int pc, RandomSource random) {
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+        assert this.dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code";
+
+        return this.decision.next(pc, wbs.ordinal(), random);
+    }
+
+    /**
+     * Main method: compares the decision throughput of the interpreter, the
+     * resolved table and the generated class on a compiled program.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter compiled BL program file name: ");
+        String fileName = in.nextLine();
+        DecodedProgram dp = new DecodedProgram(
+                BugsWorldVMInterpreter.loadProgram(fileName));
+        ResolvedProgram rp = new ResolvedProgram(dp);
+        JvmCompiledProgram jp = new JvmCompiledProgram(dp);
+        DecisionFunction f = jp.decision();
+
+        final int decisions = 20_000_000;
+        final double nanosPerSecond = 1e9;
+        final long seed = 2231;
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        final int rounds = 3;
+        for (int round = 0; round < rounds; round++) {
+            long[] elapsed = new long[3];
+            int[] finalPc = new int[3];
+            for (int mode = 0; mode < 3; mode++) {
+                SplittableRandom world = new SplittableRandom(seed);
+                RandomSource random = new SplitMixRandomSource(seed);
+                int pc = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < decisions; i++) {
+                    int w = world.nextInt(states.length);
+                    int next;
+                    if (mode == 0) {
+                        next = BugsWorldVMInterpreter
+                                .nextPrimitiveInstructionAddress(dp,
+                                        states[w], pc, random);
+                    } else if (mode == 1) {
+                        next = rp.nextPrimitiveInstructionAddress(states[w],
+                                pc, random);
+                    } else {
+                        next = f.next(pc, w, random);
+                    }
+                    if (next != BugsWorldVMInterpreter.STALLED) {
+                        pc = next;
+                        if (dp.byteCode(pc) != Instruction.HALT.byteCode()) {
+                            pc++;
+                        }
+                    }
+                }
+                elapsed[mode] = System.nanoTime() - start;
+                finalPc[mode] = pc;
+            }
+            out.println("Round " + (round + 1) + ":");
+            String[] names = { "interpreter", "resolved", "generated" };
+            for (int mode = 0; mode < 3; mode++) {
+                out.println(String.format("  %-12s %8.1f M decisions/s%s",
+                        names[mode],
+                        decisions / (elapsed[mode] / nanosPerSecond) / 1e6,
+                        finalPc[mode] == finalPc[0] ? ""
+                                : "  *** DIFFERS FROM INTERPRETER ***"));
+            }
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
@@ -0,0 +1,176 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code JvmCompiledProgram}, using
+ * {@code BugsWorldVMInterpreter} as the reference.
+ */
+public class JvmCompiledProgramTest {
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN move
+     *   ELSE IF next-is-wall THEN turnleft ELSE infect END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     */
+    private static final int[] NESTED = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 16,
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.JUMP_IF_NOT_NEXT_IS_WALL.byteCode(), 12,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.INFECT.byteCode(), Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO END WHILE  move} in a loop.
+     */
+    private static final int[] SENSING_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Asserts that the compiled {@code cp} decides like the interpreter from
+     * every instruction in every state.
+     *
+     * @param cp
+     *            the compiled program
+     */
+    private static void assertAgreesWithInterpreter(int[] cp) {
+        final long seed = 2231;
+        DecodedProgram dp = new DecodedProgram(cp);
+        JvmCompiledProgram jp = new JvmCompiledProgram(dp);
+        RandomSource expectedRandom = new SplitMixRandomSource(seed);
+        RandomSource actualRandom = new SplitMixRandomSource(seed);
+        for (int pc = 0; pc < cp.length; pc++) {
+            if (dp.isInstructionStart(pc)) {
+                for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                        .values()) {
+                    assertEquals("pc " + pc + " " + wbs,
+                            BugsWorldVMInterpreter
+                                    .nextPrimitiveInstructionAddress(cp, wbs,
+                                            pc, expectedRandom),
+                            jp.nextPrimitiveInstructionAddress(wbs, pc,
+                                    actualRandom));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a compiled program of {@code blocks} random {@code IF} blocks
+     * followed by a jump back to the start.
+     *
+     * @param blocks
+     *            the number of blocks
+     * @param seed
+     *            the seed of the generator
+     * @return the compiled program
+     */
+    private static int[] randomProgram(int blocks, long seed) {
+        final int blockLength = 6;
+        final int firstCondition = Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY
+                .byteCode();
+        final int conditions = Instruction.JUMP_IF_NOT_TRUE.byteCode()
+                - firstCondition + 1;
+        final int primitives = Instruction.HALT.byteCode();
+        java.util.SplittableRandom r = new java.util.SplittableRandom(seed);
+        int[] cp = new int[blocks * blockLength + 3];
+        int loc = 0;
+        for (int i = 0; i < blocks; i++) {
+            /* IF c THEN p1 ELSE p2 END IF */
+            cp[loc] = firstCondition + r.nextInt(conditions);
+            cp[loc + 1] = loc + 5;
+            cp[loc + 2] = r.nextInt(primitives);
+            cp[loc + 3] = Instruction.JUMP.byteCode();
+            cp[loc + 4] = loc + blockLength;
+            cp[loc + 5] = r.nextInt(primitives);
+            loc += blockLength;
+        }
+        cp[loc] = Instruction.JUMP.byteCode();
+        cp[loc + 1] = 0;
+        cp[loc + 2] = Instruction.HALT.byteCode();
+        return cp;
+    }
+
+    @Test
+    public void testNestedAgreesWithInterpreter() {
+        assertAgreesWithInterpreter(NESTED);
+    }
+
+    @Test
+    public void testRandomDrawsInSameOrder() {
+        final long seed = 7;
+        final int draws = 1000;
+        JvmCompiledProgram jp = new JvmCompiledProgram(
+                new DecodedProgram(WANDERER));
+        RandomSource expectedRandom = new SplitMixRandomSource(seed);
+        RandomSource actualRandom = new SplitMixRandomSource(seed);
+        for (int i = 0; i < draws; i++) {
+            assertEquals(
+                    BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                            WANDERER, BugsWorldVMInterpreter.CellState.EMPTY,
+                            0, expectedRandom),
+                    jp.nextPrimitiveInstructionAddress(
+                            BugsWorldVMInterpreter.CellState.EMPTY, 0,
+                            actualRandom));
+        }
+    }
+
+    @Test
+    public void testRandomProgramsAgreeWithInterpreter() {
+        final int programs = 20;
+        final int blocks = 30;
+        for (int i = 0; i < programs; i++) {
+            assertAgreesWithInterpreter(randomProgram(blocks, i));
+        }
+    }
+
+    @Test
+    public void testLongProgramUsesWideBranches() {
+        final int blocks = 1200;
+        int[] cp = randomProgram(blocks, 1);
+        assertTrue(JvmCompiledProgram.canCompile(new DecodedProgram(cp)));
+        assertAgreesWithInterpreter(cp);
+    }
+
+    @Test
+    public void testJumpCycleStalls() {
+        JvmCompiledProgram jp = new JvmCompiledProgram(
+                new DecodedProgram(SENSING_LOOP));
+        assertEquals(BugsWorldVMInterpreter.STALLED,
+                jp.nextPrimitiveInstructionAddress(
+                        BugsWorldVMInterpreter.CellState.EMPTY, 0,
+                        BugsWorldVMInterpreter.DEFAULT_RANDOM));
+        assertAgreesWithInterpreter(SENSING_LOOP);
+    }
+
+    @Test
+    public void testNotInstructionStart() {
+        DecodedProgram dp = new DecodedProgram(NESTED);
+        JvmCompiledProgram jp = new JvmCompiledProgram(dp);
+        assertEquals(-1, jp.decision().next(1, 0,
+                BugsWorldVMInterpreter.DEFAULT_RANDOM));
+    }
+
+}
@@ -0,0 +1,361 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A BugsWorld grid of {@code width} x {@code height} cells packed two bits per
+ * cell, 32 cells to a {@code long}. A cell holds a {@code CellState} ordinal
+ * as seen by team 0: EMPTY, WALL, FRIEND (a team 0 bug) or ENEMY (a team 1
+ * bug); {@code whatBugSees} turns it around for team 1 bugs. A million cells
+ * take 250 KB, and the words can live off the Java heap in a direct buffer.
+ * <p>
+ * {@code set} updates its word with a compare-and-set, so threads may write
+ * different cells of the same word concurrently (as a parallel pass over
+ * the cells would). Reads are plain. {@code BugsWorld} does not use this
+ * class; it keeps its own {@code int} grid of bug numbers.
+ */
+public final class PackedGrid {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Bits per cell.
+     */
+    private static final int BITS_PER_CELL = 2;
+
+    /**
+     * Shift turning a cell index into the index of its word.
+     */
+    private static final int WORD_SHIFT = 5;
+
+    /**
+     * Mask of the index of a cell within its word.
+     */
+    private static final int CELL_IN_WORD = (1 << WORD_SHIFT) - 1;
+
+    /**
+     * Mask of one cell.
+     */
+    private static final long CELL_MASK = (1L << BITS_PER_CELL) - 1;
+
+    /**
+     * The low bit of every cell of a word.
+     */
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    /**
+     * Number of directions.
+     */
+    private static final int DIRECTIONS = 4;
+
+    /**
+     * Column offset of the cell in front, by direction (N, E, S, W).
+     */
+    private static final int[] DX = { 0, 1, 0, -1 };
+
+    /**
+     * Row offset of the cell in front, by direction (N, E, S, W).
+     */
+    private static final int[] DY = { -1, 0, 1, 0 };
+
+    /**
+     * Element access to a {@code long[]}.
+     */
+    private static final VarHandle LONGS = MethodHandles
+            .arrayElementVarHandle(long[].class);
+
+    /**
+     * {@code long} access to a byte buffer.
+     */
+    private static final VarHandle BUFFER_LONGS = MethodHandles
+            .byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Ordinal of {@code CellState.WALL}, what lies beyond the border.
+     */
+    private static final int WALL = BugsWorldVMInterpreter.CellState.WALL
+            .ordinal();
+
+    /**
+     * Cached {@code CellState.values()}.
+     */
+    private static final BugsWorldVMInterpreter.CellState[] STATES = BugsWorldVMInterpreter.CellState
+            .values();
+
+    /**
+     * Width of the grid.
+     */
+    private final int width;
+
+    /**
+     * Height of the grid.
+     */
+    private final int height;
+
+    /**
+     * Number of words.
+     */
+    private final int wordCount;
+
+    /**
+     * The words, or null if they are off-heap.
+     */
+    private final long[] words;
+
+    /**
+     * The words off-heap, or null if they are on the heap.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Returns the word at index {@code i}.
+     *
+     * @param i
+     *            the word index
+     * @return the word
+     */
+    private long word(int i) {
+        long result;
+        if (this.words != null) {
+            result = this.words[i];
+        } else {
+            result = (long) BUFFER_LONGS.get(this.buffer, i << 3);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the word at index {@code i} if it still equals
+     * {@code expected}.
+     *
+     * @param i
+     *            the word index
+     * @param expected
+     *            the expected word
+     * @param value
+     *            the new word
+     * @return true iff the word was replaced
+     */
+    private boolean compareAndSetWord(int i, long expected, long value) {
+        boolean result;
+        if (this.words != null) {
+            result = LONGS.compareAndSet(this.words, i, expected, value);
+        } else {
+            result = BUFFER_LONGS.compareAndSet(this.buffer, i << 3, expected,
+                    value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code of the cell at index {@code c}.
+     *
+     * @param c
+     *            the cell index
+     * @return the {@code CellState} ordinal stored there
+     */
+    private int codeAt(int c) {
+        return (int) ((this.word(c >>> WORD_SHIFT) >>> ((c
+                & CELL_IN_WORD) * BITS_PER_CELL)) & CELL_MASK);
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; every cell starts EMPTY.
+     *
+     * @param width
+     *            the width
+     * @param height
+     *            the height
+     * @param offHeap
+     *            whether to keep the cells in a direct buffer outside the Java
+     *            heap
+     * @requires width > 0 and height > 0 and width * height < 2^31
+     * @ensures [this is a width x height grid of EMPTY cells]
+     */
+    public PackedGrid(int width, int height, boolean offHeap) {
+        assert width > 0 : "Violation of: width > 0";
+        assert height > 0 : "Violation of: height > 0";
+        assert (long) width * height <= Integer.MAX_VALUE : ""
+                + "Violation of: width * height < 2^31";
+
+        this.width = width;
+        this.height = height;
+        long cells = (long) width * height;
+        this.wordCount = (int) ((cells + CELL_IN_WORD) >>> WORD_SHIFT);
+        if (offHeap) {
+            this.words = null;
+            this.buffer = ByteBuffer
+                    .allocateDirect(this.wordCount * Long.BYTES + Long.BYTES)
+                    .alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+        } else {
+            this.words = new long[this.wordCount];
+            this.buffer = null;
+        }
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the width.
+     *
+     * @return the width
+     */
+    public int width() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height.
+     *
+     * @return the height
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * Reports whether the cells are kept off-heap.
+     *
+     * @return true iff the cells are in a direct buffer
+     */
+    public boolean isOffHeap() {
+        return this.buffer != null;
+    }
+
+    /**
+     * Returns the state of cell ({@code x}, {@code y}), or WALL outside the
+     * grid.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @return the state of the cell, as seen by team 0
+     */
+    public BugsWorldVMInterpreter.CellState get(int x, int y) {
+        int code = WALL;
+        if (0 <= x && x < this.width && 0 <= y && y < this.height) {
+            code = this.codeAt(y * this.width + x);
+        }
+        return STATES[code];
+    }
+
+    /**
+     * Sets the state of cell ({@code x}, {@code y}). Safe to call from
+     * several threads at once for different cells.
+     *
+     * @param x
+     *            the column
+     * @param y
+     *            the row
+     * @param state
+     *            the new state, as seen by team 0
+     * @updates this
+     * @requires 0 <= x < this.width and 0 <= y < this.height
+     * @ensures [cell (x, y) of this is state]
+     */
+    public void set(int x, int y, BugsWorldVMInterpreter.CellState state) {
+        assert 0 <= x && x < this.width : "Violation of: 0 <= x < width";
+        assert 0 <= y && y < this.height : "Violation of: 0 <= y < height";
+        assert state != null : "Violation of: state is not null";
+
+        int c = y * this.width + x;
+        int i = c >>> WORD_SHIFT;
+        int shift = (c & CELL_IN_WORD) * BITS_PER_CELL;
+        long bits = (long) state.ordinal() << shift;
+        long clear = ~(CELL_MASK << shift);
+        long old = this.word(i);
+        while (!this.compareAndSetWord(i, old, (old & clear) | bits)) {
+            old = this.word(i);
+        }
+    }
+
+    /**
+     * Returns what a bug of team {@code team} at ({@code x}, {@code y})
+     * facing {@code direction} sees: the cell in front, with FRIEND and ENEMY
+     * swapped for team 1, and WALL past the border.
+     *
+     * @param x
+     *            the column of the bug
+     * @param y
+     *            the row of the bug
+     * @param direction
+     *            the direction of the bug (0 = north, 1 = east, 2 = south, 3
+     *            = west)
+     * @param team
+     *            the team of the bug, 0 or 1
+     * @return what the bug sees
+     * @requires 0 <= direction < 4 and 0 <= team <= 1
+     * @ensures <pre>
+     * whatBugSees = [the state of the cell in front of (x, y) in direction,
+     *  as seen by team]
+     * </pre>
+     */
+    public BugsWorldVMInterpreter.CellState whatBugSees(int x, int y,
+            int direction, int team) {
+        assert 0 <= direction
+                && direction < DIRECTIONS : "Violation of: 0 <= direction < 4";
+        assert team == 0 || team == 1 : "Violation of: 0 <= team <= 1";
+
+        int fx = x + DX[direction];
+        int fy = y + DY[direction];
+        int code = WALL;
+        if (0 <= fx && fx < this.width && 0 <= fy && fy < this.height) {
+            code = this.codeAt(fy * this.width + fx);
+        }
+        /*
+         * FRIEND (2) and ENEMY (3) have the high bit set; flipping the low
+         * bit of those swaps them
+         */
+        return STATES[code ^ ((code >> 1) & team)];
+    }
+
+    /**
+     * Returns the number of cells in state {@code state}, counting 32 cells
+     * per word operation.
+     *
+     * @param state
+     *            the state
+     * @return the number of cells in state {@code state}
+     * @ensures count = [number of cells of this whose state is state]
+     */
+    public long count(BugsWorldVMInterpreter.CellState state) {
+        assert state != null : "Violation of: state is not null";
+
+        long pattern = LOW_BITS * state.ordinal();
+        long cells = (long) this.width * this.height;
+        long result = 0;
+        for (int i = 0; i < this.wordCount; i++) {
+            long x = this.word(i) ^ pattern;
+            /*
+             * A cell matches when both of its bits are 0 after the XOR
+             */
+            long matches = ~(x | (x >>> 1)) & LOW_BITS;
+            long first = (long) i << WORD_SHIFT;
+            if (cells - first < (1L << WORD_SHIFT)) {
+                matches &= (1L << ((cells - first) * BITS_PER_CELL)) - 1;
+            }
+            result += Long.bitCount(matches);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes the cells occupy.
+     *
+     * @return the size of the cells in bytes
+     */
+    public long bytes() {
+        return (long) this.wordCount * Long.BYTES;
+    }
+
+}
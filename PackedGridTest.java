@@ -0,0 +1,94 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code PackedGrid}.
+ */
+public class PackedGridTest {
+
+    /**
+     * Checks set, get and what bugs see on a grid.
+     *
+     * @param offHeap
+     *            whether the grid is off-heap
+     */
+    private static void checkGrid(boolean offHeap) {
+        final int width = 37;
+        final int height = 5;
+        PackedGrid g = new PackedGrid(width, height, offHeap);
+        assertEquals(offHeap, g.isOffHeap());
+        assertEquals((long) width * height,
+                g.count(BugsWorldVMInterpreter.CellState.EMPTY));
+        g.set(0, 0, BugsWorldVMInterpreter.CellState.FRIEND);
+        g.set(1, 0, BugsWorldVMInterpreter.CellState.ENEMY);
+        g.set(width - 1, height - 1, BugsWorldVMInterpreter.CellState.WALL);
+        g.set(1, 0, BugsWorldVMInterpreter.CellState.FRIEND);
+        g.set(2, 0, BugsWorldVMInterpreter.CellState.ENEMY);
+        assertEquals(BugsWorldVMInterpreter.CellState.FRIEND, g.get(0, 0));
+        assertEquals(BugsWorldVMInterpreter.CellState.FRIEND, g.get(1, 0));
+        assertEquals(BugsWorldVMInterpreter.CellState.ENEMY, g.get(2, 0));
+        assertEquals(BugsWorldVMInterpreter.CellState.EMPTY, g.get(3, 0));
+        assertEquals(BugsWorldVMInterpreter.CellState.WALL,
+                g.get(width - 1, height - 1));
+        assertEquals(BugsWorldVMInterpreter.CellState.WALL, g.get(-1, 0));
+        assertEquals(2, g.count(BugsWorldVMInterpreter.CellState.FRIEND));
+        assertEquals(1, g.count(BugsWorldVMInterpreter.CellState.ENEMY));
+        assertEquals(1, g.count(BugsWorldVMInterpreter.CellState.WALL));
+        assertEquals((long) width * height - 4,
+                g.count(BugsWorldVMInterpreter.CellState.EMPTY));
+    }
+
+    @Test
+    public void testOnHeap() {
+        checkGrid(false);
+    }
+
+    @Test
+    public void testOffHeap() {
+        checkGrid(true);
+    }
+
+    @Test
+    public void testWhatBugSees() {
+        final int east = 1;
+        final int north = 0;
+        final int west = 3;
+        PackedGrid g = new PackedGrid(3, 3, false);
+        g.set(1, 1, BugsWorldVMInterpreter.CellState.FRIEND);
+        g.set(2, 1, BugsWorldVMInterpreter.CellState.ENEMY);
+        assertEquals(BugsWorldVMInterpreter.CellState.ENEMY,
+                g.whatBugSees(1, 1, east, 0));
+        assertEquals(BugsWorldVMInterpreter.CellState.FRIEND,
+                g.whatBugSees(1, 1, east, 1));
+        assertEquals(BugsWorldVMInterpreter.CellState.ENEMY,
+                g.whatBugSees(2, 1, west, 1));
+        assertEquals(BugsWorldVMInterpreter.CellState.EMPTY,
+                g.whatBugSees(1, 1, north, 1));
+        assertEquals(BugsWorldVMInterpreter.CellState.WALL,
+                g.whatBugSees(2, 1, east, 1));
+    }
+
+    @Test
+    public void testConcurrentSetsInSameWords() throws Exception {
+        final int side = 256;
+        final int threads = 4;
+        PackedGrid g = new PackedGrid(side, side, true);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        pool.submit(() -> IntStream.range(0, side * side).parallel()
+                .forEach(c -> g.set(c % side, c / side,
+                        BugsWorldVMInterpreter.CellState.values()[1
+                                + c % 3])))
+                .get();
+        pool.shutdown();
+        for (int c = 0; c < side * side; c++) {
+            assertTrue(g.get(c % side, c / side)
+                    .ordinal() == 1 + c % 3);
+        }
+    }
+
+}
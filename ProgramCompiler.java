@@ -0,0 +1,774 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import components.map.Map;
+import components.program.Program;
+import components.program.Program.Instruction;
+import components.program.Program1;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+import components.statement.Statement;
+import components.statement.StatementKernel.Condition;
+import components.statement.StatementKernel.Kind;
+import components.utilities.Reporter;
+
+/**
+ * Compiler from a parsed BL {@code Program} to the compiled program
+ * ({@code int[]}) run by {@code BugsWorldVMInterpreter}, producing the same
+ * code as {@code Program.generatedCode} together with a source map from each
+ * address to the statement that emitted it.
+ * <p>
+ * Neither pass recurses, so programs nested to any depth compile in time
+ * linear in the size of the code without overflowing the thread stack:
+ * <ol>
+ * <li>the statement tree, with the body of every called user instruction in
+ * place of the call, is walked once with an explicit stack of frames into a
+ * table of statements in preorder, recording the size of the code each one
+ * emits; every statement is taken apart to be visited and put back together
+ * afterwards, so the program is unchanged;</li>
+ * <li>one {@code int[]} of exactly the total size is allocated, and one loop
+ * over the table in preorder assigns each statement its address, from its
+ * parent's address and its earlier siblings' sizes, and writes its code
+ * there; every jump target is known from the sizes, so nothing is
+ * patched.</li>
+ * </ol>
+ * The code for each kind of statement is:
+ *
+ * <pre>
+ * IF c THEN b END IF           JUMP_IF_NOT_c L; b; L:
+ * IF c THEN b1 ELSE b2 END IF  JUMP_IF_NOT_c L1; b1; JUMP L2; L1: b2; L2:
+ * WHILE c DO b END WHILE       L1: JUMP_IF_NOT_c L2; b; JUMP L1; L2:
+ * primitive call               its byte code
+ * user instruction call        the code of its body
+ * </pre>
+ *
+ * and the program ends with {@code HALT}.
+ */
+public final class ProgramCompiler {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Kind of a statement table entry for a call of a user instruction; its
+     * only child is the body of the instruction.
+     */
+    private static final int INLINED = Kind.values().length;
+
+    /**
+     * Initial capacity of the statement table.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Largest compiled program, so that its length fits in an {@code int}.
+     */
+    private static final long MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Conditional jump byte code of each {@code Condition}, by ordinal.
+     */
+    private static final int[] JUMP_IF_NOT = new int[Condition.values().length];
+
+    static {
+        for (Condition c : Condition.values()) {
+            JUMP_IF_NOT[c.ordinal()] = Instruction
+                    .valueOf("JUMP_IF_NOT_" + c.name()).byteCode();
+        }
+    }
+
+    /**
+     * A statement being visited by the first pass: taken apart, with the
+     * children not yet visited held here until it is put back together.
+     */
+    private static final class Frame {
+
+        /**
+         * The statement, taken apart.
+         */
+        private final Statement s;
+
+        /**
+         * Its entry in the statement table.
+         */
+        private int entry;
+
+        /**
+         * Number of children visited so far.
+         */
+        private int visited;
+
+        /**
+         * Number of children of a BLOCK.
+         */
+        private int length;
+
+        /**
+         * The child being visited, or the first child of an IF_ELSE.
+         */
+        private Statement first;
+
+        /**
+         * The second child of an IF_ELSE.
+         */
+        private Statement second;
+
+        /**
+         * The condition of an IF, IF_ELSE, or WHILE.
+         */
+        private Condition c;
+
+        /**
+         * The name of the user instruction whose body this is, or null.
+         */
+        private String instruction;
+
+        /**
+         * Total size of the code of the children visited so far.
+         */
+        private long size;
+
+        /**
+         * Constructor.
+         *
+         * @param s
+         *            the statement
+         */
+        Frame(Statement s) {
+            this.s = s;
+        }
+
+    }
+
+    /**
+     * The compiled program.
+     */
+    private int[] code;
+
+    /**
+     * Statement table entry that emitted each address of {@code code}, or -1
+     * for the final {@code HALT}.
+     */
+    private int[] source;
+
+    /**
+     * Number of entries in the statement table.
+     */
+    private int count;
+
+    /**
+     * Kind of each statement: a {@code Kind} ordinal, or {@code INLINED}.
+     */
+    private int[] kind;
+
+    /**
+     * Byte code of each primitive call, or conditional jump byte code of each
+     * IF, IF_ELSE, and WHILE.
+     */
+    private int[] op;
+
+    /**
+     * Entry of the parent of each statement, or -1 for the program body.
+     */
+    private int[] parent;
+
+    /**
+     * Entry just past the subtree of each statement.
+     */
+    private int[] end;
+
+    /**
+     * Size of the code of each statement.
+     */
+    private int[] size;
+
+    /**
+     * Address of the code of each statement.
+     */
+    private int[] address;
+
+    /**
+     * Name called by each CALL, or condition of each IF, IF_ELSE, and WHILE,
+     * in BL syntax; null for a BLOCK.
+     */
+    private String[] text;
+
+    /**
+     * Returns the byte code of the primitive instruction {@code name}.
+     *
+     * @param name
+     *            the instruction name
+     * @return the byte code, or -1 if {@code name} is not a primitive
+     */
+    private static int primitive(String name) {
+        int result;
+        switch (name) {
+            case "move": {
+                result = Instruction.MOVE.byteCode();
+                break;
+            }
+            case "turnleft": {
+                result = Instruction.TURNLEFT.byteCode();
+                break;
+            }
+            case "turnright": {
+                result = Instruction.TURNRIGHT.byteCode();
+                break;
+            }
+            case "infect": {
+                result = Instruction.INFECT.byteCode();
+                break;
+            }
+            case "skip": {
+                result = Instruction.SKIP.byteCode();
+                break;
+            }
+            default: {
+                result = -1;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts {@code c} into the corresponding BL condition.
+     *
+     * @param c
+     *            the condition
+     * @return the BL condition
+     */
+    private static String toStringCondition(Condition c) {
+        return c.name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * Adds an entry to the statement table.
+     *
+     * @param k
+     *            its kind
+     * @param p
+     *            its parent entry
+     * @param t
+     *            its text
+     * @return the new entry
+     */
+    private int newEntry(int k, int p, String t) {
+        if (this.count == this.kind.length) {
+            int capacity = 2 * this.count;
+            this.kind = Arrays.copyOf(this.kind, capacity);
+            this.op = Arrays.copyOf(this.op, capacity);
+            this.parent = Arrays.copyOf(this.parent, capacity);
+            this.end = Arrays.copyOf(this.end, capacity);
+            this.size = Arrays.copyOf(this.size, capacity);
+            this.text = Arrays.copyOf(this.text, capacity);
+        }
+        int e = this.count;
+        this.kind[e] = k;
+        this.parent[e] = p;
+        this.text[e] = t;
+        this.count++;
+        return e;
+    }
+
+    /**
+     * Starts visiting {@code s}: adds its entry to the statement table and,
+     * unless it is a primitive call, takes it apart and pushes its frame.
+     *
+     * @param s
+     *            the statement
+     * @param p
+     *            the entry of its parent
+     * @param stack
+     *            the frames of the statements being visited
+     * @param context
+     *            the user instructions
+     * @param expanding
+     *            the names of the user instructions whose bodies are being
+     *            visited
+     * @return the size of the code of {@code s} if it is a primitive call,
+     *         or -1 if its frame was pushed
+     * @updates s, stack, expanding
+     */
+    private long enter(Statement s, int p, Deque<Frame> stack,
+            Map<String, Statement> context, Set<String> expanding) {
+        long result = -1;
+        Frame f;
+        switch (s.kind()) {
+            case BLOCK: {
+                f = new Frame(s);
+                f.entry = this.newEntry(Kind.BLOCK.ordinal(), p, null);
+                f.length = s.lengthOfBlock();
+                break;
+            }
+            case IF: {
+                f = new Frame(s);
+                f.first = s.newInstance();
+                f.c = s.disassembleIf(f.first);
+                this.entered(f, Kind.IF, p);
+                break;
+            }
+            case IF_ELSE: {
+                f = new Frame(s);
+                f.first = s.newInstance();
+                f.second = s.newInstance();
+                f.c = s.disassembleIfElse(f.first, f.second);
+                this.entered(f, Kind.IF_ELSE, p);
+                break;
+            }
+            case WHILE: {
+                f = new Frame(s);
+                f.first = s.newInstance();
+                f.c = s.disassembleWhile(f.first);
+                this.entered(f, Kind.WHILE, p);
+                break;
+            }
+            default: {
+                String name = s.disassembleCall();
+                s.assembleCall(name);
+                int byteCode = primitive(name);
+                if (byteCode >= 0) {
+                    int e = this.newEntry(Kind.CALL.ordinal(), p, name);
+                    this.op[e] = byteCode;
+                    this.end[e] = this.count;
+                    this.size[e] = 1;
+                    result = 1;
+                    f = null;
+                } else {
+                    Reporter.assertElseFatalError(context.hasKey(name),
+                            "ERROR: Undefined instruction " + name);
+                    Reporter.assertElseFatalError(!expanding.contains(name),
+                            "ERROR: Instruction " + name
+                                    + " calls itself");
+                    expanding.add(name);
+                    f = new Frame(context.value(name));
+                    f.entry = this.newEntry(INLINED, p, name);
+                    f.instruction = name;
+                }
+                break;
+            }
+        }
+        if (f != null) {
+            stack.push(f);
+        }
+        return result;
+    }
+
+    /**
+     * Records the statement table entry of {@code f}, for an IF, IF_ELSE, or
+     * WHILE just taken apart.
+     *
+     * @param f
+     *            the frame
+     * @param k
+     *            the kind of the statement
+     * @param p
+     *            the entry of its parent
+     * @updates f
+     */
+    private void entered(Frame f, Kind k, int p) {
+        f.entry = this.newEntry(k.ordinal(), p, toStringCondition(f.c));
+        this.op[f.entry] = JUMP_IF_NOT[f.c.ordinal()];
+    }
+
+    /**
+     * Takes the next child not yet visited out of the statement of
+     * {@code f}, if any, putting back the child visited before it.
+     *
+     * @param f
+     *            the frame
+     * @return the child, or null if all children have been visited
+     * @updates f
+     */
+    private Statement nextChild(Frame f) {
+        Statement result = null;
+        int k = this.kind[f.entry];
+        if (k == Kind.BLOCK.ordinal()) {
+            /*
+             * Children are taken from the front and put back at the end, so
+             * the block is as it was once all have been visited
+             */
+            if (f.visited > 0) {
+                f.s.addToBlock(f.s.lengthOfBlock(), f.first);
+            }
+            if (f.visited < f.length) {
+                f.first = f.s.removeFromBlock(0);
+                result = f.first;
+            }
+        } else if (k == INLINED) {
+            if (f.visited == 0) {
+                result = f.s;
+            }
+        } else if (f.visited == 0) {
+            result = f.first;
+        } else if (f.visited == 1 && f.second != null) {
+            result = f.second;
+        }
+        f.visited++;
+        return result;
+    }
+
+    /**
+     * Finishes visiting the statement of {@code f}: puts it back together
+     * and records the size of its code.
+     *
+     * @param f
+     *            the frame
+     * @param expanding
+     *            the names of the user instructions whose bodies are being
+     *            visited
+     * @return the size of the code of the statement
+     * @updates f, expanding
+     */
+    private long leave(Frame f, Set<String> expanding) {
+        final int jumpSize = 2;
+        long result = f.size;
+        int k = this.kind[f.entry];
+        if (k == Kind.IF.ordinal()) {
+            f.s.assembleIf(f.c, f.first);
+            result += jumpSize;
+        } else if (k == Kind.IF_ELSE.ordinal()) {
+            f.s.assembleIfElse(f.c, f.first, f.second);
+            result += 2 * jumpSize;
+        } else if (k == Kind.WHILE.ordinal()) {
+            f.s.assembleWhile(f.c, f.first);
+            result += 2 * jumpSize;
+        } else if (k == INLINED) {
+            expanding.remove(f.instruction);
+        }
+        Reporter.assertElseFatalError(result <= MAX_LENGTH,
+                "ERROR: Compiled program is too large");
+        this.end[f.entry] = this.count;
+        this.size[f.entry] = (int) result;
+        return result;
+    }
+
+    /**
+     * First pass: builds the statement table of {@code body}.
+     *
+     * @param body
+     *            the program body
+     * @param context
+     *            the user instructions
+     * @return the size of the code of {@code body}
+     */
+    private long visit(Statement body, Map<String, Statement> context) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Set<String> expanding = new HashSet<>();
+        this.enter(body, -1, stack, context, expanding);
+        long result = 0;
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+            Statement child = this.nextChild(f);
+            if (child != null) {
+                long childSize = this.enter(child, f.entry, stack, context,
+                        expanding);
+                if (childSize >= 0) {
+                    f.size += childSize;
+                }
+            } else {
+                stack.pop();
+                long s = this.leave(f, expanding);
+                if (stack.isEmpty()) {
+                    result = s;
+                } else {
+                    stack.peek().size += s;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Second pass: writes the code of every statement in the statement table
+     * at its address.
+     */
+    private void emit() {
+        final int jump = Instruction.JUMP.byteCode();
+        this.address = new int[this.count];
+        for (int e = 0; e < this.count; e++) {
+            int a = this.address[e];
+            int k = this.kind[e];
+            if (k == Kind.BLOCK.ordinal()) {
+                int child = e + 1;
+                while (child < this.end[e]) {
+                    this.address[child] = a;
+                    a += this.size[child];
+                    child = this.end[child];
+                }
+            } else if (k == INLINED) {
+                this.address[e + 1] = a;
+            } else if (k == Kind.CALL.ordinal()) {
+                this.code[a] = this.op[e];
+                this.source[a] = e;
+            } else {
+                int last = a + this.size[e];
+                this.code[a] = this.op[e];
+                this.code[a + 1] = last;
+                this.address[e + 1] = a + 2;
+                this.source[a] = e;
+                this.source[a + 1] = e;
+                if (k == Kind.IF_ELSE.ordinal()) {
+                    int second = this.end[e + 1];
+                    int j = a + 2 + this.size[e + 1];
+                    this.code[a + 1] = j + 2;
+                    this.code[j] = jump;
+                    this.code[j + 1] = last;
+                    this.address[second] = j + 2;
+                    this.source[j] = e;
+                    this.source[j + 1] = e;
+                } else if (k == Kind.WHILE.ordinal()) {
+                    this.code[last - 2] = jump;
+                    this.code[last - 1] = a;
+                    this.source[last - 2] = e;
+                    this.source[last - 1] = e;
+                }
+            }
+        }
+        this.code[this.code.length - 1] = Instruction.HALT.byteCode();
+        this.source[this.code.length - 1] = -1;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; compiles {@code p}.
+     *
+     * @param p
+     *            the program
+     * @requires <pre>
+     * [every CALL in p is of a primitive instruction or of an instruction in
+     *  p.context]  and  [no instruction in p.context calls itself, directly
+     *  or indirectly]
+     * </pre>
+     * @ensures [this holds the code of p, p.generatedCode, and its source map]
+     */
+    public ProgramCompiler(Program p) {
+        assert p != null : "Violation of: p is not null";
+
+        this.kind = new int[INITIAL_CAPACITY];
+        this.op = new int[INITIAL_CAPACITY];
+        this.parent = new int[INITIAL_CAPACITY];
+        this.end = new int[INITIAL_CAPACITY];
+        this.size = new int[INITIAL_CAPACITY];
+        this.text = new String[INITIAL_CAPACITY];
+        Map<String, Statement> context = p.newContext();
+        Statement body = p.newBody();
+        p.swapContext(context);
+        p.swapBody(body);
+        long length = this.visit(body, context);
+        p.swapBody(body);
+        p.swapContext(context);
+        Reporter.assertElseFatalError(length < MAX_LENGTH,
+                "ERROR: Compiled program is too large");
+        this.code = new int[(int) length + 1];
+        this.source = new int[this.code.length];
+        this.emit();
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the compiled program.
+     *
+     * @return the compiled program
+     * @ensures code = [the code of the program compiled]
+     */
+    public int[] code() {
+        return this.code.clone();
+    }
+
+    /**
+     * Reports the number of statements in the source map: the statements of
+     * the program body, with the statements of the body of a user
+     * instruction repeated at every call of it.
+     *
+     * @return the number of statements
+     */
+    public int statementCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the statement that emitted the integer at {@code pc}: a number
+     * in {@code [0, statementCount)}, numbering the statements in preorder
+     * from the program body, 0.
+     *
+     * @param pc
+     *            the address
+     * @return the statement, or -1 for the final {@code HALT}
+     * @requires 0 <= pc < |code|
+     */
+    public int statementAt(int pc) {
+        assert 0 <= pc && pc < this.source.length : ""
+                + "Violation of: 0 <= pc < |code|";
+
+        return this.source[pc];
+    }
+
+    /**
+     * Returns the statement containing statement {@code s}.
+     *
+     * @param s
+     *            the statement
+     * @return the parent of s, or -1 if s is the program body
+     * @requires 0 <= s < statementCount
+     */
+    public int parent(int s) {
+        assert 0 <= s && s < this.count : ""
+                + "Violation of: 0 <= s < statementCount";
+
+        return this.parent[s];
+    }
+
+    /**
+     * Returns the address of the code of statement {@code s}.
+     *
+     * @param s
+     *            the statement
+     * @return the address of the first integer of the code of s
+     * @requires 0 <= s < statementCount
+     */
+    public int address(int s) {
+        assert 0 <= s && s < this.count : ""
+                + "Violation of: 0 <= s < statementCount";
+
+        return this.address[s];
+    }
+
+    /**
+     * Returns the size of the code of statement {@code s}.
+     *
+     * @param s
+     *            the statement
+     * @return the number of integers of the code of s
+     * @requires 0 <= s < statementCount
+     */
+    public int size(int s) {
+        assert 0 <= s && s < this.count : ""
+                + "Violation of: 0 <= s < statementCount";
+
+        return this.size[s];
+    }
+
+    /**
+     * Returns the first line of statement {@code s} in BL syntax:
+     * {@code "IF c THEN"}, {@code "IF c THEN ... ELSE"}, {@code "WHILE c DO"}
+     * or the name called, or {@code "BLOCK"} for a block.
+     *
+     * @param s
+     *            the statement
+     * @return the label of s
+     * @requires 0 <= s < statementCount
+     */
+    public String label(int s) {
+        assert 0 <= s && s < this.count : ""
+                + "Violation of: 0 <= s < statementCount";
+
+        String result;
+        int k = this.kind[s];
+        if (k == Kind.BLOCK.ordinal()) {
+            result = "BLOCK";
+        } else if (k == Kind.IF.ordinal()) {
+            result = "IF " + this.text[s] + " THEN";
+        } else if (k == Kind.IF_ELSE.ordinal()) {
+            result = "IF " + this.text[s] + " THEN ... ELSE";
+        } else if (k == Kind.WHILE.ordinal()) {
+            result = "WHILE " + this.text[s] + " DO";
+        } else {
+            result = this.text[s];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the labels of statement {@code s} and of the statements
+     * containing it other than blocks, outermost first, separated by
+     * {@code " > "}.
+     *
+     * @param s
+     *            the statement
+     * @return the path to s
+     * @requires 0 <= s < statementCount
+     */
+    public String path(int s) {
+        assert 0 <= s && s < this.count : ""
+                + "Violation of: 0 <= s < statementCount";
+
+        StringBuilder result = new StringBuilder();
+        int e = s;
+        while (e >= 0) {
+            if (this.kind[e] != Kind.BLOCK.ordinal() || e == s) {
+                if (result.length() > 0) {
+                    result.insert(0, " > ");
+                }
+                result.insert(0, this.label(e));
+            }
+            e = this.parent[e];
+        }
+        return result.toString();
+    }
+
+    /**
+     * Main method: compiles a BL program, checks the code against
+     * {@code Program.generatedCode}, writes it to a {@code .blc} file, and
+     * prints each instruction with the statement it comes from.
+     *
+     * @param args
+     *            the command line arguments; unused here
+     */
+    public static void main(String[] args) {
+        SimpleReader in = new SimpleReader1L();
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.print("Enter valid BL program file name: ");
+        String fileName = in.nextLine();
+        Program p = new Program1();
+        SimpleReader file = new SimpleReader1L(fileName);
+        p.parse(file);
+        file.close();
+
+        final double nanosPerMilli = 1e6;
+        long start = System.nanoTime();
+        ProgramCompiler compiler = new ProgramCompiler(p);
+        long elapsed = System.nanoTime() - start;
+        int[] cp = compiler.code();
+        out.println(String.format("Compiled %d integers, %d statements"
+                + " in %.3f ms", cp.length, compiler.statementCount(),
+                elapsed / nanosPerMilli));
+        if (!Arrays.equals(cp, p.generatedCode())) {
+            out.println("*** DIFFERS FROM Program.generatedCode ***");
+        }
+
+        out.print("Enter compiled BL program file name: ");
+        String binaryFileName = in.nextLine();
+        CompiledProgramFile.write(cp, binaryFileName);
+
+        DecodedProgram dp = new DecodedProgram(cp);
+        for (int pc = 0; pc < cp.length; pc++) {
+            if (dp.isInstructionStart(pc)) {
+                String line = String.format("%04d: %s", pc,
+                        Instruction.values()[cp[pc]]);
+                int s = compiler.statementAt(pc);
+                if (s >= 0) {
+                    line = String.format("%-40s %s", line, compiler.path(s));
+                }
+                out.println(line);
+            }
+        }
+
+        in.close();
+        out.close();
+    }
+
+}
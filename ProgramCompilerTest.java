@@ -0,0 +1,165 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.program.Program;
+import components.program.Program.Instruction;
+import components.program.Program1;
+import components.statement.Statement;
+import components.statement.Statement1;
+import components.statement.StatementKernel.Condition;
+
+/**
+ * JUnit test fixture for {@code ProgramCompiler}.
+ */
+public class ProgramCompilerTest {
+
+    /**
+     * Returns a BLOCK of calls of {@code names}.
+     *
+     * @param names
+     *            the names called
+     * @return the block
+     */
+    private static Statement calls(String... names) {
+        Statement block = new Statement1();
+        for (String name : names) {
+            Statement call = new Statement1();
+            call.assembleCall(name);
+            block.addToBlock(block.lengthOfBlock(), call);
+        }
+        return block;
+    }
+
+    /**
+     * Returns a BLOCK holding the single statement {@code s}.
+     *
+     * @param s
+     *            the statement
+     * @return the block
+     */
+    private static Statement blockOf(Statement s) {
+        Statement block = new Statement1();
+        block.addToBlock(0, s);
+        return block;
+    }
+
+    /**
+     * Returns a program with instructions {@code names} having bodies
+     * {@code bodies} and body {@code body}.
+     *
+     * @param body
+     *            the program body
+     * @param names
+     *            the instruction names
+     * @param bodies
+     *            the instruction bodies
+     * @return the program
+     */
+    private static Program program(Statement body, String[] names,
+            Statement[] bodies) {
+        Program p = new Program1();
+        Map<String, Statement> context = p.newContext();
+        for (int i = 0; i < names.length; i++) {
+            context.add(names[i], bodies[i]);
+        }
+        p.swapContext(context);
+        p.swapBody(body);
+        return p;
+    }
+
+    /**
+     * Returns a program using every kind of statement:
+     *
+     * <pre>
+     * INSTRUCTION two IS turnleft turnleft END two
+     * BEGIN
+     *   WHILE true DO
+     *     IF next-is-empty THEN move ELSE two END IF
+     *     IF random THEN infect END IF
+     *   END WHILE
+     * END
+     * </pre>
+     *
+     * @return the program
+     */
+    private static Program sample() {
+        Statement ifElse = new Statement1();
+        ifElse.assembleIfElse(Condition.NEXT_IS_EMPTY, calls("move"),
+                calls("two"));
+        Statement ifRandom = new Statement1();
+        ifRandom.assembleIf(Condition.RANDOM, calls("infect"));
+        Statement loopBody = blockOf(ifElse);
+        loopBody.addToBlock(1, ifRandom);
+        Statement loop = new Statement1();
+        loop.assembleWhile(Condition.TRUE, loopBody);
+        return program(blockOf(loop), new String[] { "two" },
+                new Statement[] { calls("turnleft", "turnleft") });
+    }
+
+    @Test
+    public void testSameAsGeneratedCode() {
+        Program p = sample();
+        Program copy = sample();
+        ProgramCompiler compiler = new ProgramCompiler(p);
+        assertArrayEquals(copy.generatedCode(), compiler.code());
+        assertArrayEquals(copy.generatedCode(), p.generatedCode());
+        Statement body = p.newBody();
+        Statement copyBody = copy.newBody();
+        p.swapBody(body);
+        copy.swapBody(copyBody);
+        assertEquals(copyBody, body);
+    }
+
+    @Test
+    public void testSourceMap() {
+        ProgramCompiler compiler = new ProgramCompiler(sample());
+        int[] cp = compiler.code();
+        final int[] expected = {
+                Instruction.JUMP_IF_NOT_TRUE.byteCode(), 14,
+                Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+                Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 9,
+                Instruction.TURNLEFT.byteCode(),
+                Instruction.TURNLEFT.byteCode(),
+                Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 12,
+                Instruction.INFECT.byteCode(), Instruction.JUMP.byteCode(),
+                0, Instruction.HALT.byteCode() };
+        assertArrayEquals(expected, cp);
+        assertEquals("WHILE true DO > IF next-is-empty THEN ... ELSE > move",
+                compiler.path(compiler.statementAt(4)));
+        assertEquals("WHILE true DO > IF next-is-empty THEN ... ELSE > two"
+                + " > turnleft", compiler.path(compiler.statementAt(8)));
+        assertEquals("WHILE true DO", compiler.label(compiler.statementAt(13)));
+        assertEquals(-1, compiler.statementAt(cp.length - 1));
+        int loop = compiler.statementAt(0);
+        assertEquals(0, compiler.address(loop));
+        assertEquals(cp.length - 1, compiler.size(loop));
+    }
+
+    @Test
+    public void testDeepNesting() {
+        final int depth = 200000;
+        Statement s = calls("move");
+        for (int i = 0; i < depth; i++) {
+            Statement w = new Statement1();
+            w.assembleWhile(Condition.NEXT_IS_WALL, s);
+            s = blockOf(w);
+        }
+        ProgramCompiler compiler = new ProgramCompiler(
+                program(s, new String[0], new Statement[0]));
+        int[] cp = compiler.code();
+        assertEquals(4 * depth + 2, cp.length);
+        assertEquals(Instruction.MOVE.byteCode(), cp[2 * depth]);
+        assertEquals(0, cp[cp.length - 2]);
+        assertEquals(cp.length - 1, cp[1]);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRecursiveInstruction() {
+        new ProgramCompiler(program(calls("a"), new String[] { "a", "b" },
+                new Statement[] { calls("move", "b"), calls("a") }));
+    }
+
+}
@@ -0,0 +1,16 @@
+/**
+ * Source of the random condition values used by {@code JUMP_IF_NOT_RANDOM}.
+ * Implementations are not required to be thread-safe; give each bug (or each
+ * thread) its own source.
+ */
+public interface RandomSource {
+
+    /**
+     * Returns the next random condition value.
+     *
+     * @return true or false, each with probability 1/2
+     * @updates this
+     */
+    boolean nextBoolean();
+
+}
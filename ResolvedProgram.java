@@ -0,0 +1,300 @@
+import java.util.Arrays;
+
+import components.program.Program.Instruction;
+
+/**
+ * A compiled BL program in "resolved" execution mode. When the program is
+ * loaded, the next primitive instruction address is precomputed for every
+ * instruction location {@code pc} and every {@code CellState} {@code wbs}, so
+ * that answering a bug's decision is a single array read. The only jumps whose
+ * outcome is not determined by {@code (pc, wbs)} are {@code JUMP_IF_NOT_RANDOM}
+ * jumps; a table entry whose jump chain reaches one records the location of
+ * that jump instead, and the lookup continues from there after flipping the
+ * coin (a short residual walk that only visits random branches).
+ * <p>
+ * An entry whose jump chain cycles without reaching a primitive or a random
+ * jump is {@code BugsWorldVMInterpreter.STALLED}, and so is an answer whose
+ * residual walk runs out of its step budget.
+ */
+public final class ResolvedProgram {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of {@code CellState} values, i.e., table entries per location.
+     */
+    private static final int STATES = BugsWorldVMInterpreter.CellState
+            .values().length;
+
+    /**
+     * Shift turning a location into the index of its first table entry.
+     */
+    static final int STATE_SHIFT = 2;
+
+    /**
+     * Table entry for a location that is not the start of an instruction.
+     */
+    private static final int UNRESOLVED = Integer.MIN_VALUE + 1;
+
+    /**
+     * Table entry for a location whose jump chain is being followed while the
+     * table is built.
+     */
+    private static final int IN_PROGRESS = Integer.MIN_VALUE + 2;
+
+    /**
+     * The decoded program.
+     */
+    private final DecodedProgram dp;
+
+    /**
+     * Transition table: entry {@code (pc << STATE_SHIFT) | wbs.ordinal()} is
+     * the location of the next primitive instruction if it is non-negative,
+     * {@code -(loc + 1)} if the jump chain from {@code pc} reaches the
+     * {@code JUMP_IF_NOT_RANDOM} at {@code loc} first, or {@code STALLED} if
+     * the chain cycles.
+     */
+    private final int[] next;
+
+    /**
+     * Returns the table index for location {@code pc} and cell state ordinal
+     * {@code wbs}.
+     *
+     * @param pc
+     *            the location
+     * @param wbs
+     *            the ordinal of what the bug sees
+     * @return the table index
+     */
+    private static int index(int pc, int wbs) {
+        return (pc << STATE_SHIFT) | wbs;
+    }
+
+    /**
+     * Returns the transition table itself, not a copy, for batch lookups:
+     * entry {@code (pc << STATE_SHIFT) | wbs} is what {@code entry(pc, wbs)}
+     * returns. Callers must not modify it.
+     *
+     * @return the transition table
+     */
+    int[] table() {
+        return this.next;
+    }
+
+    /**
+     * Fills in the table entry for instruction location {@code pc} and cell
+     * state {@code wbs}, and the entries of every location on the jump chain
+     * from {@code pc}.
+     *
+     * @param pc
+     *            the instruction location
+     * @param wbs
+     *            what the bug sees
+     * @param chain
+     *            scratch space for the locations on the jump chain
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.dp.code]  and
+     * |chain| >= this.dp.instructionCount
+     * </pre>
+     * @ensures <pre>
+     * [the table entries for the jump chain from pc are resolved, to STALLED
+     *  if the chain cycles]
+     * </pre>
+     */
+    private void resolve(int pc, BugsWorldVMInterpreter.CellState wbs,
+            int[] chain) {
+        int[] cp = this.dp.code();
+        int w = wbs.ordinal();
+        int depth = 0;
+        int loc = pc;
+        int result = this.next[index(loc, w)];
+        while (result == UNRESOLVED) {
+            int instr = cp[loc];
+            if (BugsWorldVMInterpreter.isPrimitiveInstructionByteCode(instr)) {
+                result = loc;
+            } else if (instr == Instruction.JUMP_IF_NOT_RANDOM.byteCode()) {
+                result = -(loc + 1);
+            } else {
+                this.next[index(loc, w)] = IN_PROGRESS;
+                chain[depth] = loc;
+                depth++;
+                /*
+                 * Random jumps stop the walk above, so the random source is
+                 * never consulted here
+                 */
+                if (instr == Instruction.JUMP.byteCode()
+                        || !BugsWorldVMInterpreter.conditionalJumpCondition(
+                                wbs, instr,
+                                BugsWorldVMInterpreter.DEFAULT_RANDOM)) {
+                    loc = cp[loc + 1];
+                } else {
+                    loc += 2;
+                }
+                result = this.next[index(loc, w)];
+            }
+        }
+        if (result == IN_PROGRESS) {
+            result = BugsWorldVMInterpreter.STALLED;
+        }
+        this.next[index(loc, w)] = result;
+        for (int i = 0; i < depth; i++) {
+            this.next[index(chain[i], w)] = result;
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from a decoded program; builds the transition table.
+     *
+     * @param dp
+     *            the decoded program
+     * @ensures <pre>
+     * this.decoded = dp  and
+     * [the transition table of this agrees with
+     *  BugsWorldVMInterpreter.nextPrimitiveInstructionAddress for every
+     *  instruction location and every CellState]
+     * </pre>
+     */
+    public ResolvedProgram(DecodedProgram dp) {
+        assert dp != null : "Violation of: dp is not null";
+
+        this.dp = dp;
+        this.next = new int[dp.length() * STATES];
+        Arrays.fill(this.next, UNRESOLVED);
+        int[] chain = new int[dp.instructionCount()];
+        BugsWorldVMInterpreter.CellState[] states = BugsWorldVMInterpreter.CellState
+                .values();
+        for (int pc = 0; pc < dp.length(); pc++) {
+            if (dp.isInstructionStart(pc)) {
+                for (BugsWorldVMInterpreter.CellState wbs : states) {
+                    this.resolve(pc, wbs, chain);
+                }
+            }
+        }
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the decoded program this was built from.
+     *
+     * @return the decoded program
+     * @ensures decoded = this.decoded
+     */
+    public DecodedProgram decoded() {
+        return this.dp;
+    }
+
+    /**
+     * Returns the raw transition table entry for location {@code pc} and what
+     * the bug sees {@code wbs}: the location of the next primitive instruction
+     * if non-negative, {@code STALLED} if the jump chain cycles, otherwise
+     * {@code -(loc + 1)} where {@code loc} is the location of the
+     * {@code JUMP_IF_NOT_RANDOM} that must be decided first.
+     *
+     * @param pc
+     *            the program counter
+     * @param wbs
+     *            the ordinal of the {@code CellState} indicating what the bug
+     *            sees
+     * @return the transition table entry
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.decoded.code]
+     *  and 0 <= wbs < |CellState.values()|
+     * </pre>
+     * @ensures [entry = the transition table entry for (pc, wbs)]
+     */
+    public int entry(int pc, int wbs) {
+        assert this.dp.isInstructionStart(pc) : ""
+                + "Violation of: pc is the location of an instruction byte code";
+        assert 0 <= wbs && wbs < STATES : "Violation of: wbs is a CellState";
+
+        return this.next[index(pc, wbs)];
+    }
+
+    /**
+     * Continues the residual walk from the {@code JUMP_IF_NOT_RANDOM} at
+     * location {@code loc}, given the value {@code condition} of its random
+     * condition, and returns the next table entry.
+     *
+     * @param loc
+     *            the location of the random jump
+     * @param wbs
+     *            the ordinal of what the bug sees
+     * @param condition
+     *            the value of the random condition
+     * @return the transition table entry after the random jump
+     * @requires <pre>
+     * this.decoded.code[loc] = [byte code of JUMP_IF_NOT_RANDOM]  and
+     *  0 <= wbs < |CellState.values()|
+     * </pre>
+     * @ensures <pre>
+     * afterRandomJump = [the transition table entry at the location the
+     *  random jump at loc transfers control to when its condition is
+     *  condition]
+     * </pre>
+     */
+    public int afterRandomJump(int loc, int wbs, boolean condition) {
+        int[] cp = this.dp.code();
+        assert cp[loc] == Instruction.JUMP_IF_NOT_RANDOM.byteCode() : ""
+                + "Violation of: loc is the location of JUMP_IF_NOT_RANDOM";
+
+        int target;
+        if (condition) {
+            target = loc + 2;
+        } else {
+            target = cp[loc + 1];
+        }
+        return this.next[index(target, wbs)];
+    }
+
+    /**
+     * Returns the location of the next primitive instruction to execute given
+     * what the bug sees {@code wbs} and starting from location {@code pc}.
+     *
+     * @param wbs
+     *            the {@code CellState} indicating what the bug sees
+     * @param pc
+     *            the program counter
+     * @param random
+     *            the source of random condition values
+     * @return the location of the next primitive instruction to execute, or
+     *         {@code STALLED} if it is not reached within the step budget
+     * @updates random
+     * @requires <pre>
+     * [pc is the location of an instruction byte code in this.decoded.code]
+     * </pre>
+     * @ensures <pre>
+     * [return the address of the next primitive instruction that
+     *  should be executed in this.decoded.code given what the bug sees wbs
+     *  and starting execution at address pc]
+     * </pre>
+     */
+    public int nextPrimitiveInstructionAddress(
+            BugsWorldVMInterpreter.CellState wbs, int pc, RandomSource random) {
+        assert wbs != null : "Violation of: wbs is not null";
+        assert random != null : "Violation of: random is not null";
+
+        int w = wbs.ordinal();
+        int result = this.entry(pc, w);
+        int steps = BugsWorldVMInterpreter.stepBudget(this.dp.length());
+        while (result < 0 && result != BugsWorldVMInterpreter.STALLED) {
+            if (steps == 0) {
+                result = BugsWorldVMInterpreter.STALLED;
+            } else {
+                int loc = -(result + 1);
+                result = this.afterRandomJump(loc, w, random.nextBoolean());
+                steps--;
+            }
+        }
+        return result;
+    }
+
+}
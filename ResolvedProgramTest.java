@@ -0,0 +1,113 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code ResolvedProgram}.
+ */
+public class ResolvedProgramTest {
+
+    /**
+     * Compiled program for
+     * <pre>
+     * WHILE true DO
+     *   IF next-is-empty THEN move
+     *   ELSE IF next-is-wall THEN turnleft ELSE infect END IF
+     *   END IF
+     * END WHILE
+     * </pre>
+     */
+    private static final int[] NESTED = {
+            Instruction.JUMP_IF_NOT_TRUE.byteCode(), 16,
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 7,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.JUMP_IF_NOT_NEXT_IS_WALL.byteCode(), 12,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 14,
+            Instruction.INFECT.byteCode(), Instruction.SKIP.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code IF random THEN move ELSE turnright END IF}.
+     */
+    private static final int[] RANDOM = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNRIGHT.byteCode(), Instruction.HALT.byteCode() };
+
+    /**
+     * Compiled program for
+     * {@code WHILE next-is-empty DO END WHILE  move} in a loop.
+     */
+    private static final int[] SENSING_LOOP = {
+            Instruction.JUMP_IF_NOT_NEXT_IS_EMPTY.byteCode(), 4,
+            Instruction.JUMP.byteCode(), 0, Instruction.MOVE.byteCode(),
+            Instruction.JUMP.byteCode(), 0, Instruction.HALT.byteCode() };
+
+    @Test
+    public void testAgreesWithInterpreter() {
+        DecodedProgram dp = new DecodedProgram(NESTED);
+        ResolvedProgram rp = new ResolvedProgram(dp);
+        for (int pc = 0; pc < NESTED.length; pc++) {
+            if (dp.isInstructionStart(pc)) {
+                for (BugsWorldVMInterpreter.CellState wbs : BugsWorldVMInterpreter.CellState
+                        .values()) {
+                    assertEquals("pc " + pc + " " + wbs,
+                            BugsWorldVMInterpreter
+                                    .nextPrimitiveInstructionAddress(NESTED,
+                                            wbs, pc),
+                            rp.nextPrimitiveInstructionAddress(wbs, pc,
+                                    BugsWorldVMInterpreter.DEFAULT_RANDOM));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecisionsAreSingleReads() {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(NESTED));
+        assertEquals(4, rp.entry(0,
+                BugsWorldVMInterpreter.CellState.EMPTY.ordinal()));
+        assertEquals(9,
+                rp.entry(0, BugsWorldVMInterpreter.CellState.WALL.ordinal()));
+        assertEquals(12, rp.entry(0,
+                BugsWorldVMInterpreter.CellState.ENEMY.ordinal()));
+    }
+
+    @Test
+    public void testRandomEntry() {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(RANDOM));
+        int w = BugsWorldVMInterpreter.CellState.EMPTY.ordinal();
+        assertEquals(-1, rp.entry(0, w));
+        assertEquals(2, rp.afterRandomJump(0, w, true));
+        assertEquals(5, rp.afterRandomJump(0, w, false));
+    }
+
+    @Test
+    public void testRandomResidualWalk() {
+        ResolvedProgram rp = new ResolvedProgram(new DecodedProgram(RANDOM));
+        final int trials = 50;
+        for (int i = 0; i < trials; i++) {
+            int next = rp.nextPrimitiveInstructionAddress(
+                    BugsWorldVMInterpreter.CellState.FRIEND, 0,
+                    BugsWorldVMInterpreter.DEFAULT_RANDOM);
+            assertTrue(next == 2 || next == 5);
+        }
+    }
+
+    @Test
+    public void testJumpCycleEntryStalls() {
+        ResolvedProgram rp = new ResolvedProgram(
+                new DecodedProgram(SENSING_LOOP));
+        assertEquals(BugsWorldVMInterpreter.STALLED, rp.entry(0,
+                BugsWorldVMInterpreter.CellState.EMPTY.ordinal()));
+        assertEquals(BugsWorldVMInterpreter.STALLED, rp.entry(2,
+                BugsWorldVMInterpreter.CellState.EMPTY.ordinal()));
+        assertEquals(4,
+                rp.entry(0, BugsWorldVMInterpreter.CellState.WALL.ordinal()));
+    }
+
+}
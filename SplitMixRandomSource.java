@@ -0,0 +1,256 @@
+/**
+ * {@code RandomSource} on the SplitMix64 generator, the algorithm behind
+ * {@code java.util.SplittableRandom}. A stream is a {@code long} state and
+ * a fixed increment, so a stream per bug can be kept either as an object or
+ * as entries of two {@code long[]}s stepped with the static helpers, and
+ * both give the same sequence for the same seed.
+ * <p>
+ * As in {@code SplittableRandom}, every stream has its own odd increment
+ * (gamma). {@link #split} derives the seed and gamma of a new stream from
+ * the next two states of this one, as {@code SplittableRandom.split} does,
+ * and {@link #forStream} gives stream number {@code k} of a seed the seed
+ * and gamma of the {@code k}-th split of a source built from that seed, so
+ * the streams of one seed are independent of each other.
+ */
+public final class SplitMixRandomSource implements RandomSource {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Increment of the generator (the odd integer closest to 2^64 divided by
+     * the golden ratio).
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Current state.
+     */
+    private long state;
+
+    /**
+     * Increment of this stream; odd.
+     */
+    private final long gamma;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from an explicit seed.
+     *
+     * @param seed
+     *            the seed
+     * @ensures this.state = seed  and  this.gamma = GOLDEN_GAMMA
+     */
+    public SplitMixRandomSource(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Constructor from an explicit seed and increment.
+     *
+     * @param seed
+     *            the seed
+     * @param gamma
+     *            the increment
+     * @requires gamma is odd
+     * @ensures this.state = seed  and  this.gamma = gamma
+     */
+    private SplitMixRandomSource(long seed, long gamma) {
+        assert (gamma & 1) != 0 : "Violation of: gamma is odd";
+
+        this.state = seed;
+        this.gamma = gamma;
+    }
+
+    /*
+     * Package-private helpers for callers keeping streams in arrays ----------
+     */
+
+    /**
+     * SplitMix64 finalizer.
+     *
+     * @param z
+     *            the value to mix
+     * @return the mixed value
+     */
+    static long mix64(long z) {
+        final long m1 = 0xBF58476D1CE4E5B9L;
+        final long m2 = 0x94D049BB133111EBL;
+        final int s1 = 30;
+        final int s2 = 27;
+        final int s3 = 31;
+        long r = (z ^ (z >>> s1)) * m1;
+        r = (r ^ (r >>> s2)) * m2;
+        return r ^ (r >>> s3);
+    }
+
+    /**
+     * Turns {@code z} into an increment: an odd number whose bits change
+     * often enough between neighbours, as {@code SplittableRandom} does.
+     *
+     * @param z
+     *            the value to mix
+     * @return the increment
+     * @ensures mixGamma is odd
+     */
+    static long mixGamma(long z) {
+        final long m1 = 0xFF51AFD7ED558CCDL;
+        final long m2 = 0xC4CEB9FE1A85EC53L;
+        final int s = 33;
+        final int minTransitions = 24;
+        final long flip = 0xAAAAAAAAAAAAAAAAL;
+        long r = (z ^ (z >>> s)) * m1;
+        r = (r ^ (r >>> s)) * m2;
+        r = (r ^ (r >>> s)) | 1L;
+        if (Long.bitCount(r ^ (r >>> 1)) < minTransitions) {
+            r ^= flip;
+        }
+        return r;
+    }
+
+    /**
+     * Returns the seed of stream number {@code stream} derived from
+     * {@code seed}: the seed of the {@code stream}-th split of a source
+     * seeded with {@code seed}.
+     *
+     * @param seed
+     *            the seed
+     * @param stream
+     *            the stream number, e.g., a bug number
+     * @return the seed of the stream
+     * @requires stream >= 0
+     */
+    static long streamSeed(long seed, int stream) {
+        return mix64(seed + (2L * stream + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns the increment of stream number {@code stream} derived from
+     * {@code seed}: the increment of the {@code stream}-th split of a source
+     * seeded with {@code seed}.
+     *
+     * @param seed
+     *            the seed
+     * @param stream
+     *            the stream number, e.g., a bug number
+     * @return the increment of the stream
+     * @requires stream >= 0
+     * @ensures streamGamma is odd
+     */
+    static long streamGamma(long seed, int stream) {
+        return mixGamma(seed + (2L * stream + 2) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns the state following {@code state} in a stream with increment
+     * {@code gamma}.
+     *
+     * @param state
+     *            the state
+     * @param gamma
+     *            the increment of the stream
+     * @return the next state
+     */
+    static long advance(long state, long gamma) {
+        return state + gamma;
+    }
+
+    /**
+     * Returns the state {@code n} steps after {@code state} in a stream with
+     * increment {@code gamma}.
+     *
+     * @param state
+     *            the state
+     * @param gamma
+     *            the increment of the stream
+     * @param n
+     *            the number of steps
+     * @return the state after n steps
+     * @requires n >= 0
+     */
+    static long advance(long state, long gamma, int n) {
+        return state + n * gamma;
+    }
+
+    /**
+     * Returns the condition value produced on entering {@code state}.
+     *
+     * @param state
+     *            the state just advanced to
+     * @return the condition value
+     */
+    static boolean condition(long state) {
+        return mix64(state) < 0;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Returns a source for stream number {@code stream} of {@code seed}.
+     *
+     * @param seed
+     *            the seed
+     * @param stream
+     *            the stream number, e.g., a bug number
+     * @return the source of the stream
+     * @requires stream >= 0
+     * @ensures <pre>
+     * forStream.state = [seed of stream number stream of seed]  and
+     *  forStream.gamma = [increment of stream number stream of seed]
+     * </pre>
+     */
+    public static SplitMixRandomSource forStream(long seed, int stream) {
+        assert stream >= 0 : "Violation of: stream >= 0";
+
+        return new SplitMixRandomSource(streamSeed(seed, stream),
+                streamGamma(seed, stream));
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        this.state = advance(this.state, this.gamma);
+        return condition(this.state);
+    }
+
+    /**
+     * Splits off a new, independent source, advancing this one by two
+     * states: the first seeds the new source, the second gives it its own
+     * increment.
+     *
+     * @return the new source
+     * @updates this
+     */
+    public SplitMixRandomSource split() {
+        this.state = advance(this.state, this.gamma);
+        long seed = mix64(this.state);
+        this.state = advance(this.state, this.gamma);
+        return new SplitMixRandomSource(seed, mixGamma(this.state));
+    }
+
+    /**
+     * Reports the current state, e.g., to save it.
+     *
+     * @return the current state
+     * @ensures state = this.state
+     */
+    public long state() {
+        return this.state;
+    }
+
+    /**
+     * Reports the increment of this stream.
+     *
+     * @return the increment
+     * @ensures gamma = this.gamma
+     */
+    public long gamma() {
+        return this.gamma;
+    }
+
+}
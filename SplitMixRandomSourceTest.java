@@ -0,0 +1,140 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.program.Program.Instruction;
+
+/**
+ * JUnit test fixture for {@code SplitMixRandomSource}.
+ */
+public class SplitMixRandomSourceTest {
+
+    /**
+     * Compiled program for
+     * {@code WHILE true DO IF random THEN move ELSE turnleft END IF END WHILE}.
+     */
+    private static final int[] WANDERER = {
+            Instruction.JUMP_IF_NOT_RANDOM.byteCode(), 5,
+            Instruction.MOVE.byteCode(), Instruction.JUMP.byteCode(), 6,
+            Instruction.TURNLEFT.byteCode(), Instruction.JUMP.byteCode(), 0,
+            Instruction.HALT.byteCode() };
+
+    /**
+     * Number of draws compared.
+     */
+    private static final int DRAWS = 1000;
+
+    @Test
+    public void testSameSeedSameSequence() {
+        final long seed = 2231;
+        RandomSource r1 = new SplitMixRandomSource(seed);
+        RandomSource r2 = new SplitMixRandomSource(seed);
+        for (int i = 0; i < DRAWS; i++) {
+            assertEquals(r1.nextBoolean(), r2.nextBoolean());
+        }
+    }
+
+    @Test
+    public void testStreamsDiffer() {
+        final long seed = 2231;
+        SplitMixRandomSource r1 = SplitMixRandomSource.forStream(seed, 0);
+        SplitMixRandomSource r2 = SplitMixRandomSource.forStream(seed, 1);
+        boolean same = true;
+        for (int i = 0; i < DRAWS; i++) {
+            same &= r1.nextBoolean() == r2.nextBoolean();
+        }
+        assertFalse(same);
+    }
+
+    @Test
+    public void testStreamIsSplit() {
+        final long seed = 2231;
+        final int streams = 5;
+        SplitMixRandomSource parent = new SplitMixRandomSource(seed);
+        for (int k = 0; k < streams; k++) {
+            SplitMixRandomSource split = parent.split();
+            SplitMixRandomSource stream = SplitMixRandomSource.forStream(seed,
+                    k);
+            assertEquals(split.state(), stream.state());
+            assertEquals(split.gamma(), stream.gamma());
+            assertTrue((stream.gamma() & 1) != 0);
+        }
+    }
+
+    @Test
+    public void testStreamsHaveOwnGamma() {
+        final long seed = 2231;
+        SplitMixRandomSource r1 = SplitMixRandomSource.forStream(seed, 0);
+        SplitMixRandomSource r2 = SplitMixRandomSource.forStream(seed, 1);
+        assertTrue(r1.gamma() != r2.gamma());
+    }
+
+    @Test
+    public void testRoughlyFair() {
+        SplitMixRandomSource r = new SplitMixRandomSource(1);
+        final int draws = 100000;
+        final int tolerance = 1000;
+        int trues = 0;
+        for (int i = 0; i < draws; i++) {
+            if (r.nextBoolean()) {
+                trues++;
+            }
+        }
+        assertEquals(draws / 2, trues, tolerance);
+    }
+
+    @Test
+    public void testInterpreterReplays() {
+        final long seed = 99;
+        RandomSource r1 = new SplitMixRandomSource(seed);
+        RandomSource r2 = new SplitMixRandomSource(seed);
+        for (int i = 0; i < DRAWS; i++) {
+            assertEquals(
+                    BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                            WANDERER, BugsWorldVMInterpreter.CellState.EMPTY,
+                            0, r1),
+                    BugsWorldVMInterpreter.nextPrimitiveInstructionAddress(
+                            WANDERER, BugsWorldVMInterpreter.CellState.EMPTY,
+                            0, r2));
+        }
+    }
+
+    @Test
+    public void testWorldUsesBugStream() {
+        final int side = 101;
+        final int start = 50;
+        final int rounds = 20;
+        final long seed = 5;
+        final int directions = 4;
+        ResolvedProgram rp = new ResolvedProgram(
+                new DecodedProgram(WANDERER));
+        BugsWorld w = new BugsWorld(side, side, new ResolvedProgram[] { rp },
+                1, seed);
+        int b = w.addBug(start, start, 0, 0);
+        RandomSource stream = SplitMixRandomSource.forStream(seed, b);
+        int x = start;
+        int y = start;
+        int d = 0;
+        int pc = 0;
+        for (int r = 0; r < rounds; r++) {
+            int next = rp.nextPrimitiveInstructionAddress(
+                    BugsWorldVMInterpreter.CellState.EMPTY, pc, stream);
+            if (WANDERER[next] == Instruction.MOVE.byteCode()) {
+                final int[] dx = { 0, 1, 0, -1 };
+                final int[] dy = { -1, 0, 1, 0 };
+                x += dx[d];
+                y += dy[d];
+            } else {
+                d = (d + directions - 1) % directions;
+            }
+            pc = next + 1;
+            w.step();
+            assertEquals(x, w.x(b));
+            assertEquals(y, w.y(b));
+            assertEquals(d, w.direction(b));
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector kernel of {@code BatchDecisions}: looks up the transition table
+ * entries of many bugs at once with the {@code jdk.incubator.vector} API. The
+ * table indices {@code (pc << STATE_SHIFT) | wbs} of a vector of bugs are
+ * computed lane-wise and the entries fetched with one gather.
+ * <p>
+ * This is the only class that refers to the incubator module, so it is kept
+ * in a source root of its own, compiled only with
+ * {@code --add-modules jdk.incubator.vector}, e.g.,
+ * {@code javac --add-modules jdk.incubator.vector vector/VectorDecisions.java}
+ * with the other classes on the class path. {@code BatchDecisions} finds it
+ * by name at run time, and only when the module is present, so nothing else
+ * needs the module to compile or run.
+ */
+final class VectorDecisions {
+
+    /**
+     * Species of the {@code int} vectors.
+     */
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Species of the {@code byte} vectors; same size as {@code INTS}, so one
+     * holds {@code PARTS} {@code int} vectors' worth of lanes.
+     */
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * Number of {@code int} vectors per {@code byte} vector.
+     */
+    private static final int PARTS = BYTES.length() / INTS.length();
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private VectorDecisions() {
+        // no code needed here
+    }
+
+    /**
+     * Sets {@code result[i]} to {@code table[(pcs[i] << STATE_SHIFT) |
+     * wbs[i]]} for every {@code i}.
+     *
+     * @param table
+     *            the transition table
+     * @param wbs
+     *            the ordinal of what each bug sees
+     * @param pcs
+     *            the program counter of each bug
+     * @param result
+     *            receives the table entry of each bug
+     * @replaces result
+     * @requires <pre>
+     * |wbs| = |pcs| = |result|  and
+     *  [every (pcs[i] << STATE_SHIFT) | wbs[i] is an index of table]
+     * </pre>
+     */
+    static void lookUp(int[] table, byte[] wbs, int[] pcs, int[] result) {
+        int n = pcs.length;
+        int[] index = new int[INTS.length()];
+        int i = 0;
+        int bound = BYTES.loopBound(n);
+        while (i < bound) {
+            ByteVector w = ByteVector.fromArray(BYTES, wbs, i);
+            for (int part = 0; part < PARTS; part++) {
+                IntVector wi = (IntVector) w.convertShape(VectorOperators.B2I,
+                        INTS, part);
+                IntVector.fromArray(INTS, pcs, i)
+                        .lanewise(VectorOperators.LSHL,
+                                ResolvedProgram.STATE_SHIFT)
+                        .or(wi).intoArray(index, 0);
+                IntVector.fromArray(INTS, table, 0, index, 0).intoArray(result,
+                        i);
+                i += INTS.length();
+            }
+        }
+        while (i < n) {
+            result[i] = table[(pcs[i] << ResolvedProgram.STATE_SHIFT) | wbs[i]];
+            i++;
+        }
+    }
+
+}